@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import com.wireguard.crypto.Key;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures refreshing statistics from the shared {@link StatisticsBlock} against parsing the
+ * userspace API text that {@link GoBackend} would otherwise fetch over JNI. The text is already in
+ * hand here, so the cost of producing it in wireguard-go and converting it to a Java string comes
+ * on top of {@link #uapi()}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class StatisticsBlockBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int peers;
+
+    private StatisticsBlock block;
+    private final StatisticsTable table = new StatisticsTable();
+    private String uapi;
+
+    @Setup
+    public void setUp() {
+        uapi = StatisticsParseBenchmark.sampleUapi(peers);
+        table.refresh(uapi);
+        block = StatisticsBlock.allocate(peers, Long.MAX_VALUE);
+        final StatisticsBlockWriter writer = new StatisticsBlockWriter(block);
+        final byte[] key = new byte[Key.Format.BINARY.getLength()];
+        writer.begin();
+        for (int i = 0; i < table.size(); ++i) {
+            table.copyKey(i, key, 0);
+            writer.add(key, table.rxBytes(i), table.txBytes(i), table.latestHandshakeEpochMillis(i));
+        }
+        writer.end(System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public StatisticsTable block() {
+        table.refresh(block);
+        return table;
+    }
+
+    @Benchmark
+    public StatisticsTable uapi() {
+        table.refresh(uapi);
+        return table;
+    }
+}
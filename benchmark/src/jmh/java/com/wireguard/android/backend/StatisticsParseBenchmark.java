@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import com.wireguard.crypto.Key;
+import com.wireguard.crypto.KeyPair;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures extracting peer statistics from userspace API output, as
+ * {@link GoBackend#refreshStatistics} does each time the UI refreshes a running tunnel.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class StatisticsParseBenchmark {
+    @Param({"1", "100", "1000"})
+    public int peers;
+
+    private long checksum;
+    private final byte[] publicKey = new byte[Key.Format.BINARY.getLength()];
+    private final StatisticsParser.Sink sink = (key, rx, tx, handshake) -> checksum += key[0] + rx + tx + handshake;
+    private String uapi;
+
+    static String sampleUapi(final int peers) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("private_key=").append(new KeyPair().getPrivateKey().toHex()).append('\n');
+        sb.append("listen_port=51820\n");
+        for (int i = 0; i < peers; ++i) {
+            sb.append("public_key=").append(new KeyPair().getPublicKey().toHex()).append('\n');
+            sb.append("preshared_key=").append(new KeyPair().getPrivateKey().toHex()).append('\n');
+            sb.append("protocol_version=1\n");
+            sb.append("endpoint=192.0.2.").append(i % 256).append(":51820\n");
+            sb.append("last_handshake_time_sec=").append(1_700_000_000L + i).append('\n');
+            sb.append("last_handshake_time_nsec=").append(i * 1_000_003L % 1_000_000_000L).append('\n');
+            sb.append("tx_bytes=").append(i * 7_919L).append('\n');
+            sb.append("rx_bytes=").append(i * 104_729L).append('\n');
+            sb.append("persistent_keepalive_interval=25\n");
+            sb.append("allowed_ip=10.0.").append(i / 256 % 256).append('.').append(i % 256).append("/32\n");
+        }
+        sb.append("errno=0\n");
+        return sb.toString();
+    }
+
+    @Setup
+    public void setUp() {
+        uapi = sampleUapi(peers);
+    }
+
+    @Benchmark
+    public long parse() {
+        checksum = 0;
+        StatisticsParser.parse(uapi, publicKey, sink);
+        return checksum;
+    }
+}
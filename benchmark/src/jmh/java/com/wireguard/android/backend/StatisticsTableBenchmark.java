@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import com.wireguard.crypto.Key;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the columnar {@link StatisticsTable} of a hub with many peers against a map holding a
+ * key and a record per peer, the layout of {@link Statistics} before it was snapshotted.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class StatisticsTableBenchmark {
+    private static final int LOOKUPS = 1000;
+    private static final int TOP = 10;
+
+    @Param({"10000", "100000"})
+    public int peers;
+
+    private final Key[] lookups = new Key[LOOKUPS];
+    private Map<Key, PeerRecord> map;
+    private final int[] subset = new int[LOOKUPS];
+    private final StatisticsTable table = new StatisticsTable();
+    private final int[] top = new int[TOP];
+    private String uapi;
+
+    @Setup
+    public void setUp() {
+        uapi = StatisticsParseBenchmark.sampleUapi(peers);
+        table.refresh(uapi);
+        map = new HashMap<>();
+        for (int i = 0; i < table.size(); ++i)
+            map.put(table.key(i), new PeerRecord(table.rxBytes(i), table.txBytes(i),
+                    table.latestHandshakeEpochMillis(i)));
+        final Random random = new Random(42);
+        for (int i = 0; i < LOOKUPS; ++i) {
+            final int index = random.nextInt(peers);
+            lookups[i] = table.key(index);
+            subset[i] = index;
+        }
+    }
+
+    @Benchmark
+    public long mapLookup() {
+        long sum = 0;
+        for (final Key key : lookups)
+            sum += map.get(key).rxBytes();
+        return sum;
+    }
+
+    @Benchmark
+    public Object mapTop() {
+        return map.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<Key, PeerRecord> e) ->
+                        e.getValue().rxBytes() + e.getValue().txBytes()).reversed())
+                .limit(TOP).toArray();
+    }
+
+    @Benchmark
+    public long mapTotal() {
+        long sum = 0;
+        for (final PeerRecord peer : map.values())
+            sum += peer.rxBytes();
+        return sum;
+    }
+
+    @Benchmark
+    public long tableLookup() {
+        long sum = 0;
+        for (final Key key : lookups)
+            sum += table.rxBytes(table.indexOf(key));
+        return sum;
+    }
+
+    @Benchmark
+    public StatisticsTable tableRefresh() {
+        table.refresh(uapi);
+        return table;
+    }
+
+    @Benchmark
+    public long tableSubsetSum() {
+        return table.sumRx(subset);
+    }
+
+    @Benchmark
+    public int[] tableTop() {
+        table.topByTraffic(top);
+        return top;
+    }
+
+    private record PeerRecord(long rxBytes, long txBytes, long latestHandshakeEpochMillis) { }
+}
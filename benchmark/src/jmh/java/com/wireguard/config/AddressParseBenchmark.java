@@ -0,0 +1,114 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the hand-written address, hostname, and endpoint parsers with the regular expressions
+ * and {@link URI} parsing they replaced, as those behaved on a JVM.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class AddressParseBenchmark {
+    private static final String[] ADDRESSES = {"192.0.2.1", "10.64.0.1", "2001:db8::53", "fd00:0:0:0:0:0:0:1"};
+    private static final String[] ENDPOINTS = {
+            "192.0.2.1:51820", "[2001:db8::1]:51820", "demo.wireguard.com:12912", "vpn.example.net:443",
+    };
+    private static final String[] HOSTNAMES = {"example.com", "corp.internal.example.org", "localhost", "a-b.c."};
+
+    @Benchmark
+    public void parseAddress(final Blackhole blackhole) throws ParseException {
+        for (final String address : ADDRESSES)
+            blackhole.consume(InetAddresses.parse(address));
+    }
+
+    @Benchmark
+    public void parseAddressLegacy(final Blackhole blackhole) throws ParseException {
+        for (final String address : ADDRESSES)
+            blackhole.consume(Legacy.parseAddress(address));
+    }
+
+    @Benchmark
+    public void parseEndpoint(final Blackhole blackhole) throws ParseException {
+        for (final String endpoint : ENDPOINTS)
+            blackhole.consume(InetEndpoint.parse(endpoint));
+    }
+
+    @Benchmark
+    public void parseEndpointLegacy(final Blackhole blackhole) throws ParseException {
+        for (final String endpoint : ENDPOINTS)
+            blackhole.consume(Legacy.parseEndpoint(endpoint));
+    }
+
+    @Benchmark
+    public void isHostname(final Blackhole blackhole) {
+        for (final String hostname : HOSTNAMES)
+            blackhole.consume(InetAddresses.isHostname(hostname));
+    }
+
+    @Benchmark
+    public void isHostnameLegacy(final Blackhole blackhole) {
+        for (final String hostname : HOSTNAMES)
+            blackhole.consume(Legacy.VALID_HOSTNAME.matcher(hostname).matches());
+    }
+
+    /**
+     * The previous implementations, minus the reflective lookup of {@code parseNumericAddress},
+     * which never succeeds on a JVM.
+     */
+    private static final class Legacy {
+        private static final Pattern FORBIDDEN_CHARACTERS = Pattern.compile("[/?#]");
+        private static final Pattern VALID_HOSTNAME = Pattern.compile("^(?=.{1,255}$)[0-9A-Za-z](?:(?:[0-9A-Za-z]|-){0,61}[0-9A-Za-z])?(?:\\.[0-9A-Za-z](?:(?:[0-9A-Za-z]|-){0,61}[0-9A-Za-z])?)*\\.?$");
+        private static final Pattern WONT_TOUCH_RESOLVER = Pattern.compile("^(((([0-9A-Fa-f]{1,4}:){7}([0-9A-Fa-f]{1,4}|:))|(([0-9A-Fa-f]{1,4}:){6}(:[0-9A-Fa-f]{1,4}|((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3})|:))|(([0-9A-Fa-f]{1,4}:){5}(((:[0-9A-Fa-f]{1,4}){1,2})|:((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3})|:))|(([0-9A-Fa-f]{1,4}:){4}(((:[0-9A-Fa-f]{1,4}){1,3})|((:[0-9A-Fa-f]{1,4})?:((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3}))|:))|(([0-9A-Fa-f]{1,4}:){3}(((:[0-9A-Fa-f]{1,4}){1,4})|((:[0-9A-Fa-f]{1,4}){0,2}:((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3}))|:))|(([0-9A-Fa-f]{1,4}:){2}(((:[0-9A-Fa-f]{1,4}){1,5})|((:[0-9A-Fa-f]{1,4}){0,3}:((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3}))|:))|(([0-9A-Fa-f]{1,4}:){1}(((:[0-9A-Fa-f]{1,4}){1,6})|((:[0-9A-Fa-f]{1,4}){0,4}:((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3}))|:))|(:(((:[0-9A-Fa-f]{1,4}){1,7})|((:[0-9A-Fa-f]{1,4}){0,5}:((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3}))|:)))(%.+)?)|((?:(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?))$");
+
+        static InetAddress parseAddress(final String address) throws ParseException {
+            try {
+                if (WONT_TOUCH_RESOLVER.matcher(address).matches())
+                    return InetAddress.getByName(address);
+                throw new ParseException(InetAddress.class, address, "Not an IP address");
+            } catch (final UnknownHostException e) {
+                throw new ParseException(InetAddress.class, address, e);
+            }
+        }
+
+        static InetEndpoint parseEndpoint(final String endpoint) throws ParseException {
+            if (FORBIDDEN_CHARACTERS.matcher(endpoint).find())
+                throw new ParseException(InetEndpoint.class, endpoint, "Forbidden characters");
+            final URI uri;
+            try {
+                uri = new URI("wg://" + endpoint);
+            } catch (final URISyntaxException e) {
+                throw new ParseException(InetEndpoint.class, endpoint, e);
+            }
+            if (uri.getPort() < 0 || uri.getPort() > 65535)
+                throw new ParseException(InetEndpoint.class, endpoint, "Missing/invalid port number");
+            final String host = uri.getHost();
+            // Brackets were stripped by the platform parser on Android.
+            final String address = host.startsWith("[") ? host.substring(1, host.length() - 1) : host;
+            try {
+                parseAddress(address);
+                return new InetEndpoint(host, true, uri.getPort());
+            } catch (final ParseException ignored) {
+                return new InetEndpoint(host, false, uri.getPort());
+            }
+        }
+    }
+}
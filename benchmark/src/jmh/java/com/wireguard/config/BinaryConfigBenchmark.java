@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares loading a profile from its binary encoding with parsing its wg-quick text.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class BinaryConfigBenchmark {
+    @Param({"1", "100", "1000"})
+    public int peers;
+
+    private byte[] binary;
+    private Config config;
+    private String text;
+
+    @Setup
+    public void setUp() throws IOException, BadConfigException {
+        text = SampleConfigs.text(peers);
+        config = Config.parse(new StringReader(text));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        config.writeBinary(out);
+        binary = out.toByteArray();
+    }
+
+    @Benchmark
+    public Config readBinary() throws IOException, BadConfigException {
+        return Config.readBinary(ByteBuffer.wrap(binary));
+    }
+
+    @Benchmark
+    public Config parseText() throws IOException, BadConfigException {
+        return Config.parse(new StringReader(text));
+    }
+
+    @Benchmark
+    public int writeBinary() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(binary.length);
+        config.writeBinary(out);
+        return out.size();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the single-pass {@link Config#parse} against the previous approach of collecting the
+ * lines of each section and parsing them with {@link Interface#parse} and {@link Peer#parse}, and
+ * against {@link Config#parseLazily}, reading only what a list of profiles shows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class ConfigParseBenchmark {
+    @Param({"1", "100", "1000"})
+    public int peers;
+
+    private String text;
+
+    @Setup
+    public void setUp() {
+        text = SampleConfigs.text(peers);
+    }
+
+    @Benchmark
+    public Config lineBased() throws IOException, BadConfigException {
+        final Config.Builder builder = new Config.Builder();
+        final Collection<String> interfaceLines = new ArrayList<>();
+        final Collection<String> peerLines = new ArrayList<>();
+        boolean inInterfaceSection = false;
+        boolean inPeerSection = false;
+        final BufferedReader reader = new BufferedReader(new StringReader(text));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            final int commentIndex = line.indexOf('#');
+            if (commentIndex != -1)
+                line = line.substring(0, commentIndex);
+            line = line.trim();
+            if (line.isEmpty())
+                continue;
+            if (line.startsWith("[")) {
+                if (inPeerSection) {
+                    builder.parsePeer(peerLines);
+                    peerLines.clear();
+                }
+                inInterfaceSection = "[Interface]".equalsIgnoreCase(line);
+                inPeerSection = "[Peer]".equalsIgnoreCase(line);
+            } else if (inInterfaceSection) {
+                interfaceLines.add(line);
+            } else if (inPeerSection) {
+                peerLines.add(line);
+            }
+        }
+        if (inPeerSection)
+            builder.parsePeer(peerLines);
+        builder.parseInterface(interfaceLines);
+        return builder.build();
+    }
+
+    @Benchmark
+    public Config singlePass() throws IOException, BadConfigException {
+        return Config.parse(new StringReader(text));
+    }
+
+    @Benchmark
+    public Set<InetNetwork> lazyForListing() throws IOException, BadConfigException {
+        return Config.parseLazily(new StringReader(text)).getInterface().getAddresses();
+    }
+}
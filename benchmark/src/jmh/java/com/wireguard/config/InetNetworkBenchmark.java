@@ -0,0 +1,116 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing and containment tests on the primitive representation of {@link InetNetwork}
+ * with the equivalent operations on {@link InetAddress} instances.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class InetNetworkBenchmark {
+    private static final String[] TEXTS = {
+            "0.0.0.0/0", "10.0.0.2/24", "192.168.100.14/32", "::/0", "fd00::2/64",
+            "2001:db8:1234:5678::1/128",
+    };
+
+    private InetNetwork[] networks;
+    private InetNetwork[] hosts;
+
+    /**
+     * Tests containment by comparing the leading bits of the address bytes, as callers had to
+     * before networks could do so themselves.
+     */
+    private static boolean containsBytes(final InetNetwork network, final InetNetwork host) {
+        final byte[] prefix = network.getAddress().getAddress();
+        final byte[] address = host.getAddress().getAddress();
+        if (prefix.length != address.length || network.getMask() > host.getMask())
+            return false;
+        final int bits = network.getMask();
+        for (int i = 0; i < bits / 8; ++i) {
+            if (prefix[i] != address[i])
+                return false;
+        }
+        final int rest = bits % 8;
+        if (rest == 0)
+            return true;
+        final int mask = 0xff << (8 - rest);
+        return (prefix[bits / 8] & mask) == (address[bits / 8] & mask);
+    }
+
+    /**
+     * Parses a network the way it was done before the primitive fast path existed.
+     */
+    private static InetNetwork parseViaInetAddress(final String text) throws ParseException {
+        final int slash = text.lastIndexOf('/');
+        final InetAddress address = InetAddresses.parse(text.substring(0, slash));
+        return new InetNetwork(address, Integer.parseInt(text.substring(slash + 1)));
+    }
+
+    @Setup
+    public void setUp() throws ParseException {
+        networks = new InetNetwork[TEXTS.length];
+        hosts = new InetNetwork[TEXTS.length];
+        for (int i = 0; i < TEXTS.length; ++i) {
+            networks[i] = InetNetwork.parse(TEXTS[i]);
+            final InetNetwork network = InetNetwork.parse(TEXTS[(i + 1) % TEXTS.length]);
+            hosts[i] = InetNetwork.parse(network.getAddress().getHostAddress()
+                    + (network.isIpv6() ? "/128" : "/32"));
+            // Materialize the addresses so the byte-based comparison measures only the comparison.
+            networks[i].getAddress();
+            hosts[i].getAddress();
+        }
+    }
+
+    @Benchmark
+    public void parse(final Blackhole blackhole) throws ParseException {
+        for (final String text : TEXTS)
+            blackhole.consume(InetNetwork.parse(text));
+    }
+
+    @Benchmark
+    public void parseViaInetAddress(final Blackhole blackhole) throws ParseException {
+        for (final String text : TEXTS)
+            blackhole.consume(parseViaInetAddress(text));
+    }
+
+    @Benchmark
+    public int contains() {
+        int count = 0;
+        for (final InetNetwork network : networks) {
+            for (final InetNetwork host : hosts) {
+                if (network.contains(host))
+                    ++count;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int containsViaBytes() {
+        int count = 0;
+        for (final InetNetwork network : networks) {
+            for (final InetNetwork host : hosts) {
+                if (containsBytes(network, host))
+                    ++count;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import com.wireguard.crypto.KeyPair;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the heap retained by many profiles that use the same servers, with and without a
+ * shared {@link ConfigInterner}. The retained size is reported as the {@code retainedBytes}
+ * secondary result.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class InterningBenchmark {
+    private static final int SERVERS = 20;
+
+    @Param({"100", "1000"})
+    public int profiles;
+
+    private List<String> texts;
+
+    @Setup
+    public void setUp() {
+        final StringBuilder servers = new StringBuilder();
+        for (int i = 0; i < SERVERS; ++i) {
+            servers.append("\n[Peer]\n");
+            servers.append("PublicKey = ").append(new KeyPair().getPublicKey().toBase64()).append('\n');
+            servers.append("AllowedIPs = 0.0.0.0/0, ::/0\n");
+            servers.append("Endpoint = 198.51.100.").append(i).append(":51820\n");
+        }
+        texts = new ArrayList<>(profiles);
+        for (int i = 0; i < profiles; ++i) {
+            texts.add("[Interface]\n"
+                    + "PrivateKey = " + new KeyPair().getPrivateKey().toBase64() + '\n'
+                    + "Address = 10.0." + (i / 256) + '.' + (i % 256) + "/32\n"
+                    + servers);
+        }
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private List<Config> load(final Footprint footprint, final ConfigInterner interner)
+            throws IOException, BadConfigException {
+        final long before = usedHeap();
+        final List<Config> configs = new ArrayList<>(profiles);
+        for (final String text : texts) {
+            configs.add(interner != null
+                    ? Config.parse(new StringReader(text), interner)
+                    : Config.parse(new StringReader(text)));
+        }
+        footprint.retainedBytes = usedHeap() - before;
+        return configs;
+    }
+
+    @Benchmark
+    public List<Config> withoutInterner(final Footprint footprint) throws IOException, BadConfigException {
+        return load(footprint, null);
+    }
+
+    @Benchmark
+    public List<Config> withInterner(final Footprint footprint) throws IOException, BadConfigException {
+        return load(footprint, new ConfigInterner());
+    }
+
+    /**
+     * The heap retained by the profiles loaded in one invocation.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long retainedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            retainedBytes = 0;
+        }
+    }
+}
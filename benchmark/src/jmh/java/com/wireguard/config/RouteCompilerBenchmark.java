@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures compiling the allowed IPs of many peers, each with an IPv4 and an IPv6 host route, into
+ * the routes handed to the VPN builder, with and without a handful of excluded networks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class RouteCompilerBenchmark {
+    @Param({"100", "10000"})
+    public int peers;
+
+    private List<InetNetwork> allowedIps;
+    private List<InetNetwork> excluded;
+
+    @Setup
+    public void setUp() throws ParseException {
+        allowedIps = new ArrayList<>(peers * 2);
+        for (int i = 0; i < peers; ++i) {
+            allowedIps.add(InetNetwork.ofIpv4(0x0a000000 | i, 32));
+            allowedIps.add(InetNetwork.ofIpv6(0xfd00000000000000L, i, 128));
+        }
+        excluded = new ArrayList<>();
+        excluded.add(InetNetwork.parse("10.0.0.1/32"));
+        excluded.add(InetNetwork.parse("10.0.0.64/28"));
+        excluded.add(InetNetwork.parse("fd00::80/124"));
+    }
+
+    @Benchmark
+    public List<InetNetwork> compile() {
+        return RouteCompiler.compile(allowedIps);
+    }
+
+    @Benchmark
+    public List<InetNetwork> compileWithExclusions() {
+        return RouteCompiler.compile(allowedIps, excluded);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import com.wireguard.crypto.KeyPair;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares finding the peer that owns an address with a {@link RoutingIndex} against scanning the
+ * allowed IPs of every peer, and measures building and incrementally updating the index.
+ * <p>
+ * Each peer has an IPv4 and an IPv6 host route and every tenth peer also a {@code /24}, with one
+ * peer routing everything else.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class RoutingIndexBenchmark {
+    private static final int LOOKUPS = 1024;
+
+    @Param({"10000", "50000"})
+    public int peers;
+
+    private Config changed;
+    private Config config;
+    private InetNetwork[] hosts;
+    private RoutingIndex index;
+
+    private static Peer peer(final int i, final boolean wide) throws BadConfigException {
+        final String v4 = "10." + (i >>> 16 & 0xff) + '.' + (i >>> 8 & 0xff) + '.' + (i & 0xff);
+        return new Peer.Builder()
+                .setPublicKey(new KeyPair().getPublicKey())
+                .parseAllowedIPs(v4 + "/32, fd00::" + Integer.toHexString(i) + "/128"
+                        + (wide ? ", 172." + (16 + (i >>> 16 & 0xf)) + '.' + (i >>> 8 & 0xff) + ".0/24" : ""))
+                .build();
+    }
+
+    @Setup
+    public void setUp() throws BadConfigException {
+        final List<Peer> list = new ArrayList<>(peers + 1);
+        list.add(new Peer.Builder().setPublicKey(new KeyPair().getPublicKey())
+                .parseAllowedIPs("0.0.0.0/0, ::/0").build());
+        for (int i = 1; i <= peers; ++i)
+            list.add(peer(i, i % 10 == 0));
+        final Interface interfaze = new Interface.Builder().setKeyPair(new KeyPair()).build();
+        config = new Config.Builder().setInterface(interfaze).addPeers(list).build();
+        list.set(peers / 2, peer(peers + 1, true));
+        changed = new Config.Builder().setInterface(interfaze).addPeers(list).build();
+        index = RoutingIndex.build(config);
+
+        final Random random = new Random(0);
+        hosts = new InetNetwork[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; ++i) {
+            final int peer = 1 + random.nextInt(peers);
+            switch (random.nextInt(3)) {
+                case 0:
+                    hosts[i] = InetNetwork.ofIpv4(0x0a000000 | peer, 32);
+                    break;
+                case 1:
+                    hosts[i] = InetNetwork.ofIpv6(0xfd00000000000000L, peer, 128);
+                    break;
+                default:
+                    hosts[i] = InetNetwork.ofIpv4(0xac100000 + (peer << 8 & 0xfffff00) + 1, 32);
+                    break;
+            }
+        }
+    }
+
+    @Benchmark
+    public int lookup() {
+        int found = 0;
+        for (final InetNetwork host : hosts) {
+            final Peer peer = host.isIpv6() ? index.lookupIpv6(host.getHigh(), host.getLow())
+                    : index.lookupIpv4((int) host.getLow());
+            if (peer != null)
+                ++found;
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int linearScan() {
+        int found = 0;
+        for (final InetNetwork host : hosts) {
+            Peer match = null;
+            int longest = -1;
+            for (final Peer peer : config.getPeers()) {
+                for (final InetNetwork network : peer.getAllowedIps()) {
+                    if (network.getMask() >= longest && network.contains(host)) {
+                        match = peer;
+                        longest = network.getMask();
+                    }
+                }
+            }
+            if (match != null)
+                ++found;
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RoutingIndex build() {
+        return RoutingIndex.build(config);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RoutingIndex updateOnePeer() {
+        return index.update(changed);
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import com.wireguard.crypto.KeyPair;
+
+/**
+ * Generates realistic wg-quick configurations of a given size for the benchmarks.
+ */
+final class SampleConfigs {
+    private SampleConfigs() {
+    }
+
+    static String text(final int peers) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("[Interface]\n");
+        sb.append("PrivateKey = ").append(new KeyPair().getPrivateKey().toBase64()).append('\n');
+        sb.append("Address = 10.0.0.1/16, fd00::1/64\n");
+        sb.append("DNS = 10.0.0.53, example.com\n");
+        sb.append("ListenPort = 51820\n");
+        for (int i = 0; i < peers; ++i) {
+            sb.append("\n[Peer]\n");
+            sb.append("# peer ").append(i).append('\n');
+            sb.append("PublicKey = ").append(new KeyPair().getPublicKey().toBase64()).append('\n');
+            sb.append("PresharedKey = ").append(new KeyPair().getPrivateKey().toBase64()).append('\n');
+            sb.append("AllowedIPs = 10.0.").append(i / 256 % 256).append('.').append(i % 256)
+                    .append("/32, fd00::").append(Integer.toHexString(i)).append("/128\n");
+            sb.append("Endpoint = 192.0.2.").append(i % 256).append(":51820\n");
+            sb.append("PersistentKeepalive = 25\n");
+        }
+        return sb.toString();
+    }
+}
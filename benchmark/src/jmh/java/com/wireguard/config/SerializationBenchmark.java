@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares serializing a configuration for the first time, when every key has to be encoded, with
+ * serializing it again from the cached section fragments.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+    @Param({"1", "100", "1000"})
+    public int peers;
+
+    private byte[] binary;
+    private Config config;
+
+    @Setup
+    public void setUp() throws IOException, BadConfigException {
+        config = Config.parse(new StringReader(SampleConfigs.text(peers)));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        config.writeBinary(out);
+        binary = out.toByteArray();
+        // Fill the caches of the shared instance.
+        config.toWgQuickString();
+        config.toWgUserspaceString();
+    }
+
+    @Benchmark
+    public String cachedWgQuick() {
+        return config.toWgQuickString();
+    }
+
+    @Benchmark
+    public String cachedUserspace() {
+        return config.toWgUserspaceString();
+    }
+
+    @Benchmark
+    public String firstWgQuick(final FreshConfig fresh) {
+        return fresh.config.toWgQuickString();
+    }
+
+    @Benchmark
+    public String firstUserspace(final FreshConfig fresh) {
+        return fresh.config.toWgUserspaceString();
+    }
+
+    /**
+     * A newly decoded copy of the configuration for every invocation, so that nothing is cached.
+     */
+    @State(Scope.Thread)
+    public static class FreshConfig {
+        Config config;
+
+        @Setup(Level.Invocation)
+        public void setUp(final SerializationBenchmark benchmark) throws IOException, BadConfigException {
+            config = Config.readBinary(ByteBuffer.wrap(benchmark.binary));
+        }
+    }
+}
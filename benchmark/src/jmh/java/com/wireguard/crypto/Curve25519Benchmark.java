@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.crypto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the two Curve25519 implementations, deriving a public key from the base point and
+ * computing a shared secret with a peer's public key.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class Curve25519Benchmark {
+    private byte[] peerPublicKey;
+    private byte[] privateKey;
+    private final byte[] result = new byte[Key.Format.BINARY.getLength()];
+
+    @Setup
+    public void setUp() {
+        privateKey = Key.generatePrivateKey().getBytes();
+        peerPublicKey = Key.generatePublicKey(Key.generatePrivateKey()).getBytes();
+    }
+
+    @Benchmark
+    public byte[] publicKeyRadix26() {
+        Curve25519.evalRadix26(result, 0, privateKey, null);
+        return result;
+    }
+
+    @Benchmark
+    public byte[] publicKeyRadix51() {
+        Curve25519Radix51.eval(result, 0, privateKey, null);
+        return result;
+    }
+
+    @Benchmark
+    public byte[] sharedSecretRadix26() {
+        Curve25519.evalRadix26(result, 0, privateKey, peerPublicKey);
+        return result;
+    }
+
+    @Benchmark
+    public byte[] sharedSecretRadix51() {
+        Curve25519Radix51.eval(result, 0, privateKey, peerPublicKey);
+        return result;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.crypto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the key operations performed while parsing, serializing and activating a tunnel: the
+ * base64 and hex codecs, and deriving a public key with Curve25519. The codecs are measured both
+ * through strings and over caller-supplied buffers, which avoid copying.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class KeyBenchmark {
+    private String base64;
+    private final char[] chars = new char[Key.Format.HEX.getLength()];
+    private final byte[] decoded = new byte[Key.Format.BINARY.getLength()];
+    private String hex;
+    private String line;
+    private Key privateKey;
+    private byte[] privateKeyBytes;
+    private final byte[] publicKeyBytes = new byte[Key.Format.BINARY.getLength()];
+
+    @Setup
+    public void setUp() {
+        privateKey = Key.generatePrivateKey();
+        privateKeyBytes = privateKey.getBytes();
+        base64 = privateKey.toBase64();
+        hex = privateKey.toHex();
+        line = "public_key=" + hex;
+    }
+
+    @Benchmark
+    public byte[] decodeHexInLine() throws KeyFormatException {
+        Key.decodeHex(line, 11, Key.Format.HEX.getLength(), decoded, 0);
+        return decoded;
+    }
+
+    @Benchmark
+    public byte[] curve25519() {
+        Curve25519.eval(publicKeyBytes, 0, privateKeyBytes, null);
+        return publicKeyBytes;
+    }
+
+    @Benchmark
+    public Key fromBase64() throws KeyFormatException {
+        return Key.fromBase64(base64);
+    }
+
+    @Benchmark
+    public Key fromHex() throws KeyFormatException {
+        return Key.fromHex(hex);
+    }
+
+    @Benchmark
+    public Key fromHexInLine() throws KeyFormatException {
+        return Key.fromHex(line, 11, Key.Format.HEX.getLength());
+    }
+
+    @Benchmark
+    public Key fromHexSubstring() throws KeyFormatException {
+        return Key.fromHex(line.substring(11));
+    }
+
+    @Benchmark
+    public KeyPair keyPair() {
+        return new KeyPair(privateKey);
+    }
+
+    @Benchmark
+    public String toBase64() {
+        return privateKey.toBase64();
+    }
+
+    @Benchmark
+    public char[] toBase64IntoArray() {
+        privateKey.toBase64(chars, 0);
+        return chars;
+    }
+
+    @Benchmark
+    public String toHex() {
+        return privateKey.toHex();
+    }
+
+    @Benchmark
+    public char[] toHexIntoArray() {
+        privateKey.toHex(chars, 0);
+        return chars;
+    }
+}
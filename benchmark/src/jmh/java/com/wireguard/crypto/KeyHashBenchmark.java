@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.crypto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures filling and querying a {@link HashMap} keyed by 100,000 {@link Key}s, as the
+ * statistics of a large tunnel are, against the same keys hashed the way {@link Key#hashCode()}
+ * used to. Keys are either uniformly random, like real public keys, or sequential counters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class KeyHashBenchmark {
+    private static final int COUNT = 100_000;
+
+    @Param({"random", "sequential"})
+    public String distribution;
+
+    private Key[] keys;
+    private LegacyKey[] legacyKeys;
+    private Map<LegacyKey, Integer> legacyMap;
+    private Map<Key, Integer> map;
+
+    @Setup
+    public void setUp() throws KeyFormatException {
+        final Random random = new Random(0);
+        final byte[] bytes = new byte[Key.Format.BINARY.getLength()];
+        keys = new Key[COUNT];
+        legacyKeys = new LegacyKey[COUNT];
+        for (int i = 0; i < COUNT; ++i) {
+            if ("random".equals(distribution)) {
+                random.nextBytes(bytes);
+            } else {
+                bytes[0] = (byte) i;
+                bytes[1] = (byte) (i >> 8);
+                bytes[2] = (byte) (i >> 16);
+            }
+            keys[i] = Key.fromBytes(bytes);
+            legacyKeys[i] = new LegacyKey(bytes);
+        }
+        map = fill();
+        legacyMap = fillLegacy();
+    }
+
+    @Benchmark
+    public Map<Key, Integer> fill() {
+        final Map<Key, Integer> result = new HashMap<>();
+        for (int i = 0; i < keys.length; ++i)
+            result.put(keys[i], i);
+        return result;
+    }
+
+    @Benchmark
+    public Map<LegacyKey, Integer> fillLegacy() {
+        final Map<LegacyKey, Integer> result = new HashMap<>();
+        for (int i = 0; i < legacyKeys.length; ++i)
+            result.put(legacyKeys[i], i);
+        return result;
+    }
+
+    @Benchmark
+    public int lookup() {
+        int sum = 0;
+        for (final Key key : keys)
+            sum += map.get(key);
+        return sum;
+    }
+
+    @Benchmark
+    public int lookupLegacy() {
+        int sum = 0;
+        for (final LegacyKey key : legacyKeys)
+            sum += legacyMap.get(key);
+        return sum;
+    }
+
+    /**
+     * A key hashed by XORing sign-extended bytes shifted right, which leaves most bits of the hash
+     * equal to the sign bits of the bytes.
+     */
+    private static final class LegacyKey {
+        private final byte[] key;
+
+        LegacyKey(final byte[] key) {
+            this.key = key.clone();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof LegacyKey && Arrays.equals(key, ((LegacyKey) obj).key);
+        }
+
+        @Override
+        public int hashCode() {
+            int ret = 0;
+            for (int i = 0; i < key.length / 4; ++i)
+                ret ^= (key[i * 4 + 0] >> 0) + (key[i * 4 + 1] >> 8) + (key[i * 4 + 2] >> 16) + (key[i * 4 + 3] >> 24);
+            return ret;
+        }
+    }
+}
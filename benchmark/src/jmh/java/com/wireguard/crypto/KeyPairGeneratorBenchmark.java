@@ -0,0 +1,43 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.crypto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures provisioning many identities at once: generating the key pairs one after another on
+ * the calling thread, and in parallel with {@link KeyPairGenerator}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class KeyPairGeneratorBenchmark {
+    @Param({"1000"})
+    private int count;
+
+    @Benchmark
+    public List<KeyPair> parallel() {
+        return KeyPairGenerator.generate(count);
+    }
+
+    @Benchmark
+    public List<KeyPair> sequential() {
+        final List<KeyPair> keyPairs = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i)
+            keyPairs.add(new KeyPair());
+        return keyPairs;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.crypto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the public key lookup of a re-parsed profile: creating a key pair for a private key
+ * that has been seen before and asking for its public key, with and without the
+ * {@link PublicKeyCache}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class PublicKeyCacheBenchmark {
+    @Param({"0", "64"})
+    private int capacity;
+    private Key privateKey;
+
+    @Setup
+    public void setUp() {
+        privateKey = Key.generatePrivateKey();
+        if (capacity > 0)
+            PublicKeyCache.enable(capacity);
+    }
+
+    @TearDown
+    public void tearDown() {
+        PublicKeyCache.disable();
+    }
+
+    @Benchmark
+    public Key publicKey() {
+        return new KeyPair(privateKey).getPublicKey();
+    }
+}
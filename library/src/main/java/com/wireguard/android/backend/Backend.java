@@ -45,6 +45,32 @@ public interface Backend {
      */
     Statistics getStatistics(Tunnel tunnel) throws Exception;
 
+    /**
+     * Update existing statistics in place with the current traffic on this tunnel, so that
+     * polling does not create a new {@link Statistics} instance every time. If the tunnel is not
+     * running, the statistics will no longer contain any peers.
+     *
+     * @param tunnel     The tunnel to retrieve statistics for.
+     * @param statistics The statistics to update.
+     * @throws Exception Exception raised when retrieving statistics.
+     */
+    default void refreshStatistics(final Tunnel tunnel, final Statistics statistics) throws Exception {
+        statistics.copyFrom(getStatistics(tunnel));
+    }
+
+    /**
+     * Update a columnar table in place with the current traffic on this tunnel. This suits
+     * tunnels with very many peers, for which a table is cheaper to refresh and search than
+     * {@link Statistics}. If the tunnel is not running, the table will no longer contain any peers.
+     *
+     * @param tunnel The tunnel to retrieve statistics for.
+     * @param table  The table to update.
+     * @throws Exception Exception raised when retrieving statistics.
+     */
+    default void refreshStatistics(final Tunnel tunnel, final StatisticsTable table) throws Exception {
+        getStatistics(tunnel).snapshot().copyTo(table);
+    }
+
     /**
      * Determine version of underlying backend.
      *
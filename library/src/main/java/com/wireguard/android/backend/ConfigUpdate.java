@@ -0,0 +1,238 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import com.wireguard.config.Config;
+import com.wireguard.config.InetEndpoint;
+import com.wireguard.config.InetNetwork;
+import com.wireguard.config.Interface;
+import com.wireguard.config.Peer;
+import com.wireguard.crypto.Key;
+import com.wireguard.util.NonNullForAll;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The difference between the configuration of a running tunnel and a new configuration, expressed
+ * as the userspace API (UAPI) commands that turn one into the other without restarting the tunnel.
+ * <p>
+ * Peers are matched by public key. Removed peers are sent {@code remove=true}, changed peers are
+ * sent {@code update_only=true} with only the attributes that changed, and new peers are sent in
+ * full. Changes that affect how the TUN device is built (addresses, DNS, applications, MTU, routes
+ * or the kill-switch) cannot be applied this way; for those {@link #requiresRestart()} is true.
+ * <p>
+ * Routes are the union of all peers' allowed IPs, so adding or removing a peer, or changing a
+ * peer's allowed IPs, restarts the tunnel whenever it changes that union. Only changes within
+ * networks that are already routed are applied in place.
+ */
+@NonNullForAll
+final class ConfigUpdate {
+    // An all-zero key clears a peer's pre-shared key.
+    private static final String ZERO_KEY_HEX = new String(new char[64]).replace('\0', '0');
+
+    private final List<Peer> addedPeers;
+    private final Config current;
+    private final Config next;
+    private final List<Key> removedPeers;
+    private final boolean requiresRestart;
+    private final List<PeerChange> updatedPeers;
+
+    private ConfigUpdate(final Config current, final Config next, final boolean requiresRestart,
+                         final List<Key> removedPeers, final List<PeerChange> updatedPeers,
+                         final List<Peer> addedPeers) {
+        this.current = current;
+        this.next = next;
+        this.requiresRestart = requiresRestart;
+        this.removedPeers = removedPeers;
+        this.updatedPeers = updatedPeers;
+        this.addedPeers = addedPeers;
+    }
+
+    /**
+     * Computes the changes needed to move a running tunnel from one configuration to another.
+     *
+     * @param current the configuration the tunnel is running with
+     * @param next    the configuration to apply
+     * @return the update between the two configurations
+     */
+    static ConfigUpdate between(final Config current, final Config next) {
+        final Map<Key, Peer> currentPeers = peersByKey(current);
+        final Map<Key, Peer> nextPeers = peersByKey(next);
+        final List<Key> removed = new ArrayList<>();
+        final List<PeerChange> updated = new ArrayList<>();
+        final List<Peer> added = new ArrayList<>();
+        for (final Key key : currentPeers.keySet()) {
+            if (!nextPeers.containsKey(key))
+                removed.add(key);
+        }
+        for (final Peer peer : nextPeers.values()) {
+            final Peer old = currentPeers.get(peer.getPublicKey());
+            if (old == null) {
+                added.add(peer);
+            } else if (old.getEndpoint().isPresent() && !peer.getEndpoint().isPresent()) {
+                // The UAPI cannot clear an endpoint, so the peer has to be recreated.
+                removed.add(peer.getPublicKey());
+                added.add(peer);
+            } else if (!old.equals(peer)) {
+                updated.add(new PeerChange(old, peer));
+            }
+        }
+        return new ConfigUpdate(current, next, requiresRestart(current, next),
+                removed, updated, added);
+    }
+
+    private static Map<Key, Peer> peersByKey(final Config config) {
+        final Map<Key, Peer> peers = new LinkedHashMap<>();
+        for (final Peer peer : config.getPeers())
+            peers.put(peer.getPublicKey(), peer);
+        return peers;
+    }
+
+    private static boolean requiresRestart(final Config current, final Config next) {
+        // Duplicate public keys cannot be expressed as a per-peer update.
+        if (peersByKey(current).size() != current.getPeers().size()
+                || peersByKey(next).size() != next.getPeers().size())
+            return true;
+        final Interface a = current.getInterface();
+        final Interface b = next.getInterface();
+        return !a.getAddresses().equals(b.getAddresses())
+                || !a.getDnsServers().equals(b.getDnsServers())
+                || !a.getDnsSearchDomains().equals(b.getDnsSearchDomains())
+                || !a.getExcludedApplications().equals(b.getExcludedApplications())
+                || !a.getIncludedApplications().equals(b.getIncludedApplications())
+                || !a.getMtu().equals(b.getMtu())
+                || !current.getRoutes().equals(next.getRoutes())
+                || hasKillSwitch(current) != hasKillSwitch(next);
+    }
+
+    /**
+     * Returns whether a tunnel running this configuration allows all address families on its TUN
+     * device, so that traffic the routes do not cover cannot leave outside the tunnel. That is the
+     * case unless a single peer routes a default route. {@link GoBackend} builds the TUN device
+     * from this, and a change in it requires a restart.
+     *
+     * @param config the configuration of the tunnel
+     * @return true if the TUN device allows all address families
+     */
+    static boolean hasKillSwitch(final Config config) {
+        boolean sawDefaultRoute = false;
+        for (final Peer peer : config.getPeers()) {
+            for (final InetNetwork allowedIp : peer.getAllowedIps()) {
+                if (allowedIp.getMask() == 0)
+                    sawDefaultRoute = true;
+            }
+        }
+        return !(sawDefaultRoute && config.getPeers().size() == 1);
+    }
+
+    /**
+     * Sends the update to a running device.
+     *
+     * @param device the device to update
+     * @return true if the device accepted the update
+     */
+    boolean applyTo(final Device device) {
+        return device.ipcSet(toWgUserspaceString()) >= 0;
+    }
+
+    /**
+     * Returns whether the configurations are equivalent, so that there is nothing to apply.
+     *
+     * @return true if applying the update would not change the tunnel
+     */
+    boolean isEmpty() {
+        return !requiresRestart && removedPeers.isEmpty() && updatedPeers.isEmpty()
+                && addedPeers.isEmpty() && !hasInterfaceChanges();
+    }
+
+    private boolean hasInterfaceChanges() {
+        final Interface a = current.getInterface();
+        final Interface b = next.getInterface();
+        return !a.getKeyPair().getPrivateKey().equals(b.getKeyPair().getPrivateKey())
+                || !a.getListenPort().equals(b.getListenPort());
+    }
+
+    /**
+     * Returns whether the update changes how the TUN device is built, in which case the tunnel
+     * must be brought down and up again with the new configuration.
+     *
+     * @return true if the update cannot be applied to the running tunnel
+     */
+    boolean requiresRestart() {
+        return requiresRestart;
+    }
+
+    /**
+     * Converts the update into a UAPI {@code set} command body. Unlike
+     * {@link Config#toWgUserspaceString()}, it does not replace the peer list; it only touches
+     * the interface attributes and peers that changed.
+     *
+     * @return the commands that turn the current configuration into the next one
+     */
+    String toWgUserspaceString() {
+        final StringBuilder sb = new StringBuilder();
+        final Interface a = current.getInterface();
+        final Interface b = next.getInterface();
+        if (!a.getKeyPair().getPrivateKey().equals(b.getKeyPair().getPrivateKey()))
+            sb.append("private_key=").append(b.getKeyPair().getPrivateKey().toHex()).append('\n');
+        if (!a.getListenPort().equals(b.getListenPort()))
+            sb.append("listen_port=").append(b.getListenPort().orElse(0)).append('\n');
+        for (final Key key : removedPeers)
+            sb.append("public_key=").append(key.toHex()).append("\nremove=true\n");
+        for (final PeerChange change : updatedPeers)
+            change.appendTo(sb);
+        for (final Peer peer : addedPeers)
+            sb.append(peer.toWgUserspaceString());
+        return sb.toString();
+    }
+
+    /**
+     * The userspace API of a running wireguard-go device.
+     */
+    interface Device {
+        /**
+         * Applies a UAPI {@code set} command body to the device.
+         *
+         * @param settings the command body, one {@code key=value} pair per line
+         * @return zero or a positive value on success, a negative value on failure
+         */
+        int ipcSet(String settings);
+    }
+
+    private static final class PeerChange {
+        final Peer next;
+        final Peer old;
+
+        PeerChange(final Peer old, final Peer next) {
+            this.old = old;
+            this.next = next;
+        }
+
+        void appendTo(final StringBuilder sb) {
+            sb.append("public_key=").append(next.getPublicKey().toHex()).append("\nupdate_only=true\n");
+            if (!old.getAllowedIps().equals(next.getAllowedIps())) {
+                sb.append("replace_allowed_ips=true\n");
+                for (final InetNetwork allowedIp : next.getAllowedIps())
+                    sb.append("allowed_ip=").append(allowedIp).append('\n');
+            }
+            if (!old.getEndpoint().equals(next.getEndpoint())) {
+                next.getEndpoint().flatMap(InetEndpoint::getResolved)
+                        .ifPresent(ep -> sb.append("endpoint=").append(ep).append('\n'));
+            }
+            if (!old.getPersistentKeepalive().equals(next.getPersistentKeepalive())) {
+                sb.append("persistent_keepalive_interval=")
+                        .append(next.getPersistentKeepalive().orElse(0)).append('\n');
+            }
+            if (!old.getPreSharedKey().equals(next.getPreSharedKey())) {
+                sb.append("preshared_key=")
+                        .append(next.getPreSharedKey().map(Key::toHex).orElse(ZERO_KEY_HEX)).append('\n');
+            }
+        }
+    }
+}
@@ -18,17 +18,18 @@ import com.wireguard.android.util.SharedLibraryLoader;
 import com.wireguard.config.Config;
 import com.wireguard.config.InetEndpoint;
 import com.wireguard.config.InetNetwork;
+import com.wireguard.config.ParseException;
 import com.wireguard.config.Peer;
-import com.wireguard.crypto.Key;
-import com.wireguard.crypto.KeyFormatException;
+import com.wireguard.config.RouteCompiler;
 import com.wireguard.util.NonNullForAll;
 
-import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
@@ -47,16 +48,34 @@ import androidx.collection.ArraySet;
 @NonNullForAll
 public final class GoBackend implements Backend {
     private static final int DNS_RESOLUTION_RETRIES = 10;
+    private static final int STATISTICS_INTERVAL_MILLIS = 500;
+    // A reader polling every second sees publications up to a poll period plus an interval old;
+    // one polling less often has wireguard-go publish when it reads.
+    private static final int STATISTICS_MAX_AGE_MILLIS = 3 * STATISTICS_INTERVAL_MILLIS;
     private static final String TAG = "WireGuard/GoBackend";
     @Nullable
     private static AlwaysOnCallback alwaysOnCallback;
     private static CompletableFuture<VpnService> vpnService = new CompletableFuture<>();
     private final Context context;
+    private final PeerEventDispatcher peerEvents = new PeerEventDispatcher();
     @Nullable
     private Config currentConfig;
     @Nullable
+    private List<String> currentExcludedIps;
+    @Nullable
+    private List<String> currentExcludedPackages;
+    @Nullable
+    private StatisticsBlock currentStatisticsBlock;
+    @Nullable
     private Tunnel currentTunnel;
     private int currentTunnelHandle = -1;
+    // The last routes compiled with excluded networks, and what they were compiled from.
+    @Nullable
+    private List<InetNetwork> lastRoutes;
+    @Nullable
+    private List<InetNetwork> lastRoutesAllowed;
+    @Nullable
+    private List<InetNetwork> lastRoutesExcluded;
 
     /**
      * Public constructor for GoBackend.
@@ -78,6 +97,8 @@ public final class GoBackend implements Backend {
         alwaysOnCallback = cb;
     }
 
+    private static native void wgCloseEvents(int handle);
+
     @Nullable
     private static native String wgGetConfig(int handle);
 
@@ -85,12 +106,30 @@ public final class GoBackend implements Backend {
 
     private static native int wgGetSocketV6(int handle);
 
+    private static native int wgPollEvents(int handle, ByteBuffer buffer, int timeoutMillis);
+
+    private static native int wgPublishStatistics(int handle);
+
+    private static native int wgSetConfig(int handle, String settings);
+
+    private static native int wgStartStatistics(int handle, ByteBuffer block, int intervalMillis);
+
     private static native void wgTurnOff(int handle);
 
     private static native int wgTurnOn(String ifName, int tunFd, String settings);
 
     private static native String wgVersion();
 
+    /**
+     * Start delivering the {@link PeerEvent}s of the running tunnel, and of tunnels started later,
+     * to a listener. The listener is called on a dedicated thread.
+     *
+     * @param listener the listener
+     */
+    public void addPeerEventListener(final PeerEventDispatcher.Listener listener) {
+        peerEvents.addListener(listener);
+    }
+
     /**
      * Method to get the names of running tunnels.
      *
@@ -126,63 +165,7 @@ public final class GoBackend implements Backend {
     @Override
     public Statistics getStatistics(final Tunnel tunnel) {
         final Statistics stats = new Statistics();
-        if (tunnel != currentTunnel || currentTunnelHandle == -1)
-            return stats;
-        final String config = wgGetConfig(currentTunnelHandle);
-        if (config == null)
-            return stats;
-        Key key = null;
-        long rx = 0;
-        long tx = 0;
-        long latestHandshakeMSec = 0;
-        for (final String line : config.split("\\n")) {
-            if (line.startsWith("public_key=")) {
-                if (key != null)
-                    stats.add(key, rx, tx, latestHandshakeMSec);
-                rx = 0;
-                tx = 0;
-                latestHandshakeMSec = 0;
-                try {
-                    key = Key.fromHex(line.substring(11));
-                } catch (final KeyFormatException ignored) {
-                    key = null;
-                }
-            } else if (line.startsWith("rx_bytes=")) {
-                if (key == null)
-                    continue;
-                try {
-                    rx = Long.parseLong(line.substring(9));
-                } catch (final NumberFormatException ignored) {
-                    rx = 0;
-                }
-            } else if (line.startsWith("tx_bytes=")) {
-                if (key == null)
-                    continue;
-                try {
-                    tx = Long.parseLong(line.substring(9));
-                } catch (final NumberFormatException ignored) {
-                    tx = 0;
-                }
-            } else if (line.startsWith("last_handshake_time_sec=")) {
-                if (key == null)
-                    continue;
-                try {
-                    latestHandshakeMSec += Long.parseLong(line.substring(24)) * 1000;
-                } catch (final NumberFormatException ignored) {
-                    latestHandshakeMSec = 0;
-                }
-            } else if (line.startsWith("last_handshake_time_nsec=")) {
-                if (key == null)
-                    continue;
-                try {
-                    latestHandshakeMSec += Long.parseLong(line.substring(25)) / 1000000;
-                } catch (final NumberFormatException ignored) {
-                    latestHandshakeMSec = 0;
-                }
-            }
-        }
-        if (key != null)
-            stats.add(key, rx, tx, latestHandshakeMSec);
+        refreshStatistics(tunnel, stats);
         return stats;
     }
 
@@ -196,6 +179,46 @@ public final class GoBackend implements Backend {
         return wgVersion();
     }
 
+    /**
+     * Update the {@link Statistics} of a given {@link Tunnel} in place.
+     * <p>
+     * Statistics come from a {@link StatisticsBlock} shared with wireguard-go where possible.
+     * That spares Java the userspace API string and its parsing, but it is no cheaper on the
+     * native side: wireguard-go still serializes the whole device, private keys and allowed IPs
+     * included, for every publication, and publishes on every tick while something polls.
+     *
+     * @param tunnel     The tunnel to retrieve statistics for.
+     * @param statistics The statistics to update.
+     */
+    @Override
+    public void refreshStatistics(final Tunnel tunnel, final Statistics statistics) {
+        final StatisticsBlock block = tunnel == currentTunnel ? currentStatisticsBlock : null;
+        if (block == null || !statistics.refresh(block))
+            statistics.refresh(getUapi(tunnel));
+    }
+
+    /**
+     * Update the {@link StatisticsTable} of a given {@link Tunnel} in place.
+     *
+     * @param tunnel The tunnel to retrieve statistics for.
+     * @param table  The table to update.
+     */
+    @Override
+    public void refreshStatistics(final Tunnel tunnel, final StatisticsTable table) {
+        final StatisticsBlock block = tunnel == currentTunnel ? currentStatisticsBlock : null;
+        if (block == null || !table.refresh(block))
+            table.refresh(getUapi(tunnel));
+    }
+
+    /**
+     * Stop delivering {@link PeerEvent}s to a listener.
+     *
+     * @param listener the listener
+     */
+    public void removePeerEventListener(final PeerEventDispatcher.Listener listener) {
+        peerEvents.removeListener(listener);
+    }
+
     /**
      * Change the state of a given {@link Tunnel}, optionally applying a given {@link Config}.
      *
@@ -224,6 +247,13 @@ public final class GoBackend implements Backend {
             return originalState;
         }
 
+        if (state == State.UP && originalState == State.UP && config != null
+                && Objects.equals(excludedPackages, currentExcludedPackages)
+                && Objects.equals(excludedIps, currentExcludedIps)
+                && reconfigure(config)) {
+            return State.UP;
+        }
+
         if (state == State.UP) {
             final Config originalConfig = currentConfig;
             final Tunnel originalTunnel = currentTunnel;
@@ -246,6 +276,34 @@ public final class GoBackend implements Backend {
         return getState(tunnel);
     }
 
+    /**
+     * Applies a new configuration to the running tunnel without bringing it down, by sending only
+     * the changed peers and interface attributes to wireguard-go. Existing connections and
+     * handshakes with unchanged peers are preserved.
+     *
+     * @param config the new configuration for the running tunnel
+     * @return true if the configuration was applied, false if the tunnel must be restarted instead
+     */
+    private boolean reconfigure(final Config config) throws Exception {
+        final Config runningConfig = currentConfig;
+        final int handle = currentTunnelHandle;
+        if (runningConfig == null || handle == -1)
+            return false;
+        final ConfigUpdate update = ConfigUpdate.between(runningConfig, config);
+        if (update.requiresRestart())
+            return false;
+        if (!update.isEmpty()) {
+            resolveDns(config);
+            Log.i(TAG, "Reconfiguring running tunnel " + Objects.requireNonNull(currentTunnel).getName());
+            if (!update.applyTo(settings -> wgSetConfig(handle, settings))) {
+                Log.w(TAG, "Unable to reconfigure running tunnel; restarting it");
+                return false;
+            }
+        }
+        currentConfig = config;
+        return true;
+    }
+
     private void setStateInternal(
             final Tunnel tunnel,
             @Nullable final Config config,
@@ -290,6 +348,10 @@ public final class GoBackend implements Backend {
 
             currentTunnel = tunnel;
             currentConfig = config;
+            currentExcludedPackages = excludedPackages;
+            currentExcludedIps = excludedIps;
+            startStatistics(config);
+            peerEvents.start(new NativePeerEventSource(currentTunnelHandle));
 
             service.protect(wgGetSocketV4(currentTunnelHandle));
             service.protect(wgGetSocketV6(currentTunnelHandle));
@@ -304,6 +366,30 @@ public final class GoBackend implements Backend {
         tunnel.onStateChange(state);
     }
 
+    // The output of a UAPI get operation on the tunnel, or nothing if it is not running.
+    private String getUapi(final Tunnel tunnel) {
+        final String config = tunnel == currentTunnel && currentTunnelHandle != -1
+                ? wgGetConfig(currentTunnelHandle) : null;
+        return config != null ? config : "";
+    }
+
+    /**
+     * Asks wireguard-go to publish the counters of the running tunnel into a shared block, so that
+     * refreshing statistics does not pass the userspace API text to Java. wireguard-go still
+     * produces that text itself for each publication. The block has room for peers
+     * added by reconfiguring the tunnel; if it fills up anyway, statistics come from the
+     * userspace API again.
+     */
+    private void startStatistics(final Config config) {
+        final int handle = currentTunnelHandle;
+        final StatisticsBlock block = StatisticsBlock.allocate(Math.max(16, config.getPeers().size() * 2),
+                STATISTICS_MAX_AGE_MILLIS, () -> wgPublishStatistics(handle) == 0);
+        if (wgStartStatistics(currentTunnelHandle, block.buffer(), STATISTICS_INTERVAL_MILLIS) == 0)
+            currentStatisticsBlock = block;
+        else
+            Log.w(TAG, "Unable to share statistics with wireguard-go");
+    }
+
     private VpnService getVpnService() throws Exception {
         if (!vpnService.isDone()) {
             Log.d(TAG, "Requesting to start VpnService");
@@ -337,6 +423,46 @@ public final class GoBackend implements Backend {
         }
     }
 
+    private static List<InetNetwork> parseExcludedIps(@Nullable final List<String> excludedIps) {
+        if (excludedIps == null || excludedIps.isEmpty()) {
+            Log.d(TAG, "No excluded IPs specified");
+            return emptyList();
+        }
+        Log.d(TAG, "Processing excluded IPs. Count: " + excludedIps.size());
+        final List<InetNetwork> networks = new ArrayList<>(excludedIps.size());
+        for (final String ip : excludedIps) {
+            if (ip == null || ip.trim().isEmpty()) {
+                Log.w(TAG, "Skipping empty or null excluded IP");
+                continue;
+            }
+            try {
+                networks.add(InetNetwork.parse(ip.trim()));
+            } catch (final ParseException e) {
+                Log.w(TAG, "Invalid IP address or prefix: " + ip, e);
+            }
+        }
+        return networks;
+    }
+
+    /**
+     * Returns the routes of a configuration minus the excluded networks. The last result is
+     * reused, as restarts and reconfigurations usually keep both the routes and the exclusions.
+     */
+    private synchronized List<InetNetwork> compileRoutes(final Config config,
+                                                         final List<InetNetwork> exclusions) {
+        final List<InetNetwork> allowed = config.getRoutes();
+        if (exclusions.isEmpty())
+            return allowed;
+        List<InetNetwork> routes = lastRoutes;
+        if (routes == null || !allowed.equals(lastRoutesAllowed) || !exclusions.equals(lastRoutesExcluded)) {
+            routes = RouteCompiler.compile(allowed, exclusions);
+            lastRoutes = routes;
+            lastRoutesAllowed = allowed;
+            lastRoutesExcluded = exclusions;
+        }
+        return routes;
+    }
+
     private void configureVpnBuilder(
             VpnService.Builder builder,
             Tunnel tunnel,
@@ -392,41 +518,16 @@ public final class GoBackend implements Backend {
 
         // Process peer configuration
         Log.d(TAG, "Processing peer configuration");
-        boolean sawDefaultRoute = false;
-        for (final Peer peer : config.getPeers()) {
-            for (final InetNetwork addr : peer.getAllowedIps()) {
-                if (addr.getMask() == 0)
-                    sawDefaultRoute = true;
-                builder.addRoute(addr.getAddress(), addr.getMask());
-                Log.d(TAG, "Added route for peer: " + addr.getAddress() + "/" + addr.getMask());
-            }
-        }
-
-        if (excludedIps != null && !excludedIps.isEmpty()) {
-            Log.d(TAG, "Processing excluded IPs. Count: " + excludedIps.size());
-            for (String ip : excludedIps) {
-                if (ip == null || ip.trim().isEmpty()) {
-                    Log.w(TAG, "Skipping empty or null excluded IP");
-                    continue;
-                }
-                try {
-                    String[] parts = ip.split("/");
-                    InetAddress address = InetAddress.getByName(parts[0]);
-                    int prefix = parts.length > 1 ? Integer.parseInt(parts[1]) : (address instanceof Inet6Address ? 128 : 32);
-                    builder.addRoute(address, prefix);
-                    Log.d(TAG, "Added excluded IP/network: " + ip);
-                } catch (IllegalArgumentException e) {
-                    Log.w(TAG, "Invalid IP address or prefix: " + ip, e);
-                } catch (Exception e) {
-                    Log.w(TAG, "Failed to add excluded IP/network: " + ip, e);
-                }
-            }
-        } else {
-            Log.d(TAG, "No excluded IPs specified");
-        }
+        // Route the peers' allowed IPs minus the excluded networks, merged into as few routes as
+        // possible. Many routes make establish() slow.
+        final List<InetNetwork> exclusions = parseExcludedIps(excludedIps);
+        final List<InetNetwork> routes = compileRoutes(config, exclusions);
+        for (final InetNetwork route : routes)
+            builder.addRoute(route.getAddress(), route.getMask());
+        Log.d(TAG, "Added " + routes.size() + " routes for peers, excluding " + exclusions.size() + " networks");
 
         // "Kill-switch" semantics
-        if (!(sawDefaultRoute && config.getPeers().size() == 1)) {
+        if (ConfigUpdate.hasKillSwitch(config)) {
             builder.allowFamily(OsConstants.AF_INET);
             builder.allowFamily(OsConstants.AF_INET6);
             Log.d(TAG, "Enabled kill-switch (allowing AF_INET and AF_INET6)");
@@ -459,7 +560,11 @@ public final class GoBackend implements Backend {
         currentTunnel = null;
         currentTunnelHandle = -1;
         currentConfig = null;
+        currentExcludedPackages = null;
+        currentExcludedIps = null;
+        peerEvents.stop();
         wgTurnOff(handleToClose);
+        currentStatisticsBlock = null;
         try {
             vpnService.get(0, TimeUnit.NANOSECONDS).stopSelf();
         } catch (final TimeoutException | ExecutionException | InterruptedException ignored) {
@@ -474,6 +579,29 @@ public final class GoBackend implements Backend {
         void alwaysOnTriggered();
     }
 
+    /**
+     * The events of a running tunnel, which wireguard-go derives from the device without Java
+     * polling it. Polling blocks in native code until events arrive, the timeout passes or the
+     * source is closed, and closing pauses the native watcher until the next poll.
+     */
+    private static final class NativePeerEventSource implements PeerEventSource {
+        private final int handle;
+
+        NativePeerEventSource(final int handle) {
+            this.handle = handle;
+        }
+
+        @Override
+        public void close() {
+            wgCloseEvents(handle);
+        }
+
+        @Override
+        public int poll(final ByteBuffer buffer, final int timeoutMillis) {
+            return wgPollEvents(handle, buffer, timeoutMillis);
+        }
+    }
+
     /**
      * {@link android.net.VpnService} implementation for {@link GoBackend}
      */
@@ -496,11 +624,15 @@ public final class GoBackend implements Backend {
             if (owner != null) {
                 final Tunnel tunnel = owner.currentTunnel;
                 if (tunnel != null) {
+                    owner.peerEvents.stop();
                     if (owner.currentTunnelHandle != -1)
                         wgTurnOff(owner.currentTunnelHandle);
                     owner.currentTunnel = null;
                     owner.currentTunnelHandle = -1;
                     owner.currentConfig = null;
+                    owner.currentExcludedPackages = null;
+                    owner.currentExcludedIps = null;
+                    owner.currentStatisticsBlock = null;
                     tunnel.onStateChange(State.DOWN);
                 }
             }
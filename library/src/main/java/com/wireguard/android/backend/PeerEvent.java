@@ -0,0 +1,134 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import com.wireguard.config.InetEndpoint;
+import com.wireguard.config.ParseException;
+import com.wireguard.crypto.Key;
+import com.wireguard.crypto.KeyFormatException;
+import com.wireguard.util.NonNullForAll;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import androidx.annotation.Nullable;
+
+/**
+ * A change in the state of a peer of a running tunnel, as reported by the backend.
+ * <p>
+ * Events cross from the native side in fixed-size records, in native byte order, laid out as the
+ * type, the length of the endpoint, the time of the event, the public key of the peer and the
+ * endpoint as text. The layout is mirrored by {@code tools/libwg-go/events-android.go}.
+ *
+ * @param type        what happened
+ * @param publicKey   the public key of the peer
+ * @param epochMillis when it happened, in milliseconds since the epoch; for a handshake, the time
+ *                    of the handshake
+ * @param endpoint    the endpoint of the peer at the time, or null if it has none
+ */
+@NonNullForAll
+public record PeerEvent(Type type, Key publicKey, long epochMillis, @Nullable InetEndpoint endpoint) {
+    static final int MAX_ENDPOINT_LENGTH = 80;
+    static final int OFFSET_ENDPOINT = 48;
+    static final int OFFSET_ENDPOINT_LENGTH = 4;
+    static final int OFFSET_EPOCH_MILLIS = 8;
+    static final int OFFSET_KEY = 16;
+    static final int OFFSET_TYPE = 0;
+    static final int RECORD_SIZE = 128;
+    private static final int KEY_LENGTH = Key.Format.BINARY.getLength();
+
+    /**
+     * Reads the record at an offset in a buffer.
+     *
+     * @param buffer a buffer in native byte order
+     * @param offset the offset of the record
+     * @return the event, or null if the record is of an unknown type or malformed
+     */
+    @Nullable
+    static PeerEvent decode(final ByteBuffer buffer, final int offset) {
+        final Type type = Type.fromCode(buffer.getInt(offset + OFFSET_TYPE));
+        final int endpointLength = buffer.getInt(offset + OFFSET_ENDPOINT_LENGTH);
+        if (type == null || endpointLength < 0 || endpointLength > MAX_ENDPOINT_LENGTH)
+            return null;
+        // Absolute bulk transfers need API 34, so copy byte by byte.
+        final byte[] bytes = new byte[Math.max(KEY_LENGTH, endpointLength)];
+        for (int i = 0; i < KEY_LENGTH; ++i)
+            bytes[i] = buffer.get(offset + OFFSET_KEY + i);
+        final Key publicKey;
+        try {
+            publicKey = Key.fromBytes(ByteBuffer.wrap(bytes, 0, KEY_LENGTH));
+        } catch (final KeyFormatException e) {
+            return null;
+        }
+        InetEndpoint endpoint = null;
+        if (endpointLength > 0) {
+            for (int i = 0; i < endpointLength; ++i)
+                bytes[i] = buffer.get(offset + OFFSET_ENDPOINT + i);
+            try {
+                endpoint = InetEndpoint.parse(new String(bytes, 0, endpointLength, StandardCharsets.UTF_8));
+            } catch (final ParseException ignored) {
+                // Report the event without the endpoint.
+            }
+        }
+        return new PeerEvent(type, publicKey, buffer.getLong(offset + OFFSET_EPOCH_MILLIS), endpoint);
+    }
+
+    /**
+     * Writes a record at an offset in a buffer, as the native side does.
+     *
+     * @param buffer      a buffer in native byte order
+     * @param offset      the offset of the record
+     * @param type        what happened
+     * @param publicKey   the public key of the peer
+     * @param epochMillis when it happened
+     * @param endpoint    the endpoint of the peer, as text, or null if it has none
+     */
+    static void encode(final ByteBuffer buffer, final int offset, final Type type, final Key publicKey,
+                       final long epochMillis, @Nullable final String endpoint) {
+        final byte[] text = endpoint != null ? endpoint.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (text.length > MAX_ENDPOINT_LENGTH)
+            throw new IllegalArgumentException("Endpoint too long: " + endpoint);
+        buffer.putInt(offset + OFFSET_TYPE, type.code);
+        buffer.putInt(offset + OFFSET_ENDPOINT_LENGTH, text.length);
+        buffer.putLong(offset + OFFSET_EPOCH_MILLIS, epochMillis);
+        final byte[] key = publicKey.getBytes();
+        for (int i = 0; i < KEY_LENGTH; ++i)
+            buffer.put(offset + OFFSET_KEY + i, key[i]);
+        for (int i = 0; i < text.length; ++i)
+            buffer.put(offset + OFFSET_ENDPOINT + i, text[i]);
+    }
+
+    public enum Type {
+        /**
+         * The peer completed a handshake, so a fresh session is established.
+         */
+        HANDSHAKE_COMPLETED(1),
+        /**
+         * The peer roamed to a new endpoint.
+         */
+        ENDPOINT_CHANGED(2),
+        /**
+         * The peer has not completed a handshake for long enough that its session expired. This
+         * is reported once, until the next handshake.
+         */
+        PEER_STALE(3);
+
+        final int code;
+
+        Type(final int code) {
+            this.code = code;
+        }
+
+        @Nullable
+        static Type fromCode(final int code) {
+            for (final Type type : values()) {
+                if (type.code == code)
+                    return type;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import android.util.Log;
+
+import com.wireguard.util.NonNullForAll;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Delivers the {@link PeerEvent}s of the running tunnel to listeners, so that they learn about
+ * handshakes, roaming and expired sessions as they happen instead of polling statistics.
+ * <p>
+ * While a tunnel is running, the dispatcher owns a thread that waits for events from the native
+ * side and calls every listener with them. Events that arrive while the listeners are busy are
+ * delivered together, in order, in batches of up to {@link #BATCH_SIZE}. When the last listener
+ * is removed, the dispatcher closes its source, which stops the native side from watching the
+ * tunnel; the source is polled again, and so reopened, when a listener is added.
+ */
+@NonNullForAll
+public final class PeerEventDispatcher {
+    static final int BATCH_SIZE = 64;
+    private static final int POLL_TIMEOUT_MILLIS = 1000;
+    private static final String TAG = "WireGuard/PeerEventDispatcher";
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    @Nullable private Worker worker;
+
+    /**
+     * Starts delivering events to a listener, on the dispatcher thread.
+     *
+     * @param listener the listener
+     */
+    public synchronized void addListener(final Listener listener) {
+        listeners.add(listener);
+        notifyAll();
+    }
+
+    /**
+     * Stops delivering events to a listener. Removing the last listener closes the source.
+     *
+     * @param listener the listener
+     */
+    public synchronized void removeListener(final Listener listener) {
+        if (listeners.remove(listener) && listeners.isEmpty() && worker != null)
+            worker.source.close();
+    }
+
+    /**
+     * Starts dispatching the events of a source, on a new thread, after stopping the current one.
+     *
+     * @param source the source of events, which the dispatcher closes when it stops
+     */
+    synchronized void start(final PeerEventSource source) {
+        stop();
+        worker = new Worker(source);
+        worker.start();
+    }
+
+    /**
+     * Closes the current source and lets the dispatcher thread end. This does not wait for the
+     * thread, which may still be delivering a batch; listeners stay registered for the next
+     * source.
+     */
+    synchronized void stop() {
+        if (worker == null)
+            return;
+        worker.stopped = true;
+        worker.source.close();
+        worker = null;
+        notifyAll();
+    }
+
+    // Waits until there is a listener, and returns false if the worker was stopped instead.
+    private synchronized boolean awaitListeners(final Worker worker) throws InterruptedException {
+        while (listeners.isEmpty() && !worker.stopped)
+            wait();
+        return !worker.stopped;
+    }
+
+    // Closes the source again if the last listener was removed after awaitListeners returned,
+    // since the poll that followed reopened it. Returns true if it did.
+    private synchronized boolean closeIfUnwatched(final Worker worker) {
+        if (!listeners.isEmpty() || worker.stopped)
+            return false;
+        worker.source.close();
+        return true;
+    }
+
+    private void dispatch(final Worker worker) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BATCH_SIZE * PeerEvent.RECORD_SIZE)
+                .order(ByteOrder.nativeOrder());
+        try {
+            while (awaitListeners(worker)) {
+                // Polling reopens a source that was closed when the last listener was removed.
+                final int count = worker.source.poll(buffer, POLL_TIMEOUT_MILLIS);
+                if (count < 0)
+                    continue;
+                if (closeIfUnwatched(worker) || count == 0)
+                    continue;
+                final List<PeerEvent> events = new ArrayList<>(count);
+                for (int i = 0; i < count; ++i) {
+                    final PeerEvent event = PeerEvent.decode(buffer, i * PeerEvent.RECORD_SIZE);
+                    if (event != null)
+                        events.add(event);
+                }
+                if (events.isEmpty())
+                    continue;
+                final List<PeerEvent> batch = Collections.unmodifiableList(events);
+                for (final Listener listener : listeners) {
+                    try {
+                        listener.onPeerEvents(batch);
+                    } catch (final RuntimeException e) {
+                        Log.e(TAG, "Peer event listener failed", e);
+                    }
+                }
+            }
+        } catch (final InterruptedException ignored) {
+            // Stopped.
+        }
+    }
+
+    /**
+     * Receives the {@link PeerEvent}s of the running tunnel.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Called on the dispatcher thread with the events that arrived since the previous call.
+         *
+         * @param events the events, oldest first
+         */
+        void onPeerEvents(List<PeerEvent> events);
+    }
+
+    private final class Worker extends Thread {
+        final PeerEventSource source;
+        // Set, under the dispatcher's lock, when the tunnel stops.
+        boolean stopped;
+
+        Worker(final PeerEventSource source) {
+            super(TAG);
+            this.source = source;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            dispatch(this);
+        }
+    }
+}
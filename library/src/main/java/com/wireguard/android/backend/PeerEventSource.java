@@ -0,0 +1,35 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import com.wireguard.util.NonNullForAll;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A producer of {@link PeerEvent} records for a {@link PeerEventDispatcher}, such as the native
+ * side of a running tunnel.
+ */
+@NonNullForAll
+interface PeerEventSource {
+    /**
+     * Stops producing events, drops those not yet polled, and wakes a thread waiting in
+     * {@link #poll}. The next poll reopens the source.
+     */
+    void close();
+
+    /**
+     * Waits for events and writes as many as fit into a buffer, as consecutive
+     * {@link PeerEvent#RECORD_SIZE}-byte records from its start.
+     *
+     * @param buffer        a buffer in native byte order
+     * @param timeoutMillis how long to wait for the first event
+     * @return the number of records written, zero if the wait timed out, or -1 if the source was
+     * closed meanwhile
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    int poll(ByteBuffer buffer, int timeoutMillis) throws InterruptedException;
+}
@@ -8,40 +8,98 @@ package com.wireguard.android.backend;
 import android.os.SystemClock;
 
 import com.wireguard.crypto.Key;
+import com.wireguard.crypto.KeyFormatException;
 import com.wireguard.util.NonNullForAll;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 import androidx.annotation.Nullable;
 
 /**
  * Class representing transfer statistics for a {@link Tunnel} instance.
+ * <p>
+ * The statistics are held in an immutable {@link Snapshot}, which {@link Backend#refreshStatistics}
+ * replaces atomically. Reading never blocks, and each method reads a consistent snapshot; use
+ * {@link #snapshot()} to read several values from the same one. Refreshing reuses the keys of
+ * peers that are still present, and keeps the current snapshot if nothing changed, so that polling
+ * an idle tunnel produces no garbage.
  */
 @NonNullForAll
 public class Statistics {
     public record PeerStats(long rxBytes, long txBytes, long latestHandshakeEpochMillis) { }
-    private final Map<Key, PeerStats> stats = new HashMap<>();
-    private final AtomicLong lastTouched = new AtomicLong(SystemClock.elapsedRealtime());
+    private final LongSupplier clock;
+    private final AtomicLong lastTouched;
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
 
-    Statistics() {
+    // The state of the refresh in progress, guarded by this.
+    private Snapshot base = Snapshot.EMPTY;
+    private boolean changed;
+    private Key[] keys = new Key[0];
+    private long[] latestHandshakes = new long[0];
+    private final byte[] publicKey = new byte[Key.Format.BINARY.getLength()];
+    private boolean reordered;
+    private int refreshed;
+    private long[] rxBytes = new long[0];
+    private final StatisticsParser.Sink sink = this::update;
+    private long[] txBytes = new long[0];
+
+    /**
+     * Creates empty statistics, to be filled by {@link Backend#refreshStatistics}.
+     */
+    public Statistics() {
+        this(SystemClock::elapsedRealtime);
+    }
+
+    Statistics(final LongSupplier clock) {
+        this.clock = clock;
+        lastTouched = new AtomicLong(clock.getAsLong());
+    }
+
+    private void begin() {
+        base = snapshot;
+        changed = false;
+        reordered = false;
+        refreshed = 0;
     }
 
     /**
-     * Add a peer and its current stats to the internal map.
+     * Replaces the contents of this instance with those of another.
      *
-     * @param key               A WireGuard public key bound to a particular peer
-     * @param rxBytes           The received traffic for the {@link com.wireguard.config.Peer} referenced by
-     *                          the provided {@link Key}. This value is in bytes
-     * @param txBytes           The transmitted traffic for the {@link com.wireguard.config.Peer} referenced by
-     *                          the provided {@link Key}. This value is in bytes.
-     * @param latestHandshake   The timestamp of the latest handshake for the {@link com.wireguard.config.Peer}
-     *                          referenced by the provided {@link Key}. The value is in epoch milliseconds.
+     * @param other the statistics to copy
      */
-    void add(final Key key, final long rxBytes, final long txBytes, final long latestHandshake) {
-        stats.put(key, new PeerStats(rxBytes, txBytes, latestHandshake));
-        lastTouched.set(SystemClock.elapsedRealtime());
+    synchronized void copyFrom(final Statistics other) {
+        snapshot = other.snapshot;
+        lastTouched.set(other.lastTouched.get());
+    }
+
+    private void end() {
+        if (changed || refreshed != base.keys.length) {
+            // Peers that kept their places keep their indices too.
+            final Map<Key, Integer> indices = reordered || refreshed != base.keys.length
+                    ? null : base.indices;
+            snapshot = new Snapshot(Arrays.copyOf(keys, refreshed), Arrays.copyOf(rxBytes, refreshed),
+                    Arrays.copyOf(txBytes, refreshed), Arrays.copyOf(latestHandshakes, refreshed),
+                    indices);
+        }
+        Arrays.fill(keys, 0, refreshed, null);
+        base = Snapshot.EMPTY;
+        lastTouched.set(clock.getAsLong());
+    }
+
+    private void grow(final int capacity) {
+        if (capacity <= keys.length)
+            return;
+        final int newCapacity = Math.max(capacity, keys.length * 2);
+        keys = Arrays.copyOf(keys, newCapacity);
+        rxBytes = Arrays.copyOf(rxBytes, newCapacity);
+        txBytes = Arrays.copyOf(txBytes, newCapacity);
+        latestHandshakes = Arrays.copyOf(latestHandshakes, newCapacity);
     }
 
     /**
@@ -50,7 +108,7 @@ public class Statistics {
      * @return boolean indicating if the current statistics instance has stale values.
      */
     public boolean isStale() {
-        return SystemClock.elapsedRealtime() - lastTouched.get() > 900;
+        return clock.getAsLong() - lastTouched.get() > 900;
     }
 
     /**
@@ -61,7 +119,7 @@ public class Statistics {
      */
     @Nullable
     public PeerStats peer(final Key peer) {
-        return stats.get(peer);
+        return snapshot.peer(peer);
     }
 
     /**
@@ -71,7 +129,45 @@ public class Statistics {
      * {@link com.wireguard.config.Peer}s
      */
     public Key[] peers() {
-        return stats.keySet().toArray(new Key[0]);
+        return snapshot.keys.clone();
+    }
+
+    /**
+     * Replaces the contents of this instance with the statistics in the output of a userspace
+     * API {@code get} operation. Peers that are no longer reported are removed.
+     *
+     * @param uapi the "key=value" lines returned by the backend
+     */
+    synchronized void refresh(final String uapi) {
+        begin();
+        StatisticsParser.parse(uapi, publicKey, sink);
+        end();
+    }
+
+    /**
+     * Replaces the contents of this instance with the peers published in a shared
+     * {@link StatisticsBlock}. If the block cannot be read, this instance is left unchanged.
+     *
+     * @param block the block to read
+     * @return true if the block was read
+     */
+    synchronized boolean refresh(final StatisticsBlock block) {
+        if (!block.read())
+            return false;
+        begin();
+        block.forEach(sink);
+        end();
+        return true;
+    }
+
+    /**
+     * Returns the current snapshot of the statistics, whose values are consistent with each
+     * other and never change.
+     *
+     * @return the current snapshot
+     */
+    public Snapshot snapshot() {
+        return snapshot;
     }
 
     /**
@@ -80,7 +176,7 @@ public class Statistics {
      * @return a long representing the number of bytes received by the peers being tracked.
      */
     public long totalRx() {
-        return stats.values().stream().mapToLong(PeerStats::rxBytes).sum();
+        return snapshot.totalRx;
     }
 
     /**
@@ -89,6 +185,129 @@ public class Statistics {
      * @return a long representing the number of bytes transmitted by the peers being tracked.
      */
     public long totalTx() {
-        return stats.values().stream().mapToLong(PeerStats::txBytes).sum();
+        return snapshot.totalTx;
+    }
+
+    /**
+     * Stores the statistics of the next peer reported while refreshing. Peers normally come in
+     * the same order as in the current snapshot, in which case their keys are reused without
+     * decoding or looking them up.
+     */
+    private void update(final byte[] key, final long rx, final long tx, final long latestHandshake) {
+        final int index = refreshed++;
+        grow(refreshed);
+        final Key[] baseKeys = base.keys;
+        if (index < baseKeys.length && baseKeys[index].equalsBytes(key, 0)) {
+            keys[index] = baseKeys[index];
+            if (rx != base.rxBytes[index] || tx != base.txBytes[index]
+                    || latestHandshake != base.latestHandshakes[index])
+                changed = true;
+        } else {
+            changed = true;
+            reordered = true;
+            final Key decoded;
+            try {
+                decoded = Key.fromBytes(key);
+            } catch (final KeyFormatException e) {
+                throw new IllegalStateException(e);
+            }
+            final Integer found = base.indices.get(decoded);
+            keys[index] = found != null ? baseKeys[found] : decoded;
+        }
+        rxBytes[index] = rx;
+        txBytes[index] = tx;
+        latestHandshakes[index] = latestHandshake;
+    }
+
+    /**
+     * An immutable view of the statistics of all peers at one point in time. The totals are
+     * computed once, when the snapshot is created.
+     */
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new Key[0], new long[0], new long[0], new long[0],
+                Collections.emptyMap());
+        private final Map<Key, Integer> indices;
+        private final Key[] keys;
+        private final long[] latestHandshakes;
+        private final List<Key> peers;
+        private final long[] rxBytes;
+        private final long totalRx;
+        private final long totalTx;
+        private final long[] txBytes;
+
+        private Snapshot(final Key[] keys, final long[] rxBytes, final long[] txBytes,
+                         final long[] latestHandshakes, @Nullable final Map<Key, Integer> indices) {
+            this.keys = keys;
+            this.rxBytes = rxBytes;
+            this.txBytes = txBytes;
+            this.latestHandshakes = latestHandshakes;
+            if (indices != null) {
+                this.indices = indices;
+            } else {
+                final Map<Key, Integer> map = new HashMap<>(keys.length * 2);
+                for (int i = 0; i < keys.length; ++i)
+                    map.put(keys[i], i);
+                this.indices = Collections.unmodifiableMap(map);
+            }
+            peers = Collections.unmodifiableList(Arrays.asList(keys));
+            long rx = 0;
+            long tx = 0;
+            for (int i = 0; i < keys.length; ++i) {
+                rx += rxBytes[i];
+                tx += txBytes[i];
+            }
+            totalRx = rx;
+            totalTx = tx;
+        }
+
+        /**
+         * Replaces the contents of a table with the statistics of this snapshot.
+         *
+         * @param table the table to fill
+         */
+        void copyTo(final StatisticsTable table) {
+            final byte[] key = new byte[Key.Format.BINARY.getLength()];
+            table.begin();
+            for (int i = 0; i < keys.length; ++i) {
+                keys[i].getBytes(key, 0);
+                table.add(key, rxBytes[i], txBytes[i], latestHandshakes[i]);
+            }
+            table.end();
+        }
+
+        /**
+         * Get the statistics of the peer with the given public key.
+         *
+         * @param peer the public key of a peer
+         * @return the peer's statistics, or null if there is no such peer
+         */
+        @Nullable
+        public PeerStats peer(final Key peer) {
+            final Integer index = indices.get(peer);
+            if (index == null)
+                return null;
+            return new PeerStats(rxBytes[index], txBytes[index], latestHandshakes[index]);
+        }
+
+        /**
+         * @return the public keys of the peers, in the order the backend reported them
+         */
+        public List<Key> peers() {
+            return peers;
+        }
+
+        /**
+         * @return the total number of bytes received from all peers
+         */
+        public long totalRx() {
+            return totalRx;
+        }
+
+        /**
+         * @return the total number of bytes sent to all peers
+         */
+        public long totalTx() {
+            return totalTx;
+        }
     }
 }
@@ -0,0 +1,249 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import com.wireguard.crypto.Key;
+import com.wireguard.util.NonNullForAll;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * A block of memory, shared with wireguard-go, into which the native side publishes the counters
+ * of every peer, so that Java can read them without the userspace API text and without the
+ * private keys and allowed IPs that come with it. Reads of a recent publication make no JNI call;
+ * see {@link #read} for older ones.
+ * <p>
+ * This only saves work on the Java side. wireguard-go does not export its per-peer counters, so
+ * each publication still serializes the device through the userspace API and parses the text,
+ * on a native thread.
+ * <p>
+ * The block is a direct {@link ByteBuffer} in native byte order, laid out as a 64-byte header
+ * followed by one 64-byte slot per peer. The writer guards each publication with a sequence
+ * number, which is odd while it writes; a reader copies the slots and retries if the sequence
+ * number changed meanwhile. The layout is mirrored by {@code tools/libwg-go/stats-android.go},
+ * and by {@link StatisticsBlockWriter}, which stands in for it in tests and benchmarks.
+ * <p>
+ * A block belongs to one reader at a time.
+ */
+@NonNullForAll
+public final class StatisticsBlock {
+    static final int HEADER_SIZE = 64;
+    static final int MAGIC = 0x57475354;
+    static final int OFFSET_CAPACITY = 16;
+    static final int OFFSET_COUNT = 20;
+    static final int OFFSET_DEMAND = 32;
+    static final int OFFSET_EPOCH_MILLIS = 24;
+    static final int OFFSET_MAGIC = 0;
+    static final int OFFSET_SEQUENCE = 8;
+    static final int OFFSET_VERSION = 4;
+    static final int SLOT_HANDSHAKE = 48;
+    static final int SLOT_RX = 32;
+    static final int SLOT_SIZE = 64;
+    static final int SLOT_TX = 40;
+    static final int VERSION = 1;
+    private static final boolean HAVE_FENCES = haveFences();
+    private static final int KEY_LENGTH = Key.Format.BINARY.getLength();
+    private static final int MAX_ATTEMPTS = 8;
+    private static final int READ_COPIED = 0;
+    private static final int READ_FAILED = 1;
+    private static final int READ_OUTDATED = 2;
+    @SuppressWarnings("unused") private static volatile int barrier;
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final LongSupplier clock;
+    private int count;
+    private final byte[] key = new byte[KEY_LENGTH];
+    private final long maxAgeMillis;
+    private long publishedEpochMillis;
+    private final BooleanSupplier publisher;
+    private byte[] slots = new byte[0];
+    private ByteBuffer slotsView = ByteBuffer.wrap(slots).order(ByteOrder.nativeOrder());
+    // A view of the buffer whose position is moved for bulk copies.
+    private final ByteBuffer source;
+
+    private StatisticsBlock(final ByteBuffer buffer, final long maxAgeMillis,
+                            final BooleanSupplier publisher, final LongSupplier clock) {
+        this.buffer = buffer;
+        this.maxAgeMillis = maxAgeMillis;
+        this.publisher = publisher;
+        this.clock = clock;
+        source = buffer.duplicate();
+        capacity = buffer.getInt(OFFSET_CAPACITY);
+    }
+
+    /**
+     * Allocates a block for the native side to publish into, without a way to ask it to publish
+     * on the spot.
+     *
+     * @param capacity     the number of peers the block can hold; if the tunnel has more, reading
+     *                     fails and the caller must fall back to the userspace API
+     * @param maxAgeMillis the age beyond which a publication is not read, so that the caller falls
+     *                     back to the userspace API instead of returning old counters
+     * @return the block
+     */
+    public static StatisticsBlock allocate(final int capacity, final long maxAgeMillis) {
+        return allocate(capacity, maxAgeMillis, () -> false);
+    }
+
+    /**
+     * Allocates a block for the native side to publish into.
+     *
+     * @param capacity     the number of peers the block can hold; if the tunnel has more, reading
+     *                     fails and the caller must fall back to the userspace API
+     * @param maxAgeMillis the age beyond which a publication is not read without publishing again
+     * @param publisher    publishes into the block on the calling thread, returning whether it
+     *                     did; called by reads that find no publication younger than the maximum
+     *                     age
+     * @return the block
+     */
+    public static StatisticsBlock allocate(final int capacity, final long maxAgeMillis,
+                                           final BooleanSupplier publisher) {
+        return allocate(capacity, maxAgeMillis, publisher, System::currentTimeMillis);
+    }
+
+    static StatisticsBlock allocate(final int capacity, final long maxAgeMillis,
+                                    final BooleanSupplier publisher, final LongSupplier clock) {
+        if (capacity < 0 || capacity > (Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE)
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER_SIZE + capacity * SLOT_SIZE)
+                .order(ByteOrder.nativeOrder());
+        buffer.putInt(OFFSET_MAGIC, MAGIC);
+        buffer.putInt(OFFSET_VERSION, VERSION);
+        buffer.putInt(OFFSET_CAPACITY, capacity);
+        return new StatisticsBlock(buffer, maxAgeMillis, publisher, clock);
+    }
+
+    /**
+     * Orders the memory accesses before this call with those after it, on both sides of the
+     * sequence number.
+     * <p>
+     * {@link VarHandle#fullFence} is used where it exists, from Android 13. Before that, the
+     * fallback relies on how ART compiles volatile accesses rather than on the Java memory model,
+     * which says nothing about a writer outside Java: ART follows a volatile write with a full
+     * barrier ({@code dmb ish} on ARM, {@code mfence} or a locked instruction on x86), which
+     * orders plain accesses to the direct buffer as well.
+     */
+    @SuppressWarnings("NewApi")
+    static void fence() {
+        if (HAVE_FENCES) {
+            VarHandle.fullFence();
+        } else {
+            // Only a fence because of the barrier ART emits after the volatile write.
+            barrier = 0;
+            @SuppressWarnings("unused") final int ignored = barrier;
+        }
+    }
+
+    private static boolean haveFences() {
+        try {
+            VarHandle.class.getMethod("fullFence");
+            return true;
+        } catch (final ReflectiveOperationException | LinkageError ignored) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the shared memory, to be handed to the native side.
+     *
+     * @return the direct buffer backing the block
+     */
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the number of peers the block can hold
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Reports the peers of the last successful {@link #read} to a sink, in order.
+     *
+     * @param sink the receiver of each peer's statistics
+     */
+    synchronized void forEach(final StatisticsParser.Sink sink) {
+        for (int i = 0; i < count; ++i) {
+            final int offset = i * SLOT_SIZE;
+            System.arraycopy(slots, offset, key, 0, KEY_LENGTH);
+            sink.add(key, slotsView.getLong(offset + SLOT_RX), slotsView.getLong(offset + SLOT_TX),
+                    slotsView.getLong(offset + SLOT_HANDSHAKE));
+        }
+    }
+
+    /**
+     * @return the time at which the data of the last successful {@link #read} was published, in
+     * milliseconds since the epoch
+     */
+    public synchronized long getPublishedEpochMillis() {
+        return publishedEpochMillis;
+    }
+
+    /**
+     * Takes a consistent copy of the peers in the block.
+     * <p>
+     * The writer publishes on each tick after a read that found a recent publication, which keeps
+     * a reader polling more often than the maximum age supplied without any call into the native
+     * side. A read that finds nothing recent asks the publisher to publish on the spot instead,
+     * and does not count as a read for the ticks, so that a reader polling less often pays for
+     * one publication per poll rather than for one it refuses and the userspace API on top.
+     *
+     * @return true if the copy succeeded; false if nothing recent could be published, the tunnel
+     * has more peers than the block can hold, or the writer kept changing the block while it was
+     * copied
+     */
+    synchronized boolean read() {
+        int result = copy();
+        if (result == READ_OUTDATED && publisher.getAsBoolean())
+            result = copy();
+        else if (result == READ_COPIED)
+            buffer.putInt(OFFSET_DEMAND, buffer.getInt(OFFSET_DEMAND) + 1);
+        return result == READ_COPIED;
+    }
+
+    private int copy() {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; ++attempt) {
+            final long sequence = buffer.getLong(OFFSET_SEQUENCE);
+            fence();
+            if (sequence == 0)
+                return READ_OUTDATED;
+            if ((sequence & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            final int published = buffer.getInt(OFFSET_COUNT);
+            final long epochMillis = buffer.getLong(OFFSET_EPOCH_MILLIS);
+            // Checked before copying. During a publication this may still be the time of the
+            // previous one, which at worst publishes once more.
+            if (clock.getAsLong() - epochMillis > maxAgeMillis)
+                return READ_OUTDATED;
+            final int copied = Math.max(0, Math.min(published, capacity));
+            final int length = copied * SLOT_SIZE;
+            if (slots.length < length) {
+                slots = new byte[length];
+                slotsView = ByteBuffer.wrap(slots).order(ByteOrder.nativeOrder());
+            }
+            source.position(HEADER_SIZE);
+            source.get(slots, 0, length);
+            fence();
+            if (buffer.getLong(OFFSET_SEQUENCE) != sequence)
+                continue;
+            if (published != copied)
+                return READ_FAILED;
+            count = copied;
+            publishedEpochMillis = epochMillis;
+            return READ_COPIED;
+        }
+        return READ_FAILED;
+    }
+}
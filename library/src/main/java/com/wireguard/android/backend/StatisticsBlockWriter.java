@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import com.wireguard.crypto.Key;
+import com.wireguard.util.NonNullForAll;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Publishes peer counters into a {@link StatisticsBlock} the way wireguard-go does, for tests
+ * and benchmarks of the reader.
+ * <p>
+ * A publication is written with {@link #begin}, one {@link #add} per peer and {@link #end}. As on
+ * the native side, peers beyond the capacity of the block are counted but not written.
+ */
+@NonNullForAll
+final class StatisticsBlockWriter {
+    private static final int KEY_LENGTH = Key.Format.BINARY.getLength();
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private int count;
+    private long sequence;
+
+    StatisticsBlockWriter(final StatisticsBlock block) {
+        buffer = block.buffer();
+        capacity = block.capacity();
+    }
+
+    /**
+     * Writes the next peer of the publication in progress.
+     */
+    void add(final byte[] key, final long rxBytes, final long txBytes,
+             final long latestHandshakeEpochMillis) {
+        if (count < capacity) {
+            final int offset = StatisticsBlock.HEADER_SIZE + count * StatisticsBlock.SLOT_SIZE;
+            for (int i = 0; i < KEY_LENGTH; ++i)
+                buffer.put(offset + i, key[i]);
+            buffer.putLong(offset + StatisticsBlock.SLOT_RX, rxBytes);
+            buffer.putLong(offset + StatisticsBlock.SLOT_TX, txBytes);
+            buffer.putLong(offset + StatisticsBlock.SLOT_HANDSHAKE, latestHandshakeEpochMillis);
+        }
+        ++count;
+    }
+
+    /**
+     * Starts a publication, making the sequence number odd so that readers retry.
+     */
+    void begin() {
+        sequence = buffer.getLong(StatisticsBlock.OFFSET_SEQUENCE) + 1;
+        buffer.putLong(StatisticsBlock.OFFSET_SEQUENCE, sequence);
+        StatisticsBlock.fence();
+        count = 0;
+    }
+
+    /**
+     * @return the number of reads so far that found a recent publication, which the native side
+     * compares between ticks to decide whether to publish
+     */
+    int demand() {
+        return buffer.getInt(StatisticsBlock.OFFSET_DEMAND);
+    }
+
+    /**
+     * Ends the publication, making the sequence number even again.
+     *
+     * @param epochMillis the time of the publication, in milliseconds since the epoch
+     */
+    void end(final long epochMillis) {
+        buffer.putInt(StatisticsBlock.OFFSET_COUNT, count);
+        buffer.putLong(StatisticsBlock.OFFSET_EPOCH_MILLIS, epochMillis);
+        StatisticsBlock.fence();
+        buffer.putLong(StatisticsBlock.OFFSET_SEQUENCE, sequence + 1);
+    }
+}
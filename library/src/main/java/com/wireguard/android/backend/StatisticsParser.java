@@ -0,0 +1,127 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import com.wireguard.crypto.Key;
+import com.wireguard.crypto.KeyFormatException;
+import com.wireguard.util.NonNullForAll;
+
+/**
+ * Extracts per-peer transfer statistics from the output of a userspace API (UAPI) {@code get}
+ * operation.
+ * <p>
+ * The text is scanned in place, by index, and public keys are decoded into a caller-supplied
+ * buffer, so parsing does not allocate.
+ */
+@NonNullForAll
+final class StatisticsParser {
+    private static final String LAST_HANDSHAKE_TIME_NSEC = "last_handshake_time_nsec=";
+    private static final String LAST_HANDSHAKE_TIME_SEC = "last_handshake_time_sec=";
+    // Returned by parseLong for malformed numbers. Long.MIN_VALUE itself is then misread as
+    // malformed, which no counter or timestamp reported by the backend can be.
+    private static final long MALFORMED = Long.MIN_VALUE;
+    private static final String PUBLIC_KEY = "public_key=";
+    private static final String RX_BYTES = "rx_bytes=";
+    private static final String TX_BYTES = "tx_bytes=";
+
+    private StatisticsParser() {
+    }
+
+    /**
+     * Reports the statistics of every peer in {@code uapi} to {@code sink}, in order. Lines before
+     * the first valid {@code public_key} and unknown lines are ignored, and malformed numbers are
+     * reported as zero.
+     *
+     * @param uapi the "key=value" lines returned by the backend
+     * @param key  a buffer of {@link Key.Format#BINARY} length, into which each peer's public key
+     *             is decoded before it is reported
+     * @param sink the receiver of each peer's statistics
+     */
+    static void parse(final String uapi, final byte[] key, final Sink sink) {
+        boolean haveKey = false;
+        long rx = 0;
+        long tx = 0;
+        long latestHandshakeMSec = 0;
+        final int length = uapi.length();
+        int start = 0;
+        while (start < length) {
+            int end = uapi.indexOf('\n', start);
+            if (end == -1)
+                end = length;
+            if (uapi.startsWith(PUBLIC_KEY, start)) {
+                if (haveKey)
+                    sink.add(key, rx, tx, latestHandshakeMSec);
+                rx = 0;
+                tx = 0;
+                latestHandshakeMSec = 0;
+                try {
+                    final int offset = start + PUBLIC_KEY.length();
+                    Key.decodeHex(uapi, offset, end - offset, key, 0);
+                    haveKey = true;
+                } catch (final KeyFormatException ignored) {
+                    haveKey = false;
+                }
+            } else if (haveKey) {
+                if (uapi.startsWith(RX_BYTES, start)) {
+                    rx = orZero(parseLong(uapi, start + RX_BYTES.length(), end));
+                } else if (uapi.startsWith(TX_BYTES, start)) {
+                    tx = orZero(parseLong(uapi, start + TX_BYTES.length(), end));
+                } else if (uapi.startsWith(LAST_HANDSHAKE_TIME_SEC, start)) {
+                    final long sec = parseLong(uapi, start + LAST_HANDSHAKE_TIME_SEC.length(), end);
+                    latestHandshakeMSec = sec == MALFORMED ? 0 : latestHandshakeMSec + sec * 1000;
+                } else if (uapi.startsWith(LAST_HANDSHAKE_TIME_NSEC, start)) {
+                    final long nsec = parseLong(uapi, start + LAST_HANDSHAKE_TIME_NSEC.length(), end);
+                    latestHandshakeMSec = nsec == MALFORMED ? 0 : latestHandshakeMSec + nsec / 1000000;
+                }
+            }
+            start = end + 1;
+        }
+        if (haveKey)
+            sink.add(key, rx, tx, latestHandshakeMSec);
+    }
+
+    private static long orZero(final long value) {
+        return value == MALFORMED ? 0 : value;
+    }
+
+    /**
+     * Parses a decimal number like {@link Long#parseLong(String)}, without allocating.
+     *
+     * @return the number, or {@link #MALFORMED} if the text is not a number that fits a long
+     */
+    private static long parseLong(final String s, final int start, final int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+            negative = s.charAt(i++) == '-';
+        if (i == end)
+            return MALFORMED;
+        // Accumulate negatively, as Long.MIN_VALUE has no positive counterpart.
+        final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long result = 0;
+        for (; i < end; ++i) {
+            final int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || result < (limit + digit) / 10)
+                return MALFORMED;
+            result = result * 10 - digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Receives the statistics of one peer.
+     */
+    interface Sink {
+        /**
+         * @param publicKey                  the peer's public key; the buffer is reused for the
+         *                                   next peer, so it is only valid during the call
+         * @param rxBytes                    the number of bytes received from the peer
+         * @param txBytes                    the number of bytes sent to the peer
+         * @param latestHandshakeEpochMillis the time of the latest handshake, or zero
+         */
+        void add(byte[] publicKey, long rxBytes, long txBytes, long latestHandshakeEpochMillis);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import com.wireguard.crypto.Key;
+import com.wireguard.util.NonNullForAll;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.Nullable;
+
+/**
+ * An immutable sample of a tunnel's transfer statistics, taken by a {@link StatisticsSampler}.
+ * Besides the cumulative byte counts of {@link Statistics}, it carries the transfer rates since
+ * the previous sample and the age of each peer's latest handshake.
+ */
+@NonNullForAll
+public final class StatisticsSample {
+    private final long elapsedRealtime;
+    private final long intervalMillis;
+    private final Map<Key, PeerSample> peerMap;
+    private final boolean traffic;
+    private final List<PeerSample> peers;
+    private final long rxBytes;
+    private final long rxBytesPerSecond;
+    private final long txBytes;
+    private final long txBytesPerSecond;
+
+    private StatisticsSample(final long elapsedRealtime, final long intervalMillis,
+                             final List<PeerSample> peers, final Map<Key, PeerSample> peerMap,
+                             final boolean traffic) {
+        this.elapsedRealtime = elapsedRealtime;
+        this.traffic = traffic;
+        this.intervalMillis = intervalMillis;
+        this.peers = peers;
+        this.peerMap = peerMap;
+        long rx = 0;
+        long tx = 0;
+        long rxRate = 0;
+        long txRate = 0;
+        for (final PeerSample peer : peers) {
+            rx += peer.rxBytes();
+            tx += peer.txBytes();
+            rxRate += peer.rxBytesPerSecond();
+            txRate += peer.txBytesPerSecond();
+        }
+        rxBytes = rx;
+        txBytes = tx;
+        rxBytesPerSecond = rxRate;
+        txBytesPerSecond = txRate;
+    }
+
+    /**
+     * Takes a sample of the current statistics of a tunnel.
+     *
+     * @param statistics      the statistics, just refreshed
+     * @param previous        the previous sample of the same tunnel, from which rates are computed,
+     *                        or null if this is the first one
+     * @param elapsedRealtime the time of the sample, in milliseconds since boot
+     * @param epochMillis     the time of the sample, in milliseconds since the epoch
+     * @return the sample
+     */
+    static StatisticsSample of(final Statistics statistics, @Nullable final StatisticsSample previous,
+                               final long elapsedRealtime, final long epochMillis) {
+        final long interval = previous != null ? elapsedRealtime - previous.elapsedRealtime : 0;
+        final Statistics.Snapshot snapshot = statistics.snapshot();
+        final List<Key> keys = snapshot.peers();
+        final List<PeerSample> peers = new ArrayList<>(keys.size());
+        final Map<Key, PeerSample> peerMap = new HashMap<>(keys.size() * 2);
+        boolean traffic = false;
+        for (final Key key : keys) {
+            final Statistics.PeerStats stats = snapshot.peer(key);
+            if (stats == null)
+                continue;
+            final PeerSample last = previous != null ? previous.peer(key) : null;
+            final long handshake = stats.latestHandshakeEpochMillis();
+            final PeerSample peer = new PeerSample(key, stats.rxBytes(), stats.txBytes(),
+                    last != null ? rate(last.rxBytes(), stats.rxBytes(), interval) : 0,
+                    last != null ? rate(last.txBytes(), stats.txBytes(), interval) : 0,
+                    handshake, handshake > 0 ? Math.max(0, epochMillis - handshake) : -1);
+            // Compare counters rather than rates, which round a few bytes down to zero.
+            if (last != null && (last.rxBytes() != peer.rxBytes() || last.txBytes() != peer.txBytes()))
+                traffic = true;
+            peers.add(peer);
+            peerMap.put(key, peer);
+        }
+        return new StatisticsSample(elapsedRealtime, interval, Collections.unmodifiableList(peers),
+                peerMap, traffic);
+    }
+
+    private static long rate(final long before, final long after, final long intervalMillis) {
+        // Counters start over when a peer is removed and added again.
+        if (intervalMillis <= 0 || after < before)
+            return 0;
+        return (after - before) * 1000 / intervalMillis;
+    }
+
+    /**
+     * @return the time the sample was taken, in milliseconds since boot
+     */
+    public long getElapsedRealtime() {
+        return elapsedRealtime;
+    }
+
+    /**
+     * @return the time since the previous sample in milliseconds, or zero for the first sample
+     */
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * @return the peers of the tunnel, in the order the backend reported them
+     */
+    public List<PeerSample> getPeers() {
+        return peers;
+    }
+
+    /**
+     * @return the total number of bytes received from all peers
+     */
+    public long getRxBytes() {
+        return rxBytes;
+    }
+
+    /**
+     * @return the total receive rate of all peers since the previous sample, in bytes per second
+     */
+    public long getRxBytesPerSecond() {
+        return rxBytesPerSecond;
+    }
+
+    /**
+     * @return the total number of bytes sent to all peers
+     */
+    public long getTxBytes() {
+        return txBytes;
+    }
+
+    /**
+     * @return the total transmit rate of all peers since the previous sample, in bytes per second
+     */
+    public long getTxBytesPerSecond() {
+        return txBytesPerSecond;
+    }
+
+    /**
+     * Returns whether any peer sent or received data since the previous sample.
+     *
+     * @return true if the tunnel carried traffic
+     */
+    public boolean hasTraffic() {
+        return traffic;
+    }
+
+    /**
+     * Get the sample of the peer with the given public key.
+     *
+     * @param publicKey the public key of a peer
+     * @return the peer's sample, or null if the tunnel has no such peer
+     */
+    @Nullable
+    public PeerSample peer(final Key publicKey) {
+        return peerMap.get(publicKey);
+    }
+
+    @Override
+    public String toString() {
+        return "(StatisticsSample " + peers.size() + " peers, rx " + rxBytesPerSecond + " B/s, tx "
+                + txBytesPerSecond + " B/s)";
+    }
+
+    /**
+     * The sample of one peer.
+     *
+     * @param publicKey                  the peer's public key
+     * @param rxBytes                    the number of bytes received from the peer
+     * @param txBytes                    the number of bytes sent to the peer
+     * @param rxBytesPerSecond           the receive rate since the previous sample
+     * @param txBytesPerSecond           the transmit rate since the previous sample
+     * @param latestHandshakeEpochMillis the time of the latest handshake, or zero if there was none
+     * @param handshakeAgeMillis         the time since the latest handshake, or -1 if there was none
+     */
+    public record PeerSample(Key publicKey, long rxBytes, long txBytes, long rxBytesPerSecond,
+                             long txBytesPerSecond, long latestHandshakeEpochMillis,
+                             long handshakeAgeMillis) { }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.wireguard.util.NonNullForAll;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Polls the statistics of a running tunnel and pushes {@link StatisticsSample}s, with transfer
+ * rates and handshake ages, to listeners.
+ * <p>
+ * The sampler only polls while it has listeners. It polls every {@link Builder#setInterval
+ * interval} while the tunnel carries traffic, backs off by doubling the delay up to a
+ * {@link Builder#setMaxInterval maximum} while it is idle, and polls every
+ * {@link Builder#setScreenOffInterval screen-off interval} while the screen is off, as reported
+ * by {@link #setScreenOn}.
+ * <p>
+ * Each listener is called on its own executor, one sample at a time. A listener that is still
+ * busy with a sample when newer ones are taken only receives the latest of them.
+ */
+@NonNullForAll
+public final class StatisticsSampler implements AutoCloseable {
+    private static final String TAG = "WireGuard/StatisticsSampler";
+    private final Backend backend;
+    private boolean closed;
+    private long delay;
+    private final LongSupplier elapsedRealtime;
+    private final LongSupplier epochMillis;
+    private int generation;
+    private final long interval;
+    @Nullable private volatile StatisticsSample latest;
+    private final List<Subscription> listeners = new CopyOnWriteArrayList<>();
+    private final long maxInterval;
+    private final boolean ownsScheduler;
+    @Nullable private ScheduledFuture<?> pending;
+    private final ScheduledExecutorService scheduler;
+    private boolean screenOn = true;
+    private final long screenOffInterval;
+    private final Statistics statistics;
+    private final Tunnel tunnel;
+
+    private StatisticsSampler(final Builder builder) {
+        backend = builder.backend;
+        tunnel = builder.tunnel;
+        interval = builder.interval;
+        maxInterval = Math.max(builder.interval, builder.maxInterval);
+        screenOffInterval = builder.screenOffInterval;
+        elapsedRealtime = builder.elapsedRealtime;
+        epochMillis = builder.epochMillis;
+        statistics = new Statistics(elapsedRealtime);
+        delay = interval;
+        if (builder.scheduler != null) {
+            scheduler = builder.scheduler;
+            ownsScheduler = false;
+        } else {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, TAG);
+                thread.setDaemon(true);
+                return thread;
+            });
+            ownsScheduler = true;
+        }
+    }
+
+    /**
+     * Starts delivering samples to a listener on the given executor. Polling starts if this is
+     * the first listener.
+     *
+     * @param listener the listener
+     * @param executor the executor that calls the listener
+     */
+    public void addListener(final Listener listener, final Executor executor) {
+        listeners.add(new Subscription(listener, executor));
+        synchronized (this) {
+            if (pending == null)
+                schedule(0);
+        }
+    }
+
+    /**
+     * Stops polling and delivering samples. A scheduler created by the sampler is shut down.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            cancel();
+        }
+        listeners.clear();
+        if (ownsScheduler)
+            scheduler.shutdown();
+    }
+
+    private void cancel() {
+        ++generation;
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    /**
+     * @return the most recent sample, or null if none has been taken yet
+     */
+    @Nullable
+    public StatisticsSample getLatest() {
+        return latest;
+    }
+
+    /**
+     * Returns the delay until the next poll, which depends on the screen state and on how long
+     * the tunnel has been idle.
+     *
+     * @return the delay in milliseconds
+     */
+    synchronized long getDelay() {
+        return screenOn ? delay : Math.max(delay, screenOffInterval);
+    }
+
+    /**
+     * Stops delivering samples to a listener. Polling stops with the last listener.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(final Listener listener) {
+        for (final Subscription subscription : listeners) {
+            if (subscription.listener == listener)
+                listeners.remove(subscription);
+        }
+        synchronized (this) {
+            if (listeners.isEmpty())
+                cancel();
+        }
+    }
+
+    /**
+     * Polls the backend once and delivers the sample to all listeners.
+     */
+    void sample() {
+        final StatisticsSample sample;
+        // Polls only overlap if a custom scheduler has several threads.
+        synchronized (statistics) {
+            try {
+                backend.refreshStatistics(tunnel, statistics);
+            } catch (final Exception e) {
+                Log.w(TAG, "Unable to refresh statistics", e);
+                return;
+            }
+            sample = StatisticsSample.of(statistics, latest, elapsedRealtime.getAsLong(),
+                    epochMillis.getAsLong());
+            latest = sample;
+        }
+        synchronized (this) {
+            // Back off while idle; return to the base interval as soon as traffic flows.
+            if (sample.getIntervalMillis() == 0 || sample.hasTraffic())
+                delay = interval;
+            else
+                delay = Math.min(delay * 2, maxInterval);
+        }
+        for (final Subscription subscription : listeners)
+            subscription.offer(sample);
+    }
+
+    private synchronized void schedule(final long delayMillis) {
+        if (closed || listeners.isEmpty()) {
+            pending = null;
+            return;
+        }
+        // Polls scheduled before a cancellation must not schedule further polls.
+        final int scheduled = ++generation;
+        pending = scheduler.schedule(() -> {
+            try {
+                sample();
+            } catch (final RuntimeException e) {
+                Log.e(TAG, "Unable to sample statistics", e);
+            } finally {
+                // Whatever went wrong, a poll that is not rescheduled would stop the sampler for
+                // good, since addListener only starts polling when none is pending.
+                synchronized (this) {
+                    if (generation == scheduled && pending != null)
+                        schedule(getDelay());
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Tells the sampler whether the screen is on. While it is off, the sampler polls at the
+     * screen-off interval; when it comes back on, a sample is taken immediately.
+     *
+     * @param on true if the screen is on
+     */
+    public void setScreenOn(final boolean on) {
+        synchronized (this) {
+            if (screenOn == on)
+                return;
+            screenOn = on;
+            if (pending == null)
+                return;
+            if (on) {
+                delay = interval;
+                cancel();
+                schedule(0);
+            }
+        }
+    }
+
+    /**
+     * Receives the samples taken by a {@link StatisticsSampler}.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void onSample(StatisticsSample sample);
+    }
+
+    @SuppressWarnings("UnusedReturnValue")
+    public static final class Builder {
+        private final Backend backend;
+        private LongSupplier elapsedRealtime = SystemClock::elapsedRealtime;
+        private LongSupplier epochMillis = System::currentTimeMillis;
+        private long interval = 1000;
+        private long maxInterval = 5000;
+        @Nullable private ScheduledExecutorService scheduler;
+        private long screenOffInterval = 30000;
+        private final Tunnel tunnel;
+
+        /**
+         * @param backend the backend running the tunnel
+         * @param tunnel  the tunnel to sample
+         */
+        public Builder(final Backend backend, final Tunnel tunnel) {
+            this.backend = backend;
+            this.tunnel = tunnel;
+        }
+
+        public StatisticsSampler build() {
+            return new StatisticsSampler(this);
+        }
+
+        Builder setClocks(final LongSupplier elapsedRealtime, final LongSupplier epochMillis) {
+            this.elapsedRealtime = elapsedRealtime;
+            this.epochMillis = epochMillis;
+            return this;
+        }
+
+        /**
+         * @param interval the delay between polls while the tunnel carries traffic, in
+         *                 milliseconds; 1 second by default
+         */
+        public Builder setInterval(final long interval) {
+            if (interval <= 0)
+                throw new IllegalArgumentException("Interval must be positive");
+            this.interval = interval;
+            return this;
+        }
+
+        /**
+         * @param maxInterval the longest delay between polls while the tunnel is idle, in
+         *                    milliseconds; 5 seconds by default
+         */
+        public Builder setMaxInterval(final long maxInterval) {
+            this.maxInterval = maxInterval;
+            return this;
+        }
+
+        /**
+         * @param scheduler the executor that polls the backend; by default, the sampler creates
+         *                  and owns a single daemon thread
+         */
+        public Builder setScheduler(final ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * @param screenOffInterval the delay between polls while the screen is off, in
+         *                          milliseconds; 30 seconds by default
+         */
+        public Builder setScreenOffInterval(final long screenOffInterval) {
+            this.screenOffInterval = screenOffInterval;
+            return this;
+        }
+    }
+
+    /**
+     * A listener with its executor and the latest sample it has not yet been given. Samples
+     * taken while the listener is busy replace each other, so a slow listener is never more
+     * than one sample behind.
+     */
+    private static final class Subscription {
+        final Executor executor;
+        final Listener listener;
+        private final AtomicReference<StatisticsSample> next = new AtomicReference<>();
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        Subscription(final Listener listener, final Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        private void drain() {
+            try {
+                StatisticsSample sample;
+                while ((sample = next.getAndSet(null)) != null)
+                    listener.onSample(sample);
+            } finally {
+                running.set(false);
+            }
+            // A sample may have arrived after the loop ended but before the flag was reset.
+            if (next.get() != null && running.compareAndSet(false, true))
+                submit();
+        }
+
+        void offer(final StatisticsSample sample) {
+            next.set(sample);
+            if (running.compareAndSet(false, true))
+                submit();
+        }
+
+        // Runs drain on the executor. If the executor refuses, the next sample tries again.
+        private void submit() {
+            try {
+                executor.execute(this::drain);
+            } catch (final RejectedExecutionException e) {
+                running.set(false);
+                Log.w(TAG, "Listener executor rejected a sample", e);
+            }
+        }
+    }
+}
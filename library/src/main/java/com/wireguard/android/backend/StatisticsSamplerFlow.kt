@@ -0,0 +1,20 @@
+@file:JvmName("StatisticsSamplerFlow")
+
+package com.wireguard.android.backend
+
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.conflate
+
+/**
+ * Returns a cold [Flow] of the samples taken by this sampler. Collecting the flow adds a listener
+ * to the sampler, which starts polling if it was not already, and cancelling the collection
+ * removes the listener again. The flow is conflated, so a slow collector skips to the latest
+ * sample instead of falling behind.
+ */
+fun StatisticsSampler.samples(): Flow<StatisticsSample> = callbackFlow {
+    val listener = StatisticsSampler.Listener { trySend(it) }
+    addListener(listener) { it.run() }
+    awaitClose { removeListener(listener) }
+}.conflate()
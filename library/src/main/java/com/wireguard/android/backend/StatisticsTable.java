@@ -0,0 +1,357 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import com.wireguard.crypto.Key;
+import com.wireguard.crypto.KeyFormatException;
+import com.wireguard.util.NonNullForAll;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Transfer statistics for a {@link Tunnel} with a very large number of peers, stored by column.
+ * <p>
+ * Where {@link Statistics} holds a {@link Key} object per peer, this class packs the public keys
+ * of all peers into one array and their counters into parallel {@code long} arrays, and finds peers
+ * through an open-addressing index over the packed keys. Peers are addressed by their index, from
+ * zero to {@link #size()}, in the order the backend reported them. Refreshing does not allocate
+ * unless the number of peers grows, and the bulk operations walk the arrays without allocating.
+ * <p>
+ * Instances are filled by {@link Backend#refreshStatistics(Tunnel, StatisticsTable)}. They are not
+ * thread-safe: refreshing and reading must happen on the same thread, or be synchronized by the
+ * caller.
+ */
+@NonNullForAll
+public final class StatisticsTable {
+    private static final int KEY_LENGTH = Key.Format.BINARY.getLength();
+    private byte[] keys = new byte[0];
+    private long[] latestHandshakes = new long[0];
+    private final byte[] publicKey = new byte[KEY_LENGTH];
+    // Set when a peer is not where it was in the previous refresh, so that the index is rebuilt.
+    private boolean reordered;
+    private int refreshed;
+    private long[] rxBytes = new long[0];
+    private int size;
+    private final StatisticsParser.Sink sink = this::add;
+    // The index of the peer in each slot plus one, or zero for a free slot.
+    private int[] slots = new int[2];
+    private long totalRx;
+    private long totalTx;
+    private long[] txBytes = new long[0];
+
+    /**
+     * Stores the statistics of the next peer while refreshing.
+     */
+    void add(final byte[] key, final long rx, final long tx, final long latestHandshake) {
+        final int index = refreshed++;
+        grow(refreshed);
+        final int offset = index * KEY_LENGTH;
+        if (index >= size || !equals(key, offset)) {
+            System.arraycopy(key, 0, keys, offset, KEY_LENGTH);
+            reordered = true;
+        }
+        rxBytes[index] = rx;
+        txBytes[index] = tx;
+        latestHandshakes[index] = latestHandshake;
+        totalRx += rx;
+        totalTx += tx;
+    }
+
+    /**
+     * Starts refreshing. Every peer must then be {@link #add added}, in order, before the refresh
+     * is {@link #end ended}.
+     */
+    void begin() {
+        refreshed = 0;
+        reordered = false;
+        totalRx = 0;
+        totalTx = 0;
+    }
+
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+    }
+
+    /**
+     * Copies the public key of a peer into an array.
+     *
+     * @param index  the index of the peer
+     * @param dest   the destination array
+     * @param offset the index in {@code dest} at which to store the key
+     */
+    public void copyKey(final int index, final byte[] dest, final int offset) {
+        checkIndex(index);
+        System.arraycopy(keys, index * KEY_LENGTH, dest, offset, KEY_LENGTH);
+    }
+
+    /**
+     * Ends refreshing, dropping the peers that were not added and rebuilding the index if the
+     * peers changed.
+     */
+    void end() {
+        if (refreshed != size) {
+            size = refreshed;
+            reordered = true;
+        }
+        if (reordered)
+            rebuildIndex();
+    }
+
+    private boolean equals(final byte[] key, final int offset) {
+        for (int i = 0; i < KEY_LENGTH; ++i) {
+            if (keys[offset + i] != key[i])
+                return false;
+        }
+        return true;
+    }
+
+    private void grow(final int capacity) {
+        if (capacity <= rxBytes.length)
+            return;
+        final int newCapacity = Math.max(capacity, rxBytes.length * 2);
+        keys = Arrays.copyOf(keys, newCapacity * KEY_LENGTH);
+        rxBytes = Arrays.copyOf(rxBytes, newCapacity);
+        txBytes = Arrays.copyOf(txBytes, newCapacity);
+        latestHandshakes = Arrays.copyOf(latestHandshakes, newCapacity);
+    }
+
+    /**
+     * Finds a peer by its public key.
+     *
+     * @param key the public key of a peer
+     * @return the index of the peer, or -1 if there is no such peer
+     */
+    public int indexOf(final Key key) {
+        final int mask = slots.length - 1;
+        int slot;
+        for (int i = key.hashCode() & mask; (slot = slots[i]) != 0; i = (i + 1) & mask) {
+            if (key.equalsBytes(keys, (slot - 1) * KEY_LENGTH))
+                return slot - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds a peer by its public key in binary format.
+     *
+     * @param key    an array containing a public key in binary format
+     * @param offset the index in {@code key} of the first byte of the key
+     * @return the index of the peer, or -1 if there is no such peer
+     */
+    public int indexOf(final byte[] key, final int offset) {
+        final int mask = slots.length - 1;
+        int slot;
+        for (int i = Key.hashBytes(key, offset) & mask; (slot = slots[i]) != 0; i = (i + 1) & mask) {
+            final int start = (slot - 1) * KEY_LENGTH;
+            int j = 0;
+            while (j < KEY_LENGTH && keys[start + j] == key[offset + j])
+                ++j;
+            if (j == KEY_LENGTH)
+                return slot - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the public key of a peer. This allocates a {@link Key}; use
+     * {@link #copyKey} to avoid that.
+     *
+     * @param index the index of the peer
+     * @return the peer's public key
+     */
+    public Key key(final int index) {
+        checkIndex(index);
+        try {
+            return Key.fromBytes(ByteBuffer.wrap(keys, index * KEY_LENGTH, KEY_LENGTH));
+        } catch (final KeyFormatException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param index the index of the peer
+     * @return the time of the peer's latest handshake, in milliseconds since the epoch, or zero if
+     * there was none
+     */
+    public long latestHandshakeEpochMillis(final int index) {
+        checkIndex(index);
+        return latestHandshakes[index];
+    }
+
+    // Whether peer a ranks below peer b by traffic. Ties go to the peer reported first.
+    private boolean ranksBelow(final int a, final int b) {
+        final long trafficA = rxBytes[a] + txBytes[a];
+        final long trafficB = rxBytes[b] + txBytes[b];
+        return trafficA < trafficB || (trafficA == trafficB && a > b);
+    }
+
+    private void rebuildIndex() {
+        // Keep the table at most half full, so that probe sequences stay short.
+        final int capacity = Math.max(2, Integer.highestOneBit(Math.max(size, 1)) * 4);
+        if (slots.length != capacity)
+            slots = new int[capacity];
+        else
+            Arrays.fill(slots, 0);
+        final int mask = capacity - 1;
+        for (int index = 0; index < size; ++index) {
+            int i = Key.hashBytes(keys, index * KEY_LENGTH) & mask;
+            while (slots[i] != 0)
+                i = (i + 1) & mask;
+            slots[i] = index + 1;
+        }
+    }
+
+    /**
+     * Replaces the contents of this instance with the statistics in the output of a userspace
+     * API {@code get} operation.
+     *
+     * @param uapi the "key=value" lines returned by the backend
+     */
+    void refresh(final String uapi) {
+        begin();
+        StatisticsParser.parse(uapi, publicKey, sink);
+        end();
+    }
+
+    /**
+     * Replaces the contents of this instance with the peers published in a shared
+     * {@link StatisticsBlock}. If the block cannot be read, this instance is left unchanged.
+     *
+     * @param block the block to read
+     * @return true if the block was read
+     */
+    boolean refresh(final StatisticsBlock block) {
+        if (!block.read())
+            return false;
+        begin();
+        block.forEach(sink);
+        end();
+        return true;
+    }
+
+    /**
+     * @param index the index of the peer
+     * @return the number of bytes received from the peer
+     */
+    public long rxBytes(final int index) {
+        checkIndex(index);
+        return rxBytes[index];
+    }
+
+    private void siftDown(final int[] heap, final int count, int parent) {
+        final int peer = heap[parent];
+        for (int child; (child = 2 * parent + 1) < count; parent = child) {
+            if (child + 1 < count && ranksBelow(heap[child + 1], heap[child]))
+                ++child;
+            if (!ranksBelow(heap[child], peer))
+                break;
+            heap[parent] = heap[child];
+        }
+        heap[parent] = peer;
+    }
+
+    /**
+     * @return the number of peers
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Sums the bytes received from a subset of the peers.
+     *
+     * @param indices the indices of the peers; negative indices, as returned by {@link #indexOf}
+     *                for unknown peers, are skipped
+     * @return the number of bytes received from those peers
+     */
+    public long sumRx(final int[] indices) {
+        long total = 0;
+        for (final int index : indices) {
+            if (index >= 0) {
+                checkIndex(index);
+                total += rxBytes[index];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Sums the bytes sent to a subset of the peers.
+     *
+     * @param indices the indices of the peers; negative indices, as returned by {@link #indexOf}
+     *                for unknown peers, are skipped
+     * @return the number of bytes sent to those peers
+     */
+    public long sumTx(final int[] indices) {
+        long total = 0;
+        for (final int index : indices) {
+            if (index >= 0) {
+                checkIndex(index);
+                total += txBytes[index];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Finds the peers with the most traffic, received and sent, in a single pass and without
+     * allocating.
+     *
+     * @param dest an array that receives the indices of the peers, from most to least traffic; its
+     *             length is the number of peers to find
+     * @return the number of indices stored, which is less than the length of {@code dest} if
+     * there are fewer peers
+     */
+    public int topByTraffic(final int[] dest) {
+        final int count = Math.min(dest.length, size);
+        if (count == 0)
+            return 0;
+        // Keep the top peers seen so far in a heap whose root is the one that ranks lowest.
+        for (int index = 0; index < count; ++index)
+            dest[index] = index;
+        for (int i = count / 2 - 1; i >= 0; --i)
+            siftDown(dest, count, i);
+        for (int index = count; index < size; ++index) {
+            if (ranksBelow(dest[0], index)) {
+                dest[0] = index;
+                siftDown(dest, count, 0);
+            }
+        }
+        // Sort in place by moving the lowest ranking peer to the end, one at a time.
+        for (int end = count - 1; end > 0; --end) {
+            final int lowest = dest[0];
+            dest[0] = dest[end];
+            dest[end] = lowest;
+            siftDown(dest, end, 0);
+        }
+        return count;
+    }
+
+    /**
+     * @return the total number of bytes received from all peers
+     */
+    public long totalRx() {
+        return totalRx;
+    }
+
+    /**
+     * @return the total number of bytes sent to all peers
+     */
+    public long totalTx() {
+        return totalTx;
+    }
+
+    /**
+     * @param index the index of the peer
+     * @return the number of bytes sent to the peer
+     */
+    public long txBytes(final int index) {
+        checkIndex(index);
+        return txBytes[index];
+    }
+}
@@ -6,7 +6,6 @@ import com.wireguard.util.NonNullForAll
 class Attribute private constructor(val key: String, val value: String) {
     companion object {
         private val LINE_PATTERN = "(\\w+)\\s*=\\s*([^\\s#][^#]*)".toRegex()
-        private const val LIST_SEPARATOR = "\\s*,\\s*"
 
         fun join(values: Iterable<*>): String = values.joinToString(", ") { it.toString() }
 
@@ -15,6 +14,39 @@ class Attribute private constructor(val key: String, val value: String) {
                 Attribute(matchResult.groupValues[1], matchResult.groupValues[2])
             }
 
-        fun split(value: CharSequence): Array<String> = value.split(LIST_SEPARATOR.toRegex()).toTypedArray()
+        /**
+         * Splits a comma-separated list, dropping any whitespace around the commas. This behaves
+         * exactly like splitting on the regular expression `\s*,\s*`, but without compiling or
+         * running a regular expression.
+         */
+        fun split(value: CharSequence): Array<String> {
+            val parts = ArrayList<String>()
+            var start = 0
+            var comma = indexOfComma(value, start)
+            while (comma >= 0) {
+                var end = comma
+                while (end > start && isSpace(value[end - 1]))
+                    --end
+                parts.add(value.subSequence(start, end).toString())
+                start = comma + 1
+                while (start < value.length && isSpace(value[start]))
+                    ++start
+                comma = indexOfComma(value, start)
+            }
+            parts.add(value.subSequence(start, value.length).toString())
+            return parts.toTypedArray()
+        }
+
+        private fun indexOfComma(value: CharSequence, from: Int): Int {
+            for (i in from until value.length) {
+                if (value[i] == ',')
+                    return i
+            }
+            return -1
+        }
+
+        // Equivalent to the "\s" character class of java.util.regex.
+        private fun isSpace(c: Char): Boolean =
+            c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\u000C' || c == '\r'
     }
 }
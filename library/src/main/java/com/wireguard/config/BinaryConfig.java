@@ -0,0 +1,468 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import com.wireguard.config.BadConfigException.Location;
+import com.wireguard.config.BadConfigException.Reason;
+import com.wireguard.config.BadConfigException.Section;
+import com.wireguard.crypto.Key;
+import com.wireguard.crypto.KeyFormatException;
+import com.wireguard.crypto.KeyPair;
+import com.wireguard.util.NonNullForAll;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Compact, versioned binary encoding of a {@link Config}. Keys are stored as raw 32-byte blobs,
+ * addresses as packed bytes, and the interface's public key is stored next to its private key, so
+ * decoding involves no text parsing, no base64 and no Curve25519 evaluation.
+ * <p>
+ * Layout (all integers are big-endian):
+ * <pre>
+ * config    := magic:u32 version:u8 interface peerCount:u32 peer*
+ * interface := privateKey:32 publicKey:32 listenPort:u16 mtu:u32
+ *              addresses:networks dnsServers:addresses dnsSearchDomains:strings
+ *              excludedApplications:strings includedApplications:strings
+ * peer      := length:u32 publicKey:32 flags:u8 [preSharedKey:32] [endpoint]
+ *              [persistentKeepalive:u16] allowedIps:networks
+ * endpoint  := resolved:u8 host:string port:u16
+ * networks  := count:u32 (address mask:u8)*
+ * address   := 4 bytes:4 | 6 bytes:16 | 0 text:string
+ * strings   := count:u32 string*
+ * string    := length:u16 utf8:length
+ * </pre>
+ * Each peer record is prefixed with its length, so that readers can skip over peers without
+ * decoding them.
+ */
+@NonNullForAll
+final class BinaryConfig {
+    static final int MAGIC = 0x57474346; // "WGCF"
+    static final int VERSION = 1;
+
+    private static final int ADDRESS_TEXT = 0;
+    private static final int ADDRESS_V4 = 4;
+    private static final int ADDRESS_V6 = 6;
+    private static final int PEER_HAS_ENDPOINT = 2;
+    private static final int PEER_HAS_KEEPALIVE = 4;
+    private static final int PEER_HAS_PRE_SHARED_KEY = 1;
+
+    private BinaryConfig() {
+    }
+
+    /**
+     * Decodes a complete configuration.
+     *
+     * @param buffer a buffer positioned at the start of an encoded configuration; on return, it is
+     *               positioned just past it
+     * @return the decoded configuration
+     */
+    static Config read(final ByteBuffer buffer) throws IOException, BadConfigException {
+        readHeader(buffer);
+        final Config.Builder builder = new Config.Builder();
+        builder.setInterface(readInterface(buffer));
+        final int peerCount = readCount(buffer);
+        for (int i = 0; i < peerCount; ++i)
+            builder.addPeer(readPeerRecord(buffer));
+        return builder.build();
+    }
+
+    /**
+     * Decodes a configuration whose peers are only decoded when they are first accessed through
+     * {@link Config#getPeers()}. The interface is decoded immediately. The returned configuration
+     * keeps a reference to the buffer, which must therefore not be modified afterwards.
+     *
+     * @param buffer a buffer containing exactly one encoded configuration
+     * @return the decoded configuration
+     */
+    static Config readLazily(final ByteBuffer buffer) throws IOException, BadConfigException {
+        readHeader(buffer);
+        final Interface interfaze = readInterface(buffer);
+        final int peerCount = readCount(buffer);
+        return new Config(interfaze, new LazyPeerList(buffer.slice(), peerCount));
+    }
+
+    private static InetAddress readAddress(final ByteBuffer buffer) throws IOException {
+        try {
+            final int family = readByte(buffer);
+            switch (family) {
+                case ADDRESS_V4:
+                    return InetAddress.getByAddress(readBytes(buffer, 4));
+                case ADDRESS_V6:
+                    return InetAddress.getByAddress(readBytes(buffer, 16));
+                case ADDRESS_TEXT:
+                    return InetAddresses.parse(readString(buffer));
+                default:
+                    throw new IOException("Unknown address family " + family);
+            }
+        } catch (final ParseException e) {
+            throw new IOException("Invalid address", e);
+        }
+    }
+
+    private static int readByte(final ByteBuffer buffer) throws IOException {
+        try {
+            return buffer.get() & 0xff;
+        } catch (final BufferUnderflowException e) {
+            throw new IOException("Truncated binary configuration", e);
+        }
+    }
+
+    private static byte[] readBytes(final ByteBuffer buffer, final int length) throws IOException {
+        final byte[] bytes = new byte[length];
+        try {
+            buffer.get(bytes);
+        } catch (final BufferUnderflowException e) {
+            throw new IOException("Truncated binary configuration", e);
+        }
+        return bytes;
+    }
+
+    static int readCount(final ByteBuffer buffer) throws IOException {
+        final int count = readInt(buffer);
+        if (count < 0 || count > buffer.remaining())
+            throw new IOException("Invalid element count " + count);
+        return count;
+    }
+
+    /**
+     * Checks the magic number and version at the start of an encoded configuration.
+     *
+     * @param buffer a buffer positioned at the start of an encoded configuration
+     */
+    static void readHeader(final ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 5 || buffer.getInt() != MAGIC)
+            throw new IOException("Not a binary WireGuard configuration");
+        final int version = readByte(buffer);
+        if (version != VERSION)
+            throw new IOException("Unsupported binary configuration version " + version);
+    }
+
+    static int readInt(final ByteBuffer buffer) throws IOException {
+        try {
+            return buffer.getInt();
+        } catch (final BufferUnderflowException e) {
+            throw new IOException("Truncated binary configuration", e);
+        }
+    }
+
+    /**
+     * Decodes the interface section of a configuration.
+     *
+     * @param buffer a buffer positioned just past the header of an encoded configuration
+     * @return the decoded interface
+     */
+    static Interface readInterface(final ByteBuffer buffer) throws IOException, BadConfigException {
+        final Interface.Builder builder = new Interface.Builder();
+        builder.setKeyPair(new KeyPair(readKey(buffer), readKey(buffer)));
+        builder.setListenPort(readShort(buffer));
+        builder.setMtu(readInt(buffer));
+        int count = readCount(buffer);
+        for (int i = 0; i < count; ++i)
+            builder.addAddress(readNetwork(buffer));
+        count = readCount(buffer);
+        for (int i = 0; i < count; ++i)
+            builder.addDnsServer(readAddress(buffer));
+        count = readCount(buffer);
+        for (int i = 0; i < count; ++i)
+            builder.addDnsSearchDomain(readString(buffer));
+        count = readCount(buffer);
+        for (int i = 0; i < count; ++i)
+            builder.excludeApplication(readString(buffer));
+        count = readCount(buffer);
+        for (int i = 0; i < count; ++i)
+            builder.includeApplication(readString(buffer));
+        return builder.build();
+    }
+
+    static Key readKey(final ByteBuffer buffer) throws IOException {
+        try {
+            return Key.fromBytes(buffer);
+        } catch (final KeyFormatException e) {
+            throw new IOException("Truncated binary configuration", e);
+        }
+    }
+
+    private static InetNetwork readNetwork(final ByteBuffer buffer) throws IOException {
+        // Decode the address bits directly rather than going through InetAddress.
+        final int family = readByte(buffer);
+        final long high;
+        final long low;
+        @Nullable InetAddress address = null;
+        try {
+            switch (family) {
+                case ADDRESS_V4:
+                    high = 0;
+                    low = buffer.getInt() & 0xffffffffL;
+                    break;
+                case ADDRESS_V6:
+                    high = buffer.getLong();
+                    low = buffer.getLong();
+                    break;
+                case ADDRESS_TEXT:
+                    address = InetAddresses.parse(readString(buffer));
+                    high = 0;
+                    low = 0;
+                    break;
+                default:
+                    throw new IOException("Unknown address family " + family);
+            }
+        } catch (final BufferUnderflowException e) {
+            throw new IOException("Truncated binary configuration", e);
+        } catch (final ParseException e) {
+            throw new IOException("Invalid address", e);
+        }
+        final int mask = readByte(buffer);
+        final boolean isIpv4 = address != null ? address instanceof Inet4Address : family == ADDRESS_V4;
+        if (mask > (isIpv4 ? 32 : 128))
+            throw new IOException("Invalid network mask " + mask);
+        if (address != null)
+            return new InetNetwork(address, mask);
+        return isIpv4 ? InetNetwork.ofIpv4((int) low, mask) : InetNetwork.ofIpv6(high, low, mask);
+    }
+
+    /**
+     * Decodes the body of a peer record (without its length prefix).
+     *
+     * @param buffer a buffer positioned at the start of the body of a peer record
+     * @return the decoded peer
+     */
+    static Peer readPeer(final ByteBuffer buffer) throws IOException, BadConfigException {
+        final Peer.Builder builder = new Peer.Builder();
+        builder.setPublicKey(readKey(buffer));
+        final int flags = readByte(buffer);
+        if ((flags & PEER_HAS_PRE_SHARED_KEY) != 0)
+            builder.setPreSharedKey(readKey(buffer));
+        if ((flags & PEER_HAS_ENDPOINT) != 0) {
+            final boolean resolved = readByte(buffer) != 0;
+            final String host = readString(buffer);
+            builder.setEndpoint(new InetEndpoint(host, resolved, readShort(buffer)));
+        }
+        if ((flags & PEER_HAS_KEEPALIVE) != 0)
+            builder.setPersistentKeepalive(readShort(buffer));
+        final int count = readCount(buffer);
+        for (int i = 0; i < count; ++i)
+            builder.addAllowedIp(readNetwork(buffer));
+        return builder.build();
+    }
+
+    private static Peer readPeerRecord(final ByteBuffer buffer) throws IOException, BadConfigException {
+        final int length = readCount(buffer);
+        final int end = buffer.position() + length;
+        final Peer peer = readPeer(buffer);
+        if (buffer.position() != end)
+            throw new IOException("Corrupt peer record");
+        return peer;
+    }
+
+    private static int readShort(final ByteBuffer buffer) throws IOException {
+        try {
+            return buffer.getShort() & 0xffff;
+        } catch (final BufferUnderflowException e) {
+            throw new IOException("Truncated binary configuration", e);
+        }
+    }
+
+    static String readString(final ByteBuffer buffer) throws IOException {
+        return new String(readBytes(buffer, readShort(buffer)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes a complete configuration.
+     *
+     * @param config the configuration to encode
+     * @param out    the destination of the encoded configuration
+     */
+    static void write(final Config config, final DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        writeInterface(config.getInterface(), out);
+        out.writeInt(config.getPeers().size());
+        // Peer records are built in a scratch buffer so they can be prefixed with their length.
+        final ByteArrayOutputStream record = new ByteArrayOutputStream();
+        final DataOutputStream recordOut = new DataOutputStream(record);
+        for (final Peer peer : config.getPeers()) {
+            record.reset();
+            writePeer(peer, recordOut);
+            out.writeInt(record.size());
+            out.write(record.toByteArray());
+        }
+    }
+
+    private static void writeAddress(final InetAddress address, final DataOutput out)
+            throws IOException {
+        if (address instanceof Inet4Address) {
+            out.writeByte(ADDRESS_V4);
+            out.write(address.getAddress());
+        } else if (address instanceof Inet6Address && ((Inet6Address) address).getScopeId() == 0
+                && ((Inet6Address) address).getScopedInterface() == null) {
+            out.writeByte(ADDRESS_V6);
+            out.write(address.getAddress());
+        } else {
+            // Scoped IPv6 addresses cannot be represented as raw bytes.
+            out.writeByte(ADDRESS_TEXT);
+            writeString(address.getHostAddress(), out);
+        }
+    }
+
+    private static void writeInterface(final Interface interfaze, final DataOutput out)
+            throws IOException {
+        out.write(interfaze.getKeyPair().getPrivateKey().getBytes());
+        out.write(interfaze.getKeyPair().getPublicKey().getBytes());
+        out.writeShort(interfaze.getListenPort().orElse(0));
+        out.writeInt(interfaze.getMtu().orElse(0));
+        writeNetworks(interfaze.getAddresses(), out);
+        out.writeInt(interfaze.getDnsServers().size());
+        for (final InetAddress dnsServer : interfaze.getDnsServers())
+            writeAddress(dnsServer, out);
+        writeStrings(interfaze.getDnsSearchDomains(), out);
+        writeStrings(interfaze.getExcludedApplications(), out);
+        writeStrings(interfaze.getIncludedApplications(), out);
+    }
+
+    private static void writeNetworks(final Collection<InetNetwork> networks, final DataOutput out)
+            throws IOException {
+        out.writeInt(networks.size());
+        for (final InetNetwork network : networks) {
+            if (network.isScoped()) {
+                writeAddress(network.getAddress(), out);
+            } else if (network.isIpv6()) {
+                out.writeByte(ADDRESS_V6);
+                out.writeLong(network.getHigh());
+                out.writeLong(network.getLow());
+            } else {
+                out.writeByte(ADDRESS_V4);
+                out.writeInt((int) network.getLow());
+            }
+            out.writeByte(network.getMask());
+        }
+    }
+
+    private static void writePeer(final Peer peer, final DataOutput out) throws IOException {
+        out.write(peer.getPublicKey().getBytes());
+        int flags = 0;
+        if (peer.getPreSharedKey().isPresent())
+            flags |= PEER_HAS_PRE_SHARED_KEY;
+        if (peer.getEndpoint().isPresent())
+            flags |= PEER_HAS_ENDPOINT;
+        if (peer.getPersistentKeepalive().isPresent())
+            flags |= PEER_HAS_KEEPALIVE;
+        out.writeByte(flags);
+        if (peer.getPreSharedKey().isPresent())
+            out.write(peer.getPreSharedKey().get().getBytes());
+        if (peer.getEndpoint().isPresent()) {
+            final InetEndpoint endpoint = peer.getEndpoint().get();
+            out.writeByte(endpoint.isResolved() ? 1 : 0);
+            writeString(endpoint.getHost(), out);
+            out.writeShort(endpoint.getPort());
+        }
+        if (peer.getPersistentKeepalive().isPresent())
+            out.writeShort(peer.getPersistentKeepalive().get());
+        writeNetworks(peer.getAllowedIps(), out);
+    }
+
+    static void writeString(final String string, final DataOutput out) throws IOException {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff)
+            throw new IOException("String too long for binary configuration");
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeStrings(final Collection<String> strings, final DataOutput out)
+            throws IOException {
+        out.writeInt(strings.size());
+        for (final String string : strings)
+            writeString(string, out);
+    }
+
+    /**
+     * An immutable list of peers backed by the peer table of an encoded configuration. The offset
+     * of each record is found on first access to the list, and each peer is decoded on first access
+     * to that peer.
+     */
+    private static final class LazyPeerList extends AbstractList<Peer> implements RandomAccess {
+        private final ByteBuffer table;
+        private final int size;
+        @Nullable private int[] ends;
+        @Nullable private int[] offsets;
+        @Nullable private Peer[] peers;
+
+        LazyPeerList(final ByteBuffer table, final int size) {
+            this.table = table;
+            this.size = size;
+        }
+
+        // Errors surface through methods that cannot throw BadConfigException, so they are wrapped
+        // the way Config#validate() expects.
+        private static IllegalStateException corrupt(final int index, final String reason) {
+            final String message = "Corrupt peer record " + index;
+            return new IllegalStateException(message, new BadConfigException(Section.PEER,
+                    Location.TOP_LEVEL, Reason.SYNTAX_ERROR, message + ": " + reason));
+        }
+
+        @Override
+        public synchronized Peer get(final int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+            if (offsets == null || ends == null || peers == null) {
+                final int[] starts = new int[size];
+                final int[] limits = new int[size];
+                final int limit = table.limit();
+                int offset = 0;
+                for (int i = 0; i < size; ++i) {
+                    if (limit - offset < 4)
+                        throw corrupt(i, "truncated length");
+                    final int length = table.getInt(offset);
+                    offset += 4;
+                    if (length < 0 || length > limit - offset)
+                        throw corrupt(i, "invalid length " + length);
+                    starts[i] = offset;
+                    offset += length;
+                    limits[i] = offset;
+                }
+                offsets = starts;
+                ends = limits;
+                peers = new Peer[size];
+            }
+            Peer peer = peers[index];
+            if (peer == null) {
+                final ByteBuffer record = table.duplicate();
+                ((Buffer) record).limit(ends[index]).position(offsets[index]);
+                try {
+                    peer = readPeer(record);
+                } catch (final IOException e) {
+                    throw corrupt(index, String.valueOf(e.getMessage()));
+                } catch (final BadConfigException e) {
+                    throw new IllegalStateException("Corrupt peer record " + index, e);
+                }
+                if (record.hasRemaining())
+                    throw corrupt(index, "trailing data");
+                peers[index] = peer;
+            }
+            return peer;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
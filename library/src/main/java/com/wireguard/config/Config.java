@@ -5,15 +5,18 @@
 
 package com.wireguard.config;
 
-import com.wireguard.config.BadConfigException.Location;
-import com.wireguard.config.BadConfigException.Reason;
-import com.wireguard.config.BadConfigException.Section;
 import com.wireguard.util.NonNullForAll;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -32,7 +35,23 @@ import androidx.annotation.Nullable;
 @NonNullForAll
 public final class Config {
     private final Interface interfaze;
+    // Computed on first use rather than on construction, so that lazily decoded peers stay
+    // undecoded until needed. Zero means not yet computed; a race at worst computes it again.
+    private int hashCode;
     private final List<Peer> peers;
+    @Nullable private volatile List<InetNetwork> routes;
+
+    /**
+     * Creates a {@code Config} that uses the supplied list of peers directly. The list must be
+     * unmodifiable.
+     *
+     * @param interfaze the interface section
+     * @param peers     an unmodifiable list of peers, which may decode its elements lazily
+     */
+    Config(final Interface interfaze, final List<Peer> peers) {
+        this.interfaze = interfaze;
+        this.peers = peers;
+    }
 
     private Config(final Builder builder) {
         interfaze = Objects.requireNonNull(builder.interfaze, "An [Interface] section is required");
@@ -43,14 +62,14 @@ public final class Config {
     /**
      * Parses an series of "Interface" and "Peer" sections into a {@code Config}. Throws
      * {@link BadConfigException} if the input is not well-formed or contains data that cannot
-     * be parsed.
+     * be parsed. To parse many configurations at once, see {@link ConfigImporter}.
      *
      * @param stream a stream of UTF-8 text that is interpreted as a WireGuard configuration
      * @return a {@code Config} instance representing the supplied configuration
      */
     public static Config parse(final InputStream stream)
             throws IOException, BadConfigException {
-        return parse(new BufferedReader(new InputStreamReader(stream)));
+        return parse(new InputStreamReader(stream));
     }
 
     /**
@@ -63,54 +82,83 @@ public final class Config {
      */
     public static Config parse(final BufferedReader reader)
             throws IOException, BadConfigException {
-        final Builder builder = new Builder();
-        final Collection<String> interfaceLines = new ArrayList<>();
-        final Collection<String> peerLines = new ArrayList<>();
-        boolean inInterfaceSection = false;
-        boolean inPeerSection = false;
-        boolean seenInterfaceSection = false;
-        @Nullable String line;
-        while ((line = reader.readLine()) != null) {
-            final int commentIndex = line.indexOf('#');
-            if (commentIndex != -1)
-                line = line.substring(0, commentIndex);
-            line = line.trim();
-            if (line.isEmpty())
-                continue;
-            if (line.startsWith("[")) {
-                // Consume all [Peer] lines read so far.
-                if (inPeerSection) {
-                    builder.parsePeer(peerLines);
-                    peerLines.clear();
-                }
-                if ("[Interface]".equalsIgnoreCase(line)) {
-                    inInterfaceSection = true;
-                    inPeerSection = false;
-                    seenInterfaceSection = true;
-                } else if ("[Peer]".equalsIgnoreCase(line)) {
-                    inInterfaceSection = false;
-                    inPeerSection = true;
-                } else {
-                    throw new BadConfigException(Section.CONFIG, Location.TOP_LEVEL,
-                            Reason.UNKNOWN_SECTION, line);
-                }
-            } else if (inInterfaceSection) {
-                interfaceLines.add(line);
-            } else if (inPeerSection) {
-                peerLines.add(line);
-            } else {
-                throw new BadConfigException(Section.CONFIG, Location.TOP_LEVEL,
-                        Reason.UNKNOWN_SECTION, line);
-            }
-        }
-        if (inPeerSection)
-            builder.parsePeer(peerLines);
-        if (!seenInterfaceSection)
-            throw new BadConfigException(Section.CONFIG, Location.TOP_LEVEL,
-                    Reason.MISSING_SECTION, null);
-        // Combine all [Interface] sections in the file.
-        builder.parseInterface(interfaceLines);
-        return builder.build();
+        return new ConfigParser(reader, null).parse();
+    }
+
+    /**
+     * Parses an series of "Interface" and "Peer" sections into a {@code Config}. Throws
+     * {@link BadConfigException} if the input is not well-formed or contains data that cannot
+     * be parsed. The input is read in a single pass, so the reader does not need to be buffered.
+     *
+     * @param reader a Reader of UTF-8 text that is interpreted as a WireGuard configuration
+     * @return a {@code Config} instance representing the supplied configuration
+     */
+    public static Config parse(final Reader reader)
+            throws IOException, BadConfigException {
+        return new ConfigParser(reader, null).parse();
+    }
+
+    /**
+     * Parses a configuration like {@link #parse(Reader)}, sharing the peers' keys, endpoints and
+     * allowed IPs with equal values in other configurations parsed with the same interner.
+     *
+     * @param reader   a Reader of UTF-8 text that is interpreted as a WireGuard configuration
+     * @param interner the interner that canonicalizes the peers' values
+     * @return a {@code Config} instance representing the supplied configuration
+     */
+    public static Config parse(final Reader reader, final ConfigInterner interner)
+            throws IOException, BadConfigException {
+        return new ConfigParser(reader, interner).parse();
+    }
+
+    /**
+     * Parses a configuration like {@link #parse(Reader)}, but only as far as needed to list it.
+     * The structure of the input is checked and the interface's other attributes are parsed, but
+     * the interface's private key and the peer sections are kept as text, and are parsed when the
+     * key pair or the peer is first accessed. Use {@link #validate()} to parse them all at once.
+     * <p>
+     * Because peers and key pairs are accessed through methods that cannot throw
+     * {@link BadConfigException}, errors found in deferred text are thrown as an
+     * {@link IllegalStateException} whose cause is the {@link BadConfigException} that
+     * {@link #parse(Reader)} would have thrown.
+     *
+     * @param reader a Reader of UTF-8 text that is interpreted as a WireGuard configuration
+     * @return a {@code Config} instance representing the supplied configuration
+     */
+    public static Config parseLazily(final Reader reader)
+            throws IOException, BadConfigException {
+        return new ConfigParser(reader, null, true).parse();
+    }
+
+    /**
+     * Decodes a {@code Config} previously encoded with {@link #writeBinary}. Decoding does not
+     * parse any text or derive any keys. Throws {@link IOException} if the data is truncated,
+     * corrupt, or uses an unsupported version of the format.
+     *
+     * @param buffer a buffer positioned at the start of an encoded configuration; on return, it is
+     *               positioned just past it
+     * @return a {@code Config} instance representing the encoded configuration
+     */
+    public static Config readBinary(final ByteBuffer buffer)
+            throws IOException, BadConfigException {
+        return BinaryConfig.read(buffer);
+    }
+
+    /**
+     * Decodes a {@code Config} previously encoded with {@link #writeBinary}. The stream is read
+     * to its end.
+     *
+     * @param stream a stream containing a single encoded configuration
+     * @return a {@code Config} instance representing the encoded configuration
+     */
+    public static Config readBinary(final InputStream stream)
+            throws IOException, BadConfigException {
+        final ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int count;
+        while ((count = stream.read(buffer)) != -1)
+            contents.write(buffer, 0, count);
+        return readBinary(ByteBuffer.wrap(contents.toByteArray()));
     }
 
     @Override
@@ -118,7 +166,31 @@ public final class Config {
         if (!(obj instanceof Config))
             return false;
         final Config other = (Config) obj;
-        return interfaze.equals(other.interfaze) && peers.equals(other.peers);
+        return hashCode() == other.hashCode() && interfaze.equals(other.interfaze)
+                && peersEqual(peers, other.peers);
+    }
+
+    // Compares peers without decoding deferred ones whose sections have the same text, and
+    // without throwing for invalid ones, which only equal a section with the same text.
+    private static boolean peersEqual(final List<Peer> peers, final List<Peer> others) {
+        if (peers.size() != others.size())
+            return false;
+        for (int i = 0; i < peers.size(); ++i) {
+            if (peers instanceof ConfigParser.DeferredPeerList && others instanceof ConfigParser.DeferredPeerList
+                    && ((ConfigParser.DeferredPeerList) peers).section(i)
+                    .equals(((ConfigParser.DeferredPeerList) others).section(i)))
+                continue;
+            final Peer peer = findPeer(peers, i);
+            if (peer == null || !peer.equals(findPeer(others, i)))
+                return false;
+        }
+        return true;
+    }
+
+    @Nullable
+    private static Peer findPeer(final List<Peer> peers, final int index) {
+        return peers instanceof ConfigParser.DeferredPeerList
+                ? ((ConfigParser.DeferredPeerList) peers).find(index) : peers.get(index);
     }
 
     /**
@@ -139,9 +211,40 @@ public final class Config {
         return peers;
     }
 
+    /**
+     * Returns the routes needed to reach every peer: the union of the peers' allowed IPs, compiled
+     * by {@link RouteCompiler} into the smallest equivalent list of networks. The list is computed
+     * once and then reused. Routes minus excluded networks depend on more than the configuration,
+     * so they are not cached here; {@code GoBackend} keeps the last such list it compiled.
+     *
+     * @return an unmodifiable, sorted list of disjoint networks
+     */
+    public List<InetNetwork> getRoutes() {
+        List<InetNetwork> list = routes;
+        if (list == null) {
+            final List<InetNetwork> allowedIps = new ArrayList<>();
+            for (final Peer peer : peers)
+                allowedIps.addAll(peer.getAllowedIps());
+            list = RouteCompiler.compile(allowedIps);
+            routes = list;
+        }
+        return list;
+    }
+
     @Override
     public int hashCode() {
-        return 31 * interfaze.hashCode() + peers.hashCode();
+        int hash = hashCode;
+        if (hash == 0) {
+            // Peers hash by their public keys, which deferred peers provide without being decoded.
+            hash = interfaze.hashCode();
+            for (int i = 0; i < peers.size(); ++i) {
+                hash = 31 * hash + (peers instanceof ConfigParser.DeferredPeerList
+                        ? ((ConfigParser.DeferredPeerList) peers).publicKeyHash(i)
+                        : peers.get(i).getPublicKey().hashCode());
+            }
+            hashCode = hash;
+        }
+        return hash;
     }
 
     /**
@@ -162,10 +265,18 @@ public final class Config {
      * @return the {@code Config} represented as one [Interface] and zero or more [Peer] sections
      */
     public String toWgQuickString() {
-        final StringBuilder sb = new StringBuilder();
-        sb.append("[Interface]\n").append(interfaze.toWgQuickString());
-        for (final Peer peer : peers)
-            sb.append("\n[Peer]\n").append(peer.toWgQuickString());
+        // The sections' serializations are cached, so this only has to concatenate them.
+        final String interfaceString = interfaze.toWgQuickString();
+        final String[] peerStrings = new String[peers.size()];
+        int length = "[Interface]\n".length() + interfaceString.length();
+        for (int i = 0; i < peerStrings.length; ++i) {
+            peerStrings[i] = peers.get(i).toWgQuickString();
+            length += "\n[Peer]\n".length() + peerStrings[i].length();
+        }
+        final StringBuilder sb = new StringBuilder(length);
+        sb.append("[Interface]\n").append(interfaceString);
+        for (final String peerString : peerStrings)
+            sb.append("\n[Peer]\n").append(peerString);
         return sb.toString();
     }
 
@@ -175,14 +286,81 @@ public final class Config {
      * @return the {@code Config} represented as a series of "key=value" lines
      */
     public String toWgUserspaceString() {
-        final StringBuilder sb = new StringBuilder();
-        sb.append(interfaze.toWgUserspaceString());
+        // The sections' serializations are cached, so this only has to concatenate them.
+        final String interfaceString = interfaze.toWgUserspaceString();
+        final String[] peerStrings = new String[peers.size()];
+        int length = interfaceString.length() + "replace_peers=true\n".length();
+        for (int i = 0; i < peerStrings.length; ++i) {
+            peerStrings[i] = peers.get(i).toWgUserspaceString();
+            length += peerStrings[i].length();
+        }
+        final StringBuilder sb = new StringBuilder(length);
+        sb.append(interfaceString);
         sb.append("replace_peers=true\n");
-        for (final Peer peer : peers)
-            sb.append(peer.toWgUserspaceString());
+        for (final String peerString : peerStrings)
+            sb.append(peerString);
         return sb.toString();
     }
 
+    /**
+     * Parses everything that {@link #parseLazily} deferred, and throws the first
+     * {@link BadConfigException} found. Peers are checked in order before the interface's private
+     * key. Does nothing for configurations that were parsed in full.
+     */
+    public void validate() throws BadConfigException {
+        try {
+            for (int i = 0; i < peers.size(); ++i)
+                peers.get(i);
+            interfaze.getKeyPair();
+        } catch (final IllegalStateException e) {
+            if (e.getCause() instanceof BadConfigException)
+                throw (BadConfigException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the same text as {@link #toWgQuickString()} to {@code out}, one section at a time.
+     * The whole document is never held in memory, and serializations of peers that have not been
+     * cached are not kept, so memory use does not grow with the number of peers written.
+     *
+     * @param out the destination of the configuration, such as a buffered {@link java.io.Writer}
+     */
+    public void writeWgQuick(final Appendable out) throws IOException {
+        out.append("[Interface]\n");
+        interfaze.writeWgQuick(out);
+        for (final Peer peer : peers) {
+            out.append("\n[Peer]\n");
+            peer.writeWgQuick(out);
+        }
+    }
+
+    /**
+     * Writes the same text as {@link #toWgUserspaceString()} to {@code out}, one section at a
+     * time. The whole document is never held in memory.
+     *
+     * @param out the destination of the configuration, such as a buffered {@link java.io.Writer}
+     */
+    public void writeUserspace(final Appendable out) throws IOException {
+        interfaze.writeUserspace(out);
+        out.append("replace_peers=true\n");
+        for (final Peer peer : peers)
+            peer.writeUserspace(out);
+    }
+
+    /**
+     * Encodes the {@code Config} in a compact, versioned binary format that can be decoded with
+     * {@link #readBinary}. Keys and addresses are stored in their raw binary form, together with
+     * the interface's public key, so that decoding is much cheaper than parsing text.
+     *
+     * @param stream the stream to which the encoded configuration is written
+     */
+    public void writeBinary(final OutputStream stream) throws IOException {
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        BinaryConfig.write(this, out);
+        out.flush();
+    }
+
     @SuppressWarnings("UnusedReturnValue")
     public static final class Builder {
         // Defaults to an empty set.
@@ -0,0 +1,292 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import com.wireguard.util.NonNullForAll;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Parses many WireGuard configurations at once. Each source is parsed with {@link Config#parse}
+ * on a worker of a bounded {@link ForkJoinPool}, so the expensive parts of parsing (decoding keys
+ * and deriving each interface's public key) are spread over all available cores.
+ * <p>
+ * Results are returned in the same order as the sources. A source that cannot be read, or that
+ * is not a valid configuration, does not affect the others; its {@link Result} carries the
+ * {@link IOException} or {@link BadConfigException} instead of a {@link Config}.
+ */
+@NonNullForAll
+public final class ConfigImporter {
+    private static final String CONFIG_SUFFIX = ".conf";
+
+    private ConfigImporter() {
+    }
+
+    /**
+     * Lists the configuration files ({@code *.conf}) in a directory, sorted by file name.
+     *
+     * @param directory the directory to list
+     * @return a source for each configuration file in the directory
+     */
+    public static List<Source> fromDirectory(final Path directory) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (final Path file : stream) {
+                if (isConfigName(file.getFileName().toString()) && Files.isRegularFile(file))
+                    files.add(file);
+            }
+        }
+        Collections.sort(files);
+        final List<Source> sources = new ArrayList<>(files.size());
+        for (final Path file : files)
+            sources.add(fromFile(file));
+        return sources;
+    }
+
+    /**
+     * Creates a source that reads a single configuration file. The file is only opened when the
+     * source is parsed.
+     *
+     * @param file the configuration file
+     * @return a source named after the file, without its {@code .conf} suffix
+     */
+    public static Source fromFile(final Path file) {
+        final String name = stripSuffix(file.getFileName().toString());
+        return new Source(name) {
+            @Override
+            public InputStream open() throws IOException {
+                return Files.newInputStream(file);
+            }
+        };
+    }
+
+    /**
+     * Reads the configuration files ({@code *.conf}) from a zip archive. Entries are read into
+     * memory sequentially, as zip streams cannot be read concurrently; parsing them is done in
+     * parallel by {@link #parse}.
+     *
+     * @param stream a stream of a zip archive
+     * @return a source for each configuration file in the archive, in archive order
+     */
+    public static List<Source> fromZip(final InputStream stream) throws IOException {
+        final List<Source> sources = new ArrayList<>();
+        final ZipInputStream zip = new ZipInputStream(stream);
+        final byte[] buffer = new byte[8192];
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            final String entryName = entry.getName();
+            final String fileName = entryName.substring(entryName.lastIndexOf('/') + 1);
+            if (entry.isDirectory() || !isConfigName(fileName))
+                continue;
+            final ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            int count;
+            while ((count = zip.read(buffer)) != -1)
+                contents.write(buffer, 0, count);
+            final byte[] bytes = contents.toByteArray();
+            sources.add(new Source(stripSuffix(fileName)) {
+                @Override
+                public InputStream open() {
+                    return new ByteArrayInputStream(bytes);
+                }
+            });
+        }
+        return sources;
+    }
+
+    private static boolean isConfigName(final String fileName) {
+        return fileName.length() > CONFIG_SUFFIX.length()
+                && fileName.toLowerCase(Locale.ENGLISH).endsWith(CONFIG_SUFFIX);
+    }
+
+    /**
+     * Parses all sources using one worker per available processor.
+     *
+     * @param sources the configurations to parse
+     * @return one result for each source, in the same order as {@code sources}
+     */
+    public static List<Result> parse(final List<? extends Source> sources) {
+        return parse(sources, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Parses all sources using a dedicated pool of at most {@code parallelism} workers. The pool
+     * is shut down before this method returns.
+     *
+     * @param sources     the configurations to parse
+     * @param parallelism the maximum number of sources to parse concurrently
+     * @return one result for each source, in the same order as {@code sources}
+     */
+    public static List<Result> parse(final List<? extends Source> sources, final int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive");
+        final ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, Math.max(1, sources.size())));
+        try {
+            return parse(sources, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Parses all sources on an existing pool.
+     *
+     * @param sources the configurations to parse
+     * @param pool    the pool whose workers parse the sources
+     * @return one result for each source, in the same order as {@code sources}
+     */
+    public static List<Result> parse(final List<? extends Source> sources, final ForkJoinPool pool) {
+        final Result[] results = new Result[sources.size()];
+        if (results.length == 0)
+            return Collections.emptyList();
+        pool.invoke(new ParseTask(sources, results, 0, results.length));
+        return Collections.unmodifiableList(Arrays.asList(results));
+    }
+
+    private static String stripSuffix(final String fileName) {
+        if (isConfigName(fileName))
+            return fileName.substring(0, fileName.length() - CONFIG_SUFFIX.length());
+        return fileName;
+    }
+
+    /**
+     * The outcome of parsing one {@link Source}: either a {@link Config}, the {@link IOException}
+     * that prevented reading the source, or the {@link BadConfigException} explaining why it could
+     * not be parsed.
+     */
+    public static final class Result {
+        @Nullable private final Config config;
+        @Nullable private final BadConfigException error;
+        @Nullable private final IOException ioError;
+        private final String name;
+
+        private Result(final String name, @Nullable final Config config,
+                       @Nullable final BadConfigException error, @Nullable final IOException ioError) {
+            this.name = name;
+            this.config = config;
+            this.error = error;
+            this.ioError = ioError;
+        }
+
+        /**
+         * Returns the parsed configuration, or throws the error that prevented reading or parsing
+         * it.
+         *
+         * @return the parsed configuration
+         */
+        public Config get() throws BadConfigException, IOException {
+            if (ioError != null)
+                throw ioError;
+            if (error != null)
+                throw error;
+            return Objects.requireNonNull(config);
+        }
+
+        @Nullable
+        public Config getConfig() {
+            return config;
+        }
+
+        @Nullable
+        public BadConfigException getError() {
+            return error;
+        }
+
+        @Nullable
+        public IOException getIoError() {
+            return ioError;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isSuccess() {
+            return config != null;
+        }
+
+        @Override
+        public String toString() {
+            return "(Result " + name + ' ' + (config != null ? config : ioError != null ? ioError : error) + ')';
+        }
+    }
+
+    /**
+     * A named configuration to be parsed, such as a file or a zip archive entry.
+     */
+    public abstract static class Source {
+        private final String name;
+
+        protected Source(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Opens a new stream of the configuration's UTF-8 text. The caller closes the stream.
+         *
+         * @return a stream of the configuration
+         */
+        public abstract InputStream open() throws IOException;
+    }
+
+    private static final class ParseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final Result[] results;
+        private final List<? extends Source> sources;
+        private final int to;
+
+        ParseTask(final List<? extends Source> sources, final Result[] results,
+                  final int from, final int to) {
+            this.sources = sources;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new ParseTask(sources, results, from, middle),
+                        new ParseTask(sources, results, middle, to));
+                return;
+            }
+            final Source source = sources.get(from);
+            try (final InputStream stream = source.open()) {
+                final Config config = Config.parse(stream);
+                // Key pairs derive their public key lazily; derive it here, on this worker.
+                config.getInterface().getKeyPair().getPublicKey();
+                results[from] = new Result(source.getName(), config, null, null);
+            } catch (final BadConfigException e) {
+                results[from] = new Result(source.getName(), null, e, null);
+            } catch (final IOException e) {
+                results[from] = new Result(source.getName(), null, null, e);
+            }
+        }
+    }
+}
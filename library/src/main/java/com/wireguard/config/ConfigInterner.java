@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import com.wireguard.crypto.Key;
+import com.wireguard.util.NonNullForAll;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Canonicalizes the immutable values that many configurations tend to share, such as the public
+ * keys and endpoints of common servers and {@code AllowedIPs} sets like {@code 0.0.0.0/0, ::/0}.
+ * Configurations parsed or built with the same interner share a single instance of each equal
+ * value instead of each holding their own copy.
+ * <p>
+ * Values are held weakly, so a canonical instance is forgotten once no configuration uses it. An
+ * interner is safe to share between threads that parse configurations concurrently.
+ * <p>
+ * Interned endpoints share their cached DNS resolution.
+ */
+@NonNullForAll
+public final class ConfigInterner {
+    private final Pool<Set<InetNetwork>> allowedIpSets = new Pool<>();
+    private final Pool<InetEndpoint> endpoints = new Pool<>();
+    private final Pool<Key> keys = new Pool<>();
+    private final Pool<InetNetwork> networks = new Pool<>();
+
+    private static boolean sameOrder(final Set<InetNetwork> a, final Set<InetNetwork> b) {
+        final Iterator<InetNetwork> i = a.iterator();
+        final Iterator<InetNetwork> j = b.iterator();
+        while (i.hasNext() && j.hasNext()) {
+            if (!i.next().equals(j.next()))
+                return false;
+        }
+        return !i.hasNext() && !j.hasNext();
+    }
+
+    public InetEndpoint intern(final InetEndpoint endpoint) {
+        return endpoints.intern(endpoint);
+    }
+
+    public InetNetwork intern(final InetNetwork network) {
+        return networks.intern(network);
+    }
+
+    public Key intern(final Key key) {
+        return keys.intern(key);
+    }
+
+    /**
+     * Returns an unmodifiable set of canonical networks with the same elements, in the same order,
+     * as {@code allowedIps}. Sets with equal contents and order are shared.
+     *
+     * @param allowedIps the networks to intern
+     * @return an unmodifiable, possibly shared set
+     */
+    public Set<InetNetwork> internAllowedIps(final Collection<InetNetwork> allowedIps) {
+        if (allowedIps.isEmpty())
+            return Collections.emptySet();
+        final Set<InetNetwork> set = new LinkedHashSet<>();
+        for (final InetNetwork network : allowedIps)
+            set.add(intern(network));
+        final Set<InetNetwork> candidate = Collections.unmodifiableSet(set);
+        final Set<InetNetwork> canonical = allowedIpSets.intern(candidate);
+        // Set equality ignores order, but the order is visible in serialized configurations.
+        return canonical == candidate || sameOrder(canonical, candidate) ? canonical : candidate;
+    }
+
+    private static final class Pool<T> {
+        private final WeakHashMap<T, WeakReference<T>> values = new WeakHashMap<>();
+
+        synchronized T intern(final T value) {
+            final WeakReference<T> reference = values.get(value);
+            final T existing = reference != null ? reference.get() : null;
+            if (existing != null)
+                return existing;
+            values.put(value, new WeakReference<>(value));
+            return value;
+        }
+    }
+}
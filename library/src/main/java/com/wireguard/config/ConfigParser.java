@@ -0,0 +1,438 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import com.wireguard.config.BadConfigException.Location;
+import com.wireguard.config.BadConfigException.Reason;
+import com.wireguard.config.BadConfigException.Section;
+import com.wireguard.crypto.Key;
+import com.wireguard.crypto.KeyFormatException;
+import com.wireguard.util.NonNullForAll;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Single-pass parser for wg-quick configuration files. Characters are scanned directly from the
+ * underlying {@link Reader} by a small state machine, and each attribute is applied to an
+ * {@link Interface.Builder} or {@link Peer.Builder} as soon as its line ends. No regular
+ * expressions are used, and no intermediate collections of lines are built.
+ * <p>
+ * The parser reports exactly the same {@link BadConfigException}s as parsing each section with
+ * {@link Interface#parse(Iterable)} and {@link Peer#parse(Iterable)}: errors in a peer section are
+ * reported when that section is read, while errors in the (combined) interface section are only
+ * reported once the whole input has been consumed.
+ * <p>
+ * In lazy mode, the parser checks the structure of the input (section headers, attribute syntax
+ * and names, and the presence of keys) but keeps each peer section and the interface's private
+ * key as text. Those are parsed when the peer or key pair is first accessed, and any error in them
+ * is then thrown as an {@link IllegalStateException} caused by the {@link BadConfigException} that
+ * eager parsing would have reported.
+ */
+@NonNullForAll
+final class ConfigParser {
+    private static final int BUFFER_SIZE = 8192;
+    private static final String INTERFACE_HEADER = "[Interface]";
+    private static final String PEER_HEADER = "[Peer]";
+    private static final String[] PEER_ATTRIBUTES = {
+            "allowedips", "endpoint", "persistentkeepalive", "presharedkey", "publickey"
+    };
+
+    private final Config.Builder configBuilder = new Config.Builder();
+    private final char[] input = new char[BUFFER_SIZE];
+    private final Interface.Builder interfaceBuilder = new Interface.Builder();
+    @Nullable private final ConfigInterner interner;
+    private final boolean lazy;
+    private final List<String> peerSections = new ArrayList<>();
+    private final Reader reader;
+    @Nullable private BadConfigException interfaceError;
+    private char[] line = new char[256];
+    private int lineLength;
+    @Nullable private Peer.Builder peerBuilder;
+    private boolean peerHasPublicKey;
+    @Nullable private StringBuilder peerSection;
+    private boolean seenInterfaceSection;
+    private State state = State.NONE;
+
+    ConfigParser(final Reader reader, @Nullable final ConfigInterner interner) {
+        this(reader, interner, false);
+    }
+
+    ConfigParser(final Reader reader, @Nullable final ConfigInterner interner, final boolean lazy) {
+        this.reader = reader;
+        this.interner = interner;
+        this.lazy = lazy;
+    }
+
+    /**
+     * Locates the value of a "KEY = VALUE" attribute on a line.
+     *
+     * @param start the offset of the first non-blank character of the line
+     * @param end   the offset just past the last non-blank character of the line
+     * @return the offset of the value, or -1 if the line is not a well-formed attribute
+     */
+    private static int findValue(final char[] line, final int start, final int end) {
+        int i = start;
+        while (i < end && isWordCharacter(line[i]))
+            ++i;
+        if (i == start)
+            return -1;
+        while (i < end && isSpace(line[i]))
+            ++i;
+        if (i == end || line[i] != '=')
+            return -1;
+        ++i;
+        while (i < end && isSpace(line[i]))
+            ++i;
+        return i == end ? -1 : i;
+    }
+
+    private static boolean isSpace(final char c) {
+        // Equivalent to the "\s" character class of java.util.regex.
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isWordCharacter(final char c) {
+        // Equivalent to the "\w" character class of java.util.regex.
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    private static int keyLength(final char[] line, final int start) {
+        int i = start;
+        while (isWordCharacter(line[i]))
+            ++i;
+        return i - start;
+    }
+
+    private static boolean matchesIgnoreCase(final char[] buffer, final int offset, final int length,
+                                             final String expected) {
+        if (length != expected.length())
+            return false;
+        for (int i = 0; i < length; ++i) {
+            final char a = buffer[offset + i];
+            final char b = expected.charAt(i);
+            // Mirrors String.equalsIgnoreCase().
+            if (a != b && Character.toUpperCase(a) != Character.toUpperCase(b)
+                    && Character.toLowerCase(a) != Character.toLowerCase(b))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a peer section kept as text by a lazy parse.
+     *
+     * @param section the section's trimmed attribute lines, each terminated by '\n'
+     * @param interner the interner to canonicalize the peer's values with, if any
+     * @return the parsed peer
+     */
+    private static Peer parsePeer(final String section, @Nullable final ConfigInterner interner)
+            throws BadConfigException {
+        final Peer.Builder builder = new Peer.Builder();
+        if (interner != null)
+            builder.setInterner(interner);
+        final char[] text = section.toCharArray();
+        int start = 0;
+        for (int end = 0; end < text.length; ++end) {
+            if (text[end] == '\n') {
+                parsePeerAttribute(builder, text, start, end);
+                start = end + 1;
+            }
+        }
+        return builder.build();
+    }
+
+    private static void parsePeerAttribute(final Peer.Builder builder, final char[] line,
+                                           final int start, final int end)
+            throws BadConfigException {
+        final int valueStart = findValue(line, start, end);
+        if (valueStart < 0)
+            throw new BadConfigException(Section.PEER, Location.TOP_LEVEL,
+                    Reason.SYNTAX_ERROR, new String(line, start, end - start));
+        final int keyLength = keyLength(line, start);
+        final String value = new String(line, valueStart, end - valueStart);
+        if (matchesIgnoreCase(line, start, keyLength, "allowedips"))
+            builder.parseAllowedIPs(value);
+        else if (matchesIgnoreCase(line, start, keyLength, "endpoint"))
+            builder.parseEndpoint(value);
+        else if (matchesIgnoreCase(line, start, keyLength, "persistentkeepalive"))
+            builder.parsePersistentKeepalive(value);
+        else if (matchesIgnoreCase(line, start, keyLength, "presharedkey"))
+            builder.parsePreSharedKey(value);
+        else if (matchesIgnoreCase(line, start, keyLength, "publickey"))
+            builder.parsePublicKey(value);
+        else
+            throw new BadConfigException(Section.PEER, Location.TOP_LEVEL,
+                    Reason.UNKNOWN_ATTRIBUTE, new String(line, start, keyLength));
+    }
+
+    /**
+     * Reads the entire input and builds a {@link Config} from it.
+     *
+     * @return the parsed configuration
+     */
+    Config parse() throws IOException, BadConfigException {
+        // The scanner is in one of three states: collecting a line, skipping a comment up to the
+        // end of the line, or having just seen '\r' (so that a following '\n' is swallowed).
+        boolean inComment = false;
+        boolean afterCarriageReturn = false;
+        int count;
+        while ((count = reader.read(input, 0, input.length)) != -1) {
+            for (int i = 0; i < count; ++i) {
+                final char c = input[i];
+                if (afterCarriageReturn) {
+                    afterCarriageReturn = false;
+                    if (c == '\n')
+                        continue;
+                }
+                if (c == '\n' || c == '\r') {
+                    afterCarriageReturn = c == '\r';
+                    inComment = false;
+                    endLine();
+                } else if (!inComment) {
+                    if (c == '#')
+                        inComment = true;
+                    else
+                        appendToLine(c);
+                }
+            }
+        }
+        endLine();
+        finishPeer();
+        if (!seenInterfaceSection)
+            throw new BadConfigException(Section.CONFIG, Location.TOP_LEVEL,
+                    Reason.MISSING_SECTION, null);
+        // All [Interface] sections in the file were combined into one builder.
+        if (interfaceError != null)
+            throw interfaceError;
+        if (lazy) {
+            final String[] sections = peerSections.toArray(new String[0]);
+            return new Config(interfaceBuilder.build(), new DeferredPeerList(sections, interner));
+        }
+        return configBuilder.setInterface(interfaceBuilder.build()).build();
+    }
+
+    private void appendToLine(final char c) {
+        if (lineLength == line.length)
+            line = Arrays.copyOf(line, line.length * 2);
+        line[lineLength++] = c;
+    }
+
+    private void endLine() throws BadConfigException {
+        // Trim the line the same way String.trim() would.
+        int start = 0;
+        int end = lineLength;
+        lineLength = 0;
+        while (start < end && line[start] <= ' ')
+            ++start;
+        while (end > start && line[end - 1] <= ' ')
+            --end;
+        if (start == end)
+            return;
+        if (line[start] == '[') {
+            // Consume the [Peer] section read so far.
+            finishPeer();
+            if (matchesIgnoreCase(line, start, end - start, INTERFACE_HEADER)) {
+                state = State.INTERFACE;
+                seenInterfaceSection = true;
+            } else if (matchesIgnoreCase(line, start, end - start, PEER_HEADER)) {
+                state = State.PEER;
+                if (lazy) {
+                    peerSection = new StringBuilder();
+                    peerHasPublicKey = false;
+                } else {
+                    peerBuilder = new Peer.Builder();
+                    if (interner != null)
+                        peerBuilder.setInterner(interner);
+                }
+            } else {
+                throw new BadConfigException(Section.CONFIG, Location.TOP_LEVEL,
+                        Reason.UNKNOWN_SECTION, new String(line, start, end - start));
+            }
+        } else if (state == State.INTERFACE) {
+            // Like Interface.parse(), stop at the first error, but only report it at the end.
+            if (interfaceError == null) {
+                try {
+                    parseInterfaceAttribute(start, end);
+                } catch (final BadConfigException e) {
+                    interfaceError = e;
+                }
+            }
+        } else if (state == State.PEER && peerBuilder != null) {
+            parsePeerAttribute(peerBuilder, line, start, end);
+        } else if (state == State.PEER && peerSection != null) {
+            checkPeerAttribute(start, end);
+            peerSection.append(line, start, end - start).append('\n');
+        } else {
+            throw new BadConfigException(Section.CONFIG, Location.TOP_LEVEL,
+                    Reason.UNKNOWN_SECTION, new String(line, start, end - start));
+        }
+    }
+
+    /**
+     * Checks the syntax and name of a peer attribute on the current line, without parsing its
+     * value.
+     */
+    private void checkPeerAttribute(final int start, final int end) throws BadConfigException {
+        if (findValue(line, start, end) < 0)
+            throw new BadConfigException(Section.PEER, Location.TOP_LEVEL,
+                    Reason.SYNTAX_ERROR, new String(line, start, end - start));
+        final int keyLength = keyLength(line, start);
+        for (final String attribute : PEER_ATTRIBUTES) {
+            if (matchesIgnoreCase(line, start, keyLength, attribute)) {
+                if ("publickey".equals(attribute))
+                    peerHasPublicKey = true;
+                return;
+            }
+        }
+        throw new BadConfigException(Section.PEER, Location.TOP_LEVEL,
+                Reason.UNKNOWN_ATTRIBUTE, new String(line, start, keyLength));
+    }
+
+    private void finishPeer() throws BadConfigException {
+        if (peerSection != null) {
+            if (!peerHasPublicKey)
+                throw new BadConfigException(Section.PEER, Location.PUBLIC_KEY,
+                        Reason.MISSING_ATTRIBUTE, null);
+            peerSections.add(peerSection.toString());
+            peerSection = null;
+        }
+        if (peerBuilder == null)
+            return;
+        configBuilder.addPeer(peerBuilder.build());
+        peerBuilder = null;
+    }
+
+    private void parseInterfaceAttribute(final int start, final int end)
+            throws BadConfigException {
+        final int valueStart = findValue(line, start, end);
+        if (valueStart < 0)
+            throw new BadConfigException(Section.INTERFACE, Location.TOP_LEVEL,
+                    Reason.SYNTAX_ERROR, new String(line, start, end - start));
+        final int keyLength = keyLength(line, start);
+        final String value = new String(line, valueStart, end - valueStart);
+        if (matchesIgnoreCase(line, start, keyLength, "address"))
+            interfaceBuilder.parseAddresses(value);
+        else if (matchesIgnoreCase(line, start, keyLength, "dns"))
+            interfaceBuilder.parseDnsServers(value);
+        else if (matchesIgnoreCase(line, start, keyLength, "excludedapplications"))
+            interfaceBuilder.parseExcludedApplications(value);
+        else if (matchesIgnoreCase(line, start, keyLength, "includedapplications"))
+            interfaceBuilder.parseIncludedApplications(value);
+        else if (matchesIgnoreCase(line, start, keyLength, "listenport"))
+            interfaceBuilder.parseListenPort(value);
+        else if (matchesIgnoreCase(line, start, keyLength, "mtu"))
+            interfaceBuilder.parseMtu(value);
+        else if (!matchesIgnoreCase(line, start, keyLength, "privatekey"))
+            throw new BadConfigException(Section.INTERFACE, Location.TOP_LEVEL,
+                    Reason.UNKNOWN_ATTRIBUTE, new String(line, start, keyLength));
+        else if (lazy)
+            interfaceBuilder.deferPrivateKey(value);
+        else
+            interfaceBuilder.parsePrivateKey(value);
+    }
+
+    /**
+     * An immutable list of peers backed by the text of their sections, each of which is parsed on
+     * first access to that peer. {@link Config} hashes and compares the peers through
+     * {@link #publicKeyHash} and {@link #section}, so that neither decodes them.
+     */
+    static final class DeferredPeerList extends AbstractList<Peer> implements RandomAccess {
+        @Nullable private final ConfigInterner interner;
+        private final Peer[] peers;
+        private final String[] sections;
+
+        DeferredPeerList(final String[] sections, @Nullable final ConfigInterner interner) {
+            this.sections = sections;
+            this.interner = interner;
+            peers = new Peer[sections.length];
+        }
+
+        @Override
+        public synchronized Peer get(final int index) {
+            if (index < 0 || index >= sections.length)
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + sections.length);
+            Peer peer = peers[index];
+            if (peer == null) {
+                try {
+                    peer = parsePeer(sections[index], interner);
+                } catch (final BadConfigException e) {
+                    throw new IllegalStateException("Invalid peer section " + index, e);
+                }
+                peers[index] = peer;
+            }
+            return peer;
+        }
+
+        /**
+         * Returns a peer without throwing if its section is invalid.
+         *
+         * @return the peer, or null if its section is invalid
+         */
+        @Nullable
+        Peer find(final int index) {
+            try {
+                return get(index);
+            } catch (final IllegalStateException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Hashes the public key of a peer, read from its section without parsing the rest, so that
+         * the hash is the same before and after the peer is decoded. An invalid key hashes as its
+         * text.
+         */
+        synchronized int publicKeyHash(final int index) {
+            final Peer peer = peers[index];
+            if (peer != null)
+                return peer.getPublicKey().hashCode();
+            final char[] text = sections[index].toCharArray();
+            String value = "";
+            int start = 0;
+            for (int end = 0; end < text.length; ++end) {
+                if (text[end] != '\n')
+                    continue;
+                // The lazy parse checked the syntax of every line, so the value is there.
+                if (matchesIgnoreCase(text, start, keyLength(text, start), "publickey")) {
+                    final int offset = findValue(text, start, end);
+                    value = new String(text, offset, end - offset);
+                }
+                start = end + 1;
+            }
+            try {
+                return Key.fromBase64(value).hashCode();
+            } catch (final KeyFormatException e) {
+                return value.hashCode();
+            }
+        }
+
+        /**
+         * @return the trimmed attribute lines of a peer's section
+         */
+        String section(final int index) {
+            return sections[index];
+        }
+
+        @Override
+        public int size() {
+            return sections.length;
+        }
+    }
+
+    private enum State {
+        NONE,
+        INTERFACE,
+        PEER
+    }
+}
@@ -7,36 +7,57 @@ package com.wireguard.config;
 
 import com.wireguard.util.NonNullForAll;
 
-import java.lang.reflect.Method;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.util.regex.Pattern;
 
 import androidx.annotation.Nullable;
 
 /**
  * Utility methods for creating instances of {@link InetAddress}.
+ * <p>
+ * Addresses are parsed by hand rather than by the platform, which avoids both reflection on older
+ * Android versions and any chance of a DNS lookup on the JVM.
  */
 @NonNullForAll
 public final class InetAddresses {
-    @Nullable private static final Method PARSER_METHOD;
-    private static final Pattern WONT_TOUCH_RESOLVER = Pattern.compile("^(((([0-9A-Fa-f]{1,4}:){7}([0-9A-Fa-f]{1,4}|:))|(([0-9A-Fa-f]{1,4}:){6}(:[0-9A-Fa-f]{1,4}|((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3})|:))|(([0-9A-Fa-f]{1,4}:){5}(((:[0-9A-Fa-f]{1,4}){1,2})|:((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3})|:))|(([0-9A-Fa-f]{1,4}:){4}(((:[0-9A-Fa-f]{1,4}){1,3})|((:[0-9A-Fa-f]{1,4})?:((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3}))|:))|(([0-9A-Fa-f]{1,4}:){3}(((:[0-9A-Fa-f]{1,4}){1,4})|((:[0-9A-Fa-f]{1,4}){0,2}:((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3}))|:))|(([0-9A-Fa-f]{1,4}:){2}(((:[0-9A-Fa-f]{1,4}){1,5})|((:[0-9A-Fa-f]{1,4}){0,3}:((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3}))|:))|(([0-9A-Fa-f]{1,4}:){1}(((:[0-9A-Fa-f]{1,4}){1,6})|((:[0-9A-Fa-f]{1,4}){0,4}:((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3}))|:))|(:(((:[0-9A-Fa-f]{1,4}){1,7})|((:[0-9A-Fa-f]{1,4}){0,5}:((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(\\.(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3}))|:)))(%.+)?)|((?:(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?))$");
-    private static final Pattern VALID_HOSTNAME = Pattern.compile("^(?=.{1,255}$)[0-9A-Za-z](?:(?:[0-9A-Za-z]|-){0,61}[0-9A-Za-z])?(?:\\.[0-9A-Za-z](?:(?:[0-9A-Za-z]|-){0,61}[0-9A-Za-z])?)*\\.?$");
+    private static final int MAX_HOSTNAME_LENGTH = 255;
+    private static final int MAX_LABEL_LENGTH = 63;
 
-    static {
-        Method m = null;
-        try {
-            if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.Q)
-                // noinspection JavaReflectionMemberAccess
-                m = InetAddress.class.getMethod("parseNumericAddress", String.class);
-        } catch (final Exception ignored) {
+    private InetAddresses() {
+    }
+
+    private static int hexDigit(final char c) {
+        if (c >= '0' && c <= '9')
+            return c - '0';
+        if (c >= 'a' && c <= 'f')
+            return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F')
+            return c - 'A' + 10;
+        return -1;
+    }
+
+    private static int indexOf(final CharSequence text, final char c, final int start, final int end) {
+        for (int i = start; i < end; ++i) {
+            if (text.charAt(i) == c)
+                return i;
         }
-        PARSER_METHOD = m;
+        return -1;
     }
 
-    private InetAddresses() {
+    private static boolean isAlphanumeric(final char c) {
+        return (c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+
+    private static boolean isDecimal(final CharSequence text) {
+        for (int i = 0; i < text.length(); ++i) {
+            if (text.charAt(i) < '0' || text.charAt(i) > '9')
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -46,11 +67,55 @@ public final class InetAddresses {
      * @return whether or not maybeHostname is a valid DNS hostname
      */
     public static boolean isHostname(final CharSequence maybeHostname) {
-        return VALID_HOSTNAME.matcher(maybeHostname).matches();
+        final int length = maybeHostname.length();
+        return length <= MAX_HOSTNAME_LENGTH && isHostname(maybeHostname, 0, length, MAX_LABEL_LENGTH);
     }
 
     /**
-     * Parses a numeric IPv4 or IPv6 address without performing any DNS lookups.
+     * Determines whether a region of a character sequence is a DNS hostname: dot-separated labels
+     * of letters, digits, and inner hyphens, optionally followed by a final dot.
+     *
+     * @param text           the characters to check
+     * @param start          the index of the first character of the hostname
+     * @param end            the index after the last character of the hostname
+     * @param maxLabelLength the maximum length of each label
+     * @return whether the region is a hostname
+     */
+    static boolean isHostname(final CharSequence text, final int start, final int end,
+                              final int maxLabelLength) {
+        int i = start;
+        do {
+            final int label = i;
+            if (i >= end || !isAlphanumeric(text.charAt(i)))
+                return false;
+            while (i < end && (isAlphanumeric(text.charAt(i)) || text.charAt(i) == '-'))
+                ++i;
+            if (text.charAt(i - 1) == '-' || i - label > maxLabelLength)
+                return false;
+            if (i < end && text.charAt(i) != '.')
+                return false;
+        } while (++i < end);
+        return true;
+    }
+
+    /**
+     * Determines whether a region of a character sequence is a plausible IPv6 zone: an interface
+     * name or index made of letters, digits, and {@code -._}.
+     */
+    static boolean isZone(final CharSequence text, final int start, final int end) {
+        if (start >= end)
+            return false;
+        for (int i = start; i < end; ++i) {
+            final char c = text.charAt(i);
+            if (!isAlphanumeric(c) && c != '-' && c != '.' && c != '_')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a numeric IPv4 or IPv6 address without performing any DNS lookups. IPv6 addresses
+     * may have a zone and may be enclosed in square brackets.
      *
      * @param address a string representing the IP address
      * @return an instance of {@link Inet4Address} or {@link Inet6Address}, as appropriate
@@ -58,29 +123,202 @@ public final class InetAddresses {
     public static InetAddress parse(final String address) throws ParseException {
         if (address.isEmpty())
             throw new ParseException(InetAddress.class, address, "Empty address");
+        final InetAddress parsed = parseNumeric(address);
+        if (parsed == null)
+            throw new ParseException(InetAddress.class, address, "Not an IP address");
+        return parsed;
+    }
+
+    /**
+     * Parses a dotted-quad IPv4 address from a region of a character sequence. Octets must be
+     * decimal and may not have leading zeros.
+     *
+     * @param text  the characters to parse
+     * @param start the index of the first character of the address
+     * @param end   the index after the last character of the address
+     * @return the address as an unsigned 32-bit value, or -1 if the region is not an IPv4 address
+     */
+    static long parseIpv4(final CharSequence text, final int start, final int end) {
+        long address = 0;
+        int i = start;
+        for (int octets = 0; octets < 4; ++octets) {
+            if (octets > 0) {
+                if (i >= end || text.charAt(i) != '.')
+                    return -1;
+                ++i;
+            }
+            final int first = i;
+            int value = 0;
+            while (i < end && i - first < 3) {
+                final char c = text.charAt(i);
+                if (c < '0' || c > '9')
+                    break;
+                value = value * 10 + (c - '0');
+                ++i;
+            }
+            if (i == first || value > 255 || (i - first > 1 && text.charAt(first) == '0'))
+                return -1;
+            address = address << 8 | value;
+        }
+        return i == end ? address : -1;
+    }
+
+    /**
+     * Parses an IPv6 address without a zone from a region of a character sequence, including the
+     * {@code ::} shorthand and a trailing dotted-quad IPv4 address.
+     *
+     * @param text  the characters to parse
+     * @param start the index of the first character of the address
+     * @param end   the index after the last character of the address
+     * @param words receives the high and low 64 bits of the address if it is valid, unless null
+     * @return whether the region is an IPv6 address
+     */
+    static boolean parseIpv6(final CharSequence text, final int start, final int end,
+                             @Nullable final long[] words) {
+        // Groups before "::" are placed from the top; groups after it are shifted in from the bottom.
+        long high = 0;
+        long low = 0;
+        long tailHigh = 0;
+        long tailLow = 0;
+        int groups = 0;
+        int compressedAt = -1;
+        int i = start;
+        if (end - start >= 2 && text.charAt(i) == ':' && text.charAt(i + 1) == ':') {
+            compressedAt = 0;
+            i += 2;
+        }
+        while (i < end) {
+            final int first = i;
+            int value = 0;
+            while (i < end && i - first <= 4) {
+                final int digit = hexDigit(text.charAt(i));
+                if (digit < 0)
+                    break;
+                value = value << 4 | digit;
+                ++i;
+            }
+            final int count;
+            if (i < end && text.charAt(i) == '.') {
+                final long ipv4 = parseIpv4(text, first, end);
+                if (ipv4 < 0 || groups > 6)
+                    return false;
+                value = (int) ipv4;
+                count = 2;
+                i = end;
+            } else {
+                if (i == first || i - first > 4 || groups > 7)
+                    return false;
+                count = 1;
+            }
+            if (compressedAt >= 0) {
+                final int bits = count * 16;
+                tailHigh = tailHigh << bits | tailLow >>> (64 - bits);
+                tailLow = tailLow << bits | (value & (count == 2 ? 0xffffffffL : 0xffffL));
+            } else {
+                for (int g = count - 1; g >= 0; --g) {
+                    final long word = (value >>> (g * 16)) & 0xffffL;
+                    final int index = groups + count - 1 - g;
+                    if (index < 4)
+                        high |= word << ((3 - index) * 16);
+                    else
+                        low |= word << ((7 - index) * 16);
+                }
+            }
+            groups += count;
+            if (i == end)
+                break;
+            if (text.charAt(i) != ':' || ++i == end)
+                return false;
+            if (text.charAt(i) == ':') {
+                if (compressedAt >= 0)
+                    return false;
+                compressedAt = groups;
+                ++i;
+            }
+        }
+        if (compressedAt >= 0 ? groups > 7 : groups != 8)
+            return false;
+        if (words != null) {
+            words[0] = high | tailHigh;
+            words[1] = low | tailLow;
+        }
+        return true;
+    }
+
+
+    /**
+     * Parses a numeric IPv4 or IPv6 address like {@link #parse(String)}, but returns null instead
+     * of throwing if the string does not have the syntax of an address at all.
+     *
+     * @param address a string that is possibly an IP address
+     * @return the address, or null if the string is not an IP address
+     * @throws ParseException if the string is an IPv6 address with an unknown zone
+     */
+    @Nullable
+    static InetAddress parseNumeric(final String address) throws ParseException {
+        int start = 0;
+        int end = address.length();
+        if (end > 2 && address.charAt(0) == '[' && address.charAt(end - 1) == ']') {
+            ++start;
+            --end;
+        }
+        final long ipv4 = start == 0 ? parseIpv4(address, start, end) : -1;
+        if (ipv4 >= 0)
+            return toAddress(new byte[]{
+                    (byte) (ipv4 >>> 24), (byte) (ipv4 >>> 16), (byte) (ipv4 >>> 8), (byte) ipv4});
+        final int zone = indexOf(address, '%', start, end);
+        final long[] words = new long[2];
+        if (!parseIpv6(address, start, zone >= 0 ? zone : end, words))
+            return null;
+        final byte[] bytes = new byte[16];
+        for (int i = 0; i < bytes.length; ++i)
+            bytes[i] = (byte) (words[i / 8] >>> (56 - (i % 8) * 8));
+        if (zone < 0)
+            return toAddress(bytes);
+        if (!isZone(address, zone + 1, end))
+            return null;
+        final String scope = address.substring(zone + 1, end);
         try {
-            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.Q)
-                return android.net.InetAddresses.parseNumericAddress(address);
-            else if (PARSER_METHOD != null)
-                return (InetAddress) PARSER_METHOD.invoke(null, address);
-            else
-                throw new NoSuchMethodException("parseNumericAddress");
-        } catch (final IllegalArgumentException e) {
+            if (isDecimal(scope))
+                return Inet6Address.getByAddress(null, bytes, Integer.parseInt(scope));
+            final NetworkInterface networkInterface = NetworkInterface.getByName(scope);
+            if (networkInterface == null)
+                throw new ParseException(InetAddress.class, address, "Unknown zone");
+            return Inet6Address.getByAddress(null, bytes, networkInterface);
+        } catch (final NumberFormatException | SocketException | UnknownHostException e) {
             throw new ParseException(InetAddress.class, address, e);
-        } catch (final Exception e) {
-            final Throwable cause = e.getCause();
-            // Re-throw parsing exceptions with the original type, as callers might try to catch
-            // them. On the other hand, callers cannot be expected to handle reflection failures.
-            if (cause instanceof IllegalArgumentException)
-                throw new ParseException(InetAddress.class, address, cause);
-            try {
-                if (WONT_TOUCH_RESOLVER.matcher(address).matches())
-                    return InetAddress.getByName(address);
-                else
-                    throw new ParseException(InetAddress.class, address, "Not an IP address");
-            } catch (final UnknownHostException f) {
-                throw new ParseException(InetAddress.class, address, f);
-            }
+        }
+    }
+
+    /**
+     * Parses a decimal port number from a region of a character sequence.
+     *
+     * @param text  the characters to parse
+     * @param start the index of the first digit
+     * @param end   the index after the last digit
+     * @return the port, from 0 to 65535, or -1 if the region is not a port number
+     */
+    static int parsePort(final CharSequence text, final int start, final int end) {
+        if (start >= end)
+            return -1;
+        int port = 0;
+        for (int i = start; i < end; ++i) {
+            final char c = text.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            port = port * 10 + (c - '0');
+            if (port > 65535)
+                return -1;
+        }
+        return port;
+    }
+
+    private static InetAddress toAddress(final byte[] bytes) {
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (final UnknownHostException e) {
+            // Only thrown for arrays of the wrong length.
+            throw new AssertionError(e);
         }
     }
 }
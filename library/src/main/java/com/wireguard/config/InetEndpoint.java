@@ -9,13 +9,10 @@ import com.wireguard.util.NonNullForAll;
 
 import java.net.Inet4Address;
 import java.net.InetAddress;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.net.UnknownHostException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Optional;
-import java.util.regex.Pattern;
 
 import androidx.annotation.Nullable;
 
@@ -27,9 +24,6 @@ import androidx.annotation.Nullable;
  */
 @NonNullForAll
 public final class InetEndpoint {
-    private static final Pattern BARE_IPV6 = Pattern.compile("^[^\\[\\]]*:[^\\[\\]]*");
-    private static final Pattern FORBIDDEN_CHARACTERS = Pattern.compile("[/?#]");
-
     private final String host;
     private final boolean isResolved;
     private final Object lock = new Object();
@@ -37,31 +31,54 @@ public final class InetEndpoint {
     private Instant lastResolution = Instant.EPOCH;
     @Nullable private InetEndpoint resolved;
 
-    private InetEndpoint(final String host, final boolean isResolved, final int port) {
+    InetEndpoint(final String host, final boolean isResolved, final int port) {
         this.host = host;
         this.isResolved = isResolved;
         this.port = port;
     }
 
+    /**
+     * Determines whether the host part of an endpoint is a hostname. As in URIs, the last label
+     * of a hostname with several labels may not start with a digit, so that malformed IPv4
+     * addresses are not mistaken for hostnames.
+     */
+    private static boolean isHostname(final String endpoint, final int end) {
+        if (!InetAddresses.isHostname(endpoint, 0, end, Integer.MAX_VALUE))
+            return false;
+        final int last = endpoint.lastIndexOf('.', endpoint.charAt(end - 1) == '.' ? end - 2 : end - 1) + 1;
+        return last == 0 || endpoint.charAt(last) < '0' || endpoint.charAt(last) > '9';
+    }
+
     public static InetEndpoint parse(final String endpoint) throws ParseException {
-        if (FORBIDDEN_CHARACTERS.matcher(endpoint).find())
-            throw new ParseException(InetEndpoint.class, endpoint, "Forbidden characters");
-        final URI uri;
-        try {
-            uri = new URI("wg://" + endpoint);
-        } catch (final URISyntaxException e) {
-            throw new ParseException(InetEndpoint.class, endpoint, e);
+        final int length = endpoint.length();
+        for (int i = 0; i < length; ++i) {
+            final char c = endpoint.charAt(i);
+            if (c == '/' || c == '?' || c == '#')
+                throw new ParseException(InetEndpoint.class, endpoint, "Forbidden characters");
         }
-        if (uri.getPort() < 0 || uri.getPort() > 65535)
+        final int colon = endpoint.lastIndexOf(':');
+        final int port = colon >= 0 ? InetAddresses.parsePort(endpoint, colon + 1, length) : -1;
+        if (port < 0)
             throw new ParseException(InetEndpoint.class, endpoint, "Missing/invalid port number");
-        try {
-            InetAddresses.parse(uri.getHost());
-            // Parsing ths host as a numeric address worked, so we don't need to do DNS lookups.
-            return new InetEndpoint(uri.getHost(), true, uri.getPort());
-        } catch (final ParseException ignored) {
-            // Failed to parse the host as a numeric address, so it must be a DNS hostname/FQDN.
-            return new InetEndpoint(uri.getHost(), false, uri.getPort());
+        final boolean isResolved;
+        if (colon > 0 && endpoint.charAt(0) == '[') {
+            // Brackets may only enclose an IPv6 address, optionally with a zone.
+            final int close = colon - 1;
+            final int zone = endpoint.indexOf('%');
+            final int addressEnd = zone >= 0 && zone < close ? zone : close;
+            if (endpoint.charAt(close) != ']' || !InetAddresses.parseIpv6(endpoint, 1, addressEnd, null)
+                    || (addressEnd != close && !InetAddresses.isZone(endpoint, addressEnd + 1, close)))
+                throw new ParseException(InetEndpoint.class, endpoint, "Invalid IPv6 address");
+            isResolved = true;
+        } else if (InetAddresses.parseIpv4(endpoint, 0, colon) >= 0) {
+            isResolved = true;
+        } else if (colon > 0 && isHostname(endpoint, colon)) {
+            // The host is not a numeric address, so it must be a DNS hostname/FQDN.
+            isResolved = false;
+        } else {
+            throw new ParseException(InetEndpoint.class, endpoint, "Invalid host");
         }
+        return new InetEndpoint(endpoint.substring(0, colon), isResolved, port);
     }
 
     @Override
@@ -80,6 +97,16 @@ public final class InetEndpoint {
         return port;
     }
 
+    /**
+     * Returns whether the host is a numeric address, as opposed to a DNS hostname that must be
+     * resolved before use.
+     *
+     * @return whether the host is a numeric address
+     */
+    boolean isResolved() {
+        return isResolved;
+    }
+
     /**
      * Generate an {@code InetEndpoint} instance with the same port and the host resolved using DNS
      * to a numeric address. If the host is already numeric, the existing instance may be returned.
@@ -120,7 +147,8 @@ public final class InetEndpoint {
 
     @Override
     public String toString() {
-        final boolean isBareIpv6 = isResolved && BARE_IPV6.matcher(host).matches();
+        final boolean isBareIpv6 = isResolved && host.indexOf(':') >= 0 && host.indexOf('[') < 0
+                && host.indexOf(']') < 0;
         return (isBareIpv6 ? '[' + host + ']' : host) + ':' + port;
     }
 }
@@ -8,47 +8,244 @@ package com.wireguard.config;
 import com.wireguard.util.NonNullForAll;
 
 import java.net.Inet4Address;
+import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import androidx.annotation.Nullable;
 
 /**
  * An Internet network, denoted by its address and netmask
  * <p>
+ * The address is stored as plain bits, so comparing, hashing, and testing containment of networks
+ * does not allocate. An {@link InetAddress} is only created when one is asked for, except for
+ * scoped IPv6 addresses, which keep the instance they were parsed from.
+ * <p>
  * Instances of this class are immutable.
  */
 @NonNullForAll
-public final class InetNetwork {
-    private final InetAddress address;
+public final class InetNetwork implements Comparable<InetNetwork> {
+    private final long high;
+    private final boolean isIpv6;
+    private final long low;
     private final int mask;
+    @Nullable private volatile InetAddress address;
 
-    private InetNetwork(final InetAddress address, final int mask) {
+    InetNetwork(final InetAddress address, final int mask) {
+        final byte[] bytes = address.getAddress();
         this.address = address;
         this.mask = mask;
+        if (bytes.length == 4) {
+            isIpv6 = false;
+            high = 0;
+            low = readLong(bytes, 0, 4);
+        } else {
+            isIpv6 = true;
+            high = readLong(bytes, 0, 8);
+            low = readLong(bytes, 8, 8);
+        }
+    }
+
+    private InetNetwork(final boolean isIpv6, final long high, final long low, final int mask) {
+        this.isIpv6 = isIpv6;
+        this.high = high;
+        this.low = low;
+        this.mask = mask;
+    }
+
+    private static void appendHex(final StringBuilder sb, final long word) {
+        sb.append(Integer.toHexString((int) word));
+    }
+
+    private static void appendIpv4(final StringBuilder sb, final long address) {
+        sb.append((address >>> 24) & 0xff).append('.')
+                .append((address >>> 16) & 0xff).append('.')
+                .append((address >>> 8) & 0xff).append('.')
+                .append(address & 0xff);
+    }
+
+    /**
+     * Formats an IPv6 address the way {@code inet_ntop()} does on Android: lowercase, without
+     * leading zeros, and with the longest run of two or more zero groups replaced by {@code ::}.
+     */
+    private static void appendIpv6(final StringBuilder sb, final long high, final long low) {
+        int bestStart = -1;
+        int bestLength = 0;
+        int runStart = -1;
+        for (int i = 0; i < 8; ++i) {
+            if (word(high, low, i) != 0) {
+                runStart = -1;
+                continue;
+            }
+            if (runStart < 0)
+                runStart = i;
+            if (i - runStart + 1 > bestLength) {
+                bestStart = runStart;
+                bestLength = i - runStart + 1;
+            }
+        }
+        if (bestLength < 2)
+            bestStart = -1;
+        for (int i = 0; i < 8; ++i) {
+            if (bestStart >= 0 && i >= bestStart && i < bestStart + bestLength) {
+                if (i == bestStart)
+                    sb.append(':');
+                continue;
+            }
+            if (i != 0)
+                sb.append(':');
+            // IPv4-compatible and IPv4-mapped addresses end in a dotted quad.
+            if (i == 6 && bestStart == 0
+                    && (bestLength == 6 || (bestLength == 5 && word(high, low, 5) == 0xffff))) {
+                appendIpv4(sb, low & 0xffffffffL);
+                return;
+            }
+            appendHex(sb, word(high, low, i));
+        }
+        if (bestStart >= 0 && bestStart + bestLength == 8)
+            sb.append(':');
+    }
+
+    private static int checkMask(final String network, final int slash, final int rawMask,
+                                 final int maxMask) throws ParseException {
+        if (rawMask > maxMask)
+            throw new ParseException(InetNetwork.class, network.substring(slash + 1), "Invalid network mask");
+        return rawMask >= 0 ? rawMask : maxMask;
+    }
+
+    private static long hostMask(final int bits, final int prefix) {
+        if (prefix <= 0)
+            return bits == 64 ? -1L : (1L << bits) - 1;
+        if (prefix >= bits)
+            return 0;
+        return (bits == 64 ? -1L : (1L << bits) - 1) >>> prefix;
+    }
+
+    private static boolean isUnscoped(@Nullable final InetAddress address) {
+        return !(address instanceof Inet6Address) || ((Inet6Address) address).getScopeId() == 0
+                && ((Inet6Address) address).getScopedInterface() == null;
+    }
+
+    /**
+     * Creates an IPv4 network from its address bits.
+     *
+     * @param address the address, with the first octet in the most significant byte
+     * @param mask    the prefix length, from 0 to 32
+     * @return the network
+     */
+    public static InetNetwork ofIpv4(final int address, final int mask) {
+        if (mask < 0 || mask > 32)
+            throw new IllegalArgumentException("Invalid network mask " + mask);
+        return new InetNetwork(false, 0, address & 0xffffffffL, mask);
+    }
+
+    /**
+     * Creates an IPv6 network from its address bits.
+     *
+     * @param high the most significant 64 bits of the address
+     * @param low  the least significant 64 bits of the address
+     * @param mask the prefix length, from 0 to 128
+     * @return the network
+     */
+    public static InetNetwork ofIpv6(final long high, final long low, final int mask) {
+        if (mask < 0 || mask > 128)
+            throw new IllegalArgumentException("Invalid network mask " + mask);
+        return new InetNetwork(true, high, low, mask);
     }
 
     public static InetNetwork parse(final String network) throws ParseException {
         final int slash = network.lastIndexOf('/');
-        final String maskString;
-        final int rawMask;
-        final String rawAddress;
-        if (slash >= 0) {
-            maskString = network.substring(slash + 1);
-            try {
-                rawMask = Integer.parseInt(maskString, 10);
-            } catch (final NumberFormatException ignored) {
-                throw new ParseException(Integer.class, maskString);
-            }
-            rawAddress = network.substring(0, slash);
-        } else {
-            maskString = "";
-            rawMask = -1;
-            rawAddress = network;
+        final int addressEnd = slash >= 0 ? slash : network.length();
+        final int rawMask = slash >= 0 ? parseMask(network, slash + 1) : -1;
+        final long ipv4 = InetAddresses.parseIpv4(network, 0, addressEnd);
+        if (ipv4 >= 0)
+            return new InetNetwork(false, 0, ipv4, checkMask(network, slash, rawMask, 32));
+        final long[] words = new long[2];
+        if (InetAddresses.parseIpv6(network, 0, addressEnd, words)) {
+            // Like the platform parsers, treat IPv4-mapped IPv6 addresses as IPv4 addresses.
+            if (words[0] == 0 && words[1] >>> 32 == 0xffffL)
+                return new InetNetwork(false, 0, words[1] & 0xffffffffL,
+                        checkMask(network, slash, rawMask, 32));
+            return new InetNetwork(true, words[0], words[1], checkMask(network, slash, rawMask, 128));
         }
-        final InetAddress address = InetAddresses.parse(rawAddress);
+        // Zoned IPv6 addresses, and anything the scanners above reject, go through
+        // InetAddresses.parse, which keeps the zone and reports invalid addresses.
+        final InetAddress address = InetAddresses.parse(network.substring(0, addressEnd));
         final int maxMask = (address instanceof Inet4Address) ? 32 : 128;
-        if (rawMask > maxMask)
-            throw new ParseException(InetNetwork.class, maskString, "Invalid network mask");
-        final int mask = rawMask >= 0 ? rawMask : maxMask;
-        return new InetNetwork(address, mask);
+        return new InetNetwork(address, checkMask(network, slash, rawMask, maxMask));
+    }
+
+    private static int parseMask(final String network, final int start) throws ParseException {
+        final int length = network.length() - start;
+        if (length > 0 && length <= 3) {
+            int value = 0;
+            for (int i = start; i < network.length(); ++i) {
+                final char c = network.charAt(i);
+                if (c < '0' || c > '9') {
+                    value = -1;
+                    break;
+                }
+                value = value * 10 + (c - '0');
+            }
+            if (value >= 0)
+                return value;
+        }
+        final String maskString = network.substring(start);
+        try {
+            return Integer.parseInt(maskString, 10);
+        } catch (final NumberFormatException ignored) {
+            throw new ParseException(Integer.class, maskString);
+        }
+    }
+
+    private static long readLong(final byte[] bytes, final int offset, final int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; ++i)
+            value = value << 8 | (bytes[i] & 0xff);
+        return value;
+    }
+
+    private static long word(final long high, final long low, final int index) {
+        return ((index < 4 ? high : low) >>> ((3 - (index & 3)) * 16)) & 0xffff;
+    }
+
+    private static void writeLong(final byte[] bytes, final int offset, final long value) {
+        for (int i = 0; i < 8; ++i)
+            bytes[offset + i] = (byte) (value >>> (56 - i * 8));
+    }
+
+    /**
+     * Orders networks by address family (IPv4 first), then by network prefix, then from the
+     * widest to the narrowest mask, then by the host bits of the address. Scoped IPv6 addresses
+     * are not distinguished by their scope.
+     */
+    @Override
+    public int compareTo(final InetNetwork other) {
+        if (isIpv6 != other.isIpv6)
+            return isIpv6 ? 1 : -1;
+        final int common = Math.min(mask, other.mask);
+        int result = Long.compareUnsigned(getPrefixHigh(common), other.getPrefixHigh(common));
+        if (result == 0)
+            result = Long.compareUnsigned(getPrefixLow(common), other.getPrefixLow(common));
+        if (result == 0)
+            result = Integer.compare(mask, other.mask);
+        if (result == 0)
+            result = Long.compareUnsigned(high, other.high);
+        if (result == 0)
+            result = Long.compareUnsigned(low, other.low);
+        return result;
+    }
+
+    /**
+     * Determines whether every address in another network is also in this network.
+     *
+     * @param other the network to test
+     * @return whether {@code other} is of the same family and a subnet of (or equal to) this network
+     */
+    public boolean contains(final InetNetwork other) {
+        return isIpv6 == other.isIpv6 && mask <= other.mask
+                && getPrefixHigh(mask) == other.getPrefixHigh(mask)
+                && getPrefixLow(mask) == other.getPrefixLow(mask);
     }
 
     @Override
@@ -56,24 +253,116 @@ public final class InetNetwork {
         if (!(obj instanceof InetNetwork))
             return false;
         final InetNetwork other = (InetNetwork) obj;
-        return address.equals(other.address) && mask == other.mask;
+        if (isIpv6 != other.isIpv6 || high != other.high || low != other.low || mask != other.mask)
+            return false;
+        // Scoped addresses with different scopes are different addresses.
+        final InetAddress a = address;
+        final InetAddress b = other.address;
+        return !isIpv6 || isUnscoped(a) && isUnscoped(b) || a != null && a.equals(b);
     }
 
     public InetAddress getAddress() {
-        return address;
+        InetAddress result = address;
+        if (result == null) {
+            final byte[] bytes = new byte[isIpv6 ? 16 : 4];
+            if (isIpv6) {
+                writeLong(bytes, 0, high);
+                writeLong(bytes, 8, low);
+            } else {
+                for (int i = 0; i < 4; ++i)
+                    bytes[i] = (byte) (low >>> (24 - i * 8));
+            }
+            try {
+                result = InetAddress.getByAddress(bytes);
+            } catch (final UnknownHostException e) {
+                throw new AssertionError(e);
+            }
+            address = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the most significant 64 bits of an IPv6 address, or 0 for an IPv4 address.
+     */
+    long getHigh() {
+        return high;
+    }
+
+    /**
+     * Returns the least significant 64 bits of an IPv6 address, or an IPv4 address as an unsigned
+     * 32-bit value.
+     */
+    long getLow() {
+        return low;
     }
 
     public int getMask() {
         return mask;
     }
 
+    /**
+     * Returns this network with all of the bits of its address after the prefix cleared, such
+     * that {@code 10.0.0.2/24} becomes {@code 10.0.0.0/24}.
+     *
+     * @return the network itself if its host bits are already clear, or a new network otherwise
+     */
+    public InetNetwork getNetwork() {
+        final long maskedHigh = getPrefixHigh(mask);
+        final long maskedLow = getPrefixLow(mask);
+        if (maskedHigh == high && maskedLow == low)
+            return this;
+        return new InetNetwork(isIpv6, maskedHigh, maskedLow, mask);
+    }
+
+    private long getPrefixHigh(final int prefix) {
+        return isIpv6 ? high & ~hostMask(64, prefix) : 0;
+    }
+
+    private long getPrefixLow(final int prefix) {
+        return isIpv6 ? low & ~hostMask(64, prefix - 64) : low & ~hostMask(32, prefix);
+    }
+
     @Override
     public int hashCode() {
-        return address.hashCode() ^ mask;
+        long h = high * 0x9e3779b97f4a7c15L + low;
+        h = (h ^ (h >>> 32)) * 0xd6e8feb86659fd93L;
+        h ^= h >>> 32;
+        return (int) h * 31 + mask;
+    }
+
+    public boolean isIpv6() {
+        return isIpv6;
+    }
+
+    /**
+     * Determines whether the address of this network is an IPv6 address with a scope, which the
+     * plain address bits do not capture.
+     */
+    boolean isScoped() {
+        return isIpv6 && !isUnscoped(address);
+    }
+
+    /**
+     * Determines whether this network and another network share any addresses. This is the case
+     * exactly when one of them contains the other.
+     *
+     * @param other the network to test
+     * @return whether the networks overlap
+     */
+    public boolean overlaps(final InetNetwork other) {
+        return contains(other) || other.contains(this);
     }
 
     @Override
     public String toString() {
-        return address.getHostAddress() + '/' + mask;
+        if (isScoped())
+            return getAddress().getHostAddress() + '/' + mask;
+        final StringBuilder sb = new StringBuilder(isIpv6 ? 44 : 18);
+        if (isIpv6)
+            appendIpv6(sb, high, low);
+        else
+            appendIpv4(sb, low);
+        return sb.append('/').append(mask).toString();
     }
 }
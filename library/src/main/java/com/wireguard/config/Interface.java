@@ -13,6 +13,7 @@ import com.wireguard.crypto.KeyFormatException;
 import com.wireguard.crypto.KeyPair;
 import com.wireguard.util.NonNullForAll;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.util.Collection;
 import java.util.Collections;
@@ -42,10 +43,20 @@ public final class Interface {
     private final Set<InetAddress> dnsServers;
     private final Set<String> dnsSearchDomains;
     private final Set<String> excludedApplications;
+    // Computed on first use rather than on construction, so that a deferred private key stays
+    // undecoded until needed. Zero means not yet computed; a race at worst computes it again.
+    private int hashCode;
     private final Set<String> includedApplications;
-    private final KeyPair keyPair;
     private final Optional<Integer> listenPort;
     private final Optional<Integer> mtu;
+    // The base64 private key of a lazily parsed interface, from which the key pair is derived on
+    // first use, or null if the key pair was provided up front.
+    @Nullable private final String privateKeyText;
+    @Nullable private volatile KeyPair keyPair;
+    // Serializations are computed on first use. Strings are immutable, so a thread racing to fill
+    // in one of these fields at worst computes the same value again.
+    @Nullable private String wgQuickString;
+    @Nullable private String wgUserspaceString;
 
     private Interface(final Builder builder) {
         // Defensively copy to ensure immutability even if the Builder is reused.
@@ -54,7 +65,10 @@ public final class Interface {
         dnsSearchDomains = Collections.unmodifiableSet(new LinkedHashSet<>(builder.dnsSearchDomains));
         excludedApplications = Collections.unmodifiableSet(new LinkedHashSet<>(builder.excludedApplications));
         includedApplications = Collections.unmodifiableSet(new LinkedHashSet<>(builder.includedApplications));
-        keyPair = Objects.requireNonNull(builder.keyPair, "Interfaces must have a private key");
+        keyPair = builder.keyPair;
+        privateKeyText = builder.keyPair == null
+                ? Objects.requireNonNull(builder.privateKeyText, "Interfaces must have a private key")
+                : null;
         listenPort = builder.listenPort;
         mtu = builder.mtu;
     }
@@ -109,12 +123,13 @@ public final class Interface {
         if (!(obj instanceof Interface))
             return false;
         final Interface other = (Interface) obj;
-        return addresses.equals(other.addresses)
+        return hashCode() == other.hashCode()
+                && addresses.equals(other.addresses)
                 && dnsServers.equals(other.dnsServers)
                 && dnsSearchDomains.equals(other.dnsSearchDomains)
                 && excludedApplications.equals(other.excludedApplications)
                 && includedApplications.equals(other.includedApplications)
-                && keyPair.equals(other.keyPair)
+                && privateKeyEquals(other)
                 && listenPort.equals(other.listenPort)
                 && mtu.equals(other.mtu);
     }
@@ -170,12 +185,35 @@ public final class Interface {
     }
 
     /**
-     * Returns the public/private key pair used by the interface.
+     * Returns the public/private key pair used by the interface. If the interface was parsed with
+     * {@link Config#parseLazily}, the private key is decoded and the public key derived from it on
+     * the first call.
      *
      * @return a key pair
+     * @throws IllegalStateException if the deferred private key is invalid; its cause is the
+     *                               {@link BadConfigException} that eager parsing would have thrown
      */
     public KeyPair getKeyPair() {
-        return keyPair;
+        KeyPair pair = keyPair;
+        if (pair == null) {
+            synchronized (this) {
+                pair = keyPair;
+                if (pair == null) {
+                    pair = new KeyPair(getPrivateKey());
+                    keyPair = pair;
+                }
+            }
+        }
+        return pair;
+    }
+
+    // Private keys compare by value; invalid deferred keys, which have no value, by their text.
+    private boolean privateKeyEquals(final Interface other) {
+        final Key privateKey = decodePrivateKey();
+        final Key otherPrivateKey = other.decodePrivateKey();
+        if (privateKey == null || otherPrivateKey == null)
+            return privateKey == otherPrivateKey && Objects.equals(privateKeyText, other.privateKeyText);
+        return privateKey.equals(otherPrivateKey);
     }
 
     /**
@@ -196,16 +234,47 @@ public final class Interface {
         return mtu;
     }
 
+    // Decodes the private key without deriving the public key, whichever way the interface was
+    // parsed. Returns null if a deferred private key is invalid.
+    @Nullable
+    private Key decodePrivateKey() {
+        final KeyPair pair = keyPair;
+        if (pair != null)
+            return pair.getPrivateKey();
+        try {
+            return Key.fromBase64(Objects.requireNonNull(privateKeyText));
+        } catch (final KeyFormatException e) {
+            return null;
+        }
+    }
+
+    private Key getPrivateKey() {
+        final KeyPair pair = keyPair;
+        if (pair != null)
+            return pair.getPrivateKey();
+        try {
+            return Key.fromBase64(Objects.requireNonNull(privateKeyText));
+        } catch (final KeyFormatException e) {
+            throw new IllegalStateException(
+                    new BadConfigException(Section.INTERFACE, Location.PRIVATE_KEY, e));
+        }
+    }
+
     @Override
     public int hashCode() {
-        int hash = 1;
-        hash = 31 * hash + addresses.hashCode();
-        hash = 31 * hash + dnsServers.hashCode();
-        hash = 31 * hash + excludedApplications.hashCode();
-        hash = 31 * hash + includedApplications.hashCode();
-        hash = 31 * hash + keyPair.hashCode();
-        hash = 31 * hash + listenPort.hashCode();
-        hash = 31 * hash + mtu.hashCode();
+        int hash = hashCode;
+        if (hash == 0) {
+            hash = 1;
+            hash = 31 * hash + addresses.hashCode();
+            hash = 31 * hash + dnsServers.hashCode();
+            hash = 31 * hash + excludedApplications.hashCode();
+            hash = 31 * hash + includedApplications.hashCode();
+            final Key privateKey = decodePrivateKey();
+            hash = 31 * hash + (privateKey != null ? privateKey.hashCode() : Objects.hashCode(privateKeyText));
+            hash = 31 * hash + listenPort.hashCode();
+            hash = 31 * hash + mtu.hashCode();
+            hashCode = hash;
+        }
         return hash;
     }
 
@@ -218,7 +287,9 @@ public final class Interface {
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("(Interface ");
-        sb.append(keyPair.getPublicKey().toBase64());
+        // Avoid deriving a deferred key pair, which may be invalid, just to describe the interface.
+        final KeyPair pair = keyPair;
+        sb.append(pair != null ? pair.getPublicKey().toBase64() : "(unparsed key)");
         listenPort.ifPresent(lp -> sb.append(" @").append(lp));
         sb.append(')');
         return sb.toString();
@@ -231,22 +302,27 @@ public final class Interface {
      * @return The {@code Interface} represented as a series of "Key = Value" lines
      */
     public String toWgQuickString() {
-        final StringBuilder sb = new StringBuilder();
-        if (!addresses.isEmpty())
-            sb.append("Address = ").append(Attribute.Companion.join(addresses)).append('\n');
-        if (!dnsServers.isEmpty()) {
-            final List<String> dnsServerStrings = dnsServers.stream().map(InetAddress::getHostAddress).collect(Collectors.toList());
-            dnsServerStrings.addAll(dnsSearchDomains);
-            sb.append("DNS = ").append(Attribute.Companion.join(dnsServerStrings)).append('\n');
+        String string = wgQuickString;
+        if (string == null) {
+            final StringBuilder sb = new StringBuilder();
+            if (!addresses.isEmpty())
+                sb.append("Address = ").append(Attribute.Companion.join(addresses)).append('\n');
+            if (!dnsServers.isEmpty()) {
+                final List<String> dnsServerStrings = dnsServers.stream().map(InetAddress::getHostAddress).collect(Collectors.toList());
+                dnsServerStrings.addAll(dnsSearchDomains);
+                sb.append("DNS = ").append(Attribute.Companion.join(dnsServerStrings)).append('\n');
+            }
+            if (!excludedApplications.isEmpty())
+                sb.append("ExcludedApplications = ").append(Attribute.Companion.join(excludedApplications)).append('\n');
+            if (!includedApplications.isEmpty())
+                sb.append("IncludedApplications = ").append(Attribute.Companion.join(includedApplications)).append('\n');
+            listenPort.ifPresent(lp -> sb.append("ListenPort = ").append(lp).append('\n'));
+            mtu.ifPresent(m -> sb.append("MTU = ").append(m).append('\n'));
+            sb.append("PrivateKey = ").append(getPrivateKey().toBase64()).append('\n');
+            string = sb.toString();
+            wgQuickString = string;
         }
-        if (!excludedApplications.isEmpty())
-            sb.append("ExcludedApplications = ").append(Attribute.Companion.join(excludedApplications)).append('\n');
-        if (!includedApplications.isEmpty())
-            sb.append("IncludedApplications = ").append(Attribute.Companion.join(includedApplications)).append('\n');
-        listenPort.ifPresent(lp -> sb.append("ListenPort = ").append(lp).append('\n'));
-        mtu.ifPresent(m -> sb.append("MTU = ").append(m).append('\n'));
-        sb.append("PrivateKey = ").append(keyPair.getPrivateKey().toBase64()).append('\n');
-        return sb.toString();
+        return string;
     }
 
     /**
@@ -256,10 +332,33 @@ public final class Interface {
      * @return the {@code Interface} represented as a series of "KEY=VALUE" lines
      */
     public String toWgUserspaceString() {
-        final StringBuilder sb = new StringBuilder();
-        sb.append("private_key=").append(keyPair.getPrivateKey().toHex()).append('\n');
-        listenPort.ifPresent(lp -> sb.append("listen_port=").append(lp).append('\n'));
-        return sb.toString();
+        String string = wgUserspaceString;
+        if (string == null) {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("private_key=").append(getPrivateKey().toHex()).append('\n');
+            listenPort.ifPresent(lp -> sb.append("listen_port=").append(lp).append('\n'));
+            string = sb.toString();
+            wgUserspaceString = string;
+        }
+        return string;
+    }
+
+    /**
+     * Writes the same text as {@link #toWgQuickString()} to {@code out}.
+     *
+     * @param out the destination of the {@code Interface}'s "Key = Value" lines
+     */
+    public void writeWgQuick(final Appendable out) throws IOException {
+        out.append(toWgQuickString());
+    }
+
+    /**
+     * Writes the same text as {@link #toWgUserspaceString()} to {@code out}.
+     *
+     * @param out the destination of the {@code Interface}'s "KEY=VALUE" lines
+     */
+    public void writeUserspace(final Appendable out) throws IOException {
+        out.append(toWgUserspaceString());
     }
 
     @SuppressWarnings("UnusedReturnValue")
@@ -280,6 +379,8 @@ public final class Interface {
         private Optional<Integer> listenPort = Optional.empty();
         // Defaults to not present.
         private Optional<Integer> mtu = Optional.empty();
+        // Set instead of keyPair when parsing of the private key is deferred.
+        @Nullable private String privateKeyText;
 
         public Builder addAddress(final InetNetwork address) {
             addresses.add(address);
@@ -312,7 +413,7 @@ public final class Interface {
         }
 
         public Interface build() throws BadConfigException {
-            if (keyPair == null)
+            if (keyPair == null && privateKeyText == null)
                 throw new BadConfigException(Section.INTERFACE, Location.PRIVATE_KEY,
                         Reason.MISSING_ATTRIBUTE, null);
             if (!includedApplications.isEmpty() && !excludedApplications.isEmpty())
@@ -321,6 +422,15 @@ public final class Interface {
             return new Interface(this);
         }
 
+        /**
+         * Keeps the base64 private key as text, to be decoded when the key pair is first needed.
+         */
+        Builder deferPrivateKey(final String privateKey) {
+            keyPair = null;
+            privateKeyText = privateKey;
+            return this;
+        }
+
         public Builder excludeApplication(final String application) {
             excludedApplications.add(application);
             return this;
@@ -354,13 +464,13 @@ public final class Interface {
         public Builder parseDnsServers(final CharSequence dnsServers) throws BadConfigException {
             try {
                 for (final String dnsServer : Attribute.Companion.split(dnsServers)) {
-                    try {
-                        addDnsServer(InetAddresses.parse(dnsServer));
-                    } catch (final ParseException e) {
-                        if (e.getParsingClass() != InetAddress.class || !InetAddresses.isHostname(dnsServer))
-                            throw e;
+                    final InetAddress address = InetAddresses.parseNumeric(dnsServer);
+                    if (address != null)
+                        addDnsServer(address);
+                    else if (InetAddresses.isHostname(dnsServer))
                         addDnsSearchDomain(dnsServer);
-                    }
+                    else
+                        throw new ParseException(InetAddress.class, dnsServer, "Not an IP address");
                 }
                 return this;
             } catch (final ParseException e) {
@@ -402,6 +512,7 @@ public final class Interface {
 
         public Builder setKeyPair(final KeyPair keyPair) {
             this.keyPair = keyPair;
+            privateKeyText = null;
             return this;
         }
 
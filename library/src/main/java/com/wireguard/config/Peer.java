@@ -7,6 +7,7 @@ import com.wireguard.crypto.Key;
 import com.wireguard.crypto.KeyFormatException;
 import com.wireguard.util.NonNullForAll;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashSet;
@@ -27,17 +28,39 @@ import androidx.annotation.Nullable;
 public final class Peer {
     private final Set<InetNetwork> allowedIps;
     private final Optional<InetEndpoint> endpoint;
+    private final int hashCode;
     private final Optional<Integer> persistentKeepalive;
     private final Optional<Key> preSharedKey;
     private final Key publicKey;
+    // Serializations are computed on first use. Strings are immutable, so a thread racing to fill
+    // in one of these fields at worst computes the same value again.
+    @Nullable private String wgQuickString;
+    @Nullable private String wgUserspaceHead;
+    @Nullable private String wgUserspaceString;
+    @Nullable private String wgUserspaceTail;
 
     private Peer(final Builder builder) {
-        // Defensively copy to ensure immutability even if the Builder is reused.
-        allowedIps = Collections.unmodifiableSet(new LinkedHashSet<>(builder.allowedIps));
-        endpoint = builder.endpoint;
+        final ConfigInterner interner = builder.interner;
+        final Key key = Objects.requireNonNull(builder.publicKey, "Peers must have a public key");
+        if (interner != null) {
+            allowedIps = interner.internAllowedIps(builder.allowedIps);
+            endpoint = builder.endpoint.map(interner::intern);
+            publicKey = interner.intern(key);
+        } else {
+            // Defensively copy to ensure immutability even if the Builder is reused.
+            allowedIps = Collections.unmodifiableSet(new LinkedHashSet<>(builder.allowedIps));
+            endpoint = builder.endpoint;
+            publicKey = key;
+        }
         persistentKeepalive = builder.persistentKeepalive;
         preSharedKey = builder.preSharedKey;
-        publicKey = Objects.requireNonNull(builder.publicKey, "Peers must have a public key");
+        int hash = 1;
+        hash = 31 * hash + allowedIps.hashCode();
+        hash = 31 * hash + endpoint.hashCode();
+        hash = 31 * hash + persistentKeepalive.hashCode();
+        hash = 31 * hash + preSharedKey.hashCode();
+        hash = 31 * hash + publicKey.hashCode();
+        hashCode = hash;
     }
 
     /**
@@ -85,7 +108,8 @@ public final class Peer {
         if (!(obj instanceof Peer))
             return false;
         final Peer other = (Peer) obj;
-        return allowedIps.equals(other.allowedIps)
+        return hashCode == other.hashCode
+                && allowedIps.equals(other.allowedIps)
                 && endpoint.equals(other.endpoint)
                 && persistentKeepalive.equals(other.persistentKeepalive)
                 && preSharedKey.equals(other.preSharedKey)
@@ -140,13 +164,7 @@ public final class Peer {
 
     @Override
     public int hashCode() {
-        int hash = 1;
-        hash = 31 * hash + allowedIps.hashCode();
-        hash = 31 * hash + endpoint.hashCode();
-        hash = 31 * hash + persistentKeepalive.hashCode();
-        hash = 31 * hash + preSharedKey.hashCode();
-        hash = 31 * hash + publicKey.hashCode();
-        return hash;
+        return hashCode;
     }
 
     /**
@@ -171,14 +189,12 @@ public final class Peer {
      * @return the {@code Peer} represented as a series of "Key = Value" lines
      */
     public String toWgQuickString() {
-        final StringBuilder sb = new StringBuilder();
-        if (!allowedIps.isEmpty())
-            sb.append("AllowedIPs = ").append(Attribute.Companion.join(allowedIps)).append('\n');
-        endpoint.ifPresent(ep -> sb.append("Endpoint = ").append(ep).append('\n'));
-        persistentKeepalive.ifPresent(pk -> sb.append("PersistentKeepalive = ").append(pk).append('\n'));
-        preSharedKey.ifPresent(psk -> sb.append("PreSharedKey = ").append(psk.toBase64()).append('\n'));
-        sb.append("PublicKey = ").append(publicKey.toBase64()).append('\n');
-        return sb.toString();
+        String string = wgQuickString;
+        if (string == null) {
+            string = buildWgQuick().toString();
+            wgQuickString = string;
+        }
+        return string;
     }
 
     /**
@@ -188,15 +204,73 @@ public final class Peer {
      * @return the {@code Peer} represented as a series of "key=value" lines
      */
     public String toWgUserspaceString() {
+        final String cached = wgUserspaceString;
+        if (cached != null)
+            return cached;
+        final String string = buildWgUserspace().toString();
+        // A DNS endpoint may resolve differently over time, so only the parts around it are kept.
+        if (endpoint.map(InetEndpoint::isResolved).orElse(true))
+            wgUserspaceString = string;
+        return string;
+    }
+
+    /**
+     * Writes the same text as {@link #toWgQuickString()} to {@code out}. Unlike that method, it
+     * does not keep the text for later calls, so streaming a large configuration does not retain
+     * a copy of it.
+     *
+     * @param out the destination of the {@code Peer}'s "Key = Value" lines
+     */
+    public void writeWgQuick(final Appendable out) throws IOException {
+        final String cached = wgQuickString;
+        out.append(cached != null ? cached : buildWgQuick());
+    }
+
+    /**
+     * Writes the same text as {@link #toWgUserspaceString()} to {@code out}. Unlike that method,
+     * it does not keep the text for later calls, so streaming a large configuration does not
+     * retain a copy of it.
+     *
+     * @param out the destination of the {@code Peer}'s "key=value" lines
+     */
+    public void writeUserspace(final Appendable out) throws IOException {
+        final String cached = wgUserspaceString;
+        out.append(cached != null ? cached : buildWgUserspace());
+    }
+
+    private StringBuilder buildWgQuick() {
         final StringBuilder sb = new StringBuilder();
-        // The order here is important: public_key signifies the beginning of a new peer.
-        sb.append("public_key=").append(publicKey.toHex()).append('\n');
-        for (final InetNetwork allowedIp : allowedIps)
-            sb.append("allowed_ip=").append(allowedIp).append('\n');
+        if (!allowedIps.isEmpty())
+            sb.append("AllowedIPs = ").append(Attribute.Companion.join(allowedIps)).append('\n');
+        endpoint.ifPresent(ep -> sb.append("Endpoint = ").append(ep).append('\n'));
+        persistentKeepalive.ifPresent(pk -> sb.append("PersistentKeepalive = ").append(pk).append('\n'));
+        preSharedKey.ifPresent(psk -> sb.append("PreSharedKey = ").append(psk.toBase64()).append('\n'));
+        sb.append("PublicKey = ").append(publicKey.toBase64()).append('\n');
+        return sb;
+    }
+
+    private StringBuilder buildWgUserspace() {
+        String head = wgUserspaceHead;
+        String tail = wgUserspaceTail;
+        if (head == null || tail == null) {
+            final StringBuilder sb = new StringBuilder();
+            // The order here is important: public_key signifies the beginning of a new peer.
+            sb.append("public_key=").append(publicKey.toHex()).append('\n');
+            for (final InetNetwork allowedIp : allowedIps)
+                sb.append("allowed_ip=").append(allowedIp).append('\n');
+            head = sb.toString();
+            sb.setLength(0);
+            persistentKeepalive.ifPresent(pk -> sb.append("persistent_keepalive_interval=").append(pk).append('\n'));
+            preSharedKey.ifPresent(psk -> sb.append("preshared_key=").append(psk.toHex()).append('\n'));
+            tail = sb.toString();
+            if (!endpoint.map(InetEndpoint::isResolved).orElse(true)) {
+                wgUserspaceHead = head;
+                wgUserspaceTail = tail;
+            }
+        }
+        final StringBuilder sb = new StringBuilder(head.length() + tail.length() + 64).append(head);
         endpoint.flatMap(InetEndpoint::getResolved).ifPresent(ep -> sb.append("endpoint=").append(ep).append('\n'));
-        persistentKeepalive.ifPresent(pk -> sb.append("persistent_keepalive_interval=").append(pk).append('\n'));
-        preSharedKey.ifPresent(psk -> sb.append("preshared_key=").append(psk.toHex()).append('\n'));
-        return sb.toString();
+        return sb.append(tail);
     }
 
     @SuppressWarnings("UnusedReturnValue")
@@ -208,6 +282,8 @@ public final class Peer {
         private final Set<InetNetwork> allowedIps = new LinkedHashSet<>();
         // Defaults to not present.
         private Optional<InetEndpoint> endpoint = Optional.empty();
+        // Defaults to not interning.
+        @Nullable private ConfigInterner interner;
         // Defaults to not present.
         private Optional<Integer> persistentKeepalive = Optional.empty();
         // Defaults to not present.
@@ -281,6 +357,18 @@ public final class Peer {
             return this;
         }
 
+        /**
+         * Shares the peer's public key, endpoint and allowed IPs with equal values of other peers
+         * built with the same interner.
+         *
+         * @param interner the interner that canonicalizes the peer's values
+         * @return this builder
+         */
+        public Builder setInterner(final ConfigInterner interner) {
+            this.interner = interner;
+            return this;
+        }
+
         public Builder setPersistentKeepalive(final int persistentKeepalive)
                 throws BadConfigException {
             if (persistentKeepalive < 0 || persistentKeepalive > MAX_PERSISTENT_KEEPALIVE)
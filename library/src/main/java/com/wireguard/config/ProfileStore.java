@@ -0,0 +1,237 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import com.wireguard.crypto.Key;
+import com.wireguard.util.NonNullForAll;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.Nullable;
+
+/**
+ * A read-only collection of named configurations stored in a single memory-mapped file.
+ * <p>
+ * Opening a store only reads its index, which holds the name and interface public key of each
+ * profile, so listing profiles touches no configuration data. Profiles are decoded from the
+ * mapping on demand by {@link #get}: the interface is decoded immediately, while each peer is
+ * decoded the first time it is read from {@link Config#getPeers()}.
+ * <p>
+ * Layout (all integers are big-endian; configurations use the {@link BinaryConfig} encoding):
+ * <pre>
+ * store := magic:u32 version:u8 count:u32 entry* config*
+ * entry := name:string publicKey:32 offset:u32 length:u32
+ * </pre>
+ * Offsets are relative to the start of the file, so a store is limited to 2 GiB.
+ */
+@NonNullForAll
+public final class ProfileStore {
+    static final int MAGIC = 0x57475053; // "WGPS"
+    static final int VERSION = 1;
+
+    private final MappedByteBuffer buffer;
+    private final Map<String, Entry> entriesByName;
+    private final Map<Key, Entry> entriesByPublicKey;
+
+    private ProfileStore(final MappedByteBuffer buffer, final Map<String, Entry> entriesByName,
+                         final Map<Key, Entry> entriesByPublicKey) {
+        this.buffer = buffer;
+        this.entriesByName = entriesByName;
+        this.entriesByPublicKey = entriesByPublicKey;
+    }
+
+    /**
+     * Maps a store file and reads its index.
+     *
+     * @param file a file written by {@link #write}
+     * @return the opened store
+     */
+    public static ProfileStore open(final Path file) throws IOException {
+        final MappedByteBuffer buffer;
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("Profile store is too large");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        final ByteBuffer index = buffer.duplicate();
+        if (index.remaining() < 5 || index.getInt() != MAGIC)
+            throw new IOException("Not a WireGuard profile store");
+        final int version = index.get() & 0xff;
+        if (version != VERSION)
+            throw new IOException("Unsupported profile store version " + version);
+        final int count = BinaryConfig.readCount(index);
+        final Map<String, Entry> entriesByName = new LinkedHashMap<>(count * 2);
+        final Map<Key, Entry> entriesByPublicKey = new HashMap<>(count * 2);
+        for (int i = 0; i < count; ++i) {
+            final String name = BinaryConfig.readString(index);
+            final Key publicKey = BinaryConfig.readKey(index);
+            final int offset = BinaryConfig.readInt(index);
+            final int length = BinaryConfig.readInt(index);
+            if (offset < 0 || length < 0 || offset > buffer.limit() - length)
+                throw new IOException("Profile " + name + " lies outside of the store");
+            final Entry entry = new Entry(name, offset, length);
+            if (entriesByName.put(name, entry) != null)
+                throw new IOException("Duplicate profile " + name);
+            entriesByPublicKey.putIfAbsent(publicKey, entry);
+        }
+        return new ProfileStore(buffer, entriesByName, entriesByPublicKey);
+    }
+
+    /**
+     * Writes a new store file containing the given profiles. The store is written to a temporary
+     * file next to {@code file}, which then replaces {@code file}, so readers never observe a
+     * partially written store.
+     *
+     * @param file     the store file to create or replace
+     * @param profiles the profiles to store, keyed by name, in the order they should be listed
+     */
+    public static void write(final Path file, final Map<String, Config> profiles) throws IOException {
+        final Path parent = file.toAbsolutePath().getParent();
+        final Path temporary = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (final FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                writeTo(channel, profiles);
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static void writeTo(final FileChannel channel, final Map<String, Config> profiles)
+            throws IOException {
+        // Profiles are written after space reserved for the index, whose size depends only on the
+        // names; the index is filled in once the offset and length of every profile are known.
+        final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        final DataOutputStream indexOut = new DataOutputStream(index);
+        indexOut.writeInt(MAGIC);
+        indexOut.writeByte(VERSION);
+        indexOut.writeInt(profiles.size());
+        final int entryFixedLength = Key.Format.BINARY.getLength() + 8;
+        long offset = index.size();
+        for (final String name : profiles.keySet()) {
+            final ByteArrayOutputStream encodedName = new ByteArrayOutputStream();
+            BinaryConfig.writeString(name, new DataOutputStream(encodedName));
+            offset += encodedName.size() + entryFixedLength;
+        }
+        final ByteArrayOutputStream profile = new ByteArrayOutputStream();
+        final DataOutputStream profileOut = new DataOutputStream(profile);
+        for (final Map.Entry<String, Config> entry : profiles.entrySet()) {
+            profile.reset();
+            final Config config = entry.getValue();
+            BinaryConfig.write(config, profileOut);
+            if (offset + profile.size() > Integer.MAX_VALUE)
+                throw new IOException("Profile store is too large");
+            writeFully(channel, ByteBuffer.wrap(profile.toByteArray()), offset);
+            BinaryConfig.writeString(entry.getKey(), indexOut);
+            indexOut.write(config.getInterface().getKeyPair().getPublicKey().getBytes());
+            indexOut.writeInt((int) offset);
+            indexOut.writeInt(profile.size());
+            offset += profile.size();
+        }
+        writeFully(channel, ByteBuffer.wrap(index.toByteArray()), 0);
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer source, final long position)
+            throws IOException {
+        long current = position;
+        while (source.hasRemaining())
+            current += channel.write(source, current);
+    }
+
+    /**
+     * Decodes the profile with the given name. The returned configuration keeps the store's
+     * mapping alive and decodes its peers lazily.
+     *
+     * @param name the name of the profile
+     * @return the profile, or {@code null} if the store contains no profile with that name
+     */
+    @Nullable
+    public Config get(final String name) throws IOException, BadConfigException {
+        final Entry entry = entriesByName.get(name);
+        return entry != null ? read(entry) : null;
+    }
+
+    /**
+     * Decodes the profile whose interface has the given public key. If several profiles share
+     * the key, the first one in the store is returned.
+     *
+     * @param publicKey the public key of the profile's interface
+     * @return the profile, or {@code null} if no profile has that public key
+     */
+    @Nullable
+    public Config getByPublicKey(final Key publicKey) throws IOException, BadConfigException {
+        final Entry entry = entriesByPublicKey.get(publicKey);
+        return entry != null ? read(entry) : null;
+    }
+
+    /**
+     * Returns the name of the profile whose interface has the given public key, without decoding
+     * the profile.
+     *
+     * @param publicKey the public key of the profile's interface
+     * @return the name of the profile, or {@code null} if no profile has that public key
+     */
+    @Nullable
+    public String getName(final Key publicKey) {
+        final Entry entry = entriesByPublicKey.get(publicKey);
+        return entry != null ? entry.name : null;
+    }
+
+    /**
+     * Returns the names of all profiles, in the order they were written.
+     *
+     * @return an unmodifiable set of profile names
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(entriesByName.keySet());
+    }
+
+    public boolean contains(final String name) {
+        return entriesByName.containsKey(name);
+    }
+
+    public int size() {
+        return entriesByName.size();
+    }
+
+    private Config read(final Entry entry) throws IOException, BadConfigException {
+        final ByteBuffer view = buffer.duplicate();
+        ((Buffer) view).position(entry.offset);
+        ((Buffer) view).limit(entry.offset + entry.length);
+        return BinaryConfig.readLazily(view.slice());
+    }
+
+    private static final class Entry {
+        final int length;
+        final String name;
+        final int offset;
+
+        Entry(final String name, final int offset, final int length) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import com.wireguard.util.NonNullForAll;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Utility methods for reducing sets of networks to the smallest equivalent list of routes.
+ * <p>
+ * A compiled list covers exactly the same addresses as its input. It is sorted, its networks have
+ * no host bits set and do not overlap, and no two of them can be merged into a wider network.
+ */
+@NonNullForAll
+public final class RouteCompiler {
+    private RouteCompiler() {
+    }
+
+    /**
+     * Compiles the smallest list of networks that covers the same addresses as the input.
+     * Networks contained in others are dropped, and adjacent halves of a wider network are merged.
+     *
+     * @param networks the networks to compile, in any order and possibly overlapping
+     * @return an unmodifiable, sorted list of disjoint networks
+     */
+    public static List<InetNetwork> compile(final Collection<InetNetwork> networks) {
+        if (networks.isEmpty())
+            return Collections.emptyList();
+        final List<InetNetwork> sorted = new ArrayList<>(networks.size());
+        for (final InetNetwork network : networks)
+            sorted.add(network.getNetwork());
+        // Containing networks sort before the networks they contain.
+        Collections.sort(sorted);
+        final List<InetNetwork> routes = new ArrayList<>(sorted.size());
+        for (final InetNetwork network : sorted) {
+            if (!routes.isEmpty() && routes.get(routes.size() - 1).contains(network))
+                continue;
+            InetNetwork merged = network;
+            while (!routes.isEmpty()) {
+                final InetNetwork parent = parent(merged);
+                final InetNetwork last = routes.get(routes.size() - 1);
+                if (parent == null || last.getMask() != merged.getMask() || !parent.contains(last))
+                    break;
+                routes.remove(routes.size() - 1);
+                merged = parent;
+            }
+            routes.add(merged);
+        }
+        return Collections.unmodifiableList(routes);
+    }
+
+    /**
+     * Compiles the smallest list of networks that covers the addresses in {@code included} that
+     * are not in {@code excluded}.
+     *
+     * @param included the networks to route, in any order and possibly overlapping
+     * @param excluded the networks to leave out, in any order and possibly overlapping
+     * @return an unmodifiable, sorted list of disjoint networks
+     */
+    public static List<InetNetwork> compile(final Collection<InetNetwork> included,
+                                            final Collection<InetNetwork> excluded) {
+        final List<InetNetwork> routes = compile(included);
+        if (excluded.isEmpty() || routes.isEmpty())
+            return routes;
+        final List<InetNetwork> holes = compile(excluded);
+        final List<InetNetwork> remaining = new ArrayList<>(routes.size());
+        for (final InetNetwork route : routes)
+            subtract(route, holes, remaining);
+        return compile(remaining);
+    }
+
+    private static InetNetwork half(final InetNetwork network, final boolean upper) {
+        final int mask = network.getMask() + 1;
+        long high = network.getHigh();
+        long low = network.getLow();
+        if (!network.isIpv6()) {
+            if (upper)
+                low |= 1L << (32 - mask);
+            return InetNetwork.ofIpv4((int) low, mask);
+        }
+        if (upper && mask <= 64)
+            high |= 1L << (64 - mask);
+        else if (upper)
+            low |= 1L << (128 - mask);
+        return InetNetwork.ofIpv6(high, low, mask);
+    }
+
+    @Nullable
+    private static InetNetwork parent(final InetNetwork network) {
+        if (network.getMask() == 0)
+            return null;
+        final InetNetwork parent = network.isIpv6()
+                ? InetNetwork.ofIpv6(network.getHigh(), network.getLow(), network.getMask() - 1)
+                : InetNetwork.ofIpv4((int) network.getLow(), network.getMask() - 1);
+        return parent.getNetwork();
+    }
+
+    /**
+     * Adds the parts of {@code route} that are not in any of the sorted, disjoint {@code holes} to
+     * {@code out}, splitting the route in halves around each hole.
+     */
+    private static void subtract(final InetNetwork route, final List<InetNetwork> holes,
+                                 final List<InetNetwork> out) {
+        boolean split = false;
+        for (final InetNetwork hole : holes) {
+            if (hole.contains(route))
+                return;
+            if (route.contains(hole))
+                split = true;
+        }
+        if (!split) {
+            out.add(route);
+            return;
+        }
+        final List<InetNetwork> inside = new ArrayList<>();
+        for (final InetNetwork hole : holes) {
+            if (route.contains(hole))
+                inside.add(hole);
+        }
+        subtract(half(route, false), inside, out);
+        subtract(half(route, true), inside, out);
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import com.wireguard.crypto.Key;
+import com.wireguard.util.NonNullForAll;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Answers which {@link Peer} of a {@link Config} carries traffic to a given address, following the
+ * longest matching prefix among the peers' {@code AllowedIPs}, as WireGuard's cryptokey routing
+ * does. If several peers list the same prefix, the last of them in the configuration wins.
+ * <p>
+ * Prefixes are kept in a path-compressed binary trie per address family, so a lookup visits at
+ * most one node per bit of the address. Tries are persistent: {@link #update(Config)} only
+ * rebuilds the paths to the prefixes of peers that changed and shares everything else with the
+ * previous index.
+ * <p>
+ * Instances of this class are immutable.
+ */
+@NonNullForAll
+public final class RoutingIndex {
+    private static final RoutingIndex EMPTY = new RoutingIndex(Collections.emptyMap(), null, null);
+
+    @Nullable private final Node ipv4;
+    @Nullable private final Node ipv6;
+    private final Map<Key, Peer> peers;
+
+    private RoutingIndex(final Map<Key, Peer> peers, @Nullable final Node ipv4, @Nullable final Node ipv6) {
+        this.peers = peers;
+        this.ipv4 = ipv4;
+        this.ipv6 = ipv6;
+    }
+
+    private static int bitAt(final long high, final long low, final int index) {
+        return (int) ((index < 64 ? high >>> (63 - index) : low >>> (127 - index)) & 1);
+    }
+
+    /**
+     * Builds the routing index of a configuration.
+     *
+     * @param config the configuration whose peers to index
+     * @return the index
+     */
+    public static RoutingIndex build(final Config config) {
+        final Editor editor = new Editor(null, null);
+        final Map<Key, Peer> peers = new LinkedHashMap<>();
+        for (final Peer peer : config.getPeers()) {
+            peers.put(peer.getPublicKey(), peer);
+            editor.insert(peer);
+        }
+        return editor.finish(peers);
+    }
+
+    private static int commonPrefixLength(final long high1, final long low1, final long high2, final long low2) {
+        if (high1 != high2)
+            return Long.numberOfLeadingZeros(high1 ^ high2);
+        return 64 + Long.numberOfLeadingZeros(low1 ^ low2);
+    }
+
+    /**
+     * Returns an index without any peers.
+     *
+     * @return the empty index
+     */
+    public static RoutingIndex empty() {
+        return EMPTY;
+    }
+
+    @Nullable
+    private static Peer lookup(@Nullable Node node, final long high, final long low) {
+        Peer match = null;
+        while (node != null && commonPrefixLength(node.high, node.low, high, low) >= node.bits) {
+            if (node.peer != null)
+                match = node.peer;
+            if (node.bits == 128)
+                break;
+            node = bitAt(high, low, node.bits) == 0 ? node.zero : node.one;
+        }
+        return match;
+    }
+
+    private static long maskHigh(final long high, final int bits) {
+        return bits >= 64 ? high : bits == 0 ? 0 : high & (-1L << (64 - bits));
+    }
+
+    private static long maskLow(final long low, final int bits) {
+        return bits <= 64 ? 0 : bits >= 128 ? low : low & (-1L << (128 - bits));
+    }
+
+    /**
+     * Returns the peers in this index, by public key, in configuration order.
+     *
+     * @return an unmodifiable map of the indexed peers
+     */
+    public Map<Key, Peer> getPeers() {
+        return peers;
+    }
+
+    /**
+     * Finds the peer that traffic to an address is routed to.
+     *
+     * @param address the destination address
+     * @return the peer with the longest allowed IP prefix containing the address, if any
+     */
+    public Optional<Peer> lookup(final InetAddress address) {
+        final byte[] bytes = address.getAddress();
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < bytes.length; ++i) {
+            if (i < 8)
+                high = high << 8 | (bytes[i] & 0xff);
+            else
+                low = low << 8 | (bytes[i] & 0xff);
+        }
+        if (bytes.length == 4)
+            return Optional.ofNullable(lookupIpv4((int) high));
+        return Optional.ofNullable(lookupIpv6(high, low));
+    }
+
+    /**
+     * Finds the peer that traffic to an IPv4 address is routed to, without allocating.
+     *
+     * @param address the destination address, with the first octet in the most significant byte
+     * @return the peer with the longest allowed IP prefix containing the address, or null
+     */
+    @Nullable
+    public Peer lookupIpv4(final int address) {
+        return lookup(ipv4, (long) address << 32, 0);
+    }
+
+    /**
+     * Finds the peer that traffic to an IPv6 address is routed to, without allocating.
+     *
+     * @param high the most significant 64 bits of the destination address
+     * @param low  the least significant 64 bits of the destination address
+     * @return the peer with the longest allowed IP prefix containing the address, or null
+     */
+    @Nullable
+    public Peer lookupIpv6(final long high, final long low) {
+        return lookup(ipv6, high, low);
+    }
+
+    /**
+     * Returns the index of another configuration, reusing the parts of this index that belong to
+     * peers that did not change. Peers are matched by public key.
+     *
+     * @param config the configuration to index
+     * @return an index equivalent to {@code RoutingIndex.build(config)}
+     */
+    public RoutingIndex update(final Config config) {
+        final Map<Key, Peer> next = new LinkedHashMap<>();
+        for (final Peer peer : config.getPeers()) {
+            if (next.put(peer.getPublicKey(), peer) != null)
+                return build(config);
+        }
+        final Editor editor = new Editor(ipv4, ipv6);
+        for (final Peer peer : peers.values()) {
+            if (!peer.equals(next.get(peer.getPublicKey())))
+                editor.remove(peer);
+        }
+        for (final Peer peer : next.values()) {
+            if (!peer.equals(peers.get(peer.getPublicKey())))
+                editor.insert(peer);
+        }
+        // Whether a prefix listed by several peers goes to the right one depends on their order
+        // in the configuration, which only a full build takes into account.
+        if (editor.isAmbiguous)
+            return build(config);
+        return editor.finish(next);
+    }
+
+    /**
+     * Applies insertions and removals to a pair of tries by copying the paths they touch.
+     */
+    private static final class Editor {
+        boolean isAmbiguous;
+        @Nullable private Node ipv4;
+        @Nullable private Node ipv6;
+
+        Editor(@Nullable final Node ipv4, @Nullable final Node ipv6) {
+            this.ipv4 = ipv4;
+            this.ipv6 = ipv6;
+        }
+
+        RoutingIndex finish(final Map<Key, Peer> peers) {
+            return new RoutingIndex(Collections.unmodifiableMap(peers), ipv4, ipv6);
+        }
+
+        void insert(final Peer peer) {
+            for (final InetNetwork network : peer.getAllowedIps()) {
+                if (network.isIpv6())
+                    ipv6 = insert(ipv6, network.getHigh(), network.getLow(), network.getMask(), peer);
+                else
+                    ipv4 = insert(ipv4, network.getLow() << 32, 0, network.getMask(), peer);
+            }
+        }
+
+        private Node insert(@Nullable final Node node, final long high, final long low, final int bits,
+                            final Peer peer) {
+            final long maskedHigh = maskHigh(high, bits);
+            final long maskedLow = maskLow(low, bits);
+            if (node == null)
+                return new Node(maskedHigh, maskedLow, bits, peer, 1, null, null);
+            final int common = Math.min(commonPrefixLength(node.high, node.low, maskedHigh, maskedLow),
+                    Math.min(node.bits, bits));
+            if (common == node.bits && bits == node.bits) {
+                if (node.peer == null)
+                    return node.withPeer(peer, 1);
+                if (node.peer.getPublicKey().equals(peer.getPublicKey()))
+                    return node.withPeer(peer, node.claims);
+                isAmbiguous = true;
+                return node.withPeer(peer, node.claims + 1);
+            }
+            if (common == node.bits) {
+                if (bitAt(maskedHigh, maskedLow, node.bits) == 0)
+                    return node.withChildren(insert(node.zero, high, low, bits, peer), node.one);
+                return node.withChildren(node.zero, insert(node.one, high, low, bits, peer));
+            }
+            if (common == bits) {
+                // The new prefix contains the node, so it becomes the node's parent.
+                if (bitAt(node.high, node.low, bits) == 0)
+                    return new Node(maskedHigh, maskedLow, bits, peer, 1, node, null);
+                return new Node(maskedHigh, maskedLow, bits, peer, 1, null, node);
+            }
+            // The prefixes diverge, so they become siblings under their longest common prefix.
+            final Node leaf = new Node(maskedHigh, maskedLow, bits, peer, 1, null, null);
+            final boolean leafIsZero = bitAt(maskedHigh, maskedLow, common) == 0;
+            return new Node(maskHigh(high, common), maskLow(low, common), common, null, 0,
+                    leafIsZero ? leaf : node, leafIsZero ? node : leaf);
+        }
+
+        void remove(final Peer peer) {
+            for (final InetNetwork network : peer.getAllowedIps()) {
+                if (network.isIpv6())
+                    ipv6 = remove(ipv6, network.getHigh(), network.getLow(), network.getMask(), peer);
+                else
+                    ipv4 = remove(ipv4, network.getLow() << 32, 0, network.getMask(), peer);
+            }
+        }
+
+        @Nullable
+        private Node remove(@Nullable final Node node, final long high, final long low, final int bits,
+                            final Peer peer) {
+            if (node == null || node.bits > bits
+                    || commonPrefixLength(node.high, node.low, high, low) < node.bits)
+                return node;
+            if (node.bits < bits) {
+                if (bitAt(high, low, node.bits) == 0)
+                    return node.withChildren(remove(node.zero, high, low, bits, peer), node.one).compact();
+                return node.withChildren(node.zero, remove(node.one, high, low, bits, peer)).compact();
+            }
+            if (node.peer == null)
+                return node;
+            if (!node.peer.getPublicKey().equals(peer.getPublicKey()))
+                return node.withPeer(node.peer, node.claims - 1);
+            if (node.claims > 1) {
+                // Another peer lists this prefix too, and it is not known which one.
+                isAmbiguous = true;
+                return node;
+            }
+            return node.withPeer(null, 0).compact();
+        }
+    }
+
+    /**
+     * A prefix in a trie, with the peer that owns it (if any) and the number of peers that list it.
+     * Each child extends the prefix by at least one bit, which is 0 for {@code zero} and 1 for
+     * {@code one}.
+     */
+    private static final class Node {
+        final int bits;
+        final int claims;
+        final long high;
+        final long low;
+        @Nullable final Node one;
+        @Nullable final Peer peer;
+        @Nullable final Node zero;
+
+        Node(final long high, final long low, final int bits, @Nullable final Peer peer, final int claims,
+             @Nullable final Node zero, @Nullable final Node one) {
+            this.high = high;
+            this.low = low;
+            this.bits = bits;
+            this.peer = peer;
+            this.claims = claims;
+            this.zero = zero;
+            this.one = one;
+        }
+
+        /**
+         * Removes this node if it has no peer and does not join two subtrees.
+         */
+        @Nullable
+        Node compact() {
+            if (peer != null || (zero != null && one != null))
+                return this;
+            return zero != null ? zero : one;
+        }
+
+        Node withChildren(@Nullable final Node zero, @Nullable final Node one) {
+            if (zero == this.zero && one == this.one)
+                return this;
+            return new Node(high, low, bits, peer, claims, zero, one);
+        }
+
+        Node withPeer(@Nullable final Peer peer, final int claims) {
+            return new Node(high, low, bits, peer, claims, zero, one);
+        }
+    }
+}
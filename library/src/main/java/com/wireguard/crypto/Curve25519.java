@@ -24,6 +24,10 @@ import androidx.annotation.Nullable;
  * Differences in this version are due to using 26-bit limbs for the
  * representation instead of the 8/16/32-bit limbs in the original.
  * <p>
+ * Evaluation is delegated to {@link Curve25519Radix51}, which uses 51-bit limbs and reusable
+ * state, when that implementation passes its self-test on the running platform; this
+ * implementation remains as the fallback.
+ * <p>
  * References: http://cr.yp.to/ecdh.html, RFC 7748
  */
 @SuppressWarnings({"MagicNumber", "NonConstantFieldWithUpperCaseName", "SuspiciousNameCombination"})
@@ -100,16 +104,35 @@ public final class Curve25519 {
      */
     public static void eval(final byte[] result, final int offset,
                             final byte[] privateKey, @Nullable final byte[] publicKey) {
+        if (Curve25519Radix51.VERIFIED)
+            Curve25519Radix51.eval(result, offset, privateKey, publicKey);
+        else
+            evalRadix26(result, offset, privateKey, publicKey);
+    }
+
+    /**
+     * Evaluates the Curve25519 curve with this implementation's 26-bit limbs, regardless of
+     * whether the faster 51-bit implementation is available.
+     *
+     * @param result     Buffer to place the result of the evaluation into.
+     * @param offset     Offset into the result buffer.
+     * @param privateKey The private key to use in the evaluation.
+     * @param publicKey  The public key to use in the evaluation, or null
+     *                   if the base point of the curve should be used.
+     */
+    static void evalRadix26(final byte[] result, final int offset,
+                            final byte[] privateKey, @Nullable final byte[] publicKey) {
         final Curve25519 state = new Curve25519();
         try {
             // Unpack the public key value.  If null, use 9 as the base point.
             Arrays.fill(state.x_1, 0);
             if (publicKey != null) {
-                // Convert the input value from little-endian into 26-bit limbs.
+                // Convert the input value from little-endian into 26-bit limbs,
+                // ignoring the top bit as RFC 7748 requires.
                 for (int index = 0; index < 32; ++index) {
                     final int bit = (index * 8) % 26;
                     final int word = (index * 8) / 26;
-                    final int value = publicKey[index] & 0xFF;
+                    final int value = publicKey[index] & (index == 31 ? 0x7F : 0xFF);
                     if (bit <= (26 - 8)) {
                         state.x_1[word] |= value << bit;
                     } else {
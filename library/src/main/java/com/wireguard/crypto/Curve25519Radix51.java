@@ -0,0 +1,622 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.crypto;
+
+import com.wireguard.util.NonNullForAll;
+
+import java.util.Arrays;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Implementation of Curve25519 ECDH using five 51-bit limbs held in {@code long}s.
+ * <p>
+ * Products of two limbs need up to 116 bits, so they are formed from {@link Math#multiplyHigh}
+ * and the low half of the product, and are accumulated as separate low and high sums that never
+ * overflow. The scratch state is confined to the calling thread and reused across evaluations,
+ * so evaluating the curve does not allocate; it is zeroed again after every evaluation.
+ * <p>
+ * Like {@link Curve25519}, this implementation runs in constant time: there are no branches or
+ * table lookups that depend on secret data.
+ * <p>
+ * References: http://cr.yp.to/ecdh.html, RFC 7748
+ */
+@SuppressWarnings({"MagicNumber", "NonConstantFieldWithUpperCaseName", "SuspiciousNameCombination"})
+@NonNullForAll
+final class Curve25519Radix51 {
+    private static final long A24 = 121665;
+    private static final long MASK = (1L << 51) - 1;
+    private static final int NUM_LIMBS = 5;
+    private static final ThreadLocal<Curve25519Radix51> STATE =
+            ThreadLocal.withInitial(Curve25519Radix51::new);
+    /**
+     * Whether this implementation reproduces the RFC 7748 test vectors on this runtime. If it
+     * does not, {@link Curve25519} falls back to its 26-bit implementation.
+     */
+    static final boolean VERIFIED = selfTest();
+
+    private final long[] A = new long[NUM_LIMBS];
+    private final long[] AA = new long[NUM_LIMBS];
+    private final long[] B = new long[NUM_LIMBS];
+    private final long[] BB = new long[NUM_LIMBS];
+    private final long[] C = new long[NUM_LIMBS];
+    private final long[] CB = new long[NUM_LIMBS];
+    private final long[] D = new long[NUM_LIMBS];
+    private final long[] DA = new long[NUM_LIMBS];
+    private final long[] E = new long[NUM_LIMBS];
+    private final byte[] s = new byte[32];
+    private final long[] t = new long[NUM_LIMBS];
+    private final long[] x_1 = new long[NUM_LIMBS];
+    private final long[] x_2 = new long[NUM_LIMBS];
+    private final long[] x_3 = new long[NUM_LIMBS];
+    private final long[] z_2 = new long[NUM_LIMBS];
+    private final long[] z_3 = new long[NUM_LIMBS];
+
+    private Curve25519Radix51() {
+    }
+
+    /**
+     * Adds two numbers modulo 2^255 - 19. The result is not carried; it is only ever used as
+     * the input of a multiplication.
+     *
+     * @param result The result.
+     * @param x      The first number to add.
+     * @param y      The second number to add.
+     */
+    private static void add(final long[] result, final long[] x, final long[] y) {
+        for (int index = 0; index < NUM_LIMBS; ++index)
+            result[index] = x[index] + y[index];
+    }
+
+    /**
+     * Propagates the carries of column sums into 51-bit limbs, folding everything at and above
+     * 2^255 back into the bottom limbs as 2^255 = 19 modulo 2^255 - 19. The top limb of the
+     * result may exceed 51 bits only by the final carry out of the bottom limb.
+     *
+     * @param result   The result.
+     * @param s0       The column sum at 2^0.
+     * @param s1       The column sum at 2^51.
+     * @param s2       The column sum at 2^102.
+     * @param s3       The column sum at 2^153.
+     * @param s4       The column sum at 2^204.
+     * @param overflow The column sum at 2^255.
+     */
+    private static void carry(final long[] result, long s0, long s1, long s2, long s3, long s4,
+                              final long overflow) {
+        s0 += 19 * (overflow & MASK);
+        s1 += 19 * (overflow >>> 51);
+        s1 += s0 >>> 51;
+        s0 &= MASK;
+        s2 += s1 >>> 51;
+        s1 &= MASK;
+        s3 += s2 >>> 51;
+        s2 &= MASK;
+        s4 += s3 >>> 51;
+        s3 &= MASK;
+        s0 += 19 * (s4 >>> 51);
+        s4 &= MASK;
+        s1 += s0 >>> 51;
+        s0 &= MASK;
+        result[0] = s0;
+        result[1] = s1;
+        result[2] = s2;
+        result[3] = s3;
+        result[4] = s4;
+    }
+
+    /**
+     * Conditional swap of two values.
+     *
+     * @param select Set to 1 to swap, 0 to leave as-is.
+     * @param x      The first value.
+     * @param y      The second value.
+     */
+    private static void cswap(final int select, final long[] x, final long[] y) {
+        final long mask = -select;
+        for (int index = 0; index < NUM_LIMBS; ++index) {
+            final long dummy = mask & (x[index] ^ y[index]);
+            x[index] ^= dummy;
+            y[index] ^= dummy;
+        }
+    }
+
+    /**
+     * Evaluates the Curve25519 curve.
+     *
+     * @param result     Buffer to place the result of the evaluation into.
+     * @param offset     Offset into the result buffer.
+     * @param privateKey The private key to use in the evaluation.
+     * @param publicKey  The public key to use in the evaluation, or null
+     *                   if the base point of the curve should be used.
+     */
+    static void eval(final byte[] result, final int offset,
+                     final byte[] privateKey, @Nullable final byte[] publicKey) {
+        final Curve25519Radix51 state = STATE.get();
+        try {
+            // Unpack the public key value, ignoring its top bit as RFC 7748 requires. Values
+            // between 2^255 - 19 and 2^255 - 1 need no special treatment; the arithmetic below
+            // works on any value that fits the limbs.
+            if (publicKey != null) {
+                state.x_1[0] = load64(publicKey, 0) & MASK;
+                state.x_1[1] = (load64(publicKey, 6) >>> 3) & MASK;
+                state.x_1[2] = (load64(publicKey, 12) >>> 6) & MASK;
+                state.x_1[3] = (load64(publicKey, 19) >>> 1) & MASK;
+                state.x_1[4] = (load64(publicKey, 24) >>> 12) & MASK;
+            } else {
+                state.x_1[0] = 9;
+            }
+
+            // Clamp a copy of the private key.
+            System.arraycopy(privateKey, 0, state.s, 0, 32);
+            state.s[0] &= (byte) 0xF8;
+            state.s[31] &= 0x7F;
+            state.s[31] |= 0x40;
+
+            state.x_2[0] = 1;                     // x_2 = 1, z_2 = 0
+            System.arraycopy(state.x_1, 0, state.x_3, 0, NUM_LIMBS);
+            state.z_3[0] = 1;                     // z_3 = 1
+            state.evalCurve();
+
+            // Compute x_2 * (z_2 ^ (p - 2)) where p = 2^255 - 19.
+            state.recip(state.z_3, state.z_2);
+            mul(state.x_2, state.x_2, state.z_3);
+            freeze(state.x_2);
+
+            // Convert x_2 into little-endian in the result buffer.
+            final long[] x = state.x_2;
+            store64(result, offset, x[0] | (x[1] << 51));
+            store64(result, offset + 8, (x[1] >>> 13) | (x[2] << 38));
+            store64(result, offset + 16, (x[2] >>> 26) | (x[3] << 25));
+            store64(result, offset + 24, (x[3] >>> 39) | (x[4] << 12));
+        } finally {
+            // Clean up all temporary state before we exit.
+            state.destroy();
+        }
+    }
+
+    /**
+     * Fully reduces a number modulo 2^255 - 19 into its canonical form.
+     *
+     * @param x The number to reduce, and the result.
+     */
+    private static void freeze(final long[] x) {
+        carry(x, x[0], x[1], x[2], x[3], x[4], 0);
+
+        // x is now below 2 * (2^255 - 19). Work out whether x + 19 reaches 2^255, in which case
+        // x is at least 2^255 - 19 and must have it subtracted, by adding 19 and dropping 2^255.
+        long q = (x[0] + 19) >>> 51;
+        q = (x[1] + q) >>> 51;
+        q = (x[2] + q) >>> 51;
+        q = (x[3] + q) >>> 51;
+        q = (x[4] + q) >>> 51;
+        x[0] += 19 * q;
+        x[1] += x[0] >>> 51;
+        x[0] &= MASK;
+        x[2] += x[1] >>> 51;
+        x[1] &= MASK;
+        x[3] += x[2] >>> 51;
+        x[2] &= MASK;
+        x[4] += x[3] >>> 51;
+        x[3] &= MASK;
+        x[4] &= MASK;
+    }
+
+    private static long load64(final byte[] b, final int offset) {
+        long value = 0;
+        for (int index = 7; index >= 0; --index)
+            value = (value << 8) | (b[offset + index] & 0xFF);
+        return value;
+    }
+
+    /**
+     * Multiplies two numbers modulo 2^255 - 19. The result may alias either argument.
+     *
+     * @param result The result.
+     * @param x      The first number to multiply.
+     * @param y      The second number to multiply.
+     */
+    private static void mul(final long[] result, final long[] x, final long[] y) {
+        final long a0 = x[0];
+        final long a1 = x[1];
+        final long a2 = x[2];
+        final long a3 = x[3];
+        final long a4 = x[4];
+        final long b0 = y[0];
+        final long b1 = y[1];
+        final long b2 = y[2];
+        final long b3 = y[3];
+        final long b4 = y[4];
+        final long b1_19 = 19 * b1;
+        final long b2_19 = 19 * b2;
+        final long b3_19 = 19 * b3;
+        final long b4_19 = 19 * b4;
+
+        // Each column is kept as three sums: the low 51 bits of its products (l), the next 13
+        // bits of their low halves (c), and their high halves (h).
+        long p;
+        long l0, l1, l2, l3, l4;
+        long c0, c1, c2, c3, c4;
+        long h0, h1, h2, h3, h4;
+        p = a0 * b0;
+        l0 = p & MASK;
+        c0 = p >>> 51;
+        h0 = Math.multiplyHigh(a0, b0);
+        p = a1 * b4_19;
+        l0 += p & MASK;
+        c0 += p >>> 51;
+        h0 += Math.multiplyHigh(a1, b4_19);
+        p = a2 * b3_19;
+        l0 += p & MASK;
+        c0 += p >>> 51;
+        h0 += Math.multiplyHigh(a2, b3_19);
+        p = a3 * b2_19;
+        l0 += p & MASK;
+        c0 += p >>> 51;
+        h0 += Math.multiplyHigh(a3, b2_19);
+        p = a4 * b1_19;
+        l0 += p & MASK;
+        c0 += p >>> 51;
+        h0 += Math.multiplyHigh(a4, b1_19);
+
+        p = a0 * b1;
+        l1 = p & MASK;
+        c1 = p >>> 51;
+        h1 = Math.multiplyHigh(a0, b1);
+        p = a1 * b0;
+        l1 += p & MASK;
+        c1 += p >>> 51;
+        h1 += Math.multiplyHigh(a1, b0);
+        p = a2 * b4_19;
+        l1 += p & MASK;
+        c1 += p >>> 51;
+        h1 += Math.multiplyHigh(a2, b4_19);
+        p = a3 * b3_19;
+        l1 += p & MASK;
+        c1 += p >>> 51;
+        h1 += Math.multiplyHigh(a3, b3_19);
+        p = a4 * b2_19;
+        l1 += p & MASK;
+        c1 += p >>> 51;
+        h1 += Math.multiplyHigh(a4, b2_19);
+
+        p = a0 * b2;
+        l2 = p & MASK;
+        c2 = p >>> 51;
+        h2 = Math.multiplyHigh(a0, b2);
+        p = a1 * b1;
+        l2 += p & MASK;
+        c2 += p >>> 51;
+        h2 += Math.multiplyHigh(a1, b1);
+        p = a2 * b0;
+        l2 += p & MASK;
+        c2 += p >>> 51;
+        h2 += Math.multiplyHigh(a2, b0);
+        p = a3 * b4_19;
+        l2 += p & MASK;
+        c2 += p >>> 51;
+        h2 += Math.multiplyHigh(a3, b4_19);
+        p = a4 * b3_19;
+        l2 += p & MASK;
+        c2 += p >>> 51;
+        h2 += Math.multiplyHigh(a4, b3_19);
+
+        p = a0 * b3;
+        l3 = p & MASK;
+        c3 = p >>> 51;
+        h3 = Math.multiplyHigh(a0, b3);
+        p = a1 * b2;
+        l3 += p & MASK;
+        c3 += p >>> 51;
+        h3 += Math.multiplyHigh(a1, b2);
+        p = a2 * b1;
+        l3 += p & MASK;
+        c3 += p >>> 51;
+        h3 += Math.multiplyHigh(a2, b1);
+        p = a3 * b0;
+        l3 += p & MASK;
+        c3 += p >>> 51;
+        h3 += Math.multiplyHigh(a3, b0);
+        p = a4 * b4_19;
+        l3 += p & MASK;
+        c3 += p >>> 51;
+        h3 += Math.multiplyHigh(a4, b4_19);
+
+        p = a0 * b4;
+        l4 = p & MASK;
+        c4 = p >>> 51;
+        h4 = Math.multiplyHigh(a0, b4);
+        p = a1 * b3;
+        l4 += p & MASK;
+        c4 += p >>> 51;
+        h4 += Math.multiplyHigh(a1, b3);
+        p = a2 * b2;
+        l4 += p & MASK;
+        c4 += p >>> 51;
+        h4 += Math.multiplyHigh(a2, b2);
+        p = a3 * b1;
+        l4 += p & MASK;
+        c4 += p >>> 51;
+        h4 += Math.multiplyHigh(a3, b1);
+        p = a4 * b0;
+        l4 += p & MASK;
+        c4 += p >>> 51;
+        h4 += Math.multiplyHigh(a4, b0);
+        carry(result, l0, l1 + (h0 << 13) + c0, l2 + (h1 << 13) + c1,
+                l3 + (h2 << 13) + c2, l4 + (h3 << 13) + c3, (h4 << 13) + c4);
+    }
+
+    /**
+     * Multiplies a number by the a24 constant, modulo 2^255 - 19.
+     *
+     * @param result The result.
+     * @param x      The number to multiply by a24.
+     */
+    private static void mulA24(final long[] result, final long[] x) {
+        final long p0 = x[0] * A24;
+        final long p1 = x[1] * A24;
+        final long p2 = x[2] * A24;
+        final long p3 = x[3] * A24;
+        final long p4 = x[4] * A24;
+        carry(result, p0 & MASK,
+                (p1 & MASK) + ((Math.multiplyHigh(x[0], A24) << 13) | (p0 >>> 51)),
+                (p2 & MASK) + ((Math.multiplyHigh(x[1], A24) << 13) | (p1 >>> 51)),
+                (p3 & MASK) + ((Math.multiplyHigh(x[2], A24) << 13) | (p2 >>> 51)),
+                (p4 & MASK) + ((Math.multiplyHigh(x[3], A24) << 13) | (p3 >>> 51)),
+                (Math.multiplyHigh(x[4], A24) << 13) | (p4 >>> 51));
+    }
+
+    /**
+     * Checks this implementation against the test vectors of RFC 7748, section 5.2.
+     *
+     * @return true if all of the vectors match
+     */
+    private static boolean selfTest() {
+        final String[][] vectors = {
+                {"a546e36bf0527c9d3b16154b82465edd62144c0ac1fc5a18506a2244ba449ac4",
+                        "e6db6867583030db3594c1a424b15f7c726624ec26b3353b10a903a6d0ab1c4c",
+                        "c3da55379de9c6908e94ea4df28d084f32eccf03491c71f754b4075577a28552"},
+                {"4b66e9d4d1b4673c5ad22691957d6af5c11b6421e0ea01d42ca4169e7918ba0d",
+                        "e5210f12786811d3f4b7959d0538ae2c31dbe7106fc03c3efc4cd549c715a493",
+                        "95cbde9476e8907d7aade45cb4b873f88b595a68799fa152e6f8f7647aac7957"},
+        };
+        final byte[] result = new byte[32];
+        try {
+            for (final String[] vector : vectors) {
+                eval(result, 0, Key.fromHex(vector[0]).getBytes(), Key.fromHex(vector[1]).getBytes());
+                if (!Key.fromHex(vector[2]).equalsBytes(result, 0))
+                    return false;
+            }
+            return true;
+        } catch (final KeyFormatException | LinkageError e) {
+            // Math.multiplyHigh may be missing on older runtimes.
+            return false;
+        }
+    }
+
+    /**
+     * Squares a number modulo 2^255 - 19. The result may alias the argument.
+     *
+     * @param result The result.
+     * @param x      The number to square.
+     */
+    private static void square(final long[] result, final long[] x) {
+        final long a0 = x[0];
+        final long a1 = x[1];
+        final long a2 = x[2];
+        final long a3 = x[3];
+        final long a4 = x[4];
+        final long a1_2 = 2 * a1;
+        final long a2_2 = 2 * a2;
+        final long a3_2 = 2 * a3;
+        final long a4_2 = 2 * a4;
+        final long a3_19 = 19 * a3;
+        final long a4_19 = 19 * a4;
+        final long a3_38 = 38 * a3;
+        final long a4_38 = 38 * a4;
+
+        long p;
+        long l0, l1, l2, l3, l4;
+        long c0, c1, c2, c3, c4;
+        long h0, h1, h2, h3, h4;
+        p = a0 * a0;
+        l0 = p & MASK;
+        c0 = p >>> 51;
+        h0 = Math.multiplyHigh(a0, a0);
+        p = a1 * a4_38;
+        l0 += p & MASK;
+        c0 += p >>> 51;
+        h0 += Math.multiplyHigh(a1, a4_38);
+        p = a2 * a3_38;
+        l0 += p & MASK;
+        c0 += p >>> 51;
+        h0 += Math.multiplyHigh(a2, a3_38);
+
+        p = a0 * a1_2;
+        l1 = p & MASK;
+        c1 = p >>> 51;
+        h1 = Math.multiplyHigh(a0, a1_2);
+        p = a2 * a4_38;
+        l1 += p & MASK;
+        c1 += p >>> 51;
+        h1 += Math.multiplyHigh(a2, a4_38);
+        p = a3 * a3_19;
+        l1 += p & MASK;
+        c1 += p >>> 51;
+        h1 += Math.multiplyHigh(a3, a3_19);
+
+        p = a0 * a2_2;
+        l2 = p & MASK;
+        c2 = p >>> 51;
+        h2 = Math.multiplyHigh(a0, a2_2);
+        p = a1 * a1;
+        l2 += p & MASK;
+        c2 += p >>> 51;
+        h2 += Math.multiplyHigh(a1, a1);
+        p = a3 * a4_38;
+        l2 += p & MASK;
+        c2 += p >>> 51;
+        h2 += Math.multiplyHigh(a3, a4_38);
+
+        p = a0 * a3_2;
+        l3 = p & MASK;
+        c3 = p >>> 51;
+        h3 = Math.multiplyHigh(a0, a3_2);
+        p = a1 * a2_2;
+        l3 += p & MASK;
+        c3 += p >>> 51;
+        h3 += Math.multiplyHigh(a1, a2_2);
+        p = a4 * a4_19;
+        l3 += p & MASK;
+        c3 += p >>> 51;
+        h3 += Math.multiplyHigh(a4, a4_19);
+
+        p = a0 * a4_2;
+        l4 = p & MASK;
+        c4 = p >>> 51;
+        h4 = Math.multiplyHigh(a0, a4_2);
+        p = a1 * a3_2;
+        l4 += p & MASK;
+        c4 += p >>> 51;
+        h4 += Math.multiplyHigh(a1, a3_2);
+        p = a2 * a2;
+        l4 += p & MASK;
+        c4 += p >>> 51;
+        h4 += Math.multiplyHigh(a2, a2);
+        carry(result, l0, l1 + (h0 << 13) + c0, l2 + (h1 << 13) + c1,
+                l3 + (h2 << 13) + c2, l4 + (h3 << 13) + c3, (h4 << 13) + c4);
+    }
+
+    private static void store64(final byte[] b, final int offset, long value) {
+        for (int index = 0; index < 8; ++index) {
+            b[offset + index] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    /**
+     * Subtracts two numbers modulo 2^255 - 19. 2 * (2^255 - 19) is added to the difference to
+     * keep the limbs positive; the result is not carried.
+     *
+     * @param result The result.
+     * @param x      The number to subtract from.
+     * @param y      The number to subtract, with limbs of at most 52 bits.
+     */
+    private static void sub(final long[] result, final long[] x, final long[] y) {
+        result[0] = x[0] + 0xFFFFFFFFFFFDAL - y[0];
+        for (int index = 1; index < NUM_LIMBS; ++index)
+            result[index] = x[index] + 0xFFFFFFFFFFFFEL - y[index];
+    }
+
+    /**
+     * Destroy all sensitive data in this object.
+     */
+    private void destroy() {
+        Arrays.fill(A, 0L);
+        Arrays.fill(AA, 0L);
+        Arrays.fill(B, 0L);
+        Arrays.fill(BB, 0L);
+        Arrays.fill(C, 0L);
+        Arrays.fill(CB, 0L);
+        Arrays.fill(D, 0L);
+        Arrays.fill(DA, 0L);
+        Arrays.fill(E, 0L);
+        Arrays.fill(s, (byte) 0);
+        Arrays.fill(t, 0L);
+        Arrays.fill(x_1, 0L);
+        Arrays.fill(x_2, 0L);
+        Arrays.fill(x_3, 0L);
+        Arrays.fill(z_2, 0L);
+        Arrays.fill(z_3, 0L);
+    }
+
+    /**
+     * Evaluates the curve for every bit in the clamped secret key.
+     */
+    private void evalCurve() {
+        int swap = 0;
+
+        // Iterate over all 255 bits of "s" from the highest to the lowest.
+        for (int bit = 254; bit >= 0; --bit) {
+            // Conditional swaps on entry to this bit but only if we
+            // didn't swap on the previous bit.
+            final int select = (s[bit >>> 3] >>> (bit & 7)) & 0x01;
+            swap ^= select;
+            cswap(swap, x_2, x_3);
+            cswap(swap, z_2, z_3);
+            swap = select;
+
+            // Evaluate the curve.
+            add(A, x_2, z_2);               // A = x_2 + z_2
+            square(AA, A);                  // AA = A^2
+            sub(B, x_2, z_2);               // B = x_2 - z_2
+            square(BB, B);                  // BB = B^2
+            sub(E, AA, BB);                 // E = AA - BB
+            add(C, x_3, z_3);               // C = x_3 + z_3
+            sub(D, x_3, z_3);               // D = x_3 - z_3
+            mul(DA, D, A);                  // DA = D * A
+            mul(CB, C, B);                  // CB = C * B
+            add(x_3, DA, CB);               // x_3 = (DA + CB)^2
+            square(x_3, x_3);
+            sub(z_3, DA, CB);               // z_3 = x_1 * (DA - CB)^2
+            square(z_3, z_3);
+            mul(z_3, z_3, x_1);
+            mul(x_2, AA, BB);               // x_2 = AA * BB
+            mulA24(z_2, E);                 // z_2 = E * (AA + a24 * E)
+            add(z_2, z_2, AA);
+            mul(z_2, z_2, E);
+        }
+
+        // Final conditional swaps.
+        cswap(swap, x_2, x_3);
+        cswap(swap, z_2, z_3);
+    }
+
+    /**
+     * Raises a number to the power of 2^n by repeated squaring.
+     *
+     * @param result The result.
+     * @param x      The argument.
+     * @param n      The number of squarings.
+     */
+    private static void squareTimes(final long[] result, final long[] x, final int n) {
+        square(result, x);
+        for (int i = 1; i < n; ++i)
+            square(result, result);
+    }
+
+    /**
+     * Computes the reciprocal of a number modulo 2^255 - 19.
+     *
+     * @param result The result.  Must not overlap with x.
+     * @param x      The argument.
+     */
+    private void recip(final long[] result, final long[] x) {
+        // The reciprocal is the same as x ^ (p - 2) where p = 2^255 - 19, computed with the
+        // usual chain of 254 squarings and 11 multiplications.
+        square(A, x);                       // A = x^2
+        squareTimes(t, A, 2);               // t = x^8
+        mul(B, t, x);                       // B = x^9
+        mul(A, B, A);                       // A = x^11
+        square(t, A);                       // t = x^22
+        mul(B, t, B);                       // B = x^(2^5 - 1)
+        squareTimes(t, B, 5);
+        mul(B, t, B);                       // B = x^(2^10 - 1)
+        squareTimes(t, B, 10);
+        mul(C, t, B);                       // C = x^(2^20 - 1)
+        squareTimes(t, C, 20);
+        mul(t, t, C);                       // t = x^(2^40 - 1)
+        squareTimes(t, t, 10);
+        mul(B, t, B);                       // B = x^(2^50 - 1)
+        squareTimes(t, B, 50);
+        mul(C, t, B);                       // C = x^(2^100 - 1)
+        squareTimes(t, C, 100);
+        mul(t, t, C);                       // t = x^(2^200 - 1)
+        squareTimes(t, t, 50);
+        mul(t, t, B);                       // t = x^(2^250 - 1)
+        squareTimes(t, t, 5);
+        mul(result, t, A);                  // result = x^(2^255 - 21)
+    }
+}
@@ -8,78 +8,144 @@ package com.wireguard.crypto;
 import com.wireguard.crypto.KeyFormatException.Type;
 import com.wireguard.util.NonNullForAll;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.Objects;
+
+import androidx.annotation.Nullable;
 
 /**
  * Represents a WireGuard public or private key. This class uses specialized constant-time base64
  * and hexadecimal codec implementations that resist side-channel attacks.
  * <p>
+ * Besides the {@link String} conversions, the codecs can read from and write to caller-supplied
+ * character sequences, arrays and buffers at an offset, and keys can be compared against raw bytes,
+ * so that hot paths can handle keys without intermediate copies.
+ * <p>
  * Instances of this class are immutable.
  */
 @SuppressWarnings("MagicNumber")
 @NonNullForAll
 public final class Key {
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private final int hashCode;
     private final byte[] key;
 
     /**
      * Constructs an object encapsulating the supplied key.
      *
-     * @param key an array of bytes containing a binary key. Callers of this constructor are
-     *            responsible for ensuring that the array is of the correct length.
+     * @param key an array of bytes containing a binary key, which the new object takes ownership
+     *            of. Callers of this constructor are responsible for ensuring that the array is of
+     *            the correct length and is not shared.
      */
-    private Key(final byte[] key) {
-        // Defensively copy to ensure immutability.
-        this.key = Arrays.copyOf(key, key.length);
+    Key(final byte[] key) {
+        this.key = key;
+        hashCode = hashBytes(key, 0);
+    }
+
+    /**
+     * Encodes a 6-bit value as a base64 character in constant time.
+     */
+    private static char base64Char(final int value) {
+        return (char) (value + 'A'
+                + (((25 - value) >>> 8) & 6)
+                - (((51 - value) >>> 8) & 75)
+                - (((61 - value) >>> 8) & 15)
+                + (((62 - value) >>> 8) & 3));
+    }
+
+    /**
+     * Decodes a base64 character to its 6-bit value in constant time.
+     *
+     * @return the decoded value, or -1 if the character is not in the base64 alphabet
+     */
+    private static int base64Value(final char c) {
+        return -1
+                + ((((('A' - 1) - c) & (c - ('Z' + 1))) >>> 8) & (c - 64))
+                + ((((('a' - 1) - c) & (c - ('z' + 1))) >>> 8) & (c - 70))
+                + ((((('0' - 1) - c) & (c - ('9' + 1))) >>> 8) & (c + 5))
+                + ((((('+' - 1) - c) & (c - ('+' + 1))) >>> 8) & 63)
+                + ((((('/' - 1) - c) & (c - ('/' + 1))) >>> 8) & 64);
+    }
+
+    private static char charAt(@Nullable final CharSequence sequence, @Nullable final char[] array,
+                               final int index) {
+        return array != null ? array[index] : Objects.requireNonNull(sequence).charAt(index);
     }
 
     /**
-     * Decodes a single 4-character base64 chunk to an integer in constant time.
+     * Decodes a base64 key from a sequence of characters into an array, without allocating, and
+     * in time that does not depend on the key. The characters are read from {@code src} at
+     * {@code offset}. If the key is invalid, the contents of {@code dest} are unspecified.
      *
-     * @param src       an array of at least 4 characters in base64 format
-     * @param srcOffset the offset of the beginning of the chunk in {@code src}
-     * @return the decoded 3-byte integer, or some arbitrary integer value if the input was not
-     * valid base64
-     */
-    private static int decodeBase64(final char[] src, final int srcOffset) {
-        int val = 0;
-        for (int i = 0; i < 4; ++i) {
-            final char c = src[i + srcOffset];
-            val |= (-1
-                    + ((((('A' - 1) - c) & (c - ('Z' + 1))) >>> 8) & (c - 64))
-                    + ((((('a' - 1) - c) & (c - ('z' + 1))) >>> 8) & (c - 70))
-                    + ((((('0' - 1) - c) & (c - ('9' + 1))) >>> 8) & (c + 5))
-                    + ((((('+' - 1) - c) & (c - ('+' + 1))) >>> 8) & 63)
-                    + ((((('/' - 1) - c) & (c - ('/' + 1))) >>> 8) & 64)
-            ) << (18 - 6 * i);
+     * @param src        the characters containing the key
+     * @param offset     the index of the first character of the key
+     * @param length     the number of characters of the key, which must be 44
+     * @param dest       the array to write the 32 bytes of the key to
+     * @param destOffset the index in {@code dest} of the first byte of the key
+     */
+    public static void decodeBase64(final CharSequence src, final int offset, final int length,
+                                    final byte[] dest, final int destOffset) throws KeyFormatException {
+        decodeBase64(src, null, offset, length, dest, destOffset);
+    }
+
+    private static void decodeBase64(@Nullable final CharSequence sequence, @Nullable final char[] array,
+                                     final int offset, final int length, final byte[] dest,
+                                     final int destOffset) throws KeyFormatException {
+        if (length != Format.BASE64.length || charAt(sequence, array, offset + length - 1) != '=')
+            throw new KeyFormatException(Format.BASE64, Type.LENGTH);
+        int ret = 0;
+        for (int i = 0; i < Format.BINARY.length; i += 3) {
+            // The last chunk holds two bytes, followed by padding that decodes as zero.
+            final int chars = i + 3 <= Format.BINARY.length ? 4 : 3;
+            int val = 0;
+            for (int j = 0; j < chars; ++j)
+                val |= base64Value(charAt(sequence, array, offset + i / 3 * 4 + j)) << (18 - 6 * j);
+            ret |= val >>> 31;
+            dest[destOffset + i] = (byte) ((val >>> 16) & 0xff);
+            dest[destOffset + i + 1] = (byte) ((val >>> 8) & 0xff);
+            if (chars == 4)
+                dest[destOffset + i + 2] = (byte) (val & 0xff);
+            else
+                ret |= val & 0xff;
         }
-        return val;
+        if (ret != 0)
+            throw new KeyFormatException(Format.BASE64, Type.CONTENTS);
     }
 
     /**
-     * Encodes a single 4-character base64 chunk from 3 consecutive bytes in constant time.
+     * Decodes a hexadecimal key from a sequence of characters into an array, without allocating,
+     * and in time that does not depend on the key. The characters are read from {@code src} at
+     * {@code offset}. If the key is invalid, the contents of {@code dest} are unspecified.
      *
-     * @param src        an array of at least 3 bytes
-     * @param srcOffset  the offset of the beginning of the chunk in {@code src}
-     * @param dest       an array of at least 4 characters
-     * @param destOffset the offset of the beginning of the chunk in {@code dest}
-     */
-    private static void encodeBase64(final byte[] src, final int srcOffset,
-                                     final char[] dest, final int destOffset) {
-        final byte[] input = {
-                (byte) ((src[srcOffset] >>> 2) & 63),
-                (byte) ((src[srcOffset] << 4 | ((src[1 + srcOffset] & 0xff) >>> 4)) & 63),
-                (byte) ((src[1 + srcOffset] << 2 | ((src[2 + srcOffset] & 0xff) >>> 6)) & 63),
-                (byte) ((src[2 + srcOffset]) & 63),
-        };
-        for (int i = 0; i < 4; ++i) {
-            dest[i + destOffset] = (char) (input[i] + 'A'
-                    + (((25 - input[i]) >>> 8) & 6)
-                    - (((51 - input[i]) >>> 8) & 75)
-                    - (((61 - input[i]) >>> 8) & 15)
-                    + (((62 - input[i]) >>> 8) & 3));
+     * @param src        the characters containing the key
+     * @param offset     the index of the first character of the key
+     * @param length     the number of characters of the key, which must be 64
+     * @param dest       the array to write the 32 bytes of the key to
+     * @param destOffset the index in {@code dest} of the first byte of the key
+     */
+    public static void decodeHex(final CharSequence src, final int offset, final int length,
+                                 final byte[] dest, final int destOffset) throws KeyFormatException {
+        decodeHex(src, null, offset, length, dest, destOffset);
+    }
+
+    private static void decodeHex(@Nullable final CharSequence sequence, @Nullable final char[] array,
+                                  final int offset, final int length, final byte[] dest,
+                                  final int destOffset) throws KeyFormatException {
+        if (length != Format.HEX.length)
+            throw new KeyFormatException(Format.HEX, Type.LENGTH);
+        int ret = 0;
+        for (int i = 0; i < Format.BINARY.length; ++i) {
+            final int high = hexValue(charAt(sequence, array, offset + i * 2));
+            final int low = hexValue(charAt(sequence, array, offset + i * 2 + 1));
+            ret |= (high | low) >>> 31;
+            dest[destOffset + i] = (byte) (high << 4 | (low & 0xf));
         }
+        if (ret != 0)
+            throw new KeyFormatException(Format.HEX, Type.CONTENTS);
     }
 
     /**
@@ -90,32 +156,38 @@ public final class Key {
      * @return the decoded key encapsulated in an immutable container
      */
     public static Key fromBase64(final String str) throws KeyFormatException {
-        final char[] input = str.toCharArray();
-        if (input.length != Format.BASE64.length || input[Format.BASE64.length - 1] != '=')
-            throw new KeyFormatException(Format.BASE64, Type.LENGTH);
+        return fromBase64(str, 0, str.length());
+    }
+
+    /**
+     * Decodes a WireGuard public or private key from base64 characters within a larger sequence,
+     * such as a {@link String}, {@link StringBuilder} or {@link java.nio.CharBuffer}, without
+     * copying them first.
+     *
+     * @param src    the characters containing the key
+     * @param offset the index of the first character of the key
+     * @param length the number of characters of the key
+     * @return the decoded key encapsulated in an immutable container
+     */
+    public static Key fromBase64(final CharSequence src, final int offset, final int length)
+            throws KeyFormatException {
         final byte[] key = new byte[Format.BINARY.length];
-        int i;
-        int ret = 0;
-        for (i = 0; i < key.length / 3; ++i) {
-            final int val = decodeBase64(input, i * 4);
-            ret |= val >>> 31;
-            key[i * 3] = (byte) ((val >>> 16) & 0xff);
-            key[i * 3 + 1] = (byte) ((val >>> 8) & 0xff);
-            key[i * 3 + 2] = (byte) (val & 0xff);
-        }
-        final char[] endSegment = {
-                input[i * 4],
-                input[i * 4 + 1],
-                input[i * 4 + 2],
-                'A',
-        };
-        final int val = decodeBase64(endSegment, 0);
-        ret |= (val >>> 31) | (val & 0xff);
-        key[i * 3] = (byte) ((val >>> 16) & 0xff);
-        key[i * 3 + 1] = (byte) ((val >>> 8) & 0xff);
+        decodeBase64(src, null, offset, length, key, 0);
+        return new Key(key);
+    }
 
-        if (ret != 0)
-            throw new KeyFormatException(Format.BASE64, Type.CONTENTS);
+    /**
+     * Decodes a WireGuard public or private key from base64 characters within an array.
+     *
+     * @param src    the characters containing the key
+     * @param offset the index of the first character of the key
+     * @param length the number of characters of the key
+     * @return the decoded key encapsulated in an immutable container
+     */
+    public static Key fromBase64(final char[] src, final int offset, final int length)
+            throws KeyFormatException {
+        final byte[] key = new byte[Format.BINARY.length];
+        decodeBase64(null, src, offset, length, key, 0);
         return new Key(key);
     }
 
@@ -129,7 +201,24 @@ public final class Key {
     public static Key fromBytes(final byte[] bytes) throws KeyFormatException {
         if (bytes.length != Format.BINARY.length)
             throw new KeyFormatException(Format.BINARY, Type.LENGTH);
-        return new Key(bytes);
+        // Defensively copy to ensure immutability.
+        return new Key(Arrays.copyOf(bytes, bytes.length));
+    }
+
+    /**
+     * Reads a WireGuard public or private key in binary format from the current position of a
+     * buffer, which is advanced past the key. This function throws a {@link KeyFormatException},
+     * without reading anything, if fewer bytes than a key remain in the buffer.
+     *
+     * @param src a buffer containing a WireGuard key in binary format
+     * @return the key encapsulated in an immutable container
+     */
+    public static Key fromBytes(final ByteBuffer src) throws KeyFormatException {
+        if (src.remaining() < Format.BINARY.length)
+            throw new KeyFormatException(Format.BINARY, Type.LENGTH);
+        final byte[] key = new byte[Format.BINARY.length];
+        src.get(key);
+        return new Key(key);
     }
 
     /**
@@ -140,52 +229,49 @@ public final class Key {
      * @return the decoded key encapsulated in an immutable container
      */
     public static Key fromHex(final String str) throws KeyFormatException {
-        final char[] input = str.toCharArray();
-        if (input.length != Format.HEX.length)
-            throw new KeyFormatException(Format.HEX, Type.LENGTH);
+        return fromHex(str, 0, str.length());
+    }
+
+    /**
+     * Decodes a WireGuard public or private key from hexadecimal characters within a larger
+     * sequence, such as a line of userspace API output, without copying them first.
+     *
+     * @param src    the characters containing the key
+     * @param offset the index of the first character of the key
+     * @param length the number of characters of the key
+     * @return the decoded key encapsulated in an immutable container
+     */
+    public static Key fromHex(final CharSequence src, final int offset, final int length)
+            throws KeyFormatException {
         final byte[] key = new byte[Format.BINARY.length];
-        int ret = 0;
-        for (int i = 0; i < key.length; ++i) {
-            int c;
-            int cNum;
-            int cNum0;
-            int cAlpha;
-            int cAlpha0;
-            int cVal;
-            final int cAcc;
-
-            c = input[i * 2];
-            cNum = c ^ 48;
-            cNum0 = ((cNum - 10) >>> 8) & 0xff;
-            cAlpha = (c & ~32) - 55;
-            cAlpha0 = (((cAlpha - 10) ^ (cAlpha - 16)) >>> 8) & 0xff;
-            ret |= ((cNum0 | cAlpha0) - 1) >>> 8;
-            cVal = (cNum0 & cNum) | (cAlpha0 & cAlpha);
-            cAcc = cVal * 16;
-
-            c = input[i * 2 + 1];
-            cNum = c ^ 48;
-            cNum0 = ((cNum - 10) >>> 8) & 0xff;
-            cAlpha = (c & ~32) - 55;
-            cAlpha0 = (((cAlpha - 10) ^ (cAlpha - 16)) >>> 8) & 0xff;
-            ret |= ((cNum0 | cAlpha0) - 1) >>> 8;
-            cVal = (cNum0 & cNum) | (cAlpha0 & cAlpha);
-            key[i] = (byte) (cAcc | cVal);
-        }
-        if (ret != 0)
-            throw new KeyFormatException(Format.HEX, Type.CONTENTS);
+        decodeHex(src, null, offset, length, key, 0);
+        return new Key(key);
+    }
+
+    /**
+     * Decodes a WireGuard public or private key from hexadecimal characters within an array.
+     *
+     * @param src    the characters containing the key
+     * @param offset the index of the first character of the key
+     * @param length the number of characters of the key
+     * @return the decoded key encapsulated in an immutable container
+     */
+    public static Key fromHex(final char[] src, final int offset, final int length)
+            throws KeyFormatException {
+        final byte[] key = new byte[Format.BINARY.length];
+        decodeHex(null, src, offset, length, key, 0);
         return new Key(key);
     }
 
     /**
-     * Generates a private key using the system's {@link SecureRandom} number generator.
+     * Generates a private key using the system's {@link SecureRandom} number generator. A single
+     * generator, seeded by the system on first use, is shared by all threads.
      *
      * @return a well-formed random private key
      */
     static Key generatePrivateKey() {
-        final SecureRandom secureRandom = new SecureRandom();
         final byte[] privateKey = new byte[Format.BINARY.getLength()];
-        secureRandom.nextBytes(privateKey);
+        RANDOM.nextBytes(privateKey);
         privateKey[0] &= 248;
         privateKey[31] &= 127;
         privateKey[31] |= 64;
@@ -204,6 +290,50 @@ public final class Key {
         return new Key(publicKey);
     }
 
+    /**
+     * Mixes every byte of a key into a hash code. Real keys are uniformly random, but keys made
+     * from structured bytes, such as counters, must spread over hash tables just as well.
+     * <p>
+     * This is the {@link #hashCode()} of the key with the same bytes, so that tables holding keys
+     * in binary format can be searched with a {@code Key}.
+     *
+     * @param bytes  an array containing a key in binary format
+     * @param offset the index in {@code bytes} of the first byte of the key
+     * @return the hash code
+     */
+    public static int hashBytes(final byte[] bytes, final int offset) {
+        long hash = 0;
+        for (int i = 0; i < Format.BINARY.length; i += 8) {
+            long word = 0;
+            for (int j = 0; j < 8; ++j)
+                word = word << 8 | (bytes[offset + i + j] & 0xff);
+            hash = (hash ^ word) * 0x9e3779b97f4a7c15L;
+            hash ^= hash >>> 29;
+        }
+        hash *= 0xbf58476d1ce4e5b9L;
+        return (int) (hash ^ hash >>> 32);
+    }
+
+    /**
+     * Encodes a 4-bit value as a lowercase hexadecimal character in constant time.
+     */
+    private static char hexChar(final int value) {
+        return (char) (87 + value + (((value - 10) >> 8) & ~38));
+    }
+
+    /**
+     * Decodes a hexadecimal character of either case to its 4-bit value in constant time.
+     *
+     * @return the decoded value, or a negative number if the character is not a hexadecimal digit
+     */
+    private static int hexValue(final char c) {
+        final int num = c ^ 48;
+        final int num0 = ((num - 10) >>> 8) & 0xff;
+        final int alpha = (c & ~32) - 55;
+        final int alpha0 = (((alpha - 10) ^ (alpha - 16)) >>> 8) & 0xff;
+        return (num0 & num) | (alpha0 & alpha) | (((num0 | alpha0) - 1) >> 8);
+    }
+
     @Override
     public boolean equals(final Object obj) {
         if (obj == this)
@@ -214,6 +344,39 @@ public final class Key {
         return MessageDigest.isEqual(key, other.key);
     }
 
+    /**
+     * Compares the key with a key in binary format stored in an array, without copying either,
+     * in time that does not depend on their contents.
+     *
+     * @param bytes  an array containing a key in binary format
+     * @param offset the index in {@code bytes} of the first byte of the key
+     * @return whether the two keys are equal
+     */
+    public boolean equalsBytes(final byte[] bytes, final int offset) {
+        int diff = 0;
+        for (int i = 0; i < key.length; ++i)
+            diff |= key[i] ^ bytes[offset + i];
+        return diff == 0;
+    }
+
+    /**
+     * Compares the key with a key in binary format at the current position of a buffer, without
+     * copying either or changing the buffer's position, in time that does not depend on their
+     * contents.
+     *
+     * @param bytes a buffer containing a key in binary format
+     * @return whether the two keys are equal, or false if fewer bytes than a key remain
+     */
+    public boolean equalsBytes(final ByteBuffer bytes) {
+        if (bytes.remaining() < key.length)
+            return false;
+        final int position = bytes.position();
+        int diff = 0;
+        for (int i = 0; i < key.length; ++i)
+            diff |= key[i] ^ bytes.get(position + i);
+        return diff == 0;
+    }
+
     /**
      * Returns the key as an array of bytes.
      *
@@ -224,12 +387,44 @@ public final class Key {
         return Arrays.copyOf(key, key.length);
     }
 
+    /**
+     * Copies the key in binary format into an array.
+     *
+     * @param dest   the array to copy the 32 bytes of the key into
+     * @param offset the index in {@code dest} of the first byte of the key
+     */
+    public void getBytes(final byte[] dest, final int offset) {
+        System.arraycopy(key, 0, dest, offset, key.length);
+    }
+
+    /**
+     * Writes the key in binary format at the current position of a buffer, which is advanced past
+     * the key.
+     *
+     * @param dest the buffer to write the 32 bytes of the key to
+     */
+    public void getBytes(final ByteBuffer dest) {
+        dest.put(key);
+    }
+
     @Override
     public int hashCode() {
-        int ret = 0;
-        for (int i = 0; i < key.length / 4; ++i)
-            ret ^= (key[i * 4 + 0] >> 0) + (key[i * 4 + 1] >> 8) + (key[i * 4 + 2] >> 16) + (key[i * 4 + 3] >> 24);
-        return ret;
+        return hashCode;
+    }
+
+    /**
+     * Encodes three bytes of the key, starting at {@code offset}, as four base64 characters packed
+     * into an integer, the first in the most significant byte. Bytes past the end of the key
+     * encode as zero bits.
+     */
+    private int base64Chunk(final int offset) {
+        final int b0 = key[offset] & 0xff;
+        final int b1 = key[offset + 1] & 0xff;
+        final int b2 = offset + 2 < key.length ? key[offset + 2] & 0xff : 0;
+        return base64Char(b0 >>> 2) << 24
+                | base64Char((b0 << 4 | b1 >>> 4) & 63) << 16
+                | base64Char((b1 << 2 | b2 >>> 6) & 63) << 8
+                | base64Char(b2 & 63);
     }
 
     /**
@@ -239,19 +434,57 @@ public final class Key {
      */
     public String toBase64() {
         final char[] output = new char[Format.BASE64.length];
-        int i;
-        for (i = 0; i < key.length / 3; ++i)
-            encodeBase64(key, i * 3, output, i * 4);
-        final byte[] endSegment = {
-                key[i * 3],
-                key[i * 3 + 1],
-                0,
-        };
-        encodeBase64(endSegment, 0, output, i * 4);
-        output[Format.BASE64.length - 1] = '=';
+        toBase64(output, 0);
         return new String(output);
     }
 
+    /**
+     * Encodes the key to base64 into an array, without allocating.
+     *
+     * @param dest   the array to write the 44 characters of the encoded key to
+     * @param offset the index in {@code dest} of the first character
+     */
+    public void toBase64(final char[] dest, final int offset) {
+        for (int i = 0; i < key.length; i += 3) {
+            final int chunk = base64Chunk(i);
+            final int index = offset + i / 3 * 4;
+            dest[index] = (char) (chunk >>> 24);
+            dest[index + 1] = (char) (chunk >>> 16 & 0xff);
+            dest[index + 2] = (char) (chunk >>> 8 & 0xff);
+            dest[index + 3] = (char) (chunk & 0xff);
+        }
+        dest[offset + Format.BASE64.length - 1] = '=';
+    }
+
+    /**
+     * Appends the base64 encoding of the key to a {@link StringBuilder}, without allocating
+     * anything but the builder's own storage.
+     *
+     * @param dest the builder to append the 44 characters of the encoded key to
+     */
+    public void toBase64(final StringBuilder dest) {
+        for (int i = 0; i < key.length; i += 3) {
+            final int chunk = base64Chunk(i);
+            dest.append((char) (chunk >>> 24)).append((char) (chunk >>> 16 & 0xff))
+                    .append((char) (chunk >>> 8 & 0xff));
+            dest.append(i + 3 <= key.length ? (char) (chunk & 0xff) : '=');
+        }
+    }
+
+    /**
+     * Writes the base64 encoding of the key at the current position of a buffer, which is advanced
+     * past it.
+     *
+     * @param dest the buffer to write the 44 characters of the encoded key to
+     */
+    public void toBase64(final CharBuffer dest) {
+        for (int i = 0; i < key.length; i += 3) {
+            final int chunk = base64Chunk(i);
+            dest.put((char) (chunk >>> 24)).put((char) (chunk >>> 16 & 0xff)).put((char) (chunk >>> 8 & 0xff));
+            dest.put(i + 3 <= key.length ? (char) (chunk & 0xff) : '=');
+        }
+    }
+
     /**
      * Encodes the key to hexadecimal ASCII characters.
      *
@@ -259,13 +492,43 @@ public final class Key {
      */
     public String toHex() {
         final char[] output = new char[Format.HEX.length];
+        toHex(output, 0);
+        return new String(output);
+    }
+
+    /**
+     * Encodes the key to lowercase hexadecimal into an array, without allocating.
+     *
+     * @param dest   the array to write the 64 characters of the encoded key to
+     * @param offset the index in {@code dest} of the first character
+     */
+    public void toHex(final char[] dest, final int offset) {
         for (int i = 0; i < key.length; ++i) {
-            output[i * 2] = (char) (87 + (key[i] >> 4 & 0xf)
-                    + ((((key[i] >> 4 & 0xf) - 10) >> 8) & ~38));
-            output[i * 2 + 1] = (char) (87 + (key[i] & 0xf)
-                    + ((((key[i] & 0xf) - 10) >> 8) & ~38));
+            dest[offset + i * 2] = hexChar(key[i] >> 4 & 0xf);
+            dest[offset + i * 2 + 1] = hexChar(key[i] & 0xf);
         }
-        return new String(output);
+    }
+
+    /**
+     * Appends the lowercase hexadecimal encoding of the key to a {@link StringBuilder}, without
+     * allocating anything but the builder's own storage.
+     *
+     * @param dest the builder to append the 64 characters of the encoded key to
+     */
+    public void toHex(final StringBuilder dest) {
+        for (final byte b : key)
+            dest.append(hexChar(b >> 4 & 0xf)).append(hexChar(b & 0xf));
+    }
+
+    /**
+     * Writes the lowercase hexadecimal encoding of the key at the current position of a buffer,
+     * which is advanced past it.
+     *
+     * @param dest the buffer to write the 64 characters of the encoded key to
+     */
+    public void toHex(final CharBuffer dest) {
+        for (final byte b : key)
+            dest.put(hexChar(b >> 4 & 0xf)).put(hexChar(b & 0xf));
     }
 
     /**
@@ -7,13 +7,18 @@ package com.wireguard.crypto;
 
 import com.wireguard.util.NonNullForAll;
 
+import androidx.annotation.Nullable;
+
 /**
  * Represents an immutable Curve25519 key pair as used by WireGuard.
+ * <p>
+ * The public key is derived from the private key when it is first requested, through the
+ * {@link PublicKeyCache} if one is enabled.
  */
 @NonNullForAll
 public final class KeyPair {
     private final Key privateKey;
-    private final Key publicKey;
+    @Nullable private Key publicKey;
 
     /**
      * Creates a key pair using a newly-generated private key.
@@ -25,11 +30,23 @@ public final class KeyPair {
     /**
      * Creates a key pair using an existing private key.
      *
-     * @param privateKey a private key, used to derive the public key
+     * @param privateKey a private key, used to derive the public key when it is first needed
      */
     public KeyPair(final Key privateKey) {
         this.privateKey = privateKey;
-        this.publicKey = Key.generatePublicKey(privateKey);
+    }
+
+    /**
+     * Restores a key pair whose public key was derived earlier, without deriving it again.
+     * Callers are responsible for ensuring that the public key corresponds to the private key,
+     * for instance because both were stored together by a previous instance of this class.
+     *
+     * @param privateKey a private key
+     * @param publicKey  the public key previously derived from {@code privateKey}
+     */
+    public KeyPair(final Key privateKey, final Key publicKey) {
+        this.privateKey = privateKey;
+        this.publicKey = publicKey;
     }
 
     /**
@@ -43,6 +60,12 @@ public final class KeyPair {
      * @return the public key
      */
     public Key getPublicKey() {
-        return publicKey;
+        // Deriving the key is deterministic and Key is immutable, so a race only costs time.
+        Key key = publicKey;
+        if (key == null) {
+            key = PublicKeyCache.derive(privateKey);
+            publicKey = key;
+        }
+        return key;
     }
 }
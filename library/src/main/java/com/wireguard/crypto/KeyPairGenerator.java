@@ -0,0 +1,190 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.crypto;
+
+import com.wireguard.util.NonNullForAll;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Generates key pairs in bulk or ahead of time.
+ * <p>
+ * The static {@link #generate} methods create many key pairs at once, deriving their public keys
+ * on the workers of a {@link ForkJoinPool} so that the work is spread over all available cores.
+ * <p>
+ * An instance keeps a bounded pool of key pairs that it refills in the background, so that
+ * {@link #next()} can usually return a key pair without deriving a public key on the calling
+ * thread. All private keys come from the same {@link java.security.SecureRandom} as those of
+ * {@link KeyPair#KeyPair()}.
+ */
+@NonNullForAll
+public final class KeyPairGenerator implements AutoCloseable {
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final Executor executor;
+    private final BlockingQueue<KeyPair> pool;
+    private final AtomicBoolean refilling = new AtomicBoolean();
+
+    /**
+     * Creates a generator that keeps up to {@code capacity} key pairs ready, refilling them on
+     * {@link ForkJoinPool#commonPool()}.
+     *
+     * @param capacity the maximum number of key pairs to generate ahead of time
+     */
+    public KeyPairGenerator(final int capacity) {
+        this(capacity, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a generator that keeps up to {@code capacity} key pairs ready. Filling the pool
+     * starts immediately.
+     *
+     * @param capacity the maximum number of key pairs to generate ahead of time
+     * @param executor the executor that runs the background refills
+     */
+    public KeyPairGenerator(final int capacity, final Executor executor) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive");
+        this.executor = executor;
+        pool = new ArrayBlockingQueue<>(capacity);
+        refill();
+    }
+
+    /**
+     * Generates a key pair whose public key has already been derived. Fresh private keys are
+     * never seen again, so the {@link PublicKeyCache} is bypassed.
+     */
+    private static KeyPair derive() {
+        final Key privateKey = Key.generatePrivateKey();
+        return new KeyPair(privateKey, Key.generatePublicKey(privateKey));
+    }
+
+    /**
+     * Generates key pairs using one worker per available processor.
+     *
+     * @param count the number of key pairs to generate
+     * @return {@code count} new key pairs
+     */
+    public static List<KeyPair> generate(final int count) {
+        return generate(count, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Generates key pairs using a dedicated pool of at most {@code parallelism} workers. The pool
+     * is shut down before this method returns.
+     *
+     * @param count       the number of key pairs to generate
+     * @param parallelism the maximum number of key pairs to generate concurrently
+     * @return {@code count} new key pairs
+     */
+    public static List<KeyPair> generate(final int count, final int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive");
+        final ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, Math.max(1, count)));
+        try {
+            return generate(count, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Generates key pairs on an existing pool.
+     *
+     * @param count the number of key pairs to generate
+     * @param pool  the pool whose workers generate the key pairs
+     * @return {@code count} new key pairs
+     */
+    public static List<KeyPair> generate(final int count, final ForkJoinPool pool) {
+        if (count < 0)
+            throw new IllegalArgumentException("Count must not be negative");
+        if (count == 0)
+            return Collections.emptyList();
+        final KeyPair[] keyPairs = new KeyPair[count];
+        pool.invoke(new GenerateTask(keyPairs, 0, count));
+        return Collections.unmodifiableList(Arrays.asList(keyPairs));
+    }
+
+    /**
+     * Stops refilling the pool and discards the key pairs in it. {@link #next()} keeps working,
+     * generating each key pair on the calling thread.
+     */
+    @Override
+    public void close() {
+        closed.set(true);
+        pool.clear();
+    }
+
+    /**
+     * Returns the number of key pairs that are ready to be returned by {@link #next()}.
+     *
+     * @return the number of pre-generated key pairs
+     */
+    public int getAvailable() {
+        return pool.size();
+    }
+
+    /**
+     * Returns a new key pair, taken from the pool if one is ready and otherwise generated on the
+     * calling thread. Either way, refilling the pool is started if it is not already running.
+     * Each key pair is only ever returned once.
+     *
+     * @return a new key pair
+     */
+    public KeyPair next() {
+        final KeyPair keyPair = pool.poll();
+        refill();
+        return keyPair != null ? keyPair : derive();
+    }
+
+    private void refill() {
+        if (closed.get() || pool.remainingCapacity() == 0 || !refilling.compareAndSet(false, true))
+            return;
+        executor.execute(() -> {
+            try {
+                while (!closed.get() && pool.remainingCapacity() > 0)
+                    pool.offer(derive());
+            } finally {
+                refilling.set(false);
+            }
+            if (closed.get())
+                pool.clear();
+            // A key pair may have been taken after the loop ended but before the flag was reset.
+            refill();
+        });
+    }
+
+    private static final class GenerateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final KeyPair[] keyPairs;
+        private final int to;
+
+        GenerateTask(final KeyPair[] keyPairs, final int from, final int to) {
+            this.keyPairs = keyPairs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new GenerateTask(keyPairs, from, middle),
+                        new GenerateTask(keyPairs, middle, to));
+                return;
+            }
+            keyPairs[from] = derive();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.crypto;
+
+import com.wireguard.util.NonNullForAll;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.Nullable;
+
+/**
+ * An optional, process-wide cache of the public keys derived from private keys, so that parsing
+ * the same configuration again does not repeat the Curve25519 evaluation. It is disabled until
+ * {@link #enable(int)} is called.
+ * <p>
+ * The cache does not hold on to private keys. Entries are looked up by a SHA-256 digest of the
+ * private key, salted with a random value chosen when the cache is enabled. The least recently
+ * used entry is evicted once the cache is full, and evicted digests and public keys are zeroed.
+ */
+@NonNullForAll
+public final class PublicKeyCache {
+    @Nullable private static volatile PublicKeyCache instance;
+
+    private boolean cleared;
+    private final LinkedHashMap<Digest, byte[]> entries;
+    private final MessageDigest sha256;
+    private final byte[] salt = new byte[32];
+
+    private PublicKeyCache(final int capacity) {
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        new SecureRandom().nextBytes(salt);
+        entries = new LinkedHashMap<Digest, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Digest, byte[]> eldest) {
+                if (size() <= capacity)
+                    return false;
+                zero(eldest);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Derives the public key of a private key, from the cache if it is enabled and has seen the
+     * private key before.
+     *
+     * @param privateKey a private key
+     * @return the public key that corresponds to the private key
+     */
+    static Key derive(final Key privateKey) {
+        final PublicKeyCache cache = instance;
+        return cache != null ? cache.get(privateKey) : Key.generatePublicKey(privateKey);
+    }
+
+    /**
+     * Disables the cache, zeroing all of its entries.
+     */
+    public static synchronized void disable() {
+        final PublicKeyCache cache = instance;
+        instance = null;
+        if (cache != null)
+            cache.clear();
+    }
+
+    /**
+     * Enables the cache, replacing any previously enabled cache and its entries.
+     *
+     * @param capacity the maximum number of public keys to remember
+     */
+    public static synchronized void enable(final int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive");
+        disable();
+        instance = new PublicKeyCache(capacity);
+    }
+
+    /**
+     * Returns the number of public keys in the cache.
+     *
+     * @return the number of cached public keys, or zero if the cache is disabled
+     */
+    public static int size() {
+        final PublicKeyCache cache = instance;
+        if (cache == null)
+            return 0;
+        synchronized (cache) {
+            return cache.entries.size();
+        }
+    }
+
+    private static void zero(final Map.Entry<Digest, byte[]> entry) {
+        Arrays.fill(entry.getKey().bytes, (byte) 0);
+        Arrays.fill(entry.getValue(), (byte) 0);
+    }
+
+    private synchronized void clear() {
+        cleared = true;
+        for (final Map.Entry<Digest, byte[]> entry : entries.entrySet())
+            zero(entry);
+        entries.clear();
+        Arrays.fill(salt, (byte) 0);
+    }
+
+    private Key get(final Key privateKey) {
+        final byte[] privateKeyBytes = privateKey.getBytes();
+        final Digest digest;
+        synchronized (this) {
+            sha256.update(salt);
+            sha256.update(privateKeyBytes);
+            digest = new Digest(sha256.digest());
+            final byte[] publicKey = entries.get(digest);
+            if (publicKey != null) {
+                Arrays.fill(privateKeyBytes, (byte) 0);
+                Arrays.fill(digest.bytes, (byte) 0);
+                return new Key(publicKey.clone());
+            }
+        }
+        Arrays.fill(privateKeyBytes, (byte) 0);
+        // Derive outside of the lock, so that threads deriving different keys do not wait.
+        final Key publicKey = Key.generatePublicKey(privateKey);
+        synchronized (this) {
+            if (cleared) {
+                // The cache was disabled while the key was being derived.
+                Arrays.fill(digest.bytes, (byte) 0);
+            } else if (entries.containsKey(digest)) {
+                // Another thread derived the same key first; keep its entry.
+                Arrays.fill(digest.bytes, (byte) 0);
+            } else {
+                entries.put(digest, publicKey.getBytes());
+            }
+        }
+        return publicKey;
+    }
+
+    private static final class Digest {
+        final byte[] bytes;
+        private final int hashCode;
+
+        Digest(final byte[] bytes) {
+            this.bytes = bytes;
+            hashCode = (bytes[0] & 0xFF) | (bytes[1] & 0xFF) << 8 | (bytes[2] & 0xFF) << 16
+                    | bytes[3] << 24;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof Digest && MessageDigest.isEqual(bytes, ((Digest) obj).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import com.wireguard.config.BadConfigException;
+import com.wireguard.config.Config;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigUpdateTest {
+    private static final String INTERFACE = "[Interface]\n"
+            + "Address = 10.0.0.2/24\n"
+            + "PrivateKey = TFlmmEUC7V7VtiDYLKsbP5rySTKLIZq1yn8lMqK83wo=\n";
+    private static final String PEER_A = "vBN7qyUTb5lJtWYJ8LhbPio1Z4RcyBPGnqFBGn6O6Qg=";
+    private static final String PEER_B = "TFlmmEUC7V7VtiDYLKsbP5rySTKLIZq1yn8lMqK83wo=";
+    private static final String PEER_C = "6B2wMqWVNXvJEBs5BNh6ZZnyPRHmUaWpG7T6vKBw9FQ=";
+    private static final String PSK = "mNKbpBrdKOXYkU1LwBRkwVwuYhvyVVMVvHNq8EPpS0g=";
+
+    private static Config parse(final String text) throws IOException, BadConfigException {
+        return Config.parse(new StringReader(text));
+    }
+
+    private static String peer(final String publicKey, final String... lines) {
+        final StringBuilder sb = new StringBuilder("[Peer]\nPublicKey = ").append(publicKey).append('\n');
+        for (final String line : lines)
+            sb.append(line).append('\n');
+        return sb.toString();
+    }
+
+    private static RecordingDevice running(final Config config) {
+        final RecordingDevice device = new RecordingDevice();
+        device.ipcSet(config.toWgUserspaceString());
+        device.commands.clear();
+        return device;
+    }
+
+    private static void assertHotUpdate(final Config current, final Config next) {
+        final ConfigUpdate update = ConfigUpdate.between(current, next);
+        assertFalse(update.requiresRestart());
+        final RecordingDevice device = running(current);
+        assertTrue(update.applyTo(device));
+        assertEquals(running(next).state(), device.state());
+        for (final String command : device.commands)
+            assertFalse(command.contains("replace_peers"));
+    }
+
+    @Test
+    public void sends_only_changed_peers() throws IOException, BadConfigException {
+        final Config current = parse(INTERFACE
+                + peer(PEER_A, "AllowedIPs = 10.0.1.0/24", "Endpoint = 192.0.2.1:51820")
+                + peer(PEER_B, "AllowedIPs = 10.0.2.0/24", "Endpoint = 192.0.2.2:51820"));
+        final Config next = parse(INTERFACE
+                + peer(PEER_A, "AllowedIPs = 10.0.1.0/24", "Endpoint = 192.0.2.1:51820")
+                + peer(PEER_B, "AllowedIPs = 10.0.2.0/24", "Endpoint = 192.0.2.9:51820",
+                "PersistentKeepalive = 25", "PreSharedKey = " + PSK));
+        assertHotUpdate(current, next);
+        final String command = ConfigUpdate.between(current, next).toWgUserspaceString();
+        assertFalse(command.contains(next.getPeers().get(0).getPublicKey().toHex()));
+        assertTrue(command.contains("update_only=true\n"));
+        assertFalse(command.contains("allowed_ip="));
+    }
+
+    @Test
+    public void adds_removes_and_clears_peer_attributes() throws IOException, BadConfigException {
+        final Config current = parse(INTERFACE
+                + peer(PEER_A, "AllowedIPs = 10.0.1.0/24", "Endpoint = 192.0.2.1:51820",
+                "PersistentKeepalive = 25", "PreSharedKey = " + PSK)
+                + peer(PEER_B, "AllowedIPs = 10.0.2.0/24", "Endpoint = 192.0.2.2:51820"));
+        final Config next = parse(INTERFACE.replace("Address", "ListenPort = 51000\nAddress")
+                + peer(PEER_A, "AllowedIPs = 10.0.1.0/24")
+                + peer(PEER_C, "AllowedIPs = 10.0.2.0/24", "Endpoint = 192.0.2.3:51820"));
+        assertHotUpdate(current, next);
+        assertHotUpdate(next, current);
+    }
+
+    @Test
+    public void moves_allowed_ips_between_peers() throws IOException, BadConfigException {
+        final Config current = parse(INTERFACE
+                + peer(PEER_A, "AllowedIPs = 10.0.1.0/24, 10.0.3.0/24")
+                + peer(PEER_B, "AllowedIPs = 10.0.2.0/24"));
+        final Config next = parse(INTERFACE
+                + peer(PEER_A, "AllowedIPs = 10.0.1.0/24")
+                + peer(PEER_B, "AllowedIPs = 10.0.2.0/24, 10.0.3.0/24"));
+        assertHotUpdate(current, next);
+    }
+
+    @Test
+    public void requires_restart_for_builder_changes() throws IOException, BadConfigException {
+        final String peers = peer(PEER_A, "AllowedIPs = 10.0.1.0/24") + peer(PEER_B, "AllowedIPs = 10.0.2.0/24");
+        final Config current = parse(INTERFACE + peers);
+        assertTrue(ConfigUpdate.between(current,
+                parse(INTERFACE.replace("10.0.0.2/24", "10.0.0.3/24") + peers)).requiresRestart());
+        assertTrue(ConfigUpdate.between(current, parse(INTERFACE + "MTU = 1280\n" + peers)).requiresRestart());
+        assertTrue(ConfigUpdate.between(current, parse(INTERFACE + "DNS = 10.0.0.1\n" + peers)).requiresRestart());
+        // New routes have to be added to the TUN device.
+        assertTrue(ConfigUpdate.between(current, parse(INTERFACE + peers
+                + peer(PEER_C, "AllowedIPs = 10.0.9.0/24"))).requiresRestart());
+        // Dropping to a single peer with a default route turns the kill-switch off.
+        assertTrue(ConfigUpdate.between(
+                parse(INTERFACE + peer(PEER_A, "AllowedIPs = 0.0.0.0/0") + peer(PEER_B, "AllowedIPs = 0.0.0.0/0")),
+                parse(INTERFACE + peer(PEER_A, "AllowedIPs = 0.0.0.0/0"))).requiresRestart());
+    }
+
+    @Test
+    public void keeps_running_when_merged_routes_match() throws IOException, BadConfigException {
+        // Both configurations route exactly 10.0.0.0/23, just split differently between peers.
+        final Config current = parse(INTERFACE + peer(PEER_A, "AllowedIPs = 10.0.0.0/24")
+                + peer(PEER_B, "AllowedIPs = 10.0.1.0/24"));
+        final Config next = parse(INTERFACE + peer(PEER_A, "AllowedIPs = 10.0.0.0/24, 10.0.1.0/25")
+                + peer(PEER_B, "AllowedIPs = 10.0.1.128/25"));
+        assertHotUpdate(current, next);
+    }
+
+    @Test
+    public void does_nothing_for_equal_configs() throws IOException, BadConfigException {
+        final String text = INTERFACE + peer(PEER_A, "AllowedIPs = 10.0.1.0/24", "Endpoint = 192.0.2.1:51820");
+        final ConfigUpdate update = ConfigUpdate.between(parse(text), parse(text));
+        assertTrue(update.isEmpty());
+        assertEquals("", update.toWgUserspaceString());
+    }
+
+    @Test
+    public void reports_rejected_updates() throws IOException, BadConfigException {
+        final ConfigUpdate update = ConfigUpdate.between(parse(INTERFACE + peer(PEER_A)),
+                parse(INTERFACE + peer(PEER_A, "PersistentKeepalive = 25")));
+        assertFalse(update.applyTo(settings -> -1));
+    }
+
+    /**
+     * Stands in for wireguard-go: records every {@code set} command and applies it to a model of
+     * the device following the UAPI semantics.
+     */
+    private static final class RecordingDevice implements ConfigUpdate.Device {
+        final ArrayList<String> commands = new ArrayList<>();
+        final Map<String, String> interfaze = new TreeMap<>();
+        final Map<String, Map<String, Object>> peers = new TreeMap<>();
+
+        @Override
+        public int ipcSet(final String settings) {
+            commands.add(settings);
+            Map<String, Object> peer = null;
+            boolean created = false;
+            String key = null;
+            for (final String line : settings.split("\n")) {
+                if (line.isEmpty())
+                    continue;
+                final String name = line.substring(0, line.indexOf('='));
+                final String value = line.substring(line.indexOf('=') + 1);
+                if (peer == null && !"public_key".equals(name)) {
+                    if ("replace_peers".equals(name))
+                        peers.clear();
+                    else
+                        interfaze.put(name, value);
+                    continue;
+                }
+                switch (name) {
+                    case "public_key":
+                        key = value;
+                        created = !peers.containsKey(key);
+                        peer = peers.computeIfAbsent(key, k -> new TreeMap<>());
+                        break;
+                    case "update_only":
+                        if (created)
+                            peers.remove(key);
+                        break;
+                    case "remove":
+                        peers.remove(key);
+                        break;
+                    case "replace_allowed_ips":
+                        peer.remove("allowed_ip");
+                        break;
+                    case "allowed_ip":
+                        @SuppressWarnings("unchecked")
+                        final Set<String> allowedIps =
+                                (Set<String>) peer.computeIfAbsent(name, k -> new TreeSet<String>());
+                        allowedIps.add(value);
+                        break;
+                    case "persistent_keepalive_interval":
+                        if ("0".equals(value))
+                            peer.remove(name);
+                        else
+                            peer.put(name, value);
+                        break;
+                    case "preshared_key":
+                        if (value.matches("0+"))
+                            peer.remove(name);
+                        else
+                            peer.put(name, value);
+                        break;
+                    default:
+                        peer.put(name, value);
+                }
+            }
+            return 0;
+        }
+
+        String state() {
+            // A listen port of 0 means that the device picks one, as if none was configured.
+            final Map<String, String> settings = new TreeMap<>(interfaze);
+            if ("0".equals(settings.get("listen_port")))
+                settings.remove("listen_port");
+            return settings + " " + peers;
+        }
+    }
+}
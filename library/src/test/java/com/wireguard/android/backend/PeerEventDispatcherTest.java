@@ -0,0 +1,212 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import com.wireguard.config.InetEndpoint;
+import com.wireguard.crypto.Key;
+import com.wireguard.crypto.KeyPair;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PeerEventDispatcherTest {
+    private static List<PeerEvent> take(final BlockingQueue<List<PeerEvent>> batches)
+            throws InterruptedException {
+        final List<PeerEvent> batch = batches.poll(5, TimeUnit.SECONDS);
+        assertNotNull("No events delivered", batch);
+        return batch;
+    }
+
+    @Test
+    public void events_are_delivered_on_the_dispatcher_thread() throws Exception {
+        final Key peer = new KeyPair().getPublicKey();
+        final SimulatedPeerEventSource source = new SimulatedPeerEventSource();
+        final PeerEventDispatcher dispatcher = new PeerEventDispatcher();
+        final BlockingQueue<List<PeerEvent>> batches = new LinkedBlockingQueue<>();
+        final List<Thread> threads = new ArrayList<>();
+        dispatcher.start(source);
+        // Nothing asks the native side for events until someone listens.
+        Thread.sleep(50);
+        assertEquals(0, source.polls());
+
+        final PeerEventDispatcher.Listener listener = events -> {
+            threads.add(Thread.currentThread());
+            batches.add(events);
+        };
+        dispatcher.addListener(listener);
+        assertTrue(source.awaitOpen(5000));
+        source.emit(PeerEvent.Type.HANDSHAKE_COMPLETED, peer, 1000, "192.0.2.1:51820");
+        List<PeerEvent> batch = take(batches);
+        assertEquals(List.of(new PeerEvent(PeerEvent.Type.HANDSHAKE_COMPLETED, peer, 1000,
+                InetEndpoint.parse("192.0.2.1:51820"))), batch);
+        assertNotSame(Thread.currentThread(), threads.get(0));
+
+        source.emit(PeerEvent.Type.ENDPOINT_CHANGED, peer, 2000, "[2001:db8::1]:51820");
+        source.emit(PeerEvent.Type.PEER_STALE, peer, 3000, null);
+        final List<PeerEvent> received = new ArrayList<>(take(batches));
+        if (received.size() < 2)
+            received.addAll(take(batches));
+        assertEquals(InetEndpoint.parse("[2001:db8::1]:51820"), received.get(0).endpoint());
+        assertEquals(PeerEvent.Type.PEER_STALE, received.get(1).type());
+        assertNull(received.get(1).endpoint());
+
+        // Listeners stay registered when the tunnel is restarted with a new source.
+        final SimulatedPeerEventSource restarted = new SimulatedPeerEventSource();
+        dispatcher.start(restarted);
+        assertEquals(1, source.closes());
+        threads.get(0).join(5000);
+        assertFalse(threads.get(0).isAlive());
+        assertTrue(restarted.awaitOpen(5000));
+        restarted.emit(PeerEvent.Type.HANDSHAKE_COMPLETED, peer, 4000, null);
+        batch = take(batches);
+        assertEquals(4000, batch.get(0).epochMillis());
+
+        dispatcher.stop();
+        assertEquals(1, restarted.closes());
+        // Stopping does not wait for the dispatcher thread, which ends on its own.
+        threads.get(threads.size() - 1).join(5000);
+        assertFalse(threads.get(threads.size() - 1).isAlive());
+        dispatcher.removeListener(listener);
+    }
+
+    @Test
+    public void the_source_is_closed_while_nobody_listens() throws Exception {
+        final Key peer = new KeyPair().getPublicKey();
+        final SimulatedPeerEventSource source = new SimulatedPeerEventSource();
+        final PeerEventDispatcher dispatcher = new PeerEventDispatcher();
+        final BlockingQueue<List<PeerEvent>> batches = new LinkedBlockingQueue<>();
+        final PeerEventDispatcher.Listener listener = batches::add;
+        dispatcher.start(source);
+        dispatcher.addListener(listener);
+        assertTrue(source.awaitOpen(5000));
+
+        dispatcher.removeListener(listener);
+        assertEquals(1, source.closes());
+        assertFalse(source.isOpen());
+        // Events are dropped while the source is closed, and the dispatcher stops polling it.
+        source.emit(PeerEvent.Type.HANDSHAKE_COMPLETED, peer, 1000, null);
+        final int polls = source.polls();
+        Thread.sleep(50);
+        assertEquals(polls, source.polls());
+        assertFalse(source.isOpen());
+
+        dispatcher.addListener(listener);
+        assertTrue(source.awaitOpen(5000));
+        source.emit(PeerEvent.Type.HANDSHAKE_COMPLETED, peer, 2000, null);
+        final List<PeerEvent> batch = take(batches);
+        assertEquals(1, batch.size());
+        assertEquals(2000, batch.get(0).epochMillis());
+        dispatcher.stop();
+        assertEquals(2, source.closes());
+    }
+
+    @Test
+    public void a_listener_removed_just_before_a_poll_still_closes_the_source() throws Exception {
+        final SimulatedPeerEventSource source = new SimulatedPeerEventSource();
+        final PeerEventDispatcher dispatcher = new PeerEventDispatcher();
+        final PeerEventDispatcher.Listener listener = events -> { };
+        final CountDownLatch removed = new CountDownLatch(1);
+        dispatcher.addListener(listener);
+        dispatcher.start(new PeerEventSource() {
+            @Override
+            public void close() {
+                source.close();
+            }
+
+            @Override
+            public int poll(final ByteBuffer buffer, final int timeoutMillis) throws InterruptedException {
+                // The last listener goes away between the dispatcher's check and its poll.
+                if (removed.getCount() > 0) {
+                    dispatcher.removeListener(listener);
+                    removed.countDown();
+                }
+                return source.poll(buffer, timeoutMillis);
+            }
+        });
+        assertTrue(removed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, source.closes());
+
+        // The poll reopened the source; once it returns, the dispatcher closes it again.
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (source.closes() < 2 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertEquals(2, source.closes());
+        assertFalse(source.isOpen());
+        final int polls = source.polls();
+        Thread.sleep(50);
+        assertEquals(polls, source.polls());
+        dispatcher.stop();
+    }
+
+    @Test
+    public void events_are_batched_while_listeners_are_busy() throws Exception {
+        final Key peer = new KeyPair().getPublicKey();
+        final SimulatedPeerEventSource source = new SimulatedPeerEventSource();
+        final PeerEventDispatcher dispatcher = new PeerEventDispatcher();
+        final BlockingQueue<List<PeerEvent>> batches = new LinkedBlockingQueue<>();
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        dispatcher.addListener(events -> {
+            batches.add(events);
+            busy.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        dispatcher.start(source);
+        assertTrue(source.awaitOpen(5000));
+        source.emit(PeerEvent.Type.HANDSHAKE_COMPLETED, peer, 0, null);
+        assertTrue(busy.await(5, TimeUnit.SECONDS));
+
+        final int queued = PeerEventDispatcher.BATCH_SIZE + 36;
+        for (int i = 1; i <= queued; ++i)
+            source.emit(PeerEvent.Type.HANDSHAKE_COMPLETED, peer, i, null);
+        release.countDown();
+        assertEquals(1, take(batches).size());
+        final List<PeerEvent> full = take(batches);
+        final List<PeerEvent> rest = take(batches);
+        assertEquals(PeerEventDispatcher.BATCH_SIZE, full.size());
+        assertEquals(36, rest.size());
+        for (int i = 0; i < full.size(); ++i)
+            assertEquals(i + 1, full.get(i).epochMillis());
+        assertEquals(queued, rest.get(rest.size() - 1).epochMillis());
+        dispatcher.stop();
+    }
+
+    @Test
+    public void records_round_trip_and_unknown_types_are_skipped() throws Exception {
+        final Key peer = new KeyPair().getPublicKey();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(2 * PeerEvent.RECORD_SIZE)
+                .order(ByteOrder.nativeOrder());
+        PeerEvent.encode(buffer, PeerEvent.RECORD_SIZE, PeerEvent.Type.ENDPOINT_CHANGED, peer,
+                Long.MAX_VALUE, "example.com:51820");
+        assertEquals(new PeerEvent(PeerEvent.Type.ENDPOINT_CHANGED, peer, Long.MAX_VALUE,
+                InetEndpoint.parse("example.com:51820")), PeerEvent.decode(buffer, PeerEvent.RECORD_SIZE));
+
+        buffer.putInt(PeerEvent.RECORD_SIZE + PeerEvent.OFFSET_TYPE, 99);
+        assertNull(PeerEvent.decode(buffer, PeerEvent.RECORD_SIZE));
+        buffer.putInt(PeerEvent.RECORD_SIZE + PeerEvent.OFFSET_TYPE, 3);
+        buffer.putInt(PeerEvent.RECORD_SIZE + PeerEvent.OFFSET_ENDPOINT_LENGTH, PeerEvent.MAX_ENDPOINT_LENGTH + 1);
+        assertNull(PeerEvent.decode(buffer, PeerEvent.RECORD_SIZE));
+    }
+}
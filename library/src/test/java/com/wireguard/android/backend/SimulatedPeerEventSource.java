@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import com.wireguard.crypto.Key;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Stands in for the native side of a running tunnel: events emitted by a test are encoded into
+ * records, in the layout wireguard-go uses, when the dispatcher polls.
+ */
+final class SimulatedPeerEventSource implements PeerEventSource {
+    private final Queue<Emitted> pending = new ArrayDeque<>();
+    private int closes;
+    private boolean open;
+    private int polls;
+
+    @Override
+    public synchronized void close() {
+        ++closes;
+        open = false;
+        pending.clear();
+        notifyAll();
+    }
+
+    synchronized int closes() {
+        return closes;
+    }
+
+    // Like wireguard-go, drops events that happen while nobody polls a closed source.
+    synchronized void emit(final PeerEvent.Type type, final Key publicKey, final long epochMillis,
+                           @Nullable final String endpoint) {
+        if (!open)
+            return;
+        pending.add(new Emitted(type, publicKey, epochMillis, endpoint));
+        notifyAll();
+    }
+
+    synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized int poll(final ByteBuffer buffer, final int timeoutMillis)
+            throws InterruptedException {
+        ++polls;
+        open = true;
+        notifyAll();
+        final int closesBefore = closes;
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (closes == closesBefore && pending.isEmpty()) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return 0;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        if (closes != closesBefore)
+            return -1;
+        final int count = Math.min(pending.size(), buffer.capacity() / PeerEvent.RECORD_SIZE);
+        for (int i = 0; i < count; ++i) {
+            final Emitted event = pending.remove();
+            PeerEvent.encode(buffer, i * PeerEvent.RECORD_SIZE, event.type, event.publicKey,
+                    event.epochMillis, event.endpoint);
+        }
+        return count;
+    }
+
+    synchronized int polls() {
+        return polls;
+    }
+
+    // Waits until the source is open, that is, until it has been polled since it was last closed.
+    synchronized boolean awaitOpen(final long timeoutMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!open) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    private record Emitted(PeerEvent.Type type, Key publicKey, long epochMillis,
+                           @Nullable String endpoint) { }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import com.wireguard.crypto.Key;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.wireguard.util.PeerFixtures.keys;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StatisticsBlockTest {
+    private static void publish(final StatisticsBlockWriter writer, final Key[] keys, final long value) {
+        writer.begin();
+        for (final Key key : keys)
+            writer.add(key.getBytes(), value, value * 2, value * 1000);
+        writer.end(value);
+    }
+
+    @Test
+    public void published_counters_are_read_into_statistics_and_tables() {
+        final Key[] keys = keys(5);
+        final StatisticsBlock block = StatisticsBlock.allocate(8, Long.MAX_VALUE);
+        final StatisticsBlockWriter writer = new StatisticsBlockWriter(block);
+        final Statistics statistics = new Statistics(() -> 0);
+        final StatisticsTable table = new StatisticsTable();
+        // Nothing has been published yet.
+        assertFalse(statistics.refresh(block));
+        assertEquals(0, writer.demand());
+
+        publish(writer, keys, 3);
+        assertTrue(statistics.refresh(block));
+        assertArrayEquals(keys, statistics.peers());
+        assertEquals(new Statistics.PeerStats(3, 6, 3000), statistics.peer(keys[4]));
+        assertEquals(15, statistics.totalRx());
+        assertEquals(3, block.getPublishedEpochMillis());
+        assertTrue(table.refresh(block));
+        assertEquals(5, table.size());
+        assertEquals(4, table.indexOf(keys[4]));
+        assertEquals(30, table.totalTx());
+        assertEquals(2, writer.demand());
+
+        publish(writer, new Key[]{keys[1]}, 7);
+        assertTrue(statistics.refresh(block));
+        assertArrayEquals(new Key[]{keys[1]}, statistics.peers());
+        assertEquals(7, statistics.totalRx());
+    }
+
+    @Test
+    public void unreadable_blocks_leave_statistics_unchanged() {
+        final Key[] keys = keys(3);
+        final StatisticsBlock block = StatisticsBlock.allocate(2, Long.MAX_VALUE);
+        final StatisticsBlockWriter writer = new StatisticsBlockWriter(block);
+        final Statistics statistics = new Statistics(() -> 0);
+        publish(writer, new Key[]{keys[0]}, 1);
+        assertTrue(statistics.refresh(block));
+
+        // More peers than the block holds.
+        publish(writer, keys, 2);
+        assertFalse(statistics.refresh(block));
+        // A publication that never ends.
+        writer.begin();
+        assertFalse(statistics.refresh(block));
+        assertArrayEquals(new Key[]{keys[0]}, statistics.peers());
+        assertEquals(1, statistics.totalRx());
+    }
+
+    @Test
+    public void old_publications_are_refused_after_a_long_gap() {
+        final Key[] keys = keys(2);
+        final long[] now = {1_000};
+        final StatisticsBlock block = StatisticsBlock.allocate(4, 1_500, () -> false, () -> now[0]);
+        final StatisticsBlockWriter writer = new StatisticsBlockWriter(block);
+        final Statistics statistics = new Statistics(() -> 0);
+        publish(writer, keys, 1);
+        assertTrue(statistics.refresh(block));
+        // The writer publishes once after that read, then nobody reads for ten minutes.
+        publish(writer, keys, 2);
+        now[0] += 600_000;
+        final int demand = writer.demand();
+        assertFalse(statistics.refresh(block));
+        assertEquals(2, statistics.totalRx());
+        // The refused read does not ask the ticks for a publication it could not use.
+        assertEquals(demand, writer.demand());
+    }
+
+    @Test
+    public void slow_pollers_publish_once_per_poll() {
+        final Key[] keys = keys(3);
+        final long[] now = {1_000};
+        final int[] publications = {0};
+        // Stands in for wgPublishStatistics, once the writer exists.
+        final StatisticsBlockWriter[] onDemand = new StatisticsBlockWriter[1];
+        final StatisticsBlock block = StatisticsBlock.allocate(4, 1_500, () -> {
+            publish(onDemand[0], keys, now[0]);
+            ++publications[0];
+            return true;
+        }, () -> now[0]);
+        final StatisticsBlockWriter writer = new StatisticsBlockWriter(block);
+        onDemand[0] = writer;
+        final Statistics statistics = new Statistics(() -> 0);
+        int published = writer.demand();
+        int polls = 0;
+        // The idle backoff of the sampler, then its screen-off interval.
+        for (final long period : new long[]{2_000, 2_000, 4_000, 5_000, 5_000, 30_000}) {
+            // The native side ticks every 500 ms and publishes if a read asked for it.
+            for (long elapsed = 500; elapsed <= period; elapsed += 500) {
+                now[0] += 500;
+                if (writer.demand() != published) {
+                    published = writer.demand();
+                    publish(writer, keys, now[0]);
+                    ++publications[0];
+                }
+            }
+            assertTrue(statistics.refresh(block));
+            ++polls;
+            assertEquals(now[0], block.getPublishedEpochMillis());
+            assertEquals(3 * now[0], statistics.totalRx());
+        }
+        assertEquals(polls, publications[0]);
+    }
+
+    @Test
+    public void readers_never_see_a_publication_in_progress() throws InterruptedException {
+        final Key[] keys = keys(64);
+        final StatisticsBlock block = StatisticsBlock.allocate(keys.length, Long.MAX_VALUE);
+        final StatisticsBlockWriter writer = new StatisticsBlockWriter(block);
+        publish(writer, keys, 1);
+        final AtomicBoolean stop = new AtomicBoolean();
+        final Thread thread = new Thread(() -> {
+            for (long value = 2; !stop.get(); ++value)
+                publish(writer, keys, value);
+        });
+        thread.start();
+        final StatisticsTable table = new StatisticsTable();
+        int reads = 0;
+        try {
+            for (int i = 0; i < 20_000; ++i) {
+                if (!table.refresh(block))
+                    continue;
+                ++reads;
+                // Every peer of a publication has the same counters.
+                final long rx = table.rxBytes(0);
+                assertEquals(rx * keys.length, table.totalRx());
+                assertEquals(2 * rx * keys.length, table.totalTx());
+                assertEquals(keys.length - 1, table.indexOf(keys[keys.length - 1]));
+            }
+        } finally {
+            stop.set(true);
+            thread.join();
+        }
+        assertTrue(reads > 0);
+    }
+}
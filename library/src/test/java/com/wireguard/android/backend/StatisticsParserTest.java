@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import com.wireguard.crypto.Key;
+import com.wireguard.crypto.KeyFormatException;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class StatisticsParserTest {
+    private static final String PEER_A = "vBN7qyUTb5lJtWYJ8LhbPio1Z4RcyBPGnqFBGn6O6Qg=";
+    private static final String PEER_B = "TFlmmEUC7V7VtiDYLKsbP5rySTKLIZq1yn8lMqK83wo=";
+
+    private static List<String> parse(final String uapi) {
+        final List<String> peers = new ArrayList<>();
+        StatisticsParser.parse(uapi, new byte[32], (key, rx, tx, handshake) ->
+                peers.add(Base64.getEncoder().encodeToString(key) + ' ' + rx + ' ' + tx + ' ' + handshake));
+        return peers;
+    }
+
+    @Test
+    public void reports_each_peer_in_order() throws KeyFormatException {
+        final String uapi = "private_key=" + Key.fromBase64(PEER_B).toHex() + "\n"
+                + "listen_port=51820\n"
+                + "rx_bytes=99\n"
+                + "public_key=" + Key.fromBase64(PEER_A).toHex() + "\n"
+                + "endpoint=192.0.2.1:51820\n"
+                + "last_handshake_time_sec=1700000000\n"
+                + "last_handshake_time_nsec=250000000\n"
+                + "rx_bytes=1024\n"
+                + "tx_bytes=2048\n"
+                + "public_key=" + Key.fromBase64(PEER_B).toHex() + "\n"
+                + "rx_bytes=lots\n"
+                + "last_handshake_time_sec=99999999999999999999\n"
+                + "tx_bytes=7\n"
+                + "public_key=nothex\n"
+                + "rx_bytes=5\n"
+                + "errno=0\n";
+        final List<String> expected = new ArrayList<>();
+        expected.add(PEER_A + " 1024 2048 1700000000250");
+        expected.add(PEER_B + " 0 7 0");
+        assertEquals(expected, parse(uapi));
+        assertEquals(new ArrayList<String>(), parse(""));
+    }
+}
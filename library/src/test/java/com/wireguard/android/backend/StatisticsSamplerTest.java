@@ -0,0 +1,263 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import com.wireguard.config.Config;
+import com.wireguard.crypto.Key;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.Nullable;
+
+import static com.wireguard.util.PeerFixtures.keys;
+import static com.wireguard.util.PeerFixtures.uapi;
+import static com.wireguard.util.PeerFixtures.uapiPeer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StatisticsSamplerTest {
+    private static final Tunnel TUNNEL = new Tunnel() {
+        @Override
+        public String getName() {
+            return "test";
+        }
+
+        @Override
+        public void onStateChange(final State newState) {
+        }
+    };
+
+    private final Key[] keys = keys(2);
+    private final FakeBackend backend = new FakeBackend();
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private long now = 1_000_000;
+
+    private StatisticsSampler sampler() {
+        return new StatisticsSampler.Builder(backend, TUNNEL)
+                .setInterval(1000)
+                .setMaxInterval(4000)
+                .setScreenOffInterval(30000)
+                .setScheduler(scheduler)
+                .setClocks(() -> now, () -> now)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        // The scheduler's worker thread is not a daemon, so it would keep the JVM alive.
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void samples_carry_rates_and_handshake_ages() {
+        try (final StatisticsSampler sampler = sampler()) {
+            final List<StatisticsSample> samples = new ArrayList<>();
+            sampler.addListener(samples::add, Runnable::run);
+
+            backend.uapi = uapi(uapiPeer(keys[0], 100, 200, 990), uapiPeer(keys[1], 0, 0, 0));
+            sampler.sample();
+            StatisticsSample sample = sampler.getLatest();
+            assertEquals(0, sample.getIntervalMillis());
+            assertEquals(0, sample.getRxBytesPerSecond());
+            assertEquals(100, sample.getRxBytes());
+            assertEquals(10_000, sample.peer(keys[0]).handshakeAgeMillis());
+            assertEquals(-1, sample.peer(keys[1]).handshakeAgeMillis());
+
+            now += 500;
+            backend.uapi = uapi(uapiPeer(keys[0], 600, 200, 990), uapiPeer(keys[1], 50, 100, 0));
+            sampler.sample();
+            sample = sampler.getLatest();
+            assertEquals(2, samples.size());
+            assertEquals(500, sample.getIntervalMillis());
+            assertEquals(1000, sample.peer(keys[0]).rxBytesPerSecond());
+            assertEquals(0, sample.peer(keys[0]).txBytesPerSecond());
+            assertEquals(100, sample.peer(keys[1]).rxBytesPerSecond());
+            assertEquals(1100, sample.getRxBytesPerSecond());
+            assertEquals(200, sample.getTxBytesPerSecond());
+            assertEquals(10_500, sample.peer(keys[0]).handshakeAgeMillis());
+
+            // A peer that was removed and added again starts counting from zero.
+            now += 1000;
+            backend.uapi = uapi(uapiPeer(keys[0], 10, 0, 990));
+            sampler.sample();
+            sample = sampler.getLatest();
+            assertEquals(0, sample.getRxBytesPerSecond());
+            assertNull(sample.peer(keys[1]));
+            assertEquals(1, sample.getPeers().size());
+        }
+    }
+
+    @Test
+    public void slow_listeners_only_see_the_latest_sample() {
+        try (final StatisticsSampler sampler = sampler()) {
+            final Queue<Runnable> queued = new ArrayDeque<>();
+            final List<StatisticsSample> samples = new ArrayList<>();
+            sampler.addListener(samples::add, queued::add);
+            for (int i = 1; i <= 3; ++i) {
+                now += 1000;
+                backend.uapi = uapi(uapiPeer(keys[0], i, i, 0));
+                sampler.sample();
+            }
+            assertEquals(1, queued.size());
+            queued.remove().run();
+            assertEquals(1, samples.size());
+            assertEquals(3, samples.get(0).getRxBytes());
+            assertTrue(queued.isEmpty());
+        }
+    }
+
+    @Test
+    public void failures_do_not_stop_polling_or_delivery() {
+        try (final StatisticsSampler sampler = sampler()) {
+            final List<StatisticsSample> samples = new ArrayList<>();
+            final int[] rejections = {1};
+            sampler.addListener(samples::add, command -> {
+                if (rejections[0]-- > 0)
+                    throw new RejectedExecutionException("busy");
+                command.run();
+            });
+            // A listener that fails while being handed a sample.
+            sampler.addListener(sample -> { }, command -> {
+                throw new IllegalStateException("broken");
+            });
+            backend.uapi = uapi(uapiPeer(keys[0], 1, 0, 0));
+            assertTrue(scheduler.runNext());
+            assertTrue(samples.isEmpty());
+
+            now += 1000;
+            backend.uapi = uapi(uapiPeer(keys[0], 2, 0, 0));
+            assertTrue(scheduler.runNext());
+            assertEquals(1, samples.size());
+            assertEquals(2, samples.get(0).getRxBytes());
+            assertEquals(3, scheduler.delays.size());
+        }
+    }
+
+    @Test
+    public void cadence_backs_off_while_idle_or_with_the_screen_off() {
+        final StatisticsSampler sampler = sampler();
+        final StatisticsSampler.Listener listener = sample -> { };
+        backend.uapi = uapi(uapiPeer(keys[0], 0, 0, 0));
+        sampler.addListener(listener, Runnable::run);
+        assertEquals(Collections.singletonList(0L), scheduler.delays);
+
+        // Idle polls double the delay up to the maximum.
+        for (int i = 0; i < 4; ++i) {
+            now += 1000;
+            scheduler.runNext();
+        }
+        assertEquals(List.of(0L, 1000L, 2000L, 4000L, 4000L), scheduler.delays);
+
+        // Traffic brings the delay back to the base interval.
+        backend.uapi = uapi(uapiPeer(keys[0], 1, 0, 0));
+        now += 4000;
+        scheduler.runNext();
+        assertEquals(1000, sampler.getDelay());
+
+        sampler.setScreenOn(false);
+        assertEquals(30000, sampler.getDelay());
+        sampler.setScreenOn(true);
+        assertEquals(1000, sampler.getDelay());
+        // Turning the screen back on polls immediately instead of at the pending poll.
+        assertEquals(0, (long) scheduler.delays.get(scheduler.delays.size() - 1));
+        final int scheduled = scheduler.delays.size();
+        assertTrue(scheduler.runNext());
+        assertEquals(scheduled + 1, scheduler.delays.size());
+
+        // Removing the last listener cancels the remaining poll.
+        sampler.removeListener(listener);
+        assertFalse(scheduler.runNext());
+        sampler.close();
+        assertFalse(scheduler.isShutdown());
+    }
+
+    private static final class FakeBackend implements Backend {
+        String uapi = "";
+
+        @Override
+        public Set<String> getRunningTunnelNames() {
+            return Collections.singleton(TUNNEL.getName());
+        }
+
+        @Override
+        public Tunnel.State getState(final Tunnel tunnel) {
+            return Tunnel.State.UP;
+        }
+
+        @Override
+        public Statistics getStatistics(final Tunnel tunnel) {
+            final Statistics statistics = new Statistics(() -> 0);
+            statistics.refresh(uapi);
+            return statistics;
+        }
+
+        @Override
+        public String getVersion() {
+            return "test";
+        }
+
+        @Override
+        public void refreshStatistics(final Tunnel tunnel, final Statistics statistics) {
+            statistics.refresh(uapi);
+        }
+
+        @Override
+        public Tunnel.State setState(final Tunnel tunnel, final Tunnel.State state,
+                                     @Nullable final Config config, final List<String> excludedPackages,
+                                     final List<String> excludedIps) {
+            return state;
+        }
+    }
+
+    /**
+     * Records scheduled polls so that the test can run them one at a time, in order, skipping
+     * those that were cancelled.
+     */
+    private static final class ManualScheduler extends ScheduledThreadPoolExecutor {
+        final List<Long> delays = new ArrayList<>();
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private final Queue<ScheduledFuture<?>> futures = new ArrayDeque<>();
+
+        ManualScheduler() {
+            super(1);
+        }
+
+        boolean runNext() {
+            while (!tasks.isEmpty()) {
+                final Runnable task = tasks.remove();
+                if (!futures.remove().isCancelled()) {
+                    task.run();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(final Runnable command, final long delay,
+                                           final TimeUnit unit) {
+            delays.add(unit.toMillis(delay));
+            final ScheduledFuture<?> future = super.schedule(() -> { }, 1, TimeUnit.DAYS);
+            tasks.add(command);
+            futures.add(future);
+            return future;
+        }
+    }
+}
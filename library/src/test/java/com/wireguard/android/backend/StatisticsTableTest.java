@@ -0,0 +1,127 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import com.wireguard.crypto.Key;
+import com.wireguard.crypto.KeyPair;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static com.wireguard.util.Allocations.assertAllocationFree;
+import static com.wireguard.util.PeerFixtures.keys;
+import static com.wireguard.util.PeerFixtures.uapi;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class StatisticsTableTest {
+    private static final int ITERATIONS = 1_000;
+
+    @Test
+    public void refresh_indexes_packed_keys() {
+        final Key[] keys = keys(50);
+        final long[] rx = new long[keys.length];
+        final long[] tx = new long[keys.length];
+        for (int i = 0; i < keys.length; ++i) {
+            rx[i] = i;
+            tx[i] = 2L * i;
+        }
+        final StatisticsTable table = new StatisticsTable();
+        table.refresh(uapi(keys, rx, tx));
+        assertEquals(keys.length, table.size());
+        assertEquals(1225, table.totalRx());
+        assertEquals(2450, table.totalTx());
+        final byte[] bytes = new byte[40];
+        for (int i = 0; i < keys.length; ++i) {
+            assertEquals(i, table.indexOf(keys[i]));
+            keys[i].getBytes(bytes, 8);
+            assertEquals(i, table.indexOf(bytes, 8));
+            assertEquals(keys[i], table.key(i));
+            assertEquals(2L * i, table.txBytes(i));
+            assertEquals((i + 1) * 1000L, table.latestHandshakeEpochMillis(i));
+        }
+        assertEquals(-1, table.indexOf(new KeyPair().getPublicKey()));
+
+        // Drop every other peer and reverse the rest.
+        final Key[] next = IntStream.range(0, keys.length / 2).map(i -> keys.length - 2 - 2 * i)
+                .mapToObj(i -> keys[i]).toArray(Key[]::new);
+        table.refresh(uapi(next, new long[next.length], new long[next.length]));
+        assertEquals(next.length, table.size());
+        for (int i = 0; i < next.length; ++i)
+            assertEquals(i, table.indexOf(next[i]));
+        assertEquals(-1, table.indexOf(keys[1]));
+        assertEquals(0, table.totalRx());
+
+        table.refresh("");
+        assertEquals(0, table.size());
+        assertEquals(-1, table.indexOf(keys[0]));
+    }
+
+    @Test
+    public void bulk_operations_match_a_sort() {
+        final Random random = new Random(42);
+        final Key[] keys = keys(500);
+        final long[] rx = new long[keys.length];
+        final long[] tx = new long[keys.length];
+        for (int i = 0; i < keys.length; ++i) {
+            // Few distinct values, so that ties are common.
+            rx[i] = random.nextInt(50);
+            tx[i] = random.nextInt(50);
+        }
+        final StatisticsTable table = new StatisticsTable();
+        table.refresh(uapi(keys, rx, tx));
+
+        final int[] expected = IntStream.range(0, keys.length).boxed()
+                .sorted(Comparator.<Integer>comparingLong(i -> rx[i] + tx[i]).reversed())
+                .mapToInt(Integer::intValue).limit(20).toArray();
+        final int[] top = new int[20];
+        assertEquals(20, table.topByTraffic(top));
+        assertArrayEquals(expected, top);
+        final int[] all = new int[keys.length + 10];
+        assertEquals(keys.length, table.topByTraffic(all));
+
+        final int[] subset = {3, -1, 17, 499};
+        assertEquals(rx[3] + rx[17] + rx[499], table.sumRx(subset));
+        assertEquals(tx[3] + tx[17] + tx[499], table.sumTx(subset));
+    }
+
+    @Test
+    public void snapshots_copy_into_tables() {
+        final Key[] keys = keys(10);
+        final long[] rx = new long[keys.length];
+        Arrays.fill(rx, 7);
+        final String uapi = uapi(keys, rx, rx);
+        final Statistics statistics = new Statistics(() -> 0);
+        statistics.refresh(uapi);
+        final StatisticsTable table = new StatisticsTable();
+        statistics.snapshot().copyTo(table);
+        assertEquals(70, table.totalRx());
+        for (int i = 0; i < keys.length; ++i)
+            assertEquals(i, table.indexOf(keys[i]));
+    }
+
+    @Test
+    public void refreshing_changing_counters_does_not_allocate() {
+        final Key[] keys = keys(1000);
+        final String[] uapis = new String[2];
+        for (int i = 0; i < uapis.length; ++i) {
+            final long[] rx = new long[keys.length];
+            Arrays.fill(rx, i);
+            uapis[i] = uapi(keys, rx, rx);
+        }
+        final StatisticsTable table = new StatisticsTable();
+        final int[] top = new int[10];
+        final int[] next = {0};
+        assertAllocationFree("refresh", ITERATIONS, () -> {
+            table.refresh(uapis[next[0]++ & 1]);
+            table.topByTraffic(top);
+        });
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.android.backend;
+
+import com.wireguard.crypto.Key;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.wireguard.util.Allocations.assertAllocationFree;
+import static com.wireguard.util.PeerFixtures.keys;
+import static com.wireguard.util.PeerFixtures.uapi;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class StatisticsTest {
+    private static final int ITERATIONS = 10_000;
+
+    @Test
+    public void refresh_follows_added_moved_and_removed_peers() {
+        final Key[] keys = keys(4);
+        final Statistics statistics = new Statistics(() -> 0);
+        statistics.refresh(uapi(Arrays.copyOf(keys, 3), 1));
+        assertArrayEquals(Arrays.copyOf(keys, 3), statistics.peers());
+        assertEquals(3, statistics.totalRx());
+        assertEquals(6, statistics.totalTx());
+
+        final Key[] next = {keys[3], keys[2], keys[0]};
+        statistics.refresh(uapi(next, 5));
+        assertArrayEquals(next, statistics.peers());
+        assertNull(statistics.peer(keys[1]));
+        assertEquals(new Statistics.PeerStats(5, 10, 5000), statistics.peer(keys[3]));
+        assertEquals(new Statistics.PeerStats(5, 10, 5000), statistics.peer(keys[0]));
+        assertEquals(15, statistics.totalRx());
+
+        statistics.refresh("");
+        assertEquals(0, statistics.peers().length);
+        assertNull(statistics.peer(keys[0]));
+        assertEquals(0, statistics.totalTx());
+
+        final Statistics copy = new Statistics(() -> 0);
+        copy.refresh(uapi(keys, 2));
+        copy.copyFrom(statistics);
+        assertEquals(0, copy.peers().length);
+        statistics.refresh(uapi(keys, 3));
+        copy.copyFrom(statistics);
+        assertArrayEquals(keys, copy.peers());
+        assertEquals(new Statistics.PeerStats(3, 6, 3000), copy.peer(keys[1]));
+    }
+
+    @Test
+    public void readers_see_consistent_snapshots_while_refreshing() throws InterruptedException {
+        final Key[] keys = keys(8);
+        final Statistics statistics = new Statistics(() -> 0);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final Thread reader = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                final Statistics.Snapshot snapshot = statistics.snapshot();
+                long rx = 0;
+                for (final Key key : snapshot.peers())
+                    rx += snapshot.peer(key).rxBytes();
+                if (rx != snapshot.totalRx())
+                    failure.compareAndSet(null, "total " + snapshot.totalRx() + " != " + rx);
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 20_000; ++i)
+            statistics.refresh(uapi(Arrays.copyOf(keys, 1 + i % keys.length), i));
+        reader.interrupt();
+        reader.join();
+        assertNull(failure.get());
+    }
+
+    @Test
+    public void refreshing_publishes_a_new_snapshot_and_keeps_keys() {
+        final Key[] keys = keys(3);
+        final Statistics statistics = new Statistics(() -> 0);
+        statistics.refresh(uapi(keys, 1));
+        final Statistics.Snapshot first = statistics.snapshot();
+        statistics.refresh(uapi(keys, 1));
+        assertSame(first, statistics.snapshot());
+
+        statistics.refresh(uapi(keys, 2));
+        final Statistics.Snapshot second = statistics.snapshot();
+        assertNotSame(first, second);
+        assertEquals(3, first.totalRx());
+        assertEquals(6, second.totalRx());
+        assertEquals(new Statistics.PeerStats(1, 2, 1000), first.peer(keys[2]));
+        for (int i = 0; i < keys.length; ++i)
+            assertSame(first.peers().get(i), second.peers().get(i));
+
+        // Keys are reused when peers move, too.
+        statistics.refresh(uapi(new Key[]{keys[2], keys[0]}, 3));
+        assertSame(first.peers().get(2), statistics.snapshot().peers().get(0));
+        assertSame(first.peers().get(0), statistics.snapshot().peers().get(1));
+    }
+
+    @Test
+    public void refreshing_the_same_peers_does_not_allocate() {
+        final String uapi = uapi(keys(100), 1_700_000_000L);
+        final Statistics statistics = new Statistics(() -> 0);
+        assertAllocationFree("refresh", ITERATIONS, () -> statistics.refresh(uapi));
+        assertEquals(100, statistics.peers().length);
+    }
+}
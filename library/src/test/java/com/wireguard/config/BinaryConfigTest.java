@@ -0,0 +1,139 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class BinaryConfigTest {
+    private static final String FULL_CONFIG = "[Interface]\n"
+            + "Address = 10.0.0.2/24, fd00::2/64\n"
+            + "DNS = 10.0.0.1, 2001:db8::53, corp.example.com\n"
+            + "ExcludedApplications = com.example.one, com.example.two\n"
+            + "ListenPort = 51820\n"
+            + "MTU = 1420\n"
+            + "PrivateKey = TFlmmEUC7V7VtiDYLKsbP5rySTKLIZq1yn8lMqK83wo=\n"
+            + "[Peer]\n"
+            + "AllowedIPs = 0.0.0.0/0, ::/0\n"
+            + "Endpoint = vpn.example.com:51820\n"
+            + "PersistentKeepalive = 25\n"
+            + "PreSharedKey = TFlmmEUC7V7VtiDYLKsbP5rySTKLIZq1yn8lMqK83wo=\n"
+            + "PublicKey = vBN7qyUTb5lJtWYJ8LhbPio1Z4RcyBPGnqFBGn6O6Qg=\n"
+            + "[Peer]\n"
+            + "Endpoint = [2001:db8::1]:443\n"
+            + "PublicKey = TFlmmEUC7V7VtiDYLKsbP5rySTKLIZq1yn8lMqK83wo=\n"
+            + "[Peer]\n"
+            + "AllowedIPs = 192.168.0.0/16\n"
+            + "Endpoint = 192.0.2.1:51820\n"
+            + "PublicKey = vBN7qyUTb5lJtWYJ8LhbPio1Z4RcyBPGnqFBGn6O6Qg=\n";
+
+    private static byte[] encode(final Config config) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        config.writeBinary(out);
+        return out.toByteArray();
+    }
+
+    private static void assertRoundTrip(final Config config) throws IOException, BadConfigException {
+        final Config decoded = Config.readBinary(new ByteArrayInputStream(encode(config)));
+        assertEquals(config.toWgQuickString(), decoded.toWgQuickString());
+        assertEquals(config.getInterface().getKeyPair().getPublicKey(),
+                decoded.getInterface().getKeyPair().getPublicKey());
+        assertEquals(config.getPeers(), decoded.getPeers());
+        for (int i = 0; i < config.getPeers().size(); ++i)
+            assertEquals(config.getPeers().get(i).toString(), decoded.getPeers().get(i).toString());
+    }
+
+    @Test
+    public void round_trips_working_config() throws IOException, BadConfigException {
+        try (final InputStream is = Objects.requireNonNull(getClass().getClassLoader()).getResourceAsStream("working.conf")) {
+            assertRoundTrip(Config.parse(is));
+        }
+    }
+
+    @Test
+    public void round_trips_every_attribute() throws IOException, BadConfigException {
+        assertRoundTrip(Config.parse(new StringReader(FULL_CONFIG)));
+    }
+
+    @Test
+    public void round_trips_included_applications() throws IOException, BadConfigException {
+        assertRoundTrip(Config.parse(new StringReader("[Interface]\n"
+                + "IncludedApplications = com.example.only\n"
+                + "PrivateKey = TFlmmEUC7V7VtiDYLKsbP5rySTKLIZq1yn8lMqK83wo=\n")));
+    }
+
+    @Test
+    public void decodes_consecutive_configs_from_one_buffer() throws IOException, BadConfigException {
+        final Config config = Config.parse(new StringReader(FULL_CONFIG));
+        final byte[] one = encode(config);
+        final ByteBuffer buffer = ByteBuffer.allocate(one.length * 2);
+        buffer.put(one).put(one).flip();
+        assertEquals(config.toWgQuickString(), Config.readBinary(buffer).toWgQuickString());
+        assertEquals(config.toWgQuickString(), Config.readBinary(buffer).toWgQuickString());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void rejects_truncated_and_foreign_data() throws IOException, BadConfigException {
+        final byte[] encoded = encode(Config.parse(new StringReader(FULL_CONFIG)));
+        for (final int length : new int[]{0, 4, 5, 40, encoded.length / 2, encoded.length - 1}) {
+            try {
+                Config.readBinary(new ByteArrayInputStream(Arrays.copyOf(encoded, length)));
+                fail("Truncated data must not decode");
+            } catch (final IOException ignored) {
+            }
+        }
+        final byte[] futureVersion = encoded.clone();
+        futureVersion[4] = (byte) (BinaryConfig.VERSION + 1);
+        try {
+            Config.readBinary(new ByteArrayInputStream(futureVersion));
+            fail("Unknown versions must not decode");
+        } catch (final IOException ignored) {
+        }
+        try {
+            Config.readBinary(new ByteArrayInputStream(FULL_CONFIG.getBytes()));
+            fail("Text configurations must not decode");
+        } catch (final IOException ignored) {
+        }
+    }
+
+    @Test
+    public void rejects_corrupt_peer_lengths_lazily_and_eagerly() throws IOException, BadConfigException {
+        final Config config = Config.parse(new StringReader(FULL_CONFIG));
+        final byte[] encoded = encode(config);
+        // The first peer record starts where an encoding without peers ends.
+        final int first = encode(new Config.Builder().setInterface(config.getInterface()).build()).length;
+        final ByteBuffer lengths = ByteBuffer.wrap(encoded);
+        final int length = lengths.getInt(first);
+        for (final int corrupt : new int[]{length ^ 0x80000000, length + encoded.length, length - 1}) {
+            final byte[] bytes = encoded.clone();
+            ByteBuffer.wrap(bytes).putInt(first, corrupt);
+            try {
+                Config.readBinary(new ByteArrayInputStream(bytes));
+                fail("Corrupt peer lengths must not decode");
+            } catch (final IOException ignored) {
+            }
+            try {
+                BinaryConfig.readLazily(ByteBuffer.wrap(bytes)).validate();
+                fail("Corrupt peer lengths must not validate");
+            } catch (final BadConfigException e) {
+                assertEquals(BadConfigException.Section.PEER, e.getSection());
+            }
+        }
+    }
+}
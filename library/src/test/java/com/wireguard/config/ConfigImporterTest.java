@@ -0,0 +1,193 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import com.wireguard.config.BadConfigException.Reason;
+import com.wireguard.crypto.KeyPair;
+import com.wireguard.crypto.PublicKeyCache;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConfigImporterTest {
+    private static final String[] CONFIG_NAMES = {
+            "working",
+            "invalid-key",
+            "missing-section",
+            "unknown-section",
+    };
+
+    private static byte[] readResource(final String name) throws IOException {
+        try (final InputStream is = Objects.requireNonNull(ConfigImporterTest.class.getClassLoader())
+                .getResourceAsStream(name + ".conf")) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int count;
+            while ((count = is.read(buffer)) != -1)
+                out.write(buffer, 0, count);
+            return out.toByteArray();
+        }
+    }
+
+    private static void assertResults(final List<ConfigImporter.Result> results) throws IOException {
+        assertEquals(CONFIG_NAMES.length, results.size());
+        for (int i = 0; i < CONFIG_NAMES.length; ++i)
+            assertEquals(CONFIG_NAMES[i], results.get(i).getName());
+        assertTrue(results.get(0).isSuccess());
+        assertNotNull(results.get(0).getConfig());
+        assertNull(results.get(0).getError());
+        assertEquals(Reason.INVALID_KEY, Objects.requireNonNull(results.get(1).getError()).getReason());
+        assertEquals(Reason.MISSING_SECTION, Objects.requireNonNull(results.get(2).getError()).getReason());
+        assertEquals(Reason.UNKNOWN_SECTION, Objects.requireNonNull(results.get(3).getError()).getReason());
+        assertFalse(results.get(3).isSuccess());
+        try {
+            results.get(3).get();
+            fail("Failed results must rethrow their error");
+        } catch (final BadConfigException e) {
+            assertEquals(Reason.UNKNOWN_SECTION, e.getReason());
+        }
+    }
+
+    @Test
+    public void derives_public_keys_while_parsing() throws IOException {
+        final List<ConfigImporter.Source> sources = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            final byte[] contents = ("[Interface]\nPrivateKey = " + new KeyPair().getPrivateKey().toBase64() + '\n')
+                    .getBytes(StandardCharsets.UTF_8);
+            sources.add(new ConfigImporter.Source("tunnel" + i) {
+                @Override
+                public InputStream open() {
+                    return new ByteArrayInputStream(contents);
+                }
+            });
+        }
+        PublicKeyCache.enable(sources.size());
+        try {
+            final List<ConfigImporter.Result> results = ConfigImporter.parse(sources, 4);
+            for (final ConfigImporter.Result result : results)
+                assertTrue(result.isSuccess());
+            // Every public key went through the cache before anyone asked for it.
+            assertEquals(sources.size(), PublicKeyCache.size());
+        } finally {
+            PublicKeyCache.disable();
+        }
+    }
+
+    @Test
+    public void parses_directory_in_name_order() throws IOException {
+        final Path directory = Files.createTempDirectory("configs");
+        try {
+            // Prefix the files so that directory order matches CONFIG_NAMES.
+            for (int i = 0; i < CONFIG_NAMES.length; ++i)
+                Files.write(directory.resolve(i + "-" + CONFIG_NAMES[i] + ".conf"), readResource(CONFIG_NAMES[i]));
+            Files.write(directory.resolve("README.txt"), "not a config".getBytes(StandardCharsets.UTF_8));
+            final List<ConfigImporter.Source> sources = ConfigImporter.fromDirectory(directory);
+            final List<ConfigImporter.Result> results = ConfigImporter.parse(sources, 3);
+            assertEquals(CONFIG_NAMES.length, results.size());
+            for (int i = 0; i < CONFIG_NAMES.length; ++i)
+                assertEquals(i + "-" + CONFIG_NAMES[i], results.get(i).getName());
+            assertTrue(results.get(0).isSuccess());
+            assertEquals(Reason.INVALID_KEY, Objects.requireNonNull(results.get(1).getError()).getReason());
+        } finally {
+            try (final Stream<Path> files = Files.list(directory)) {
+                for (final Path file : (Iterable<Path>) files::iterator)
+                    Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void parses_zip_entries_in_order() throws IOException {
+        final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (final ZipOutputStream zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("tunnels/"));
+            zip.closeEntry();
+            for (final String name : CONFIG_NAMES) {
+                zip.putNextEntry(new ZipEntry("tunnels/" + name + ".conf"));
+                zip.write(readResource(name));
+                zip.closeEntry();
+            }
+            zip.putNextEntry(new ZipEntry("notes.txt"));
+            zip.closeEntry();
+        }
+        final List<ConfigImporter.Source> sources =
+                ConfigImporter.fromZip(new ByteArrayInputStream(archive.toByteArray()));
+        assertResults(ConfigImporter.parse(sources));
+    }
+
+    @Test
+    public void preserves_input_order_across_many_sources() throws IOException {
+        final byte[] working = readResource("working");
+        final byte[] broken = readResource("broken");
+        final List<ConfigImporter.Source> sources = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            final byte[] contents = i % 3 == 0 ? broken : working;
+            sources.add(new ConfigImporter.Source("tunnel" + i) {
+                @Override
+                public InputStream open() {
+                    return new ByteArrayInputStream(contents);
+                }
+            });
+        }
+        final List<ConfigImporter.Result> results = ConfigImporter.parse(sources, 4);
+        assertEquals(sources.size(), results.size());
+        for (int i = 0; i < results.size(); ++i) {
+            assertEquals("tunnel" + i, results.get(i).getName());
+            assertEquals(i % 3 != 0, results.get(i).isSuccess());
+        }
+    }
+
+    @Test
+    public void records_io_errors_per_source() throws IOException {
+        final List<ConfigImporter.Source> sources = new ArrayList<>();
+        sources.add(new ConfigImporter.Source("unreadable") {
+            @Override
+            public InputStream open() throws IOException {
+                throw new IOException("unreadable");
+            }
+        });
+        final byte[] working = readResource("working");
+        sources.add(new ConfigImporter.Source("working") {
+            @Override
+            public InputStream open() {
+                return new ByteArrayInputStream(working);
+            }
+        });
+        final List<ConfigImporter.Result> results = ConfigImporter.parse(sources);
+        assertFalse(results.get(0).isSuccess());
+        assertEquals("unreadable", Objects.requireNonNull(results.get(0).getIoError()).getMessage());
+        assertNull(results.get(0).getError());
+        try {
+            results.get(0).get();
+            fail("An unreadable source must not produce a configuration");
+        } catch (final BadConfigException | IOException e) {
+            assertEquals(results.get(0).getIoError(), e);
+        }
+        assertTrue(results.get(1).isSuccess());
+        assertNull(results.get(1).getIoError());
+    }
+}
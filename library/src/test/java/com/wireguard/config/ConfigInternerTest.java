@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ConfigInternerTest {
+    private static String profile(final String privateKey, final String allowedIps) {
+        return "[Interface]\n"
+                + "Address = 10.0.0.2/24\n"
+                + "PrivateKey = " + privateKey + '\n'
+                + "[Peer]\n"
+                + "AllowedIPs = " + allowedIps + '\n'
+                + "Endpoint = vpn.example.com:51820\n"
+                + "PublicKey = vBN7qyUTb5lJtWYJ8LhbPio1Z4RcyBPGnqFBGn6O6Qg=\n";
+    }
+
+    @Test
+    public void shares_values_between_configs() throws IOException, BadConfigException {
+        final ConfigInterner interner = new ConfigInterner();
+        final Peer a = Config.parse(new StringReader(profile("TFlmmEUC7V7VtiDYLKsbP5rySTKLIZq1yn8lMqK83wo=",
+                "0.0.0.0/0, ::/0")), interner).getPeers().get(0);
+        final Peer b = Config.parse(new StringReader(profile("mNKbpBrdKOXYkU1LwBRkwVwuYhvyVVMVvHNq8EPpS0g=",
+                "0.0.0.0/0, ::/0")), interner).getPeers().get(0);
+        assertSame(a.getPublicKey(), b.getPublicKey());
+        assertSame(a.getEndpoint().get(), b.getEndpoint().get());
+        assertSame(a.getAllowedIps(), b.getAllowedIps());
+        assertEquals(a, b);
+    }
+
+    @Test
+    public void keeps_allowed_ip_order() throws IOException, BadConfigException, ParseException {
+        final ConfigInterner interner = new ConfigInterner();
+        final Peer a = Config.parse(new StringReader(profile("TFlmmEUC7V7VtiDYLKsbP5rySTKLIZq1yn8lMqK83wo=",
+                "0.0.0.0/0, ::/0")), interner).getPeers().get(0);
+        final Peer b = Config.parse(new StringReader(profile("TFlmmEUC7V7VtiDYLKsbP5rySTKLIZq1yn8lMqK83wo=",
+                "::/0, 0.0.0.0/0")), interner).getPeers().get(0);
+        assertNotSame(a.getAllowedIps(), b.getAllowedIps());
+        assertEquals(a.getAllowedIps(), b.getAllowedIps());
+        final ArrayList<InetNetwork> first = new ArrayList<>(a.getAllowedIps());
+        final ArrayList<InetNetwork> second = new ArrayList<>(b.getAllowedIps());
+        assertEquals(Arrays.asList(InetNetwork.parse("0.0.0.0/0"), InetNetwork.parse("::/0")), first);
+        assertSame(first.get(0), second.get(1));
+        assertSame(first.get(1), second.get(0));
+    }
+
+    @Test
+    public void does_not_share_without_interner() throws IOException, BadConfigException {
+        final String text = profile("TFlmmEUC7V7VtiDYLKsbP5rySTKLIZq1yn8lMqK83wo=", "0.0.0.0/0");
+        final Peer a = Config.parse(new StringReader(text)).getPeers().get(0);
+        final Peer b = Config.parse(new StringReader(text)).getPeers().get(0);
+        assertNotSame(a.getPublicKey(), b.getPublicKey());
+        assertNotSame(a.getAllowedIps(), b.getAllowedIps());
+    }
+}
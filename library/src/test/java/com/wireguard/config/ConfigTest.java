@@ -5,21 +5,289 @@
 
 package com.wireguard.config;
 
+import com.wireguard.config.BadConfigException.Location;
+import com.wireguard.config.BadConfigException.Reason;
+import com.wireguard.config.BadConfigException.Section;
+import com.wireguard.crypto.Key;
+import com.wireguard.crypto.KeyFormatException;
+
 import org.junit.Test;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class ConfigTest {
+    private static final String INTERFACE_KEY = "TFlmmEUC7V7VtiDYLKsbP5rySTKLIZq1yn8lMqK83wo=";
+    private static final String PEER_KEY = "vBN7qyUTb5lJtWYJ8LhbPio1Z4RcyBPGnqFBGn6O6Qg=";
+
+    /**
+     * Parses a configuration the way {@link Config#parse} used to: by collecting the lines of
+     * each section and handing them to {@link Interface#parse} and {@link Peer#parse}.
+     */
+    private static Config parseLineByLine(final String text) throws IOException, BadConfigException {
+        final Config.Builder builder = new Config.Builder();
+        final List<String> interfaceLines = new ArrayList<>();
+        List<String> peerLines = null;
+        final BufferedReader reader = new BufferedReader(new StringReader(text));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            final int commentIndex = line.indexOf('#');
+            if (commentIndex != -1)
+                line = line.substring(0, commentIndex);
+            line = line.trim();
+            if (line.isEmpty())
+                continue;
+            if ("[Peer]".equalsIgnoreCase(line)) {
+                if (peerLines != null)
+                    builder.parsePeer(peerLines);
+                peerLines = new ArrayList<>();
+            } else if ("[Interface]".equalsIgnoreCase(line)) {
+                if (peerLines != null)
+                    builder.parsePeer(peerLines);
+                peerLines = null;
+            } else if (peerLines != null) {
+                peerLines.add(line);
+            } else {
+                interfaceLines.add(line);
+            }
+        }
+        if (peerLines != null)
+            builder.parsePeer(peerLines);
+        return builder.parseInterface(interfaceLines).build();
+    }
+
+    private static BadConfigException parseFailure(final String text) throws IOException {
+        try {
+            Config.parse(new StringReader(text));
+        } catch (final BadConfigException e) {
+            return e;
+        }
+        throw new AssertionError("Config parsing must fail in this test");
+    }
+
+    @Test
+    public void combines_interface_sections_and_keeps_peer_order() throws IOException, BadConfigException {
+        final String text = "[interface]\r\n"
+                + "  PrivateKey=" + INTERFACE_KEY + "   # trailing comment\r\n"
+                + "# a full-line comment\r"
+                + "[PEER]\n"
+                + "PublicKey = " + PEER_KEY + "\n"
+                + "AllowedIPs = 10.0.0.0/8 ,192.168.0.0/16,\t::/0\n"
+                + "Endpoint = [2001:db8::1]:51820\n"
+                + "[Interface]\n"
+                + "Address = 10.1.0.2/32, fd00::2/128\n"
+                + "ListenPort = 51820\n"
+                + "[Peer]\n"
+                + "PublicKey = " + INTERFACE_KEY + "\n"
+                + "PersistentKeepalive = 25";
+        final Config config = Config.parse(new StringReader(text));
+        assertEquals(2, config.getPeers().size());
+        assertEquals(3, config.getPeers().get(0).getAllowedIps().size());
+        assertEquals(PEER_KEY, config.getPeers().get(0).getPublicKey().toBase64());
+        assertEquals(Integer.valueOf(25), config.getPeers().get(1).getPersistentKeepalive().orElse(0));
+        assertEquals(2, config.getInterface().getAddresses().size());
+        assertEquals(Integer.valueOf(51820), config.getInterface().getListenPort().orElse(0));
+        assertEquals(parseLineByLine(text).toWgQuickString(), config.toWgQuickString());
+    }
+
+    @Test
+    public void reports_peer_errors_before_interface_errors() throws IOException {
+        final BadConfigException e = parseFailure("[Interface]\nPrivateKey = " + INTERFACE_KEY
+                + "\nMTU = big\n[Peer]\nPublicKey = " + PEER_KEY + "\nEndpoint =\n");
+        assertEquals(Section.PEER, e.getSection());
+        assertEquals(Reason.SYNTAX_ERROR, e.getReason());
+        assertEquals("Endpoint =", String.valueOf(e.getText()));
+    }
+
+    @Test
+    public void reports_first_interface_error_after_all_peers() throws IOException {
+        final BadConfigException e = parseFailure("[Interface]\nMTU = big\nListenPort = -1\n"
+                + "[Peer]\nPublicKey = " + PEER_KEY + "\n[Interface]\nPrivateKey = " + INTERFACE_KEY);
+        assertEquals(Section.INTERFACE, e.getSection());
+        assertEquals(Location.MTU, e.getLocation());
+        assertEquals(Reason.INVALID_NUMBER, e.getReason());
+        assertEquals("big", String.valueOf(e.getText()));
+    }
+
+    @Test
+    public void reports_attributes_outside_of_sections() throws IOException {
+        final BadConfigException e = parseFailure("PrivateKey = " + INTERFACE_KEY + "\n[Interface]\n");
+        assertEquals(Section.CONFIG, e.getSection());
+        assertEquals(Reason.UNKNOWN_SECTION, e.getReason());
+        assertEquals("PrivateKey = " + INTERFACE_KEY, String.valueOf(e.getText()));
+    }
+
+    @Test
+    public void reports_unknown_attribute_by_name() throws IOException {
+        final BadConfigException e = parseFailure("[Interface]\nPrivateKey = " + INTERFACE_KEY
+                + "\n[Peer]\nPublicKey = " + PEER_KEY + "\nAllowed-IPs = ::/0\n");
+        assertEquals(Reason.SYNTAX_ERROR, e.getReason());
+        final BadConfigException f = parseFailure("[Interface]\nPrivateKey = " + INTERFACE_KEY
+                + "\nTable = off\n");
+        assertEquals(Reason.UNKNOWN_ATTRIBUTE, f.getReason());
+        assertEquals("Table", String.valueOf(f.getText()));
+    }
+
+    @Test
+    public void lazy_parse_defers_peers_and_private_key() throws IOException, BadConfigException {
+        final String text = "[Interface]\nAddress = 10.1.0.2/32\nPrivateKey = " + INTERFACE_KEY
+                + "\n[Peer]\nPublicKey = " + PEER_KEY + "\nAllowedIPs = 10.0.0.0/8\n"
+                + "[Peer]\nPublicKey = " + INTERFACE_KEY + "\nEndpoint = nope\n";
+        final Config config = Config.parseLazily(new StringReader(text));
+        assertEquals(1, config.getInterface().getAddresses().size());
+        assertEquals(2, config.getPeers().size());
+        assertEquals(PEER_KEY, config.getPeers().get(0).getPublicKey().toBase64());
+        try {
+            config.getPeers().get(1);
+            fail("The second peer has an invalid endpoint");
+        } catch (final IllegalStateException e) {
+            assertEquals(Location.ENDPOINT, ((BadConfigException) e.getCause()).getLocation());
+        }
+        final Config valid = Config.parseLazily(new StringReader(text.replace("nope", "192.0.2.1:1")));
+        valid.validate();
+        assertEquals(Config.parse(new StringReader(text.replace("nope", "192.0.2.1:1"))).toWgQuickString(),
+                valid.toWgQuickString());
+        assertSame(valid.getInterface().getKeyPair(), valid.getInterface().getKeyPair());
+    }
+
+    @Test
+    public void equality_does_not_depend_on_the_parse_mode() throws IOException, BadConfigException {
+        final String text = "[Interface]\nAddress = 10.1.0.2/32\nPrivateKey = " + INTERFACE_KEY
+                + "\n[Peer]\nPublicKey = " + PEER_KEY + "\nAllowedIPs = 10.0.0.0/8\n";
+        final Config eager = Config.parse(new StringReader(text));
+        final Config lazy = Config.parseLazily(new StringReader(text));
+        for (final Config other : new Config[]{Config.parse(new StringReader(text)), lazy}) {
+            assertEquals(eager, other);
+            assertEquals(eager.hashCode(), other.hashCode());
+        }
+        lazy.validate();
+        assertEquals(eager, lazy);
+        final Config otherKey = Config.parse(new StringReader(text.replace(INTERFACE_KEY, PEER_KEY)));
+        assertNotEquals(eager.getInterface(), otherKey.getInterface());
+    }
+
+    @Test
+    public void lazy_configs_hash_and_compare_without_decoding_peers() throws IOException, BadConfigException {
+        final String text = "[Interface]\nPrivateKey = " + INTERFACE_KEY
+                + "\n[Peer]\nPublicKey = " + PEER_KEY + "\nEndpoint = nope\n";
+        final Config lazy = Config.parseLazily(new StringReader(text));
+        final Config same = Config.parseLazily(new StringReader(text));
+        final int hash = lazy.hashCode();
+        assertEquals(hash, same.hashCode());
+        assertEquals(lazy, same);
+        assertNotEquals(lazy, Config.parseLazily(new StringReader(text.replace("nope", "192.0.2.1:1"))));
+        final Config valid = Config.parse(new StringReader(text.replace("nope", "192.0.2.1:1")));
+        assertNotEquals(lazy, valid);
+        assertNotEquals(valid, lazy);
+        try {
+            lazy.getPeers().get(0);
+            fail("The peer has an invalid endpoint");
+        } catch (final IllegalStateException e) {
+            assertEquals(Location.ENDPOINT, ((BadConfigException) e.getCause()).getLocation());
+        }
+        // Hashing a valid peer gives the same result before and after decoding it.
+        final Config deferred = Config.parseLazily(new StringReader(text.replace("nope", "192.0.2.1:1")));
+        assertEquals(valid.hashCode(), deferred.hashCode());
+        deferred.getPeers().get(0);
+        assertEquals(valid, deferred);
+        assertEquals(hash, lazy.hashCode());
+    }
+
+    @Test
+    public void lazy_parse_reports_the_same_errors() throws IOException {
+        for (final String name : new String[]{"broken", "invalid-key", "invalid-number", "invalid-value",
+                "missing-attribute", "missing-section", "syntax-error", "unknown-attribute", "unknown-section"}) {
+            final String text;
+            try (final InputStream is = Objects.requireNonNull(getClass().getClassLoader()).getResourceAsStream(name + ".conf")) {
+                text = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            final BadConfigException expected = parseFailure(text);
+            BadConfigException actual = null;
+            try {
+                Config.parseLazily(new StringReader(text)).validate();
+            } catch (final BadConfigException e) {
+                actual = e;
+            }
+            assertNotNull(name, actual);
+            assertEquals(name, expected.getSection(), actual.getSection());
+            assertEquals(name, expected.getLocation(), actual.getLocation());
+            assertEquals(name, expected.getReason(), actual.getReason());
+            assertEquals(name, String.valueOf(expected.getText()), String.valueOf(actual.getText()));
+        }
+    }
+
+    @Test
+    public void splits_lists_like_the_separator_regex() {
+        assertArrayEquals(new String[]{"a", "b c", "", "d "},
+                Attribute.Companion.split("a ,b c,\t, d "));
+        assertArrayEquals(new String[]{"", "a", ""}, Attribute.Companion.split(",a,"));
+        assertArrayEquals(new String[]{""}, Attribute.Companion.split(""));
+    }
+
+    @Test
+    public void reuses_cached_serializations() throws IOException, BadConfigException {
+        final Config config = Config.parse(new StringReader("[Interface]\n"
+                + "ListenPort = 51820\n"
+                + "PrivateKey = TFlmmEUC7V7VtiDYLKsbP5rySTKLIZq1yn8lMqK83wo=\n"
+                + "[Peer]\n"
+                + "AllowedIPs = 10.0.0.0/24\n"
+                + "Endpoint = 192.0.2.1:51820\n"
+                + "PersistentKeepalive = 25\n"
+                + "PublicKey = vBN7qyUTb5lJtWYJ8LhbPio1Z4RcyBPGnqFBGn6O6Qg=\n"));
+        final Peer peer = config.getPeers().get(0);
+        assertSame(peer.toWgQuickString(), peer.toWgQuickString());
+        assertSame(peer.toWgUserspaceString(), peer.toWgUserspaceString());
+        assertSame(config.getInterface().toWgUserspaceString(), config.getInterface().toWgUserspaceString());
+        assertEquals(config.getInterface().toWgUserspaceString() + "replace_peers=true\n"
+                + peer.toWgUserspaceString(), config.toWgUserspaceString());
+        assertEquals("public_key=" + peer.getPublicKey().toHex() + "\nallowed_ip=10.0.0.0/24\n"
+                + "endpoint=192.0.2.1:51820\npersistent_keepalive_interval=25\n", peer.toWgUserspaceString());
+        assertEquals("[Interface]\n" + config.getInterface().toWgQuickString()
+                + "\n[Peer]\n" + peer.toWgQuickString(), config.toWgQuickString());
+    }
+
+    @Test
+    public void streams_one_section_at_a_time() throws IOException, BadConfigException, KeyFormatException {
+        for (final int peers : new int[]{10, 5000}) {
+            final StringBuilder text = new StringBuilder("[Interface]\n"
+                    + "PrivateKey = TFlmmEUC7V7VtiDYLKsbP5rySTKLIZq1yn8lMqK83wo=\n");
+            final byte[] publicKey = new byte[32];
+            for (int i = 0; i < peers; ++i) {
+                publicKey[0] = (byte) i;
+                publicKey[1] = (byte) (i >> 8);
+                text.append("[Peer]\nAllowedIPs = 10.").append(i >> 8).append('.').append(i & 0xff)
+                        .append(".0/24\nEndpoint = 192.0.2.1:51820\nPublicKey = ")
+                        .append(Key.fromBytes(publicKey).toBase64()).append('\n');
+            }
+            final Config config = Config.parse(new StringReader(text.toString()));
+            final ChunkRecorder wgQuick = new ChunkRecorder();
+            config.writeWgQuick(wgQuick);
+            assertEquals(config.toWgQuickString(), wgQuick.text.toString());
+            final ChunkRecorder userspace = new ChunkRecorder();
+            config.writeUserspace(userspace);
+            assertEquals(config.toWgUserspaceString(), userspace.text.toString());
+            // Nothing larger than a single section is ever built, whatever the number of peers.
+            assertTrue(wgQuick.largestChunk < 200);
+            assertTrue(userspace.largestChunk < 200);
+        }
+    }
 
     @Test(expected = BadConfigException.class)
     public void invalid_config_throws() throws IOException, BadConfigException {
@@ -46,4 +314,29 @@ public class ConfigTest {
         assertEquals("Test config's allowed IPs are 0.0.0.0/0 and ::0/0", config.getPeers().get(0).getAllowedIps(), expectedAllowedIps);
         assertEquals("Test config has one DNS server", 1, config.getInterface().getDnsServers().size());
     }
+
+    /**
+     * Collects appended text and remembers the largest piece appended at once.
+     */
+    private static final class ChunkRecorder implements Appendable {
+        int largestChunk;
+        final StringBuilder text = new StringBuilder();
+
+        @Override
+        public Appendable append(final CharSequence csq) {
+            largestChunk = Math.max(largestChunk, csq.length());
+            text.append(csq);
+            return this;
+        }
+
+        @Override
+        public Appendable append(final CharSequence csq, final int start, final int end) {
+            return append(csq.subSequence(start, end));
+        }
+
+        @Override
+        public Appendable append(final char c) {
+            return append(String.valueOf(c));
+        }
+    }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import org.junit.Test;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InetEndpointTest {
+    // The expression isHostname() used to be implemented with.
+    private static final Pattern VALID_HOSTNAME = Pattern.compile("^(?=.{1,255}$)[0-9A-Za-z](?:(?:[0-9A-Za-z]|-){0,61}[0-9A-Za-z])?(?:\\.[0-9A-Za-z](?:(?:[0-9A-Za-z]|-){0,61}[0-9A-Za-z])?)*\\.?$");
+
+    // Endpoint, host, port, and whether the host is numeric, as parsed through java.net.URI.
+    private static final Object[][] VALID = {
+            {"1.2.3.4:51820", "1.2.3.4", 51820, true},
+            {"[2001:db8::1]:443", "[2001:db8::1]", 443, true},
+            {"[::ffff:1.2.3.4]:1", "[::ffff:1.2.3.4]", 1, true},
+            {"[fe80::1%2]:1", "[fe80::1%2]", 1, true},
+            {"demo.wireguard.com:51820", "demo.wireguard.com", 51820, false},
+            {"example.com.:1", "example.com.", 1, false},
+            {"a-b.c:0", "a-b.c", 0, false},
+            {"localhost:65535", "localhost", 65535, false},
+            {"host:065535", "host", 65535, false},
+            {"123:1", "123", 1, false},
+            {"a.b1:1", "a.b1", 1, false},
+            {"x.y.z:1", "x.y.z", 1, false},
+    };
+
+    private static final String[] INVALID = {
+            "1.2.3:1", "1.2.3.256:1", "a.1b:1", "-a.com:1", "a-.com:1", "a..b:1", "a_b.com:1", "host", "host:",
+            "host:65536", "host:-1", "host:+1", "host:99999999999", "2001:db8::1:51820", "[2001:db8::1]",
+            "[1.2.3.4]:1", "[fe80::1%]:1", "[::1]x:1", "[]:1", ":1", "exa mple.com:1", "é.com:1", "host/x:1",
+            "host?:1", "host#:1", "[2001:db8::g]:1", "1.2.3.4:1:2", "host:1 ",
+    };
+
+    @Test
+    public void parses_valid_endpoints() throws ParseException {
+        for (final Object[] row : VALID) {
+            final String text = (String) row[0];
+            final InetEndpoint endpoint = InetEndpoint.parse(text);
+            assertEquals(text, row[1], endpoint.getHost());
+            assertEquals(text, row[2], endpoint.getPort());
+            assertEquals(text, row[3], endpoint.isResolved());
+            assertEquals(text, text.replace(":065535", ":65535"), endpoint.toString());
+        }
+    }
+
+    @Test
+    public void rejects_invalid_endpoints() {
+        for (final String text : INVALID) {
+            try {
+                InetEndpoint.parse(text);
+                fail(text);
+            } catch (final ParseException e) {
+                assertEquals(InetEndpoint.class, e.getParsingClass());
+            }
+        }
+    }
+
+    @Test
+    public void brackets_resolved_ipv6_hosts() {
+        assertEquals("[2001:db8::1]:51820", new InetEndpoint("2001:db8::1", true, 51820).toString());
+        assertEquals("example.com:51820", new InetEndpoint("example.com", false, 51820).toString());
+    }
+
+    @Test
+    public void validates_hostnames_like_before() {
+        final String[] samples = {"a", "a.", "a.b", "-a", "a-", "a-b", "1a", "a..b", ".a", "", ".", "a_b", "x.123",
+                "a.b.", "a.b..", "xn--bcher-kva.example", "A1-b2.C3", "é", "a\n",
+                new String(new char[63]).replace('\0', 'a') + ".com",
+                new String(new char[64]).replace('\0', 'a') + ".com",
+                new String(new char[127]).replace("\0", "a.") + "a",
+                new String(new char[128]).replace("\0", "a.") + "a"};
+        for (final String sample : samples)
+            assertEquals(sample, VALID_HOSTNAME.matcher(sample).matches(), InetAddresses.isHostname(sample));
+
+        final Random random = new Random(42);
+        final char[] alphabet = "aZ09-._:".toCharArray();
+        for (int i = 0; i < 20000; ++i) {
+            final char[] chars = new char[1 + random.nextInt(12)];
+            for (int j = 0; j < chars.length; ++j)
+                chars[j] = alphabet[random.nextInt(alphabet.length)];
+            final String sample = new String(chars);
+            assertEquals(sample, VALID_HOSTNAME.matcher(sample).matches(), InetAddresses.isHostname(sample));
+        }
+    }
+
+    @Test
+    public void parses_numeric_addresses() throws ParseException {
+        assertTrue(InetAddresses.parse("192.0.2.1") instanceof Inet4Address);
+        assertTrue(InetAddresses.parse("2001:db8::1") instanceof Inet6Address);
+        assertEquals(InetAddresses.parse("2001:db8::1"), InetAddresses.parse("[2001:db8::1]"));
+        assertTrue(InetAddresses.parse("::ffff:192.0.2.1") instanceof Inet4Address);
+        final InetAddress scoped = InetAddresses.parse("fe80::1%3");
+        assertEquals(3, ((Inet6Address) scoped).getScopeId());
+        assertNull(InetAddresses.parseNumeric("example.com"));
+        assertNull(InetAddresses.parseNumeric("[192.0.2.1]"));
+        assertNull(InetAddresses.parseNumeric("1.2.3"));
+        for (final String text : new String[]{"", "example.com", "1.2.3.4.5", "fe80::1%", "::1%a b"}) {
+            try {
+                InetAddresses.parse(text);
+                fail(text);
+            } catch (final ParseException e) {
+                assertEquals(InetAddress.class, e.getParsingClass());
+            }
+        }
+        assertFalse(InetAddresses.isZone("", 0, 0));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InetNetworkTest {
+    private static final String[] VALID = {
+            "0.0.0.0/0", "10.0.0.2/24", "192.168.1.1", "255.255.255.255/32",
+            "::/0", "::1/128", "::", "fd00::2/64", "2001:db8::1", "2001:db8:0:0:1:0:0:1/48",
+            "2001:DB8:AAAA:BBBB:CCCC:DDDD:EEEE:FFFF/127", "1:2:3:4:5:6:7::", "::2:3:4:5:6:7:8",
+            "::ffff:192.0.2.1/24", "::192.0.2.1", "64:ff9b::192.0.2.33/96", "fe80::1:0:0:0/10",
+    };
+    private static final String[] INVALID_IPV4 = {
+            "", "1", "1.2.3", "1.2.3.4.", "1.2.3.4.5", "256.0.0.1", "01.2.3.4", "1..2.3", "1.2.3.-4",
+            "1.2.3.1000", " 1.2.3.4",
+    };
+    private static final String[] INVALID_IPV6 = {
+            "", ":", ":::", "1::2::3", ":1::", "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7", "1:2:3:4:5:6:7:8::",
+            "12345::", "g::", "::1.2.3", "::1.2.3.4:5", "1:", "1:2:3:4:5:6:7:1.2.3.4",
+    };
+
+    private static InetNetwork network(final String address, final int mask) throws ParseException {
+        return InetNetwork.parse(address + '/' + mask);
+    }
+
+    @Test
+    public void parses_like_platform_parser() throws ParseException, UnknownHostException {
+        for (final String text : VALID) {
+            final int slash = text.indexOf('/');
+            final String address = slash >= 0 ? text.substring(0, slash) : text;
+            final InetAddress expected = InetAddress.getByName(address);
+            final InetNetwork network = InetNetwork.parse(text);
+            assertEquals(text, expected, network.getAddress());
+            final int mask = slash >= 0 ? Integer.parseInt(text.substring(slash + 1))
+                    : expected.getAddress().length * 8;
+            assertEquals(text, mask, network.getMask());
+            assertEquals(text, new InetNetwork(expected, mask), network);
+            assertEquals(text, new InetNetwork(expected, mask).hashCode(), network.hashCode());
+        }
+    }
+
+    @Test
+    public void rejects_malformed_addresses() {
+        final long[] words = new long[2];
+        for (final String text : INVALID_IPV4)
+            assertEquals(text, -1, InetAddresses.parseIpv4(text, 0, text.length()));
+        for (final String text : INVALID_IPV6)
+            assertFalse(text, InetAddresses.parseIpv6(text, 0, text.length(), words));
+        for (final String text : new String[]{"10.0.0.1/33", "::/129", "10.0.0.1/", "10.0.0.1/x"}) {
+            try {
+                InetNetwork.parse(text);
+                fail(text);
+            } catch (final ParseException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void formats_compressed_addresses() throws ParseException {
+        assertEquals("10.0.0.2/24", InetNetwork.parse("10.0.0.2/24").toString());
+        assertEquals("::/0", InetNetwork.parse("0:0:0:0:0:0:0:0/0").toString());
+        assertEquals("::1/128", InetNetwork.parse("::1").toString());
+        assertEquals("2001:db8::1:0:0:1/48", InetNetwork.parse("2001:db8:0:0:1:0:0:1/48").toString());
+        assertEquals("2001:db8:0:1:1:1:1:1/64", InetNetwork.parse("2001:db8::1:1:1:1:1/64").toString());
+        assertEquals("fd00::/8", InetNetwork.parse("FD00:0000::/8").toString());
+        assertEquals("1:2:3:4:5:6:7:0/128", InetNetwork.parse("1:2:3:4:5:6:7::").toString());
+        assertEquals("1:2::6:7:0/128", InetNetwork.parse("1:2:0:0:0:6:7:0").toString());
+        assertEquals("::192.0.2.1/128", InetNetwork.parse("::c000:201").toString());
+        assertEquals("192.0.2.1/32", InetNetwork.parse("::ffff:c000:201").toString());
+    }
+
+    @Test
+    public void compares_prefixes() throws ParseException {
+        final InetNetwork wide = network("10.0.0.0", 8);
+        final InetNetwork narrow = network("10.1.2.3", 24);
+        assertTrue(wide.contains(narrow));
+        assertFalse(narrow.contains(wide));
+        assertTrue(narrow.overlaps(wide));
+        assertFalse(narrow.overlaps(network("10.1.3.0", 24)));
+        assertTrue(network("0.0.0.0", 0).contains(network("255.255.255.255", 32)));
+        assertFalse(network("0.0.0.0", 0).contains(network("::", 0)));
+        assertTrue(network("2001:db8::", 32).contains(network("2001:db8:ffff::1", 128)));
+        assertFalse(network("2001:db8::", 33).contains(network("2001:db8:ffff::1", 128)));
+        assertTrue(network("2001:db8::1:2", 127).contains(network("2001:db8::1:3", 128)));
+        assertEquals(network("10.1.2.0", 24), narrow.getNetwork());
+        assertEquals(network("2001:db8::", 32), network("2001:db8:ffff::1", 32).getNetwork());
+
+        final List<InetNetwork> sorted = Arrays.asList(network("0.0.0.0", 0), network("10.0.0.0", 8),
+                network("10.0.0.0", 24), network("10.0.0.5", 24), network("10.0.1.0", 24),
+                network("192.168.0.0", 16), network("::", 0), network("fd00::", 8), network("fe80::", 10));
+        final List<InetNetwork> shuffled = new ArrayList<>(sorted);
+        Collections.shuffle(shuffled);
+        Collections.sort(shuffled);
+        assertEquals(sorted, shuffled);
+    }
+
+    @Test
+    public void builds_from_address_bits() throws ParseException {
+        assertEquals(network("192.0.2.1", 24), InetNetwork.ofIpv4(0xc0000201, 24));
+        assertEquals(network("2001:db8::1", 64), InetNetwork.ofIpv6(0x20010db800000000L, 1, 64));
+        try {
+            InetNetwork.ofIpv4(0, 33);
+            fail();
+        } catch (final IllegalArgumentException ignored) {
+        }
+    }
+}
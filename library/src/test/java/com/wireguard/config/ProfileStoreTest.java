@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import com.wireguard.crypto.Key;
+import com.wireguard.crypto.KeyPair;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProfileStoreTest {
+    private static Config profile(final KeyPair keyPair, final int peers) throws IOException, BadConfigException {
+        final StringBuilder text = new StringBuilder("[Interface]\nAddress = 10.0.0.2/24\nPrivateKey = ")
+                .append(keyPair.getPrivateKey().toBase64()).append('\n');
+        for (int i = 0; i < peers; ++i) {
+            text.append("[Peer]\nPublicKey = ").append(new KeyPair().getPublicKey().toBase64())
+                    .append("\nAllowedIPs = 10.").append(i / 256).append('.').append(i % 256).append(".0/24\n")
+                    .append("Endpoint = 192.0.2.1:").append(51820 + i).append('\n');
+        }
+        return Config.parse(new StringReader(text.toString()));
+    }
+
+    @Test
+    public void reads_profiles_by_name_and_public_key() throws IOException, BadConfigException {
+        final Path file = Files.createTempFile("profiles", ".store");
+        try {
+            final Map<String, Config> profiles = new LinkedHashMap<>();
+            final KeyPair[] keyPairs = new KeyPair[5];
+            for (int i = 0; i < keyPairs.length; ++i) {
+                keyPairs[i] = new KeyPair();
+                profiles.put("tunnel" + (keyPairs.length - i), profile(keyPairs[i], i * 10));
+            }
+            ProfileStore.write(file, profiles);
+            final ProfileStore store = ProfileStore.open(file);
+            assertEquals(profiles.size(), store.size());
+            assertEquals(Arrays.asList(profiles.keySet().toArray()), Arrays.asList(store.getNames().toArray()));
+            for (int i = 0; i < keyPairs.length; ++i) {
+                final String name = "tunnel" + (keyPairs.length - i);
+                final Config expected = profiles.get(name);
+                final Config actual = Objects.requireNonNull(store.get(name));
+                assertEquals(expected.toWgQuickString(), actual.toWgQuickString());
+                assertEquals(expected.getPeers(), actual.getPeers());
+                final Key publicKey = keyPairs[i].getPublicKey();
+                assertEquals(name, store.getName(publicKey));
+                assertEquals(expected.toWgQuickString(),
+                        Objects.requireNonNull(store.getByPublicKey(publicKey)).toWgQuickString());
+            }
+            assertFalse(store.contains("missing"));
+            assertNull(store.get("missing"));
+            assertNull(store.getByPublicKey(new KeyPair().getPublicKey()));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void decodes_peers_only_when_accessed() throws IOException, BadConfigException {
+        final Path file = Files.createTempFile("profiles", ".store");
+        try {
+            final Map<String, Config> profiles = new LinkedHashMap<>();
+            profiles.put("lazy", profile(new KeyPair(), 3));
+            ProfileStore.write(file, profiles);
+            // Corrupt the last peer's endpoint flag; everything before it must still decode.
+            final long size = Files.size(file);
+            final byte[] contents = Files.readAllBytes(file);
+            final int lastRecord = lastPeerRecordOffset(contents);
+            try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xff}), lastRecord + 4 + 32);
+            }
+            assertEquals(size, Files.size(file));
+            final ProfileStore store = ProfileStore.open(file);
+            final Config config = Objects.requireNonNull(store.get("lazy"));
+            final List<Peer> peers = config.getPeers();
+            assertEquals(3, peers.size());
+            assertEquals(profiles.get("lazy").getPeers().get(0), peers.get(0));
+            assertEquals(profiles.get("lazy").getPeers().get(1), peers.get(1));
+            try {
+                peers.get(2);
+                fail("Corrupt peers must fail when they are decoded");
+            } catch (final IllegalStateException e) {
+                assertTrue(e.getCause() instanceof IOException || e.getCause() instanceof BadConfigException);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejects_foreign_files() throws IOException {
+        final Path file = Files.createTempFile("profiles", ".store");
+        try {
+            Files.write(file, "[Interface]\n".getBytes());
+            ProfileStore.open(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static int lastPeerRecordOffset(final byte[] contents) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(contents);
+        buffer.position(9);
+        BinaryConfig.readString(buffer);
+        BinaryConfig.readKey(buffer);
+        final int offset = buffer.getInt();
+        final int length = buffer.getInt();
+        // The last peer record is the one whose length prefix reaches the end of the profile.
+        int record = -1;
+        for (int i = offset; i + 4 < offset + length; ++i) {
+            final int candidate = ByteBuffer.wrap(contents, i, 4).getInt();
+            if (candidate > 32 && i + 4 + candidate == offset + length)
+                record = i;
+        }
+        if (record < 0)
+            throw new IOException("No peer record found");
+        return record;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import com.wireguard.crypto.KeyPair;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RouteCompilerTest {
+    private static List<InetNetwork> networks(final String... texts) throws ParseException {
+        final List<InetNetwork> networks = new ArrayList<>();
+        for (final String text : texts)
+            networks.add(InetNetwork.parse(text));
+        return networks;
+    }
+
+    private static boolean covers(final List<InetNetwork> networks, final int address) {
+        for (final InetNetwork network : networks) {
+            if (network.contains(InetNetwork.ofIpv4(address, 32)))
+                return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void merges_and_drops_covered_networks() throws ParseException {
+        assertEquals(networks("10.0.0.0/23"),
+                RouteCompiler.compile(networks("10.0.1.0/24", "10.0.0.128/25", "10.0.0.0/25", "10.0.1.7/32")));
+        assertEquals(networks("0.0.0.0/0", "::/0"),
+                RouteCompiler.compile(networks("::/1", "8000::/1", "128.0.0.0/1", "0.0.0.0/1", "10.0.0.0/8")));
+        assertEquals(networks("10.0.0.0/24", "10.0.2.0/24"),
+                RouteCompiler.compile(networks("10.0.2.9/24", "10.0.0.1/24")));
+        assertEquals(Collections.emptyList(), RouteCompiler.compile(Collections.emptyList()));
+    }
+
+    @Test
+    public void subtracts_excluded_networks() throws ParseException {
+        assertEquals(networks("0.0.0.0/5", "8.0.0.0/7", "11.0.0.0/8", "12.0.0.0/6", "16.0.0.0/4", "32.0.0.0/3",
+                        "64.0.0.0/2", "128.0.0.0/1", "::/0"),
+                RouteCompiler.compile(networks("0.0.0.0/0", "::/0"), networks("10.0.0.0/8")));
+        assertEquals(networks("192.168.0.0/24", "192.168.1.0/25", "192.168.1.192/26"),
+                RouteCompiler.compile(networks("192.168.0.0/23"), networks("192.168.1.128/26", "172.16.0.0/12")));
+        assertEquals(Collections.emptyList(),
+                RouteCompiler.compile(networks("10.1.0.0/16"), networks("10.0.0.0/8")));
+    }
+
+    @Test
+    public void compiles_exactly_the_same_addresses() {
+        final Random random = new Random(12);
+        for (int round = 0; round < 200; ++round) {
+            final List<InetNetwork> included = new ArrayList<>();
+            final List<InetNetwork> excluded = new ArrayList<>();
+            for (int i = random.nextInt(8); i >= 0; --i)
+                included.add(InetNetwork.ofIpv4(random.nextInt(256), 24 + random.nextInt(9)));
+            for (int i = random.nextInt(4); i >= 0; --i)
+                excluded.add(InetNetwork.ofIpv4(random.nextInt(256), 25 + random.nextInt(8)));
+            final List<InetNetwork> routes = RouteCompiler.compile(included, excluded);
+            for (int address = 0; address < 256; ++address)
+                assertEquals(covers(included, address) && !covers(excluded, address), covers(routes, address));
+            for (int i = 1; i < routes.size(); ++i) {
+                final InetNetwork previous = routes.get(i - 1);
+                final InetNetwork route = routes.get(i);
+                assertTrue(previous.compareTo(route) < 0 && !previous.overlaps(route));
+                // Adjacent halves of one network would have been merged.
+                assertTrue(previous.getMask() != route.getMask() || route.getMask() == 0
+                        || !InetNetwork.ofIpv4((int) previous.getLow(), previous.getMask() - 1).getNetwork()
+                        .contains(route));
+            }
+        }
+    }
+
+    @Test
+    public void caches_routes_per_config() throws ParseException, BadConfigException {
+        final Config config = new Config.Builder()
+                .setInterface(new Interface.Builder().setKeyPair(new KeyPair()).build())
+                .addPeer(new Peer.Builder().setPublicKey(new KeyPair().getPublicKey())
+                        .parseAllowedIPs("10.0.0.0/25, 10.0.0.128/25").build())
+                .build();
+        assertEquals(Arrays.asList(InetNetwork.parse("10.0.0.0/24")), config.getRoutes());
+        assertSame(config.getRoutes(), config.getRoutes());
+    }
+}
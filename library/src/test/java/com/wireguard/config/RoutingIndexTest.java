@@ -0,0 +1,160 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.config;
+
+import com.wireguard.crypto.Key;
+import com.wireguard.crypto.KeyPair;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class RoutingIndexTest {
+    private static final Interface INTERFACE;
+
+    static {
+        try {
+            INTERFACE = new Interface.Builder().setKeyPair(new KeyPair()).build();
+        } catch (final BadConfigException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static Config config(final List<Peer> peers) throws BadConfigException {
+        return new Config.Builder().setInterface(INTERFACE).addPeers(peers).build();
+    }
+
+    private static Peer peer(final Key key, final String allowedIps) throws BadConfigException {
+        return new Peer.Builder().setPublicKey(key).parseAllowedIPs(allowedIps).build();
+    }
+
+    /**
+     * Finds the owning peer the slow way, by scanning every allowed IP of every peer.
+     */
+    private static Peer scan(final Config config, final InetNetwork host) {
+        Peer match = null;
+        int longest = -1;
+        for (final Peer peer : config.getPeers()) {
+            for (final InetNetwork network : peer.getAllowedIps()) {
+                if (network.getMask() >= longest && network.contains(host)) {
+                    match = peer;
+                    longest = network.getMask();
+                }
+            }
+        }
+        return match;
+    }
+
+    private static String randomNetwork(final Random random) {
+        if (random.nextInt(4) == 0) {
+            return "fd00:" + Integer.toHexString(random.nextInt(4)) + "::" + Integer.toHexString(random.nextInt(8))
+                    + '/' + (16 + random.nextInt(113));
+        }
+        return "10." + random.nextInt(4) + '.' + random.nextInt(4) + '.' + random.nextInt(8) + '/' + random.nextInt(33);
+    }
+
+    private static Peer randomPeer(final Key key, final Random random) throws BadConfigException {
+        final StringBuilder allowedIps = new StringBuilder(randomNetwork(random));
+        for (int i = random.nextInt(3); i > 0; --i)
+            allowedIps.append(", ").append(randomNetwork(random));
+        return peer(key, allowedIps.toString());
+    }
+
+    private static void assertSameRoutes(final Config config, final RoutingIndex index, final Random random) {
+        for (int i = 0; i < 200; ++i) {
+            final InetNetwork host;
+            if (random.nextBoolean())
+                host = InetNetwork.ofIpv4(0x0a000000 | random.nextInt(4) << 16 | random.nextInt(4) << 8 | random.nextInt(8), 32);
+            else
+                host = InetNetwork.ofIpv6(0xfd00000000000000L | (long) random.nextInt(4) << 32, random.nextInt(8), 128);
+            final Peer expected = scan(config, host);
+            final Peer actual = host.isIpv6() ? index.lookupIpv6(host.getHigh(), host.getLow())
+                    : index.lookupIpv4((int) host.getLow());
+            assertEquals(host.toString(), expected, actual);
+        }
+    }
+
+    @Test
+    public void finds_longest_prefix() throws BadConfigException, UnknownHostException {
+        final Peer everything = peer(new KeyPair().getPublicKey(), "0.0.0.0/0, ::/0");
+        final Peer office = peer(new KeyPair().getPublicKey(), "10.0.0.0/8, fd00::/8");
+        final Peer server = peer(new KeyPair().getPublicKey(), "10.1.2.3/32, fd00::1/128");
+        final Peer lab = peer(new KeyPair().getPublicKey(), "10.1.0.0/16");
+        final List<Peer> peers = new ArrayList<>();
+        peers.add(everything);
+        peers.add(office);
+        peers.add(server);
+        peers.add(lab);
+        final RoutingIndex index = RoutingIndex.build(config(peers));
+        assertEquals(everything, index.lookup(InetAddress.getByName("192.0.2.1")).get());
+        assertEquals(office, index.lookup(InetAddress.getByName("10.200.0.1")).get());
+        assertEquals(lab, index.lookup(InetAddress.getByName("10.1.2.4")).get());
+        assertEquals(server, index.lookup(InetAddress.getByName("10.1.2.3")).get());
+        assertEquals(everything, index.lookup(InetAddress.getByName("2001:db8::1")).get());
+        assertEquals(office, index.lookup(InetAddress.getByName("fd00::2")).get());
+        assertEquals(server, index.lookup(InetAddress.getByName("fd00::1")).get());
+
+        final RoutingIndex narrower = index.update(config(peers.subList(1, 4)));
+        assertFalse(narrower.lookup(InetAddress.getByName("192.0.2.1")).isPresent());
+        assertNull(narrower.lookupIpv6(0x20010db800000000L, 1));
+        assertEquals(server, narrower.lookupIpv4(0x0a010203));
+        assertFalse(RoutingIndex.empty().lookup(InetAddress.getByName("10.1.2.3")).isPresent());
+    }
+
+    @Test
+    public void last_peer_wins_shared_prefix() throws BadConfigException {
+        final Peer first = peer(new KeyPair().getPublicKey(), "10.0.0.0/24");
+        final Peer second = peer(new KeyPair().getPublicKey(), "10.0.0.0/24, 10.0.0.128/25");
+        final List<Peer> peers = new ArrayList<>();
+        peers.add(first);
+        peers.add(second);
+        final RoutingIndex index = RoutingIndex.build(config(peers));
+        assertEquals(second, index.lookupIpv4(0x0a000001));
+        final List<Peer> withoutSecond = new ArrayList<>();
+        withoutSecond.add(first);
+        assertEquals(first, index.update(config(withoutSecond)).lookupIpv4(0x0a000001));
+    }
+
+    @Test
+    public void updates_match_fresh_builds() throws BadConfigException {
+        final Random random = new Random(7);
+        final Key[] keys = new Key[12];
+        for (int i = 0; i < keys.length; ++i)
+            keys[i] = new KeyPair().getPublicKey();
+        List<Peer> peers = new ArrayList<>();
+        Config config = config(peers);
+        RoutingIndex index = RoutingIndex.build(config);
+        for (int round = 0; round < 300; ++round) {
+            final List<Peer> next = new ArrayList<>();
+            for (final Key key : keys) {
+                Peer current = null;
+                for (final Peer peer : peers) {
+                    if (peer.getPublicKey().equals(key))
+                        current = peer;
+                }
+                final int action = random.nextInt(6);
+                if (action == 0)
+                    continue;
+                if (current == null || action == 1)
+                    current = randomPeer(key, random);
+                next.add(current);
+            }
+            peers = next;
+            config = config(peers);
+            index = index.update(config);
+            assertEquals(peers.size(), index.getPeers().size());
+            assertSameRoutes(config, index, random);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.crypto;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import androidx.annotation.Nullable;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class Curve25519Test {
+    private static byte[] bytes(final String hex) throws KeyFormatException {
+        return Key.fromHex(hex).getBytes();
+    }
+
+    /**
+     * Evaluates the curve with both implementations, checking that they agree.
+     */
+    private static byte[] eval(final byte[] privateKey, @Nullable final byte[] publicKey) {
+        final byte[] expected = new byte[32];
+        final byte[] actual = new byte[34];
+        Curve25519.evalRadix26(expected, 0, privateKey, publicKey);
+        Curve25519Radix51.eval(actual, 1, privateKey, publicKey);
+        assertArrayEquals(expected, Arrays.copyOfRange(actual, 1, 33));
+        assertEquals(0, actual[0]);
+        assertEquals(0, actual[33]);
+        return expected;
+    }
+
+    private static String hex(final byte[] bytes) {
+        final StringBuilder sb = new StringBuilder();
+        for (final byte b : bytes)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    @Test
+    public void implementations_agree_on_random_and_edge_inputs() throws KeyFormatException {
+        final Random random = new Random(25519);
+        final byte[] privateKey = new byte[32];
+        final byte[] publicKey = new byte[32];
+        for (int i = 0; i < 1000; ++i) {
+            random.nextBytes(privateKey);
+            random.nextBytes(publicKey);
+            eval(privateKey, publicKey);
+            eval(privateKey, null);
+        }
+        // Zero, one, p - 1, p, p + 1, 2^255 - 1 and 2^256 - 1 as little-endian public keys.
+        final String[] edges = {
+                "0000000000000000000000000000000000000000000000000000000000000000",
+                "0100000000000000000000000000000000000000000000000000000000000000",
+                "ecffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff7f",
+                "edffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff7f",
+                "eeffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff7f",
+                "ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff7f",
+                "ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff",
+        };
+        for (final String edge : edges)
+            eval(privateKey, bytes(edge));
+        assertEquals(hex(new byte[32]), hex(eval(privateKey, bytes(edges[0]))));
+        // p is zero modulo p, and 2^256 - 1 is 2^255 - 1 once its top bit is ignored.
+        assertEquals(hex(new byte[32]), hex(eval(privateKey, bytes(edges[3]))));
+        assertEquals(hex(eval(privateKey, bytes(edges[5]))), hex(eval(privateKey, bytes(edges[6]))));
+    }
+
+    @Test
+    public void rfc7748_diffie_hellman() throws KeyFormatException {
+        final byte[] alicePrivate = bytes("77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a");
+        final byte[] bobPrivate = bytes("5dab087e624a8a4b79e17f8b83800ee66f3bb1292618b6fd1c2f8b27ff88e0eb");
+        final byte[] alicePublic = eval(alicePrivate, null);
+        final byte[] bobPublic = eval(bobPrivate, null);
+        assertEquals("8520f0098930a754748b7ddcb43ef75a0dbf3a0d26381af4eba4a98eaa9b4e6a", hex(alicePublic));
+        assertEquals("de9edb7d7b7dc1b4d35b61c2ece435373f8343c85b78674dadfc7e146f882b4f", hex(bobPublic));
+        final String shared = "4a5d9d5ba4ce2de1728e3bf480350f25e07e21c947d19e3376f09b3c1e161742";
+        assertEquals(shared, hex(eval(alicePrivate, bobPublic)));
+        assertEquals(shared, hex(eval(bobPrivate, alicePublic)));
+        assertEquals(hex(alicePublic), new KeyPair(Key.fromBytes(alicePrivate)).getPublicKey().toHex());
+    }
+
+    @Test
+    public void rfc7748_scalar_multiplication() throws KeyFormatException {
+        assertEquals("c3da55379de9c6908e94ea4df28d084f32eccf03491c71f754b4075577a28552",
+                hex(eval(bytes("a546e36bf0527c9d3b16154b82465edd62144c0ac1fc5a18506a2244ba449ac4"),
+                        bytes("e6db6867583030db3594c1a424b15f7c726624ec26b3353b10a903a6d0ab1c4c"))));
+        // The top bit of this public key is set and must be ignored.
+        assertEquals("95cbde9476e8907d7aade45cb4b873f88b595a68799fa152e6f8f7647aac7957",
+                hex(eval(bytes("4b66e9d4d1b4673c5ad22691957d6af5c11b6421e0ea01d42ca4169e7918ba0d"),
+                        bytes("e5210f12786811d3f4b7959d0538ae2c31dbe7106fc03c3efc4cd549c715a493"))));
+
+        // The iterated test: k and u start as the base point, then u takes the old k and k the
+        // result. The one million iteration vector is left out as it takes too long.
+        byte[] k = bytes("0900000000000000000000000000000000000000000000000000000000000000");
+        byte[] u = k.clone();
+        for (int i = 1; i <= 1000; ++i) {
+            final byte[] result = eval(k, u);
+            u = k;
+            k = result;
+            if (i == 1)
+                assertEquals("422c8e7a6227d7bca1350b3e2bb7279f7897b87bb6854b783c60e80311ae3079", hex(k));
+        }
+        assertEquals("684cf59ba83309552800ef566f2f4d3c1c3887c49360e3875f2eb94d99532c51", hex(k));
+        assertTrue(Curve25519Radix51.VERIFIED);
+    }
+}
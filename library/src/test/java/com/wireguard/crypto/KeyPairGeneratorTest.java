@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.crypto;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KeyPairGeneratorTest {
+    private static void assertValid(final KeyPair keyPair) {
+        final byte[] privateKey = keyPair.getPrivateKey().getBytes();
+        assertEquals(0, privateKey[0] & 7);
+        assertEquals(0x40, privateKey[31] & 0xC0);
+        assertEquals(Key.generatePublicKey(keyPair.getPrivateKey()), keyPair.getPublicKey());
+    }
+
+    @Test
+    public void generates_distinct_valid_key_pairs_in_parallel() {
+        final List<KeyPair> keyPairs = KeyPairGenerator.generate(257, 4);
+        assertEquals(257, keyPairs.size());
+        final Set<Key> privateKeys = new HashSet<>();
+        for (final KeyPair keyPair : keyPairs) {
+            assertValid(keyPair);
+            privateKeys.add(keyPair.getPrivateKey());
+        }
+        assertEquals(257, privateKeys.size());
+        assertTrue(KeyPairGenerator.generate(0).isEmpty());
+    }
+
+    @Test
+    public void pool_is_refilled_and_never_repeats_key_pairs() {
+        final List<Runnable> refills = new ArrayList<>();
+        try (final KeyPairGenerator generator = new KeyPairGenerator(4, refills::add)) {
+            assertEquals(1, refills.size());
+            refills.remove(0).run();
+            assertEquals(4, generator.getAvailable());
+
+            final Set<Key> privateKeys = new HashSet<>();
+            for (int i = 0; i < 6; ++i) {
+                final KeyPair keyPair = generator.next();
+                assertValid(keyPair);
+                privateKeys.add(keyPair.getPrivateKey());
+            }
+            // Four key pairs came from the pool, the other two were generated on demand.
+            assertEquals(6, privateKeys.size());
+            assertEquals(0, generator.getAvailable());
+            assertEquals(1, refills.size());
+            refills.remove(0).run();
+            assertEquals(4, generator.getAvailable());
+        }
+    }
+
+    @Test
+    public void closed_generator_drops_its_pool_but_still_generates() {
+        final List<Runnable> refills = new ArrayList<>();
+        final KeyPairGenerator generator = new KeyPairGenerator(4, refills::add);
+        refills.remove(0).run();
+        assertEquals(4, generator.getAvailable());
+
+        generator.close();
+        assertEquals(0, generator.getAvailable());
+        assertValid(generator.next());
+        assertTrue(refills.isEmpty());
+    }
+}
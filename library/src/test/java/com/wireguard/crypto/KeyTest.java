@@ -0,0 +1,135 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.crypto;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Base64;
+import java.util.Random;
+
+import static com.wireguard.util.Allocations.assertAllocationFree;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KeyTest {
+    private static final int ITERATIONS = 10_000;
+
+    private static void assertInvalid(final String text, final KeyFormatException.Type type) {
+        try {
+            Key.fromBase64(text);
+            fail(text);
+        } catch (final KeyFormatException e) {
+            assertEquals(text, type, e.getType());
+        }
+    }
+
+    private static String hex(final byte[] bytes) {
+        final StringBuilder sb = new StringBuilder();
+        for (final byte b : bytes)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    @Test
+    public void codecs_agree_with_reference_encodings() throws KeyFormatException {
+        final Random random = new Random(16);
+        final byte[] bytes = new byte[32];
+        for (int i = 0; i < 1000; ++i) {
+            random.nextBytes(bytes);
+            final Key key = Key.fromBytes(bytes);
+            final String base64 = Base64.getEncoder().encodeToString(bytes);
+            final String hex = hex(bytes);
+            assertEquals(base64, key.toBase64());
+            assertEquals(hex, key.toHex());
+
+            final String framed = "key=" + hex + ";";
+            assertEquals(key, Key.fromHex(framed, 4, 64));
+            assertEquals(key, Key.fromHex(("x" + hex.toUpperCase()).toCharArray(), 1, 64));
+            assertEquals(key, Key.fromBase64(new StringBuilder("  ").append(base64), 2, 44));
+            assertEquals(key, Key.fromBase64(base64.toCharArray(), 0, 44));
+            assertEquals(key, Key.fromBytes(ByteBuffer.wrap(bytes)));
+
+            final byte[] decoded = new byte[34];
+            Key.decodeBase64(CharBuffer.wrap(base64), 0, 44, decoded, 2);
+            assertTrue(key.equalsBytes(decoded, 2));
+            Key.decodeHex(hex, 0, 64, decoded, 1);
+            assertTrue(key.equalsBytes(decoded, 1));
+            assertFalse(key.equalsBytes(decoded, 2));
+
+            final char[] chars = new char[66];
+            key.toHex(chars, 1);
+            assertEquals(hex, new String(chars, 1, 64));
+            key.toBase64(chars, 0);
+            assertEquals(base64, new String(chars, 0, 44));
+            final CharBuffer buffer = CharBuffer.allocate(64);
+            key.toBase64(buffer);
+            assertEquals(base64, ((CharBuffer) buffer.flip()).toString());
+            final StringBuilder sb = new StringBuilder("public_key=");
+            key.toHex(sb);
+            assertEquals("public_key=" + hex, sb.toString());
+        }
+    }
+
+    @Test
+    public void rejects_malformed_keys() {
+        final String valid = "TFlmmEUC7V7VtiDYLKsbP5rySTKLIZq1yn8lMqK83wo=";
+        assertInvalid(valid.substring(1), KeyFormatException.Type.LENGTH);
+        assertInvalid(valid.replace('=', 'A'), KeyFormatException.Type.LENGTH);
+        assertInvalid(valid.replace('T', '*'), KeyFormatException.Type.CONTENTS);
+        // The last character carries two bits that do not belong to the key and must be zero.
+        assertInvalid(valid.replace("wo=", "wp="), KeyFormatException.Type.CONTENTS);
+        try {
+            Key.fromHex("zz" + new String(new char[62]).replace('\0', '0'));
+            fail();
+        } catch (final KeyFormatException e) {
+            assertEquals(KeyFormatException.Type.CONTENTS, e.getType());
+        }
+        try {
+            Key.fromBytes(ByteBuffer.allocate(31));
+            fail();
+        } catch (final KeyFormatException e) {
+            assertEquals(KeyFormatException.Type.LENGTH, e.getType());
+        }
+        assertFalse(Key.generatePrivateKey().equalsBytes(ByteBuffer.allocate(31)));
+    }
+
+    @Test
+    public void buffer_codecs_do_not_allocate() throws KeyFormatException {
+        final Key key = Key.generatePrivateKey();
+        final String base64 = key.toBase64();
+        final String line = "public_key=" + key.toHex();
+        final byte[] bytes = new byte[32];
+        final char[] chars = new char[64];
+        final StringBuilder sb = new StringBuilder(64);
+        final CharBuffer charBuffer = CharBuffer.allocate(64);
+        final ByteBuffer byteBuffer = ByteBuffer.allocate(32);
+        assertAllocationFree("decodeBase64", ITERATIONS, () -> Key.decodeBase64(base64, 0, 44, bytes, 0));
+        assertAllocationFree("decodeHex", ITERATIONS, () -> Key.decodeHex(line, 11, 64, bytes, 0));
+        assertAllocationFree("equalsBytes", ITERATIONS, () -> assertTrue(key.equalsBytes(bytes, 0)));
+        assertAllocationFree("getBytes", ITERATIONS, () -> key.getBytes(bytes, 0));
+        assertAllocationFree("toBase64", ITERATIONS, () -> key.toBase64(chars, 0));
+        assertAllocationFree("toHex", ITERATIONS, () -> key.toHex(chars, 0));
+        assertAllocationFree("toHex(StringBuilder)", ITERATIONS, () -> {
+            sb.setLength(0);
+            key.toHex(sb);
+        });
+        assertAllocationFree("toBase64(CharBuffer)", ITERATIONS, () -> {
+            charBuffer.clear();
+            key.toBase64(charBuffer);
+        });
+        assertAllocationFree("getBytes(ByteBuffer)", ITERATIONS, () -> {
+            byteBuffer.clear();
+            key.getBytes(byteBuffer);
+            byteBuffer.flip();
+            assertTrue(key.equalsBytes(byteBuffer));
+        });
+    }
+}
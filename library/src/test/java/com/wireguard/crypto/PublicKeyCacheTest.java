@@ -0,0 +1,44 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.crypto;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PublicKeyCacheTest {
+    @After
+    public void tearDown() {
+        PublicKeyCache.disable();
+    }
+
+    @Test
+    public void public_keys_are_derived_lazily_and_cached() {
+        PublicKeyCache.enable(2);
+        final Key first = Key.generatePrivateKey();
+        final Key second = Key.generatePrivateKey();
+        final Key third = Key.generatePrivateKey();
+
+        final KeyPair keyPair = new KeyPair(first);
+        assertEquals(0, PublicKeyCache.size());
+        assertEquals(Key.generatePublicKey(first), keyPair.getPublicKey());
+        assertEquals(1, PublicKeyCache.size());
+        assertEquals(keyPair.getPublicKey(), new KeyPair(first).getPublicKey());
+        assertEquals(1, PublicKeyCache.size());
+
+        assertEquals(Key.generatePublicKey(second), new KeyPair(second).getPublicKey());
+        assertEquals(Key.generatePublicKey(third), new KeyPair(third).getPublicKey());
+        assertEquals(2, PublicKeyCache.size());
+        // The first key was evicted, which must not affect the key pairs that used it.
+        assertEquals(Key.generatePublicKey(first), keyPair.getPublicKey());
+        assertEquals(Key.generatePublicKey(first), new KeyPair(first).getPublicKey());
+
+        PublicKeyCache.disable();
+        assertEquals(0, PublicKeyCache.size());
+        assertEquals(Key.generatePublicKey(second), new KeyPair(second).getPublicKey());
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.util;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Assertions about the memory that code allocates on the calling thread.
+ */
+public final class Allocations {
+    private Allocations() {
+        // Prevent instantiation.
+    }
+
+    private static long allocatedBytes() {
+        final com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Asserts that running {@code operation} many times allocates (next to) nothing, after giving
+     * the JIT compiler a chance to compile it.
+     *
+     * @param name       what the operation is, for the failure message
+     * @param iterations how many times to run the operation while measuring
+     * @param operation  the operation
+     */
+    public static <E extends Exception> void assertAllocationFree(final String name, final int iterations,
+                                                                  final Operation<E> operation) throws E {
+        for (int i = 0; i < iterations * 2; ++i)
+            operation.run();
+        final long before = allocatedBytes();
+        for (int i = 0; i < iterations; ++i)
+            operation.run();
+        final long allocated = allocatedBytes() - before;
+        // Reading the counter itself may allocate a little, but far less than a byte per call.
+        assertTrue(name + " allocated " + allocated + " bytes", allocated < iterations);
+    }
+
+    @FunctionalInterface
+    public interface Operation<E extends Exception> {
+        void run() throws E;
+    }
+}
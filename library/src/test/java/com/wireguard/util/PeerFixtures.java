@@ -0,0 +1,85 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.wireguard.util;
+
+import com.wireguard.crypto.Key;
+import com.wireguard.crypto.KeyPair;
+
+/**
+ * Peers, and the userspace API output that wireguard-go prints for them, for statistics tests.
+ */
+public final class PeerFixtures {
+    private PeerFixtures() {
+        // Prevent instantiation.
+    }
+
+    /**
+     * @param count how many keys to generate
+     * @return that many distinct public keys
+     */
+    public static Key[] keys(final int count) {
+        final Key[] keys = new Key[count];
+        for (int i = 0; i < count; ++i)
+            keys[i] = new KeyPair().getPublicKey();
+        return keys;
+    }
+
+    /**
+     * Returns the output of a userspace API get operation on an interface with some peers.
+     *
+     * @param peers the peer sections, as returned by {@link #uapiPeer}
+     * @return the output, including the interface attributes and the final errno
+     */
+    public static String uapi(final String... peers) {
+        final StringBuilder sb = new StringBuilder("listen_port=51820\n");
+        for (final String peer : peers)
+            sb.append(peer);
+        return sb.append("errno=0\n").toString();
+    }
+
+    /**
+     * Returns the output of a userspace API get operation in which every peer has the same
+     * counters: {@code counter} bytes received, twice as many sent, and a handshake
+     * {@code counter} seconds after the epoch.
+     */
+    public static String uapi(final Key[] peers, final long counter) {
+        final String[] sections = new String[peers.length];
+        for (int i = 0; i < peers.length; ++i)
+            sections[i] = uapiPeer(peers[i], counter, counter * 2, counter);
+        return uapi(sections);
+    }
+
+    /**
+     * Returns the output of a userspace API get operation in which peer {@code i} has the given
+     * counters, and a handshake {@code i + 1} seconds after the epoch.
+     */
+    public static String uapi(final Key[] peers, final long[] rxBytes, final long[] txBytes) {
+        final String[] sections = new String[peers.length];
+        for (int i = 0; i < peers.length; ++i)
+            sections[i] = uapiPeer(peers[i], rxBytes[i], txBytes[i], i + 1);
+        return uapi(sections);
+    }
+
+    /**
+     * Returns the section of userspace API output describing one peer.
+     *
+     * @param peer         the public key of the peer
+     * @param rxBytes      the bytes received from the peer
+     * @param txBytes      the bytes sent to the peer
+     * @param handshakeSec the time of the latest handshake, in seconds since the epoch, or zero
+     * @return the section, one attribute per line
+     */
+    public static String uapiPeer(final Key peer, final long rxBytes, final long txBytes,
+                                  final long handshakeSec) {
+        return "public_key=" + peer.toHex() + '\n'
+                + "endpoint=192.0.2.1:51820\n"
+                + "last_handshake_time_sec=" + handshakeSec + '\n'
+                + "last_handshake_time_nsec=0\n"
+                + "rx_bytes=" + rxBytes + '\n'
+                + "tx_bytes=" + txBytes + '\n'
+                + "allowed_ip=10.0.0.1/32\n";
+    }
+}
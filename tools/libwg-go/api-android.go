@@ -18,6 +18,7 @@ import (
 	"runtime"
 	"runtime/debug"
 	"strings"
+	"time"
 	"unsafe"
 
 	"golang.org/x/sys/unix"
@@ -75,8 +76,13 @@ func init() {
 //export wgTurnOn
 func wgTurnOn(interfaceName string, tunFd int32, settings string) int32 {
 	tag := cstring("WireGuard/GoBackend/" + interfaceName)
+	events := newEventWatcher()
+	verbose := AndroidLogger{level: C.ANDROID_LOG_DEBUG, tag: tag}
 	logger := &device.Logger{
-		Verbosef: AndroidLogger{level: C.ANDROID_LOG_DEBUG, tag: tag}.Printf,
+		Verbosef: func(format string, args ...interface{}) {
+			verbose.Printf(format, args...)
+			events.notice(format)
+		},
 		Errorf:   AndroidLogger{level: C.ANDROID_LOG_ERROR, tag: tag}.Printf,
 	}
 
@@ -89,6 +95,7 @@ func wgTurnOn(interfaceName string, tunFd int32, settings string) int32 {
 
 	logger.Verbosef("Attaching to interface %v", name)
 	device := device.NewDevice(tun, conn.NewStdNetBind(), logger)
+	events.device = device
 
 	err = device.IpcSet(settings)
 	if err != nil {
@@ -143,6 +150,7 @@ func wgTurnOn(interfaceName string, tunFd int32, settings string) int32 {
 		return -1
 	}
 	tunnelHandles[i] = TunnelHandle{device: device, uapi: uapi}
+	registerEventWatcher(i, events)
 	return i
 }
 
@@ -153,6 +161,10 @@ func wgTurnOff(tunnelHandle int32) {
 		return
 	}
 	delete(tunnelHandles, tunnelHandle)
+	closeEventWatcher(tunnelHandle)
+	if stats := unregisterStatsPublisher(tunnelHandle); stats != nil {
+		stats.close()
+	}
 	if handle.uapi != nil {
 		handle.uapi.Close()
 	}
@@ -206,6 +218,40 @@ func wgGetConfig(tunnelHandle int32) *C.char {
 	return C.CString(settings)
 }
 
+//export wgSetConfig
+func wgSetConfig(tunnelHandle int32, settings string) int32 {
+	handle, ok := tunnelHandles[tunnelHandle]
+	if !ok {
+		return -1
+	}
+	err := handle.device.IpcSet(settings)
+	if err != nil {
+		return -1
+	}
+	return 0
+}
+
+// wgStartStatistics keeps the publisher in a map of its own, because GoBackend may already be
+// reading tunnelHandles through wgGetConfig on another thread, and the map must not be written
+// meanwhile.
+//
+//export wgStartStatistics
+func wgStartStatistics(tunnelHandle int32, block unsafe.Pointer, size int64, intervalMillis int32) int32 {
+	handle, ok := tunnelHandles[tunnelHandle]
+	if !ok {
+		return -1
+	}
+	stats := startStatsPublisher(handle.device, block, size, time.Duration(intervalMillis)*time.Millisecond)
+	if stats == nil {
+		return -1
+	}
+	if !registerStatsPublisher(tunnelHandle, stats) {
+		stats.close()
+		return -1
+	}
+	return 0
+}
+
 //export wgVersion
 func wgVersion() *C.char {
 	info, ok := debug.ReadBuildInfo()
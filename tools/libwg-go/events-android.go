@@ -0,0 +1,371 @@
+/* SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ */
+
+package main
+
+import (
+	"encoding/hex"
+	"strconv"
+	"strings"
+	"sync"
+	"time"
+	"unsafe"
+
+	"golang.zx2c4.com/wireguard/device"
+)
+
+// Layout of the records read by PeerEvent.java, in native byte order.
+const (
+	eventHandshakeCompleted   = 1
+	eventEndpointChanged      = 2
+	eventPeerStale            = 3
+	eventRecordSize           = 128
+	eventOffsetType           = 0
+	eventOffsetEndpointLength = 4
+	eventOffsetEpochMillis    = 8
+	eventOffsetKey            = 16
+	eventOffsetEndpoint       = 48
+	eventMaxEndpointLength    = eventRecordSize - eventOffsetEndpoint
+)
+
+const (
+	// Events beyond this many, waiting for Java, are dropped.
+	eventQueueLimit = 4096
+	// How long to let a handshake settle after it is logged before looking at the device.
+	eventSettleDelay = 250 * time.Millisecond
+	// How often to look at the device without being prompted, to notice roaming, which
+	// wireguard-go does not log.
+	eventRescanInterval = 10 * time.Second
+	// A peer without a handshake for this long has no usable session; see RejectAfterTime.
+	eventStaleAfter = 180 * time.Second
+)
+
+type peerEvent struct {
+	kind        uint32
+	key         [32]byte
+	epochMillis int64
+	endpoint    string
+}
+
+type peerState struct {
+	handshakeMillis int64
+	endpoint        string
+	stale           bool
+}
+
+// eventWatcher turns changes in the state of a device's peers into events for Java. wireguard-go
+// has no hooks for these, so the watcher compares successive userspace API snapshots, taken when
+// the device logs a handshake, when a peer is due to go stale, and every rescan interval. It only
+// runs while Java wants events: it starts on the first poll, and stops when GoBackend pauses it
+// after its last listener is removed, until the next poll.
+type eventWatcher struct {
+	device *device.Device
+	wake   chan struct{}
+	ready  chan struct{}
+	lock   sync.Mutex
+	stop   chan struct{} // nil while paused
+	done   chan struct{}
+	closed bool
+	queue  []peerEvent
+}
+
+var (
+	eventWatchersLock sync.Mutex
+	eventWatchers     = make(map[int32]*eventWatcher)
+)
+
+func newEventWatcher() *eventWatcher {
+	return &eventWatcher{
+		wake:  make(chan struct{}, 1),
+		ready: make(chan struct{}, 1),
+	}
+}
+
+// handshakeLogFormats are the verbose log formats of wireguard-go after which a peer's latest
+// handshake may have changed: "Received handshake response" and "Received handshake initiation"
+// in device/receive.go, and "Sending handshake response" in device/send.go, after which a
+// responder's handshake completes with the first packet from the initiator. They must match the
+// wireguard-go version in go.mod, which TestHandshakeLogFormatsMatchWireGuard checks; the rescan
+// interval catches handshakes if they stop matching.
+var handshakeLogFormats = map[string]bool{
+	"%v - Received handshake initiation": true,
+	"%v - Received handshake response":   true,
+	"%v - Sending handshake response":    true,
+}
+
+// notice is called with the format of every verbose log line of the device, and prompts a scan
+// after a handshake.
+func (w *eventWatcher) notice(format string) {
+	if !handshakeLogFormats[format] {
+		return
+	}
+	select {
+	case w.wake <- struct{}{}:
+	default:
+	}
+}
+
+// run watches the device until stop is closed. Each run starts from a fresh baseline, so that
+// nothing that happened while the watcher was paused is reported.
+func (w *eventWatcher) run(stop, done chan struct{}) {
+	defer close(done)
+	var peers map[[32]byte]peerState
+	rescan := time.NewTicker(eventRescanInterval)
+	defer rescan.Stop()
+	stale := time.NewTimer(eventRescanInterval)
+	defer stale.Stop()
+	for {
+		var next time.Duration
+		peers, next = w.scan(peers)
+		if !stale.Stop() {
+			select {
+			case <-stale.C:
+			default:
+			}
+		}
+		if next > 0 {
+			stale.Reset(next)
+		}
+		select {
+		case <-stop:
+			return
+		case <-rescan.C:
+		case <-stale.C:
+		case <-w.wake:
+			select {
+			case <-stop:
+				return
+			case <-time.After(eventSettleDelay):
+			}
+		}
+	}
+}
+
+// scan compares the peers of the device with those of the previous scan and queues an event for
+// each difference. It returns the peers, and how long until the next peer goes stale, or zero if
+// none will.
+func (w *eventWatcher) scan(previousPeers map[[32]byte]peerState) (map[[32]byte]peerState, time.Duration) {
+	var ipc strings.Builder
+	if err := w.device.IpcGetOperation(&ipc); err != nil {
+		return previousPeers, 0
+	}
+	now := time.Now()
+	nowMillis := now.UnixMilli()
+	staleMillis := eventStaleAfter.Milliseconds()
+	peers := make(map[[32]byte]peerState, len(previousPeers))
+	var events []peerEvent
+	var next int64
+	var key [32]byte
+	var state peerState
+	var handshakeSec, handshakeNsec int64
+	haveKey := false
+	flush := func() {
+		if !haveKey {
+			return
+		}
+		state.handshakeMillis = handshakeSec*1000 + handshakeNsec/1000000
+		if state.handshakeMillis > 0 {
+			age := nowMillis - state.handshakeMillis
+			state.stale = age >= staleMillis
+			if !state.stale && (next == 0 || staleMillis-age < next) {
+				next = staleMillis - age
+			}
+		}
+		previous, known := previousPeers[key]
+		if known {
+			events = appendPeerEvents(events, key, previous, state, nowMillis)
+		}
+		peers[key] = state
+	}
+	text := ipc.String()
+	for len(text) > 0 {
+		line := text
+		if i := strings.IndexByte(text, '\n'); i >= 0 {
+			line, text = text[:i], text[i+1:]
+		} else {
+			text = ""
+		}
+		name, value, ok := strings.Cut(line, "=")
+		if !ok {
+			continue
+		}
+		switch name {
+		case "public_key":
+			flush()
+			state = peerState{}
+			handshakeSec, handshakeNsec = 0, 0
+			haveKey = len(value) == hex.EncodedLen(len(key))
+			if haveKey {
+				_, err := hex.Decode(key[:], []byte(value))
+				haveKey = err == nil
+			}
+		case "endpoint":
+			state.endpoint = value
+		case "last_handshake_time_sec":
+			handshakeSec, _ = strconv.ParseInt(value, 10, 64)
+		case "last_handshake_time_nsec":
+			handshakeNsec, _ = strconv.ParseInt(value, 10, 64)
+		}
+	}
+	flush()
+	w.enqueue(events)
+	return peers, time.Duration(next) * time.Millisecond
+}
+
+// appendPeerEvents appends the events that take a peer from its state in one scan to its state
+// in the next. Peers first seen in a scan have no previous state and get no events, so that a
+// watcher reports nothing that happened before it started.
+func appendPeerEvents(events []peerEvent, key [32]byte, previous, state peerState, nowMillis int64) []peerEvent {
+	if state.handshakeMillis > previous.handshakeMillis {
+		events = append(events, peerEvent{kind: eventHandshakeCompleted, key: key, epochMillis: state.handshakeMillis, endpoint: state.endpoint})
+	}
+	if state.endpoint != "" && state.endpoint != previous.endpoint {
+		events = append(events, peerEvent{kind: eventEndpointChanged, key: key, epochMillis: nowMillis, endpoint: state.endpoint})
+	}
+	if state.stale && !previous.stale {
+		events = append(events, peerEvent{kind: eventPeerStale, key: key, epochMillis: nowMillis, endpoint: state.endpoint})
+	}
+	return events
+}
+
+func (w *eventWatcher) enqueue(events []peerEvent) {
+	if len(events) == 0 {
+		return
+	}
+	w.lock.Lock()
+	if room := eventQueueLimit - len(w.queue); len(events) > room {
+		events = events[:room]
+	}
+	w.queue = append(w.queue, events...)
+	w.lock.Unlock()
+	select {
+	case w.ready <- struct{}{}:
+	default:
+	}
+}
+
+// poll waits up to timeout for events and encodes as many as fit into buffer. It returns the
+// number of records written, or -1 if the watcher is paused or closed meanwhile. A paused watcher
+// is started again.
+func (w *eventWatcher) poll(buffer []byte, timeout time.Duration) int {
+	w.lock.Lock()
+	if w.closed {
+		w.lock.Unlock()
+		return -1
+	}
+	if w.stop == nil {
+		w.stop, w.done = make(chan struct{}), make(chan struct{})
+		go w.run(w.stop, w.done)
+	}
+	stop := w.stop
+	w.lock.Unlock()
+	timer := time.NewTimer(timeout)
+	defer timer.Stop()
+	select {
+	case <-stop:
+		return -1
+	case <-timer.C:
+		return 0
+	case <-w.ready:
+	}
+	w.lock.Lock()
+	defer w.lock.Unlock()
+	count := len(w.queue)
+	if capacity := len(buffer) / eventRecordSize; count > capacity {
+		count = capacity
+	}
+	for i, event := range w.queue[:count] {
+		encodeEvent(buffer[i*eventRecordSize:(i+1)*eventRecordSize], &event)
+	}
+	w.queue = w.queue[:copy(w.queue, w.queue[count:])]
+	if len(w.queue) > 0 {
+		select {
+		case w.ready <- struct{}{}:
+		default:
+		}
+	}
+	return count
+}
+
+func encodeEvent(record []byte, event *peerEvent) {
+	endpoint := event.endpoint
+	if len(endpoint) > eventMaxEndpointLength {
+		endpoint = ""
+	}
+	*(*uint32)(unsafe.Pointer(&record[eventOffsetType])) = event.kind
+	*(*uint32)(unsafe.Pointer(&record[eventOffsetEndpointLength])) = uint32(len(endpoint))
+	*(*int64)(unsafe.Pointer(&record[eventOffsetEpochMillis])) = event.epochMillis
+	copy(record[eventOffsetKey:eventOffsetEndpoint], event.key[:])
+	copy(record[eventOffsetEndpoint:], endpoint)
+}
+
+// pause stops the watcher, drops the events nobody asked for, and wakes its pollers, which then
+// return -1.
+func (w *eventWatcher) pause() {
+	w.lock.Lock()
+	stop, done := w.stop, w.done
+	w.stop, w.done = nil, nil
+	w.queue = nil
+	w.lock.Unlock()
+	if stop != nil {
+		close(stop)
+		<-done
+	}
+}
+
+// close pauses the watcher for good.
+func (w *eventWatcher) close() {
+	w.lock.Lock()
+	w.closed = true
+	w.lock.Unlock()
+	w.pause()
+}
+
+func registerEventWatcher(tunnelHandle int32, watcher *eventWatcher) {
+	eventWatchersLock.Lock()
+	defer eventWatchersLock.Unlock()
+	eventWatchers[tunnelHandle] = watcher
+}
+
+func unregisterEventWatcher(tunnelHandle int32) *eventWatcher {
+	eventWatchersLock.Lock()
+	defer eventWatchersLock.Unlock()
+	watcher := eventWatchers[tunnelHandle]
+	delete(eventWatchers, tunnelHandle)
+	return watcher
+}
+
+// wgPollEvents is called on the event dispatcher thread of GoBackend, concurrently with the other
+// exports, so it finds its watcher through a map of its own rather than through tunnelHandles.
+//
+//export wgPollEvents
+func wgPollEvents(tunnelHandle int32, buffer unsafe.Pointer, size int64, timeoutMillis int32) int32 {
+	eventWatchersLock.Lock()
+	watcher := eventWatchers[tunnelHandle]
+	eventWatchersLock.Unlock()
+	if watcher == nil || buffer == nil || size < 0 {
+		return -1
+	}
+	return int32(watcher.poll(unsafe.Slice((*byte)(buffer), size), time.Duration(timeoutMillis)*time.Millisecond))
+}
+
+// closeEventWatcher stops watching a tunnel that is being turned off.
+func closeEventWatcher(tunnelHandle int32) {
+	if watcher := unregisterEventWatcher(tunnelHandle); watcher != nil {
+		watcher.close()
+	}
+}
+
+// wgCloseEvents pauses the watcher of a tunnel until it is polled again.
+//
+//export wgCloseEvents
+func wgCloseEvents(tunnelHandle int32) {
+	eventWatchersLock.Lock()
+	watcher := eventWatchers[tunnelHandle]
+	eventWatchersLock.Unlock()
+	if watcher != nil {
+		watcher.pause()
+	}
+}
@@ -0,0 +1,98 @@
+/* SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ */
+
+package main
+
+import (
+	"os"
+	"os/exec"
+	"path/filepath"
+	"strconv"
+	"strings"
+	"testing"
+)
+
+func TestNoticeWakesOnHandshakeLogFormats(t *testing.T) {
+	for _, format := range []string{
+		"%v - Received handshake initiation",
+		"%v - Received handshake response",
+		"%v - Sending handshake response",
+	} {
+		w := newEventWatcher()
+		w.notice(format)
+		select {
+		case <-w.wake:
+		default:
+			t.Errorf("%q did not prompt a scan", format)
+		}
+	}
+	for _, format := range []string{
+		"%v - Sending handshake initiation",
+		"%s - Handshake did not complete after %d seconds, retrying (try %d)",
+		"%v - Sending keepalive packet",
+		"Device started",
+	} {
+		w := newEventWatcher()
+		w.notice(format)
+		select {
+		case <-w.wake:
+			t.Errorf("%q prompted a scan", format)
+		default:
+		}
+	}
+}
+
+// TestHandshakeLogFormatsMatchWireGuard checks that wireguard-go, at the version in go.mod, still
+// logs every format in handshakeLogFormats, so that updating it cannot silently leave handshakes
+// to the rescan interval.
+func TestHandshakeLogFormatsMatchWireGuard(t *testing.T) {
+	out, err := exec.Command("go", "list", "-m", "-f", "{{.Dir}}", "golang.zx2c4.com/wireguard").Output()
+	if err != nil {
+		t.Fatalf("unable to locate wireguard-go: %v", err)
+	}
+	sources, err := filepath.Glob(filepath.Join(strings.TrimSpace(string(out)), "device", "*.go"))
+	if err != nil || len(sources) == 0 {
+		t.Fatalf("unable to list the sources of wireguard-go: %v", err)
+	}
+	var device strings.Builder
+	for _, source := range sources {
+		if strings.HasSuffix(source, "_test.go") {
+			continue
+		}
+		text, err := os.ReadFile(source)
+		if err != nil {
+			t.Fatal(err)
+		}
+		device.Write(text)
+	}
+	for format := range handshakeLogFormats {
+		if !strings.Contains(device.String(), "Verbosef("+strconv.Quote(format)) {
+			t.Errorf("wireguard-go no longer logs %q", format)
+		}
+	}
+}
+
+func TestPeerEvents(t *testing.T) {
+	var key [32]byte
+	fresh := peerState{handshakeMillis: 1000, endpoint: "192.0.2.1:51820"}
+	stale := peerState{handshakeMillis: 1000, endpoint: "192.0.2.1:51820", stale: true}
+
+	if events := appendPeerEvents(nil, key, fresh, fresh, 2000); len(events) != 0 {
+		t.Errorf("unchanged peer: got %v", events)
+	}
+	if events := appendPeerEvents(nil, key, stale, stale, 2000); len(events) != 0 {
+		t.Errorf("peer that stayed stale: got %v", events)
+	}
+	events := appendPeerEvents(nil, key, fresh, stale, 2000)
+	if len(events) != 1 || events[0].kind != eventPeerStale {
+		t.Errorf("peer that went stale: got %v", events)
+	}
+	roamed := peerState{handshakeMillis: 3000, endpoint: "198.51.100.1:51820"}
+	events = appendPeerEvents(nil, key, stale, roamed, 4000)
+	if len(events) != 2 || events[0].kind != eventHandshakeCompleted || events[0].epochMillis != 3000 ||
+		events[1].kind != eventEndpointChanged || events[1].epochMillis != 4000 {
+		t.Errorf("peer that shook hands from a new endpoint: got %v", events)
+	}
+}
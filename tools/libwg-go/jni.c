@@ -13,6 +13,11 @@ extern void wgTurnOff(int handle);
 extern int wgGetSocketV4(int handle);
 extern int wgGetSocketV6(int handle);
 extern char *wgGetConfig(int handle);
+extern int wgSetConfig(int handle, struct go_string settings);
+extern int wgStartStatistics(int handle, void *block, long long size, int interval_millis);
+extern int wgPublishStatistics(int handle);
+extern int wgPollEvents(int handle, void *buffer, long long size, int timeout_millis);
+extern void wgCloseEvents(int handle);
 extern char *wgVersion();
 
 JNIEXPORT jint JNICALL Java_com_wireguard_android_backend_GoBackend_wgTurnOn(JNIEnv *env, jclass c, jstring ifname, jint tun_fd, jstring settings)
@@ -82,6 +87,68 @@ JNIEXPORT jstring JNICALL Java_com_wireguard_android_backend_GoBackend_wgGetConf
 	return ret;
 }
 
+JNIEXPORT jint JNICALL Java_com_wireguard_android_backend_GoBackend_wgSetConfig(JNIEnv *env, jclass c, jint handle, jstring settings)
+{
+	if (!settings) {
+		return -1;
+	}
+
+	const char *settings_str = (*env)->GetStringUTFChars(env, settings, NULL);
+	if (!settings_str) {
+		return -1; // Out of memory
+	}
+
+	jsize settings_len = (*env)->GetStringUTFLength(env, settings);
+
+	int ret = wgSetConfig(handle, (struct go_string){
+		.str = settings_str,
+		.n = settings_len
+	});
+
+	(*env)->ReleaseStringUTFChars(env, settings, settings_str);
+	return ret;
+}
+
+JNIEXPORT jint JNICALL Java_com_wireguard_android_backend_GoBackend_wgStartStatistics(JNIEnv *env, jclass c, jint handle, jobject block, jint interval_millis)
+{
+	if (!block) {
+		return -1;
+	}
+
+	void *address = (*env)->GetDirectBufferAddress(env, block);
+	jlong size = (*env)->GetDirectBufferCapacity(env, block);
+	if (!address || size < 0) {
+		return -1;
+	}
+
+	return wgStartStatistics(handle, address, size, interval_millis);
+}
+
+JNIEXPORT jint JNICALL Java_com_wireguard_android_backend_GoBackend_wgPublishStatistics(JNIEnv *env, jclass c, jint handle)
+{
+	return wgPublishStatistics(handle);
+}
+
+JNIEXPORT jint JNICALL Java_com_wireguard_android_backend_GoBackend_wgPollEvents(JNIEnv *env, jclass c, jint handle, jobject buffer, jint timeout_millis)
+{
+	if (!buffer) {
+		return -1;
+	}
+
+	void *address = (*env)->GetDirectBufferAddress(env, buffer);
+	jlong size = (*env)->GetDirectBufferCapacity(env, buffer);
+	if (!address || size < 0) {
+		return -1;
+	}
+
+	return wgPollEvents(handle, address, size, timeout_millis);
+}
+
+JNIEXPORT void JNICALL Java_com_wireguard_android_backend_GoBackend_wgCloseEvents(JNIEnv *env, jclass c, jint handle)
+{
+	wgCloseEvents(handle);
+}
+
 JNIEXPORT jstring JNICALL Java_com_wireguard_android_backend_GoBackend_wgVersion(JNIEnv *env, jclass c)
 {
 	char *version = wgVersion();
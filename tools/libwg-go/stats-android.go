@@ -0,0 +1,236 @@
+/* SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ */
+
+package main
+
+import (
+	"encoding/hex"
+	"strconv"
+	"strings"
+	"sync"
+	"sync/atomic"
+	"time"
+	"unsafe"
+
+	"golang.zx2c4.com/wireguard/device"
+)
+
+// Layout of the block shared with StatisticsBlock.java, in native byte order: a header followed by
+// one slot per peer. The sequence number is odd while a publication is being written.
+const (
+	statsMagic             = 0x57475354
+	statsVersion           = 1
+	statsHeaderSize        = 64
+	statsOffsetMagic       = 0
+	statsOffsetVersion     = 4
+	statsOffsetSequence    = 8
+	statsOffsetCapacity    = 16
+	statsOffsetCount       = 20
+	statsOffsetEpochMillis = 24
+	statsOffsetDemand      = 32
+	statsSlotSize          = 64
+	statsSlotRx            = 32
+	statsSlotTx            = 40
+	statsSlotHandshake     = 48
+)
+
+var (
+	statsPublishersLock sync.Mutex
+	statsPublishers     = make(map[int32]*statsPublisher)
+)
+
+type statsPublisher struct {
+	block    unsafe.Pointer
+	capacity int
+	device   *device.Device
+	stop     chan struct{}
+	done     chan struct{}
+
+	// lock serializes the ticks with publications requested by wgPublishStatistics, so that the
+	// block has one writer at a time.
+	lock      sync.Mutex
+	closed    bool
+	first     bool
+	published uint32
+}
+
+func (p *statsPublisher) uint32At(offset uintptr) *uint32 {
+	return (*uint32)(unsafe.Add(p.block, offset))
+}
+
+func (p *statsPublisher) uint64At(offset uintptr) *uint64 {
+	return (*uint64)(unsafe.Add(p.block, offset))
+}
+
+func startStatsPublisher(device *device.Device, block unsafe.Pointer, size int64, interval time.Duration) *statsPublisher {
+	if block == nil || uintptr(block)%8 != 0 || size < statsHeaderSize || interval <= 0 {
+		return nil
+	}
+	p := &statsPublisher{block: block, device: device, stop: make(chan struct{}), done: make(chan struct{}), first: true}
+	if atomic.LoadUint32(p.uint32At(statsOffsetMagic)) != statsMagic || atomic.LoadUint32(p.uint32At(statsOffsetVersion)) != statsVersion {
+		return nil
+	}
+	p.capacity = int(atomic.LoadUint32(p.uint32At(statsOffsetCapacity)))
+	if int64(p.capacity) > (size-statsHeaderSize)/statsSlotSize {
+		return nil
+	}
+	go p.run(interval)
+	return p
+}
+
+// run publishes the counters every interval, but only if Java read the block since the last
+// publication, so that an unwatched tunnel costs nothing but the tick. Java only counts reads that
+// found a recent publication, so a reader polling less often than its maximum age does not cause
+// ticks to publish; it asks for a publication through wgPublishStatistics instead.
+func (p *statsPublisher) run(interval time.Duration) {
+	defer close(p.done)
+	ticker := time.NewTicker(interval)
+	defer ticker.Stop()
+	for {
+		select {
+		case <-p.stop:
+			return
+		case <-ticker.C:
+			p.tick()
+		}
+	}
+}
+
+func (p *statsPublisher) tick() {
+	p.lock.Lock()
+	defer p.lock.Unlock()
+	if p.closed || (!p.first && atomic.LoadUint32(p.uint32At(statsOffsetDemand)) == p.published) {
+		return
+	}
+	p.publishDemanded()
+}
+
+// publishNow publishes on the calling thread, whatever the demand.
+func (p *statsPublisher) publishNow() bool {
+	p.lock.Lock()
+	defer p.lock.Unlock()
+	return !p.closed && p.publishDemanded()
+}
+
+// publishDemanded publishes and records the demand it answers. The caller holds the lock.
+func (p *statsPublisher) publishDemanded() bool {
+	demand := atomic.LoadUint32(p.uint32At(statsOffsetDemand))
+	if p.publish() != nil {
+		return false
+	}
+	p.published = demand
+	p.first = false
+	return true
+}
+
+// publish copies the counters of every peer into the block. wireguard-go does not export its
+// per-peer counters, so they are taken from the userspace API text: each publication costs as
+// much as wgGetConfig, private keys included, less the string handed to Java.
+func (p *statsPublisher) publish() error {
+	var ipc strings.Builder
+	if err := p.device.IpcGetOperation(&ipc); err != nil {
+		return err
+	}
+	sequence := atomic.AddUint64(p.uint64At(statsOffsetSequence), 1)
+	count := 0
+	var key [32]byte
+	var rx, tx, handshakeSec, handshakeNsec uint64
+	haveKey := false
+	flush := func() {
+		if !haveKey {
+			return
+		}
+		if count < p.capacity {
+			slot := uintptr(statsHeaderSize + count*statsSlotSize)
+			for i := 0; i < len(key); i += 8 {
+				atomic.StoreUint64(p.uint64At(slot+uintptr(i)), *(*uint64)(unsafe.Pointer(&key[i])))
+			}
+			atomic.StoreUint64(p.uint64At(slot+statsSlotRx), rx)
+			atomic.StoreUint64(p.uint64At(slot+statsSlotTx), tx)
+			atomic.StoreUint64(p.uint64At(slot+statsSlotHandshake), handshakeSec*1000+handshakeNsec/1000000)
+		}
+		count++
+	}
+	text := ipc.String()
+	for len(text) > 0 {
+		line := text
+		if i := strings.IndexByte(text, '\n'); i >= 0 {
+			line, text = text[:i], text[i+1:]
+		} else {
+			text = ""
+		}
+		name, value, ok := strings.Cut(line, "=")
+		if !ok {
+			continue
+		}
+		switch name {
+		case "public_key":
+			flush()
+			rx, tx, handshakeSec, handshakeNsec = 0, 0, 0, 0
+			haveKey = len(value) == hex.EncodedLen(len(key))
+			if haveKey {
+				_, err := hex.Decode(key[:], []byte(value))
+				haveKey = err == nil
+			}
+		case "rx_bytes":
+			rx, _ = strconv.ParseUint(value, 10, 64)
+		case "tx_bytes":
+			tx, _ = strconv.ParseUint(value, 10, 64)
+		case "last_handshake_time_sec":
+			handshakeSec, _ = strconv.ParseUint(value, 10, 64)
+		case "last_handshake_time_nsec":
+			handshakeNsec, _ = strconv.ParseUint(value, 10, 64)
+		}
+	}
+	flush()
+	atomic.StoreUint32(p.uint32At(statsOffsetCount), uint32(count))
+	atomic.StoreUint64(p.uint64At(statsOffsetEpochMillis), uint64(time.Now().UnixMilli()))
+	atomic.StoreUint64(p.uint64At(statsOffsetSequence), sequence+1)
+	return nil
+}
+
+// registerStatsPublisher records the publisher of a tunnel, unless it already has one.
+func registerStatsPublisher(tunnelHandle int32, p *statsPublisher) bool {
+	statsPublishersLock.Lock()
+	defer statsPublishersLock.Unlock()
+	if statsPublishers[tunnelHandle] != nil {
+		return false
+	}
+	statsPublishers[tunnelHandle] = p
+	return true
+}
+
+func unregisterStatsPublisher(tunnelHandle int32) *statsPublisher {
+	statsPublishersLock.Lock()
+	defer statsPublishersLock.Unlock()
+	p := statsPublishers[tunnelHandle]
+	delete(statsPublishers, tunnelHandle)
+	return p
+}
+
+// close stops publishing and waits for a publication in progress, after which Java may release
+// the block.
+func (p *statsPublisher) close() {
+	close(p.stop)
+	<-p.done
+	p.lock.Lock()
+	p.closed = true
+	p.lock.Unlock()
+}
+
+// wgPublishStatistics publishes the counters of a tunnel into its block on the calling thread,
+// for a reader that found the last publication too old. Like wgPollEvents it finds the publisher
+// through its own map, since it runs alongside other exports.
+//
+//export wgPublishStatistics
+func wgPublishStatistics(tunnelHandle int32) int32 {
+	statsPublishersLock.Lock()
+	p := statsPublishers[tunnelHandle]
+	statsPublishersLock.Unlock()
+	if p == nil || !p.publishNow() {
+		return -1
+	}
+	return 0
+}